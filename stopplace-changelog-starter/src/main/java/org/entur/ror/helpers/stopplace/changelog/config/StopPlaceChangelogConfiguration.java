@@ -2,23 +2,41 @@ package org.entur.ror.helpers.stopplace.changelog.config;
 
 import io.confluent.kafka.serializers.KafkaAvroDeserializer;
 import io.confluent.kafka.serializers.KafkaAvroDeserializerConfig;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.apache.kafka.clients.CommonClientConfigs;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.common.config.SaslConfigs;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.rutebanken.helper.stopplace.changelog.StopPlaceChangelog;
+import org.rutebanken.helper.stopplace.changelog.checkpoint.ChangelogCheckpointer;
+import org.rutebanken.helper.stopplace.changelog.checkpoint.FileOffsetCheckpointStore;
+import org.rutebanken.helper.stopplace.changelog.checkpoint.OffsetCheckpointStore;
+import org.rutebanken.helper.stopplace.changelog.checkpoint.StopPlaceChangelogSnapshot;
+import org.rutebanken.helper.stopplace.changelog.kafka.AbstractKafkaStopPlaceChangelog;
+import org.rutebanken.helper.stopplace.changelog.kafka.BasePublicationTimeRecordFilterStrategy;
+import org.rutebanken.helper.stopplace.changelog.kafka.BatchKafkaStopPlaceChangelog;
 import org.rutebanken.helper.stopplace.changelog.kafka.ChangelogConsumerController;
+import org.rutebanken.helper.stopplace.changelog.kafka.CheckpointAwarePublicationTimeRecordFilterStrategy;
 import org.rutebanken.helper.stopplace.changelog.kafka.KafkaStopPlaceChangelog;
+import org.rutebanken.helper.stopplace.changelog.kafka.ParallelKafkaStopPlaceChangelog;
 import org.rutebanken.helper.stopplace.changelog.kafka.PartitionFinder;
 import org.rutebanken.helper.stopplace.changelog.kafka.PublicationTimeRecordFilterStrategy;
+import org.rutebanken.helper.stopplace.changelog.kafka.ReactiveKafkaStopPlaceChangelog;
 import org.rutebanken.helper.stopplace.changelog.repository.StopPlaceRepository;
+import org.rutebanken.helper.stopplace.changelog.repository.StopPlaceUpdateCache;
+import org.rutebanken.helper.stopplace.changelog.repository.StopPlaceUpdateCacheMetrics;
 import org.rutebanken.irkalla.avro.StopPlaceChangelogEvent;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
@@ -29,6 +47,7 @@ import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
 import org.springframework.kafka.listener.adapter.RecordFilterStrategy;
 import org.springframework.web.reactive.function.client.ExchangeStrategies;
 import org.springframework.web.reactive.function.client.WebClient;
@@ -51,7 +70,8 @@ public class StopPlaceChangelogConfiguration {
    * <ul>
    *   <li>Connection timeout: 30 seconds</li>
    *   <li>Response timeout: 60 seconds</li>
-   *   <li>Max in-memory buffer: 10MB (for large NeTEx responses)</li>
+   *   <li>In-memory buffer limit: 30 MB by default, applied to the responses collected in memory for batch fetches,
+   *   reactive fetches and the update cache. Single stop places are streamed to the listeners without this limit</li>
    * </ul>
    *
    * @return a configured WebClient instance
@@ -61,17 +81,20 @@ public class StopPlaceChangelogConfiguration {
   public WebClient webClient(
     @Value(
       "${org.rutebanken.helper.stopplace.changelog.repository.etClientName:}"
-    ) String etClientName
+    ) String etClientName,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.repository.maxInMemorySize:31457280}"
+    ) int maxInMemorySize
   ) {
     HttpClient httpClient = HttpClient
       .create()
       .responseTimeout(Duration.ofSeconds(60));
 
-    // Allow larger responses for NeTEx data (30MB)
+    // bounds the responses collected in memory, the streamed responses are not limited
     ExchangeStrategies exchangeStrategies = ExchangeStrategies
       .builder()
       .codecs(configurer ->
-        configurer.defaultCodecs().maxInMemorySize(30 * 1024 * 1024) // 30MB
+        configurer.defaultCodecs().maxInMemorySize(maxInMemorySize)
       )
       .build();
 
@@ -110,9 +133,10 @@ public class StopPlaceChangelogConfiguration {
     ) String groupOfStopPlacesExportMode,
     @Value(
       "${org.rutebanken.helper.stopplace.changelog.repository.allVersions:true}"
-    ) boolean allVersions
+    ) boolean allVersions,
+    ObjectProvider<StopPlaceUpdateCache> updateCache
   ) {
-    return new StopPlaceRepository(
+    StopPlaceRepository repository = new StopPlaceRepository(
       webClient,
       tiamatUrl,
       topographicPlaceExportMode,
@@ -122,18 +146,219 @@ public class StopPlaceChangelogConfiguration {
       groupOfStopPlacesExportMode,
       allVersions
     );
+    repository.setUpdateCache(updateCache.getIfAvailable());
+    return repository;
+  }
+
+  /**
+   * Creates the cache of the fetched stop places, holding up to {@code repository.cacheSizeBytes} bytes of NeTEx
+   * data. The cache is disabled by default.
+   */
+  @Bean
+  @ConditionalOnProperty(
+    name = "org.rutebanken.helper.stopplace.changelog.repository.cacheSizeBytes"
+  )
+  @ConditionalOnMissingBean
+  StopPlaceUpdateCache stopPlaceUpdateCache(
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.repository.cacheSizeBytes}"
+    ) long cacheSizeBytes
+  ) {
+    return new StopPlaceUpdateCache(cacheSizeBytes);
+  }
+
+  /**
+   * Publishes the statistics of the stop place cache when Micrometer is on the classpath.
+   */
+  @Configuration
+  @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+  static class StopPlaceUpdateCacheMetricsConfiguration {
+
+    @Bean
+    @ConditionalOnProperty(
+      name = "org.rutebanken.helper.stopplace.changelog.repository.cacheSizeBytes"
+    )
+    StopPlaceUpdateCacheMetrics stopPlaceUpdateCacheMetrics(
+      StopPlaceUpdateCache stopPlaceUpdateCache
+    ) {
+      return new StopPlaceUpdateCacheMetrics(stopPlaceUpdateCache);
+    }
   }
 
+  /**
+   * Creates the changelog consumer.
+   * <ul>
+   *   <li>With a {@code kafka.parallelism} above 1, the events of different stop places are processed concurrently,
+   *   and the events of the same stop place in order. A failed event is retried after {@code kafka.retry-backoff},
+   *   doubled after each attempt up to {@code kafka.max-retry-backoff}, and skipped after
+   *   {@code kafka.max-attempts}.</li>
+   *   <li>With {@code kafka.reactive-fetch}, the records of a poll are processed together and their stop places are
+   *   fetched with up to {@code repository.maxConcurrentFetches} non-blocking requests in flight.</li>
+   *   <li>In batch mode, the records of a poll are processed together and their stop places are fetched with one
+   *   request per chunk of {@code repository.batchSize} stop places.</li>
+   * </ul>
+   * In these modes, {@code kafka.coalesce-events} drops the events of a poll superseded by a later event for the same
+   * stop place.
+   * <p>With {@code kafka.parallel-listeners} or a {@code stopPlaceChangelogListenerExecutor} bean, the listeners of
+   * each event are called concurrently.</p>
+   * <p>The stop place data read by several listeners is kept in memory up to {@code kafka.spill-threshold-bytes}, and
+   * spilled to a temporary file above it.</p>
+   * <p>With {@code kafka.seek-to-publication-time}, the partitions are positioned at the publication time of the
+   * record filter strategy on assignment, instead of being read from the earliest offset and filtered.</p>
+   */
   @Bean
   StopPlaceChangelog stopPlaceChangelog(
-    StopPlaceRepository stopPlaceRepository
+    StopPlaceRepository stopPlaceRepository,
+    @Qualifier(
+      "publicationTimeRecordFilterStrategy"
+    ) RecordFilterStrategy<String, StopPlaceChangelogEvent> recordFilterStrategy,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.kafka.batch-listener:false}"
+    ) boolean batchListener,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.repository.batchSize:100}"
+    ) int fetchBatchSize,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.kafka.parallelism:1}"
+    ) int parallelism,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.kafka.max-in-flight:1000}"
+    ) int maxInFlight,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.kafka.retry-backoff:1s}"
+    ) Duration retryBackoff,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.kafka.max-retry-backoff:1m}"
+    ) Duration maxRetryBackoff,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.kafka.max-attempts:10}"
+    ) int maxAttempts,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.kafka.reactive-fetch:false}"
+    ) boolean reactiveFetch,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.repository.maxConcurrentFetches:16}"
+    ) int maxConcurrentFetches,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.kafka.coalesce-events:false}"
+    ) boolean coalesceEvents,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.kafka.seek-to-publication-time:false}"
+    ) boolean seekToPublicationTime,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.kafka.spill-threshold-bytes:1048576}"
+    ) int spillThreshold,
+    ObjectProvider<ChangelogCheckpointer> checkpointer,
+    @Qualifier(
+      "stopPlaceChangelogListenerExecutor"
+    ) ObjectProvider<Executor> listenerExecutor
+  ) {
+    AbstractKafkaStopPlaceChangelog changelog;
+    if (parallelism > 1) {
+      changelog =
+        new ParallelKafkaStopPlaceChangelog(
+          stopPlaceRepository,
+          parallelism,
+          maxInFlight,
+          coalesceEvents,
+          retryBackoff,
+          maxRetryBackoff,
+          maxAttempts
+        );
+    } else if (reactiveFetch) {
+      changelog =
+        new ReactiveKafkaStopPlaceChangelog(
+          stopPlaceRepository,
+          maxConcurrentFetches,
+          coalesceEvents
+        );
+    } else if (batchListener) {
+      changelog =
+        new BatchKafkaStopPlaceChangelog(
+          stopPlaceRepository,
+          fetchBatchSize,
+          coalesceEvents
+        );
+    } else {
+      changelog = new KafkaStopPlaceChangelog(stopPlaceRepository);
+    }
+    if (
+      seekToPublicationTime &&
+      recordFilterStrategy instanceof BasePublicationTimeRecordFilterStrategy strategy
+    ) {
+      changelog.setSeekTime(strategy::getPublicationTime);
+    }
+    changelog.setCheckpointer(checkpointer.getIfAvailable());
+    changelog.setListenerExecutor(listenerExecutor.getIfAvailable());
+    changelog.setSpillThreshold(spillThreshold);
+    return changelog;
+  }
+
+  /**
+   * Creates the executor calling the listeners of each event concurrently, one virtual thread per listener call.
+   * Applications may define their own {@code stopPlaceChangelogListenerExecutor} bean instead.
+   */
+  @Bean("stopPlaceChangelogListenerExecutor")
+  @ConditionalOnProperty(
+    name = "org.rutebanken.helper.stopplace.changelog.kafka.parallel-listeners",
+    havingValue = "true"
+  )
+  @ConditionalOnMissingBean(name = "stopPlaceChangelogListenerExecutor")
+  ExecutorService stopPlaceChangelogListenerExecutor() {
+    return Executors.newVirtualThreadPerTaskExecutor();
+  }
+
+  /**
+   * Creates the checkpointer saving the changelog offsets, and the snapshot of the
+   * {@link StopPlaceChangelogSnapshot} bean if any. The checkpoints are saved in the {@link OffsetCheckpointStore}
+   * bean, or in {@code checkpoint.directory} when there is no such bean.
+   */
+  @Bean
+  @ConditionalOnProperty(
+    name = "org.rutebanken.helper.stopplace.changelog.checkpoint.enabled",
+    havingValue = "true"
+  )
+  ChangelogCheckpointer changelogCheckpointer(
+    ObjectProvider<OffsetCheckpointStore> offsetCheckpointStore,
+    ObjectProvider<StopPlaceChangelogSnapshot> snapshot,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.checkpoint.directory:}"
+    ) String directory,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.checkpoint.interval:10s}"
+    ) Duration interval
   ) {
-    return new KafkaStopPlaceChangelog(stopPlaceRepository);
+    OffsetCheckpointStore store = offsetCheckpointStore.getIfAvailable(() -> {
+      if (directory.isEmpty()) {
+        throw new IllegalStateException(
+          "Changelog checkpoints require an OffsetCheckpointStore bean or a checkpoint directory"
+        );
+      }
+      return new FileOffsetCheckpointStore(Path.of(directory));
+    });
+    return new ChangelogCheckpointer(
+      store,
+      snapshot.getIfAvailable(),
+      interval
+    );
   }
 
+  /**
+   * Creates the publication time filter. In the partitions resuming from a checkpoint, the events published since the
+   * checkpoint are not filtered.
+   */
   @Bean("publicationTimeRecordFilterStrategy")
   @ConditionalOnMissingBean(name = "publicationTimeRecordFilterStrategy")
-  public RecordFilterStrategy<String, StopPlaceChangelogEvent> recordFilterStrategy() {
+  public RecordFilterStrategy<String, StopPlaceChangelogEvent> recordFilterStrategy(
+    ObjectProvider<ChangelogCheckpointer> checkpointer
+  ) {
+    ChangelogCheckpointer changelogCheckpointer = checkpointer.getIfAvailable();
+    if (changelogCheckpointer != null) {
+      return new CheckpointAwarePublicationTimeRecordFilterStrategy(
+        Instant.now(),
+        changelogCheckpointer
+      );
+    }
     return new PublicationTimeRecordFilterStrategy(Instant.now());
   }
 
@@ -221,11 +446,27 @@ public class StopPlaceChangelogConfiguration {
   @Bean("tiamatChangelogListenerContainerFactory")
   @ConditionalOnMissingBean(name = "tiamatChangelogListenerContainerFactory")
   public ConcurrentKafkaListenerContainerFactory<String, Object> containerFactory(
-    ConsumerFactory<String, Object> tiamatChangelogConsumerFactory
+    ConsumerFactory<String, Object> tiamatChangelogConsumerFactory,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.kafka.batch-listener:false}"
+    ) boolean batchListener,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.kafka.parallelism:1}"
+    ) int parallelism,
+    @Value(
+      "${org.rutebanken.helper.stopplace.changelog.kafka.reactive-fetch:false}"
+    ) boolean reactiveFetch
   ) {
     ConcurrentKafkaListenerContainerFactory<String, Object> factory =
       new ConcurrentKafkaListenerContainerFactory<>();
     factory.setConsumerFactory(tiamatChangelogConsumerFactory);
+    factory.setBatchListener(batchListener || reactiveFetch || parallelism > 1);
+    if (parallelism > 1) {
+      // offsets are committed by the consumer as events complete
+      factory
+        .getContainerProperties()
+        .setAckMode(ContainerProperties.AckMode.MANUAL);
+    }
     return factory;
   }
 
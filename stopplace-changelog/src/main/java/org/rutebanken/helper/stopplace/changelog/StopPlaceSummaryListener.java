@@ -0,0 +1,71 @@
+package org.rutebanken.helper.stopplace.changelog;
+
+import java.io.InputStream;
+import org.rutebanken.helper.stopplace.changelog.summary.StopPlaceSummary;
+
+/**
+ * Listener receiving a summary of the changed stop place along with its NeTEx data.
+ *
+ * <p>Listeners that only need the identity, name, location and quays of a stop place can use the summary instead of
+ * parsing the NeTEx document. The summary is read once per event with a StAX cursor, and shared by all the summary
+ * listeners of the event. The stop place data stream is still provided, for listeners needing more than the
+ * summary.</p>
+ *
+ * <p>When the stop place is missing from its NeTEx data, a warning is logged, the summary callbacks are not called,
+ * and the {@link StopPlaceChangelogListener} callbacks are called instead. These callbacks do nothing by default:
+ * override them as well to handle such events, for instance by parsing the NeTEx data.</p>
+ *
+ * <h3>Usage Example:</h3>
+ * <pre>{@code
+ * @Component
+ * public class StopPlaceIndexer implements StopPlaceSummaryListener {
+ *
+ *     @Override
+ *     public void onStopPlaceUpdated(StopPlaceSummary summary, InputStream stopPlace) {
+ *         index.put(summary.id(), summary.name(), summary.centroid());
+ *     }
+ * }
+ * }</pre>
+ *
+ * @see StopPlaceSummary
+ * @since 7.1.0
+ * @author Entur
+ */
+public interface StopPlaceSummaryListener extends StopPlaceChangelogListener {
+  /**
+   * Called when a new stop place has been created.
+   *
+   * @param summary the summary of the created stop place, never {@code null}
+   * @param stopPlace the complete stop place data in NeTEx XML format, never {@code null}
+   * @see StopPlaceChangelogListener#onStopPlaceCreated(String, InputStream)
+   */
+  default void onStopPlaceCreated(
+    StopPlaceSummary summary,
+    InputStream stopPlace
+  ) {}
+
+  /**
+   * Called when an existing stop place has been updated.
+   *
+   * @param summary the summary of the updated stop place, never {@code null}
+   * @param stopPlace the complete updated stop place data in NeTEx XML format, never {@code null}
+   * @see StopPlaceChangelogListener#onStopPlaceUpdated(String, InputStream)
+   */
+  default void onStopPlaceUpdated(
+    StopPlaceSummary summary,
+    InputStream stopPlace
+  ) {}
+
+  /**
+   * Called when a stop place has been deactivated (soft deleted).
+   *
+   * @param summary the summary of the stop place in its final state before deactivation, never {@code null}
+   * @param stopPlace the stop place data in its final state before deactivation, in NeTEx XML format,
+   *                  never {@code null}
+   * @see StopPlaceChangelogListener#onStopPlaceDeactivated(String, InputStream)
+   */
+  default void onStopPlaceDeactivated(
+    StopPlaceSummary summary,
+    InputStream stopPlace
+  ) {}
+}
@@ -0,0 +1,91 @@
+package org.rutebanken.helper.stopplace.changelog.checkpoint;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import org.apache.kafka.common.TopicPartition;
+import org.rutebanken.helper.storage.repository.BlobStoreRepository;
+
+/**
+ * Checkpoint store keeping the offsets and the snapshot as objects of a {@link BlobStoreRepository}, so that a
+ * consumer restarted on another host resumes from the same checkpoint.
+ *
+ * <p>The snapshot is written to a temporary file before being uploaded.</p>
+ */
+public class BlobStoreOffsetCheckpointStore implements OffsetCheckpointStore {
+
+  private final BlobStoreRepository repository;
+
+  private final String offsetsName;
+
+  private final String snapshotName;
+
+  /**
+   * @param repository the repository the checkpoint is stored in, with its container already set.
+   * @param prefix     the prefix of the checkpoint object names, for example {@code "changelog/my-app/"}.
+   */
+  public BlobStoreOffsetCheckpointStore(
+    BlobStoreRepository repository,
+    String prefix
+  ) {
+    this.repository = repository;
+    this.offsetsName = prefix + FileOffsetCheckpointStore.OFFSETS_FILE;
+    this.snapshotName = prefix + FileOffsetCheckpointStore.SNAPSHOT_FILE;
+  }
+
+  @Override
+  public Map<TopicPartition, Long> loadOffsets() throws IOException {
+    InputStream blob = repository.getBlob(offsetsName);
+    if (blob == null) {
+      return Map.of();
+    }
+    try (InputStream in = blob) {
+      return CheckpointOffsets.read(in);
+    }
+  }
+
+  @Override
+  public void saveOffsets(Map<TopicPartition, Long> offsets)
+    throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CheckpointOffsets.write(offsets, out);
+    repository.uploadBlob(
+      offsetsName,
+      new ByteArrayInputStream(out.toByteArray())
+    );
+  }
+
+  @Override
+  public boolean restoreSnapshot(StopPlaceChangelogSnapshot snapshot)
+    throws IOException {
+    InputStream blob = repository.getBlob(snapshotName);
+    if (blob == null) {
+      return false;
+    }
+    try (InputStream in = blob) {
+      snapshot.restoreSnapshot(in);
+      return true;
+    }
+  }
+
+  @Override
+  public void saveSnapshot(StopPlaceChangelogSnapshot snapshot)
+    throws IOException {
+    Path temporary = Files.createTempFile("changelog-snapshot", ".tmp");
+    try {
+      try (OutputStream out = Files.newOutputStream(temporary)) {
+        snapshot.writeSnapshot(out);
+      }
+      try (InputStream in = Files.newInputStream(temporary)) {
+        repository.uploadBlob(snapshotName, in);
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+}
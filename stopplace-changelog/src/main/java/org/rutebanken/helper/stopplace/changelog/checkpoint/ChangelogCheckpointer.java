@@ -0,0 +1,153 @@
+package org.rutebanken.helper.stopplace.changelog.checkpoint;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodic checkpoint of the changelog consumption.
+ *
+ * <p>The consumers report the offset of the next event to consume in each partition as events are processed, and the
+ * offsets are saved at most once per checkpoint interval, and when the partitions are revoked. The snapshot, if any,
+ * is saved before the offsets, so that a crash in between leaves offsets older than the snapshot and events are
+ * delivered again rather than lost.</p>
+ *
+ * <p>On startup, the last checkpoint is restored once: the snapshot is restored and the consumption resumes from the
+ * saved offsets.</p>
+ */
+public class ChangelogCheckpointer {
+
+  public static final Duration DEFAULT_CHECKPOINT_INTERVAL =
+    Duration.ofSeconds(10);
+
+  private static final Logger logger = LoggerFactory.getLogger(
+    ChangelogCheckpointer.class
+  );
+
+  private final OffsetCheckpointStore store;
+
+  private final StopPlaceChangelogSnapshot snapshot;
+
+  private final long intervalNanos;
+
+  private final Map<TopicPartition, Long> offsets = new HashMap<>();
+
+  /**
+   * Offsets of the checkpoint found on startup.
+   */
+  private Map<TopicPartition, Long> restoredOffsets;
+
+  private Map<TopicPartition, Long> savedOffsets;
+
+  private boolean restored;
+
+  private long lastCheckpoint = System.nanoTime();
+
+  public ChangelogCheckpointer(OffsetCheckpointStore store) {
+    this(store, null, DEFAULT_CHECKPOINT_INTERVAL);
+  }
+
+  /**
+   * @param store    the store the checkpoints are saved in.
+   * @param snapshot the application state saved with the offsets, or null to save the offsets only.
+   * @param interval the minimum interval between two checkpoints.
+   */
+  public ChangelogCheckpointer(
+    OffsetCheckpointStore store,
+    StopPlaceChangelogSnapshot snapshot,
+    Duration interval
+  ) {
+    this.store = store;
+    this.snapshot = snapshot;
+    this.intervalNanos = interval.toNanos();
+  }
+
+  /**
+   * Return whether consumption resumes from a checkpoint saved before startup.
+   */
+  public synchronized boolean hasCheckpoint() {
+    return !loadOffsets().isEmpty();
+  }
+
+  /**
+   * Return whether consumption of the given partition resumes from a checkpoint saved before startup.
+   */
+  public synchronized boolean hasCheckpoint(TopicPartition partition) {
+    return loadOffsets().containsKey(partition);
+  }
+
+  /**
+   * Restore the snapshot of the last checkpoint on the first call, and return the offset of the next event to
+   * consume in each partition.
+   *
+   * @throws UncheckedIOException if the checkpoint cannot be read.
+   */
+  public synchronized Map<TopicPartition, Long> restore() {
+    Map<TopicPartition, Long> checkpoint = loadOffsets();
+    if (!restored) {
+      restored = true;
+      if (snapshot != null && !checkpoint.isEmpty()) {
+        try {
+          if (!store.restoreSnapshot(snapshot)) {
+            logger.warn("No snapshot found for checkpoint {}", checkpoint);
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException("Failed to restore snapshot", e);
+        }
+      }
+      logger.info("Restored changelog checkpoint {}", checkpoint);
+    }
+    return Map.copyOf(offsets);
+  }
+
+  /**
+   * Record the offset of the next event to consume in the given partitions, and save a checkpoint if the checkpoint
+   * interval has elapsed.
+   */
+  public synchronized void processed(Map<TopicPartition, Long> nextOffsets) {
+    offsets.putAll(nextOffsets);
+    if (System.nanoTime() - lastCheckpoint >= intervalNanos) {
+      checkpoint();
+    }
+  }
+
+  /**
+   * Save a checkpoint of the offsets recorded so far, if they changed since the last checkpoint. Failures are logged,
+   * and the checkpoint is attempted again at the next interval.
+   */
+  public synchronized void checkpoint() {
+    lastCheckpoint = System.nanoTime();
+    if (offsets.isEmpty() || offsets.equals(savedOffsets)) {
+      return;
+    }
+    Map<TopicPartition, Long> checkpoint = Map.copyOf(offsets);
+    try {
+      if (snapshot != null) {
+        store.saveSnapshot(snapshot);
+      }
+      store.saveOffsets(checkpoint);
+      savedOffsets = checkpoint;
+      logger.debug("Saved changelog checkpoint {}", checkpoint);
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Failed to save changelog checkpoint {}", checkpoint, e);
+    }
+  }
+
+  private Map<TopicPartition, Long> loadOffsets() {
+    if (restoredOffsets == null) {
+      try {
+        restoredOffsets = Map.copyOf(store.loadOffsets());
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to load checkpoint", e);
+      }
+      restoredOffsets.forEach(offsets::putIfAbsent);
+      savedOffsets = restoredOffsets;
+    }
+    return restoredOffsets;
+  }
+}
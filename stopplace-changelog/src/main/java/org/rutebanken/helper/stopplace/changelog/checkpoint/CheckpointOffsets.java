@@ -0,0 +1,55 @@
+package org.rutebanken.helper.stopplace.changelog.checkpoint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Properties representation of the checkpoint offsets, one {@code topic:partition=offset} entry per partition.
+ */
+final class CheckpointOffsets {
+
+  private static final char SEPARATOR = ':';
+
+  private CheckpointOffsets() {}
+
+  static Map<TopicPartition, Long> read(InputStream in) throws IOException {
+    Properties properties = new Properties();
+    properties.load(in);
+    Map<TopicPartition, Long> offsets = new HashMap<>();
+    for (String key : properties.stringPropertyNames()) {
+      int separator = key.lastIndexOf(SEPARATOR);
+      if (separator < 1) {
+        throw new IOException("Invalid checkpoint partition: " + key);
+      }
+      try {
+        offsets.put(
+          new TopicPartition(
+            key.substring(0, separator),
+            Integer.parseInt(key.substring(separator + 1))
+          ),
+          Long.parseLong(properties.getProperty(key))
+        );
+      } catch (NumberFormatException e) {
+        throw new IOException("Invalid checkpoint offset for " + key, e);
+      }
+    }
+    return offsets;
+  }
+
+  static void write(Map<TopicPartition, Long> offsets, OutputStream out)
+    throws IOException {
+    Properties properties = new Properties();
+    offsets.forEach((partition, offset) ->
+      properties.setProperty(
+        partition.topic() + SEPARATOR + partition.partition(),
+        Long.toString(offset)
+      )
+    );
+    properties.store(out, null);
+  }
+}
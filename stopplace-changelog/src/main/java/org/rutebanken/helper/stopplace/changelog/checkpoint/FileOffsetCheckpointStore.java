@@ -0,0 +1,96 @@
+package org.rutebanken.helper.stopplace.changelog.checkpoint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Checkpoint store keeping the offsets and the snapshot as files in a local directory.
+ *
+ * <p>Each file is written to a temporary file first and then moved atomically in place, so that a crash during a
+ * checkpoint leaves the previous checkpoint intact.</p>
+ */
+public class FileOffsetCheckpointStore implements OffsetCheckpointStore {
+
+  static final String OFFSETS_FILE = "offsets.properties";
+  static final String SNAPSHOT_FILE = "snapshot";
+
+  private final Path directory;
+
+  public FileOffsetCheckpointStore(Path directory) {
+    this.directory = directory;
+  }
+
+  @Override
+  public Map<TopicPartition, Long> loadOffsets() throws IOException {
+    try (InputStream in = Files.newInputStream(offsetsFile())) {
+      return CheckpointOffsets.read(in);
+    } catch (NoSuchFileException e) {
+      return Map.of();
+    }
+  }
+
+  @Override
+  public void saveOffsets(Map<TopicPartition, Long> offsets)
+    throws IOException {
+    write(offsetsFile(), out -> CheckpointOffsets.write(offsets, out));
+  }
+
+  @Override
+  public boolean restoreSnapshot(StopPlaceChangelogSnapshot snapshot)
+    throws IOException {
+    try (InputStream in = Files.newInputStream(snapshotFile())) {
+      snapshot.restoreSnapshot(in);
+      return true;
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public void saveSnapshot(StopPlaceChangelogSnapshot snapshot)
+    throws IOException {
+    write(snapshotFile(), snapshot::writeSnapshot);
+  }
+
+  private Path offsetsFile() {
+    return directory.resolve(OFFSETS_FILE);
+  }
+
+  private Path snapshotFile() {
+    return directory.resolve(SNAPSHOT_FILE);
+  }
+
+  private void write(Path target, Writer writer) throws IOException {
+    Files.createDirectories(directory);
+    Path temporary = Files.createTempFile(
+      directory,
+      target.getFileName().toString(),
+      ".tmp"
+    );
+    try {
+      try (OutputStream out = Files.newOutputStream(temporary)) {
+        writer.write(out);
+      }
+      Files.move(
+        temporary,
+        target,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE
+      );
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  @FunctionalInterface
+  private interface Writer {
+    void write(OutputStream out) throws IOException;
+  }
+}
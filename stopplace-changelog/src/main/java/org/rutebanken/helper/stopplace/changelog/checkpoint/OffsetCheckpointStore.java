@@ -0,0 +1,34 @@
+package org.rutebanken.helper.stopplace.changelog.checkpoint;
+
+import java.io.IOException;
+import java.util.Map;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Storage of the changelog checkpoints: the offset of the next event to consume in each partition, and an optional
+ * snapshot of the application state.
+ */
+public interface OffsetCheckpointStore {
+  /**
+   * Return the offsets of the last checkpoint, or an empty map if there is none.
+   */
+  Map<TopicPartition, Long> loadOffsets() throws IOException;
+
+  /**
+   * Replace the offsets of the last checkpoint.
+   */
+  void saveOffsets(Map<TopicPartition, Long> offsets) throws IOException;
+
+  /**
+   * Restore the application state from the snapshot of the last checkpoint.
+   *
+   * @return false if there is no snapshot.
+   */
+  boolean restoreSnapshot(StopPlaceChangelogSnapshot snapshot)
+    throws IOException;
+
+  /**
+   * Replace the snapshot of the last checkpoint with the current application state.
+   */
+  void saveSnapshot(StopPlaceChangelogSnapshot snapshot) throws IOException;
+}
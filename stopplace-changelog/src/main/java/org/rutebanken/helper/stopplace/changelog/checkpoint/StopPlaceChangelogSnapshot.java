@@ -0,0 +1,27 @@
+package org.rutebanken.helper.stopplace.changelog.checkpoint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * State of the application built from the changelog events, saved together with the changelog offsets.
+ *
+ * <p>On restart, the state is restored from the snapshot of the last checkpoint, and the consumption resumes from the
+ * offsets saved with it, instead of re-synchronizing the whole state.</p>
+ *
+ * <p>A snapshot may include the effects of events consumed after the offsets it is saved with, and these events are
+ * then delivered again after the restore: the listeners must handle an event more than once. With parallel
+ * processing, the snapshot is written while other events are being delivered.</p>
+ */
+public interface StopPlaceChangelogSnapshot {
+  /**
+   * Write the current state.
+   */
+  void writeSnapshot(OutputStream out) throws IOException;
+
+  /**
+   * Replace the current state with the state previously written by {@link #writeSnapshot(OutputStream)}.
+   */
+  void restoreSnapshot(InputStream in) throws IOException;
+}
@@ -0,0 +1,513 @@
+package org.rutebanken.helper.stopplace.changelog.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.xml.stream.XMLStreamException;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.rutebanken.helper.stopplace.changelog.StopPlaceChangelog;
+import org.rutebanken.helper.stopplace.changelog.StopPlaceChangelogListener;
+import org.rutebanken.helper.stopplace.changelog.StopPlaceSummaryListener;
+import org.rutebanken.helper.stopplace.changelog.checkpoint.ChangelogCheckpointer;
+import org.rutebanken.helper.stopplace.changelog.repository.StopPlaceFetchException;
+import org.rutebanken.helper.stopplace.changelog.summary.StopPlaceSummary;
+import org.rutebanken.helper.stopplace.changelog.summary.StopPlaceSummaryReader;
+import org.rutebanken.irkalla.avro.EnumType;
+import org.rutebanken.irkalla.avro.StopPlaceChangelogEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Listener registry shared by the Kafka changelog consumers, and dispatch of an event to the registered listeners.
+ *
+ * <p>The registry is copy-on-write, so listeners may be registered and unregistered while events are dispatched.
+ * Each listener receives its own stream of the stop place data. The listeners of an event are called one after the
+ * other, or concurrently when a listener executor is set.</p>
+ *
+ * <p>When {@link StopPlaceSummaryListener}s are registered, the summary of the stop place is read once per event and
+ * shared by these listeners. The summary is read from the stop place data buffered for the listeners, in memory unless
+ * the data is larger than the spill threshold.</p>
+ *
+ * <p>When a checkpointer is set, the assigned partitions are positioned at the offsets of the last checkpoint, and the
+ * offsets of the processed events are reported to the checkpointer. When a seek time is set, the assigned partitions
+ * missing from the checkpoint are positioned at the first record published at or after that time. Otherwise, the
+ * partitions are consumed from the committed or earliest offset.</p>
+ */
+public abstract class AbstractKafkaStopPlaceChangelog
+  implements StopPlaceChangelog, ConsumerSeekAware {
+
+  public static final int DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+
+  private static final Logger logger = LoggerFactory.getLogger(
+    AbstractKafkaStopPlaceChangelog.class
+  );
+
+  /**
+   * Number of data buffers requested ahead while a listener reads a response body.
+   */
+  private static final int STREAM_DEMAND = 16;
+
+  private final Set<StopPlaceChangelogListener> listeners =
+    new CopyOnWriteArraySet<>();
+
+  private volatile Executor listenerExecutor;
+
+  private volatile int spillThreshold = DEFAULT_SPILL_THRESHOLD;
+
+  private final AtomicLong spilledEventCount = new AtomicLong();
+
+  private Supplier<Instant> seekTime;
+
+  private ChangelogCheckpointer checkpointer;
+
+  @Override
+  public void registerStopPlaceChangelogListener(
+    StopPlaceChangelogListener listener
+  ) {
+    if (listener == null) {
+      throw new IllegalArgumentException("listener must not be null");
+    }
+    listeners.add(listener);
+  }
+
+  @Override
+  public void unregisterStopPlaceChangelogListener(
+    StopPlaceChangelogListener listener
+  ) {
+    if (listener == null) {
+      throw new IllegalArgumentException("listener must not be null");
+    }
+    listeners.remove(listener);
+  }
+
+  /**
+   * Call the listeners of each event concurrently on the given executor, for instance
+   * {@link java.util.concurrent.Executors#newVirtualThreadPerTaskExecutor()}. The next event is delivered once all the
+   * listeners have returned, so the events are still delivered in order to each listener.
+   *
+   * @param listenerExecutor the executor, or {@code null} to call the listeners one after the other on the consumer
+   *                         thread.
+   */
+  public void setListenerExecutor(Executor listenerExecutor) {
+    this.listenerExecutor = listenerExecutor;
+  }
+
+  /**
+   * Set the size above which the stop place data read by several readers is spilled to a temporary file instead of
+   * being kept in memory.
+   *
+   * @param spillThreshold the size in bytes, 0 to always spill.
+   */
+  public void setSpillThreshold(int spillThreshold) {
+    if (spillThreshold < 0 || spillThreshold == Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(
+        "spillThreshold must be between 0 and " + (Integer.MAX_VALUE - 1)
+      );
+    }
+    this.spillThreshold = spillThreshold;
+  }
+
+  /**
+   * Return the number of events whose stop place data was spilled to a temporary file.
+   */
+  public long spilledEventCount() {
+    return spilledEventCount.get();
+  }
+
+  /**
+   * Seek the partitions to the given time when they are assigned to the consumer. The offsets are looked up with
+   * {@code offsetsForTimes} against the record timestamps, and partitions without any record published after that
+   * time are positioned at their end.
+   *
+   * @param seekTime supplies the time to seek to, called on each assignment. {@code null} disables seeking.
+   */
+  public void setSeekTime(Supplier<Instant> seekTime) {
+    this.seekTime = seekTime;
+  }
+
+  /**
+   * Resume the consumption from the offsets of the last checkpoint, and checkpoint the offsets of the processed events.
+   *
+   * @param checkpointer the checkpointer, or {@code null} to disable checkpointing.
+   */
+  public void setCheckpointer(ChangelogCheckpointer checkpointer) {
+    this.checkpointer = checkpointer;
+  }
+
+  @Override
+  public void onPartitionsAssigned(
+    Map<TopicPartition, Long> assignments,
+    ConsumerSeekCallback callback
+  ) {
+    Set<TopicPartition> partitions = new HashSet<>(assignments.keySet());
+    if (checkpointer != null) {
+      Map<TopicPartition, Long> checkpoint = checkpointer.restore();
+      for (TopicPartition partition : assignments.keySet()) {
+        Long offset = checkpoint.get(partition);
+        if (offset != null) {
+          logger.info("Seeking partition {} to offset {}", partition, offset);
+          callback.seek(partition.topic(), partition.partition(), offset);
+          partitions.remove(partition);
+        }
+      }
+    }
+    if (seekTime == null || partitions.isEmpty()) {
+      return;
+    }
+    Instant time = seekTime.get();
+    logger.info("Seeking partitions {} to {}", partitions, time);
+    callback.seekToTimestamp(partitions, time.toEpochMilli());
+  }
+
+  @Override
+  public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+    if (checkpointer != null) {
+      checkpointer.checkpoint();
+    }
+  }
+
+  /**
+   * Report a record as processed to the checkpointer.
+   */
+  protected void processed(ConsumerRecord<?, ?> record) {
+    if (checkpointer != null) {
+      checkpointer.processed(
+        Map.of(
+          new TopicPartition(record.topic(), record.partition()),
+          record.offset() + 1
+        )
+      );
+    }
+  }
+
+  /**
+   * Report the offset of the next event to consume in each partition to the checkpointer.
+   */
+  protected void processed(Map<TopicPartition, Long> nextOffsets) {
+    if (checkpointer != null) {
+      checkpointer.processed(nextOffsets);
+    }
+  }
+
+  /**
+   * Report the records of a batch preceding a failed record as processed, and return the exception failing the batch
+   * from the failed record, so that the container commits the preceding records and retries from the failed one.
+   *
+   * @param messages the records of the batch.
+   * @param failed   the failed record, looked up in the batch by partition and offset.
+   */
+  protected BatchListenerFailedException batchFailure(
+    List<ConsumerRecord<String, StopPlaceChangelogEvent>> messages,
+    ConsumerRecord<String, StopPlaceChangelogEvent> failed,
+    RuntimeException cause
+  ) {
+    int index = 0;
+    while (
+      index < messages.size() - 1 &&
+      !isSameRecord(messages.get(index), failed)
+    ) {
+      index++;
+    }
+    messages.subList(0, index).forEach(this::processed);
+    return new BatchListenerFailedException(
+      "Failed to process " +
+      failed.value().getEventType() +
+      " event for stop place " +
+      failed.value().getStopPlaceId(),
+      cause,
+      index
+    );
+  }
+
+  private static boolean isSameRecord(
+    ConsumerRecord<?, ?> record,
+    ConsumerRecord<?, ?> other
+  ) {
+    return (
+      record.topic().equals(other.topic()) &&
+      record.partition() == other.partition() &&
+      record.offset() == other.offset()
+    );
+  }
+
+  /**
+   * Notify the listeners of a DELETE event.
+   */
+  protected void notifyDeleted(String stopPlaceId) {
+    dispatch(List.copyOf(listeners), l -> l.onStopPlaceDeleted(stopPlaceId));
+  }
+
+  /**
+   * Notify the listeners of a CREATE, UPDATE or REMOVE event, streaming the stop place data from a response body.
+   *
+   * <p>With a single listener, the listener reads the response body as it is received. With several listeners, or
+   * when a summary is read, the body is first read in memory and each reader gets its own stream of the same bytes.
+   * A body larger than the spill threshold is spilled to a temporary file instead, and each reader gets its own stream
+   * of the file. The body is not fetched when no listener is registered.</p>
+   *
+   * <p>When the body fails while it is read, a {@link StopPlaceFetchException} is thrown once the listeners have
+   * returned, even if the listeners handled the read error.</p>
+   *
+   * @param content emits the response body once a successful response is received.
+   */
+  protected void notifyChanged(
+    StopPlaceChangelogEvent event,
+    Mono<Flux<DataBuffer>> content
+  ) {
+    List<StopPlaceChangelogListener> targets = List.copyOf(listeners);
+    if (targets.isEmpty()) {
+      return;
+    }
+    // a listener may handle the read error, so the body error is rethrown after
+    AtomicReference<Exception> bodyFailure = new AtomicReference<>();
+    Flux<DataBuffer> body = content
+      .block()
+      .doOnError(Exception.class, bodyFailure::set);
+    try (
+      InputStream update = DataBufferUtils.subscriberInputStream(
+        body,
+        STREAM_DEMAND
+      )
+    ) {
+      if (targets.size() == 1 && !needsSummary(targets)) {
+        notifyChanged(targets, event, () -> update);
+      } else {
+        notifyBuffered(targets, event, update);
+      }
+    } catch (IOException | RuntimeException e) {
+      if (bodyFailure.get() != null) {
+        StopPlaceFetchException failure = new StopPlaceFetchException(
+          event.getStopPlaceId().toString(),
+          bodyFailure.get()
+        );
+        failure.addSuppressed(e);
+        throw failure;
+      }
+      if (e instanceof IOException ioException) {
+        throw new UncheckedIOException(ioException);
+      }
+      throw (RuntimeException) e;
+    }
+    if (bodyFailure.get() != null) {
+      throw new StopPlaceFetchException(
+        event.getStopPlaceId().toString(),
+        bodyFailure.get()
+      );
+    }
+  }
+
+  /**
+   * Notify the listeners of a CREATE, UPDATE or REMOVE event.
+   *
+   * @param update supplies the stop place data, called once for each listener. Each call must return a new stream,
+   *               so that the listeners read the data independently, possibly concurrently.
+   */
+  protected void notifyChanged(
+    StopPlaceChangelogEvent event,
+    Supplier<InputStream> update
+  ) {
+    notifyChanged(List.copyOf(listeners), event, update);
+  }
+
+  /**
+   * Notify the listeners with a stream of the stop place data per reader, read from memory up to the spill threshold
+   * and from a temporary file above it.
+   */
+  private void notifyBuffered(
+    List<StopPlaceChangelogListener> targets,
+    StopPlaceChangelogEvent event,
+    InputStream body
+  ) throws IOException {
+    int threshold = spillThreshold;
+    byte[] head = body.readNBytes(threshold + 1);
+    if (head.length <= threshold) {
+      notifyChanged(targets, event, () -> new ByteArrayInputStream(head));
+    } else {
+      notifySpilled(targets, event, head, body);
+    }
+  }
+
+  private void notifySpilled(
+    List<StopPlaceChangelogListener> targets,
+    StopPlaceChangelogEvent event,
+    byte[] head,
+    InputStream body
+  ) throws IOException {
+    Path spill = Files.createTempFile("stopplace-", ".xml");
+    List<InputStream> opened = Collections.synchronizedList(
+      new ArrayList<>()
+    );
+    try {
+      try (OutputStream out = Files.newOutputStream(spill)) {
+        out.write(head);
+        body.transferTo(out);
+      }
+      spilledEventCount.incrementAndGet();
+      notifyChanged(targets, event, () -> {
+        try {
+          InputStream update = Files.newInputStream(spill);
+          opened.add(update);
+          return update;
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } finally {
+      for (InputStream update : opened) {
+        update.close();
+      }
+      Files.deleteIfExists(spill);
+    }
+  }
+
+  private void notifyChanged(
+    List<StopPlaceChangelogListener> targets,
+    StopPlaceChangelogEvent event,
+    Supplier<InputStream> update
+  ) {
+    String stopPlaceId = event.getStopPlaceId().toString();
+    StopPlaceSummary summary = needsSummary(targets)
+      ? readSummary(stopPlaceId, update)
+      : null;
+    if (event.getEventType().equals(EnumType.CREATE)) {
+      dispatch(targets, l -> {
+        if (summary != null && l instanceof StopPlaceSummaryListener s) {
+          s.onStopPlaceCreated(summary, update.get());
+        } else {
+          l.onStopPlaceCreated(stopPlaceId, update.get());
+        }
+      });
+    } else if (event.getEventType().equals(EnumType.UPDATE)) {
+      dispatch(targets, l -> {
+        if (summary != null && l instanceof StopPlaceSummaryListener s) {
+          s.onStopPlaceUpdated(summary, update.get());
+        } else {
+          l.onStopPlaceUpdated(stopPlaceId, update.get());
+        }
+      });
+    } else if (event.getEventType().equals(EnumType.REMOVE)) {
+      dispatch(targets, l -> {
+        if (summary != null && l instanceof StopPlaceSummaryListener s) {
+          s.onStopPlaceDeactivated(summary, update.get());
+        } else {
+          l.onStopPlaceDeactivated(stopPlaceId, update.get());
+        }
+      });
+    }
+  }
+
+  private static boolean needsSummary(
+    List<StopPlaceChangelogListener> targets
+  ) {
+    return targets
+      .stream()
+      .anyMatch(StopPlaceSummaryListener.class::isInstance);
+  }
+
+  /**
+   * Read the summary of the stop place from its own stream of the stop place data.
+   *
+   * @return the summary, or {@code null} if the stop place is missing from the data.
+   */
+  private static StopPlaceSummary readSummary(
+    String stopPlaceId,
+    Supplier<InputStream> update
+  ) {
+    try (InputStream stopPlace = update.get()) {
+      StopPlaceSummary summary = StopPlaceSummaryReader.read(
+        stopPlace,
+        stopPlaceId
+      );
+      if (summary == null) {
+        logger.warn(
+          "Stop place {} is missing from its data, calling the summary listeners without summary",
+          stopPlaceId
+        );
+      }
+      return summary;
+    } catch (XMLStreamException e) {
+      logger.error(
+        "Error reading the summary of stop place {}",
+        stopPlaceId,
+        e
+      );
+      throw new StopPlaceFetchException(stopPlaceId, e);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Call the listeners, concurrently on the listener executor if any, and wait for all of them to return. When a
+   * listener fails, the other listeners are still called and the first failure is thrown, with the failures of the
+   * listeners called after it suppressed when they are called one after the other.
+   */
+  private void dispatch(
+    List<StopPlaceChangelogListener> targets,
+    Consumer<StopPlaceChangelogListener> notification
+  ) {
+    Executor executor = listenerExecutor;
+    if (executor == null || targets.size() < 2) {
+      RuntimeException failure = null;
+      for (StopPlaceChangelogListener target : targets) {
+        try {
+          notification.accept(target);
+        } catch (RuntimeException e) {
+          if (failure == null) {
+            failure = e;
+          } else if (failure != e) {
+            failure.addSuppressed(e);
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return;
+    }
+    CompletableFuture<?>[] notifications = targets
+      .stream()
+      .map(l ->
+        CompletableFuture.runAsync(() -> notification.accept(l), executor)
+      )
+      .toArray(CompletableFuture[]::new);
+    try {
+      CompletableFuture.allOf(notifications).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      if (e.getCause() instanceof Error cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+}
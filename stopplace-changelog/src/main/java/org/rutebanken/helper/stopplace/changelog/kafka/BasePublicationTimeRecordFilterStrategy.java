@@ -23,5 +23,12 @@ public abstract class BasePublicationTimeRecordFilterStrategy
     return changedTime.isBefore(publicationTime());
   }
 
+  /**
+   * Return the time before which the events are filtered out.
+   */
+  public Instant getPublicationTime() {
+    return publicationTime();
+  }
+
   protected abstract Instant publicationTime();
 }
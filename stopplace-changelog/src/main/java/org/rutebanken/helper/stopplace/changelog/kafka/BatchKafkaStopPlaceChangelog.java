@@ -0,0 +1,203 @@
+package org.rutebanken.helper.stopplace.changelog.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.rutebanken.helper.stopplace.changelog.repository.StopPlaceRepository;
+import org.rutebanken.irkalla.avro.EnumType;
+import org.rutebanken.irkalla.avro.StopPlaceChangelogEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.TopicPartition;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.messaging.handler.annotation.Payload;
+
+/**
+ * Changelog consumer processing the records returned by a poll as a batch.
+ *
+ * <p>The stop places referenced by the CREATE, UPDATE and REMOVE events of the batch are fetched with one request
+ * per chunk of stop place IDs, instead of one request per event, and the latest version referenced in the batch is
+ * looked up in the update cache of the repository, if any. The events are then delivered to the listeners in
+ * record order, each with the data of its stop place. Stop places missing from a chunk response, or from a failed
+ * chunk request, are fetched individually when their first event is delivered.</p>
+ *
+ * <p>When the individual fetch or a listener fails, the batch fails from the failing record with a
+ * {@link BatchListenerFailedException}: the preceding records are committed, and the container error handler retries
+ * the batch from the failing record.</p>
+ *
+ * <p>When event coalescing is enabled, the superseded events of the batch are dropped before fetching, so that each
+ * stop place is delivered once in its latest state and stop places deleted later in the batch are not fetched. See
+ * {@link ChangelogEventCoalescer}.</p>
+ *
+ * <p>The listener container factory must be configured as a batch listener factory.</p>
+ */
+public class BatchKafkaStopPlaceChangelog
+  extends AbstractKafkaStopPlaceChangelog {
+
+  public static final int DEFAULT_FETCH_BATCH_SIZE = 100;
+
+  private static final Logger logger = LoggerFactory.getLogger(
+    BatchKafkaStopPlaceChangelog.class
+  );
+
+  private final StopPlaceRepository stopPlaceRepository;
+
+  private final int fetchBatchSize;
+
+  private final boolean coalesceEvents;
+
+  public BatchKafkaStopPlaceChangelog(StopPlaceRepository stopPlaceRepository) {
+    this(stopPlaceRepository, DEFAULT_FETCH_BATCH_SIZE);
+  }
+
+  /**
+   * @param stopPlaceRepository the repository the stop places are fetched from.
+   * @param fetchBatchSize      the maximum number of stop places fetched in a single request.
+   */
+  public BatchKafkaStopPlaceChangelog(
+    StopPlaceRepository stopPlaceRepository,
+    int fetchBatchSize
+  ) {
+    this(stopPlaceRepository, fetchBatchSize, false);
+  }
+
+  /**
+   * @param stopPlaceRepository the repository the stop places are fetched from.
+   * @param fetchBatchSize      the maximum number of stop places fetched in a single request.
+   * @param coalesceEvents      whether the superseded events of a batch are dropped.
+   */
+  public BatchKafkaStopPlaceChangelog(
+    StopPlaceRepository stopPlaceRepository,
+    int fetchBatchSize,
+    boolean coalesceEvents
+  ) {
+    if (fetchBatchSize < 1) {
+      throw new IllegalArgumentException("fetchBatchSize must be positive");
+    }
+    this.stopPlaceRepository = stopPlaceRepository;
+    this.fetchBatchSize = fetchBatchSize;
+    this.coalesceEvents = coalesceEvents;
+  }
+
+  @KafkaListener(
+    id = KafkaStopPlaceChangelog.CHANGELOG_LISTENER,
+    idIsGroup = false,
+    autoStartup = "${org.rutebanken.helper.stopplace.changelog.kafka.autostartup:true}",
+    topicPartitions = @TopicPartition(
+      topic = "${org.rutebanken.helper.stopplace.changelog.kafka.topic:}",
+      partitions = "#{@stopPlaceChangelogPartitionFinder.partitions(\"${org.rutebanken.helper.stopplace.changelog.kafka.topic:}\")}"
+    ),
+    filter = "publicationTimeRecordFilterStrategy",
+    containerFactory = "tiamatChangelogListenerContainerFactory"
+  )
+  public void consume(
+    @Payload List<ConsumerRecord<String, StopPlaceChangelogEvent>> messages
+  ) {
+    var events = coalesceEvents
+      ? ChangelogEventCoalescer.coalesce(messages)
+      : messages;
+    if (events.size() < messages.size()) {
+      logger.debug(
+        "Coalesced a batch of {} events into {} events",
+        messages.size(),
+        events.size()
+      );
+    }
+    // the latest version referenced by the events of each stop place
+    Map<String, Long> stopPlaceVersions = new LinkedHashMap<>();
+    for (ConsumerRecord<String, StopPlaceChangelogEvent> message : events) {
+      var event = message.value();
+      if (!event.getEventType().equals(EnumType.DELETE)) {
+        stopPlaceVersions.merge(
+          event.getStopPlaceId().toString(),
+          event.getStopPlaceVersion(),
+          Math::max
+        );
+      }
+    }
+    Map<String, byte[]> updates = fetchUpdates(stopPlaceVersions);
+    for (ConsumerRecord<String, StopPlaceChangelogEvent> message : events) {
+      var event = message.value();
+      String stopPlaceId = event.getStopPlaceId().toString();
+      try {
+        if (event.getEventType().equals(EnumType.DELETE)) {
+          notifyDeleted(stopPlaceId);
+        } else {
+          byte[] update = updates.computeIfAbsent(stopPlaceId, id ->
+            fetchIndividually(id, stopPlaceVersions.get(id))
+          );
+          notifyChanged(event, () -> new ByteArrayInputStream(update));
+        }
+      } catch (RuntimeException e) {
+        throw batchFailure(messages, message, e);
+      }
+    }
+    messages.forEach(this::processed);
+  }
+
+  /**
+   * Fetch the stop places in chunks. The stop places of a failed chunk are missing from the result, and are fetched
+   * individually when their events are delivered.
+   */
+  private Map<String, byte[]> fetchUpdates(
+    Map<String, Long> stopPlaceVersions
+  ) {
+    Map<String, byte[]> updates = new HashMap<>();
+    Map<String, Long> chunk = new LinkedHashMap<>();
+    for (Map.Entry<String, Long> entry : stopPlaceVersions.entrySet()) {
+      chunk.put(entry.getKey(), entry.getValue());
+      if (chunk.size() == fetchBatchSize) {
+        fetchChunk(chunk, updates);
+        chunk = new LinkedHashMap<>();
+      }
+    }
+    if (!chunk.isEmpty()) {
+      fetchChunk(chunk, updates);
+    }
+    logger.debug(
+      "Fetched {} of {} stop places in chunks",
+      updates.size(),
+      stopPlaceVersions.size()
+    );
+    return updates;
+  }
+
+  private void fetchChunk(
+    Map<String, Long> chunk,
+    Map<String, byte[]> updates
+  ) {
+    try {
+      updates.putAll(stopPlaceRepository.getStopPlaceVersionUpdates(chunk));
+    } catch (RuntimeException e) {
+      logger.warn(
+        "Failed to fetch a chunk of {} stop places, fetching them individually",
+        chunk.size(),
+        e
+      );
+    }
+  }
+
+  private byte[] fetchIndividually(String stopPlaceId, long version) {
+    logger.debug(
+      "Stop place {} missing from batch response, fetching it individually",
+      stopPlaceId
+    );
+    try (
+      InputStream update = stopPlaceRepository.getStopPlaceUpdate(
+        stopPlaceId,
+        version
+      )
+    ) {
+      return update.readAllBytes();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
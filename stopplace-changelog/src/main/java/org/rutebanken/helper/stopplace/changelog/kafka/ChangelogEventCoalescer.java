@@ -0,0 +1,102 @@
+package org.rutebanken.helper.stopplace.changelog.kafka;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.rutebanken.irkalla.avro.EnumType;
+import org.rutebanken.irkalla.avro.StopPlaceChangelogEvent;
+
+/**
+ * Collapse the superseded events of a batch of changelog records.
+ *
+ * <ul>
+ *   <li>Consecutive CREATE, UPDATE and REMOVE events for a stop place collapse into the event with the highest stop
+ *   place version, so that the latest state of the stop place is fetched and delivered once. When the first of the
+ *   collapsed events is a CREATE, the remaining event is delivered as a CREATE if it is an UPDATE, so that
+ *   listeners still learn about the new stop place.</li>
+ *   <li>A DELETE cancels the preceding events for the stop place, and consecutive DELETE events collapse into
+ *   one.</li>
+ * </ul>
+ *
+ * <p>The remaining events keep the position of the last event they replace, so the events of a stop place are still
+ * delivered in record order.</p>
+ */
+final class ChangelogEventCoalescer {
+
+  private ChangelogEventCoalescer() {}
+
+  /**
+   * Return the records of the batch that are not superseded by a later record for the same stop place.
+   */
+  static List<ConsumerRecord<String, StopPlaceChangelogEvent>> coalesce(
+    List<ConsumerRecord<String, StopPlaceChangelogEvent>> messages
+  ) {
+    List<ConsumerRecord<String, StopPlaceChangelogEvent>> retained =
+      new ArrayList<>(messages.size());
+    Map<String, Integer> latestIndexes = new HashMap<>();
+    Set<String> createdInBatch = new HashSet<>();
+
+    for (ConsumerRecord<String, StopPlaceChangelogEvent> message : messages) {
+      var event = message.value();
+      String stopPlaceId = event.getStopPlaceId().toString();
+      Integer latestIndex = latestIndexes.get(stopPlaceId);
+      var latest = latestIndex == null
+        ? null
+        : retained.get(latestIndex).value();
+
+      if (isDelete(event)) {
+        createdInBatch.remove(stopPlaceId);
+        if (latest != null) {
+          retained.set(latestIndex, null);
+        }
+      } else if (latest != null && !isDelete(latest)) {
+        if (event.getStopPlaceVersion() < latest.getStopPlaceVersion()) {
+          // out of order event, the latest state is already retained
+          continue;
+        }
+        retained.set(latestIndex, null);
+      }
+
+      var candidate = message;
+      if (event.getEventType().equals(EnumType.CREATE)) {
+        createdInBatch.add(stopPlaceId);
+      } else if (
+        event.getEventType().equals(EnumType.UPDATE) &&
+        createdInBatch.contains(stopPlaceId)
+      ) {
+        candidate = withEventType(message, EnumType.CREATE);
+      }
+      latestIndexes.put(stopPlaceId, retained.size());
+      retained.add(candidate);
+    }
+
+    retained.removeIf(Objects::isNull);
+    return retained;
+  }
+
+  private static boolean isDelete(StopPlaceChangelogEvent event) {
+    return event.getEventType().equals(EnumType.DELETE);
+  }
+
+  private static ConsumerRecord<String, StopPlaceChangelogEvent> withEventType(
+    ConsumerRecord<String, StopPlaceChangelogEvent> message,
+    EnumType eventType
+  ) {
+    StopPlaceChangelogEvent event = StopPlaceChangelogEvent
+      .newBuilder(message.value())
+      .setEventType(eventType)
+      .build();
+    return new ConsumerRecord<>(
+      message.topic(),
+      message.partition(),
+      message.offset(),
+      message.key(),
+      event
+    );
+  }
+}
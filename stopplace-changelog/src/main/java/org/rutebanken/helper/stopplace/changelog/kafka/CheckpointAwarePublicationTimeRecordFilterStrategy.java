@@ -0,0 +1,47 @@
+package org.rutebanken.helper.stopplace.changelog.kafka;
+
+import java.time.Instant;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.rutebanken.helper.stopplace.changelog.checkpoint.ChangelogCheckpointer;
+import org.rutebanken.irkalla.avro.StopPlaceChangelogEvent;
+
+/**
+ * Filter StopPlaceChangelogEvent based on the provided publication time, except in the partitions whose consumption
+ * resumes from a checkpoint: the events published since the checkpoint are then all delivered. The partitions missing
+ * from the checkpoint are still filtered, and sought, based on the publication time.
+ */
+public class CheckpointAwarePublicationTimeRecordFilterStrategy
+  extends BasePublicationTimeRecordFilterStrategy {
+
+  private final Instant publicationTime;
+
+  private final ChangelogCheckpointer checkpointer;
+
+  public CheckpointAwarePublicationTimeRecordFilterStrategy(
+    Instant publicationTime,
+    ChangelogCheckpointer checkpointer
+  ) {
+    this.publicationTime = publicationTime;
+    this.checkpointer = checkpointer;
+  }
+
+  @Override
+  public boolean filter(
+    ConsumerRecord<String, StopPlaceChangelogEvent> consumerRecord
+  ) {
+    if (
+      checkpointer.hasCheckpoint(
+        new TopicPartition(consumerRecord.topic(), consumerRecord.partition())
+      )
+    ) {
+      return false;
+    }
+    return super.filter(consumerRecord);
+  }
+
+  @Override
+  protected Instant publicationTime() {
+    return publicationTime;
+  }
+}
@@ -0,0 +1,105 @@
+package org.rutebanken.helper.stopplace.changelog.kafka;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor running the tasks submitted with the same key one after the other, in submission order, and the tasks
+ * submitted with different keys concurrently.
+ *
+ * <p>The number of tasks submitted and not yet completed is bounded: {@link #submit(String, Runnable)} blocks when
+ * the limit is reached, which applies back-pressure to the submitter.</p>
+ */
+public final class KeyOrderedExecutor implements AutoCloseable {
+
+  private final ExecutorService executor;
+
+  private final Semaphore inFlight;
+
+  /**
+   * Last task submitted for each key with uncompleted tasks.
+   */
+  private final Map<String, CompletableFuture<Void>> tails = new HashMap<>();
+
+  /**
+   * @param parallelism the number of threads running the tasks.
+   * @param maxInFlight the maximum number of tasks submitted and not yet completed.
+   */
+  public KeyOrderedExecutor(int parallelism, int maxInFlight) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be positive");
+    }
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be positive");
+    }
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor =
+      Executors.newFixedThreadPool(
+        parallelism,
+        runnable -> {
+          Thread thread = new Thread(
+            runnable,
+            "stopplace-changelog-" + threadCount.incrementAndGet()
+          );
+          thread.setDaemon(true);
+          return thread;
+        }
+      );
+    this.inFlight = new Semaphore(maxInFlight);
+  }
+
+  /**
+   * Submit a task, waiting for capacity if the maximum number of tasks in flight is reached.
+   * The task runs once the previous task submitted with the same key has completed, whether it succeeded or failed.
+   *
+   * @return a future completed when the task has run.
+   */
+  public CompletableFuture<Void> submit(String key, Runnable task) {
+    inFlight.acquireUninterruptibly();
+    synchronized (tails) {
+      CompletableFuture<Void> next = tails
+        .getOrDefault(key, CompletableFuture.completedFuture(null))
+        .exceptionally(e -> null)
+        .thenRunAsync(task, executor);
+      tails.put(key, next);
+      next.whenComplete((result, e) -> {
+        inFlight.release();
+        synchronized (tails) {
+          tails.remove(key, next);
+        }
+      });
+      return next;
+    }
+  }
+
+  /**
+   * Return the number of keys with tasks submitted and not yet completed.
+   */
+  public int activeKeyCount() {
+    synchronized (tails) {
+      return tails.size();
+    }
+  }
+
+  /**
+   * Stop accepting tasks and wait for the completion of the tasks in flight.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+}
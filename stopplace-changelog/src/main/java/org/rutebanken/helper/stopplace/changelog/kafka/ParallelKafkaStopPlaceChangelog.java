@@ -0,0 +1,349 @@
+package org.rutebanken.helper.stopplace.changelog.kafka;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.InvalidGroupIdException;
+import org.rutebanken.helper.stopplace.changelog.repository.StopPlaceRepository;
+import org.rutebanken.irkalla.avro.EnumType;
+import org.rutebanken.irkalla.avro.StopPlaceChangelogEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.messaging.handler.annotation.Payload;
+
+/**
+ * Changelog consumer processing the events of different stop places in parallel.
+ *
+ * <p>The events are keyed by stop place ID on a {@link KeyOrderedExecutor}: the events of a stop place are fetched and
+ * delivered strictly in order, while the events of different stop places are fetched and delivered concurrently.
+ * The number of events in flight is bounded, and the consumer waits for capacity before handing over more events.</p>
+ *
+ * <p>When the consumer belongs to a consumer group, the offset committed for each partition after each poll is the
+ * offset of its oldest event still in flight, so that no event is skipped on restart. Events processed after the
+ * last poll before shutdown are delivered again on restart.</p>
+ *
+ * <p>An event whose fetch or delivery fails is retried, with a backoff doubling after each attempt up to a maximum.
+ * While it is retried, it is not marked as processed: the committed offset of its partition does not move past it,
+ * the later events of its stop place wait behind it, and the consumer stops polling once the maximum number of events
+ * in flight is reached. The listeners that already received the event before the failure receive it again on each
+ * attempt, and on restart if the consumer is closed first. After the maximum number of attempts, the event is handed
+ * to {@link #recover(ConsumerRecord, RuntimeException)}, which logs it by default, and marked as processed, so that a
+ * permanent failure does not stop the changelog.</p>
+ *
+ * <p>When event coalescing is enabled, the superseded events of each poll are dropped before being handed over, see
+ * {@link ChangelogEventCoalescer}.</p>
+ *
+ * <p>The listener container factory must be configured as a batch listener factory, with the manual acknowledgment
+ * mode so that the container does not commit the offsets itself.</p>
+ */
+public class ParallelKafkaStopPlaceChangelog
+  extends AbstractKafkaStopPlaceChangelog
+  implements AutoCloseable {
+
+  public static final int DEFAULT_MAX_IN_FLIGHT = 1000;
+
+  public static final Duration DEFAULT_RETRY_BACKOFF = Duration.ofSeconds(1);
+
+  public static final Duration DEFAULT_MAX_RETRY_BACKOFF = Duration.ofMinutes(
+    1
+  );
+
+  public static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+  private static final Logger logger = LoggerFactory.getLogger(
+    ParallelKafkaStopPlaceChangelog.class
+  );
+
+  private final StopPlaceRepository stopPlaceRepository;
+
+  private final KeyOrderedExecutor executor;
+
+  private final PartitionOffsetTracker offsetTracker =
+    new PartitionOffsetTracker();
+
+  /**
+   * Offsets committed by the listener thread.
+   */
+  private final Map<TopicPartition, Long> committedOffsets = new HashMap<>();
+
+  private final boolean coalesceEvents;
+
+  private final long retryBackoffNanos;
+
+  private final long maxRetryBackoffNanos;
+
+  private final int maxAttempts;
+
+  /**
+   * Released on close, to stop retrying the failed events.
+   */
+  private final CountDownLatch closed = new CountDownLatch(1);
+
+  private Boolean commitEnabled;
+
+  /**
+   * @param stopPlaceRepository the repository the stop places are fetched from.
+   * @param parallelism         the number of events processed concurrently.
+   * @param maxInFlight         the maximum number of events handed over and not yet processed.
+   */
+  public ParallelKafkaStopPlaceChangelog(
+    StopPlaceRepository stopPlaceRepository,
+    int parallelism,
+    int maxInFlight
+  ) {
+    this(stopPlaceRepository, parallelism, maxInFlight, false);
+  }
+
+  /**
+   * @param stopPlaceRepository the repository the stop places are fetched from.
+   * @param parallelism         the number of events processed concurrently.
+   * @param maxInFlight         the maximum number of events handed over and not yet processed.
+   * @param coalesceEvents      whether the superseded events of a poll are dropped.
+   */
+  public ParallelKafkaStopPlaceChangelog(
+    StopPlaceRepository stopPlaceRepository,
+    int parallelism,
+    int maxInFlight,
+    boolean coalesceEvents
+  ) {
+    this(
+      stopPlaceRepository,
+      parallelism,
+      maxInFlight,
+      coalesceEvents,
+      DEFAULT_RETRY_BACKOFF,
+      DEFAULT_MAX_RETRY_BACKOFF,
+      DEFAULT_MAX_ATTEMPTS
+    );
+  }
+
+  /**
+   * @param stopPlaceRepository the repository the stop places are fetched from.
+   * @param parallelism         the number of events processed concurrently.
+   * @param maxInFlight         the maximum number of events handed over and not yet processed.
+   * @param coalesceEvents      whether the superseded events of a poll are dropped.
+   * @param retryBackoff        the delay before the first retry of a failed event.
+   * @param maxRetryBackoff     the maximum delay between two retries of a failed event.
+   * @param maxAttempts         the number of attempts after which a failed event is recovered and skipped.
+   */
+  public ParallelKafkaStopPlaceChangelog(
+    StopPlaceRepository stopPlaceRepository,
+    int parallelism,
+    int maxInFlight,
+    boolean coalesceEvents,
+    Duration retryBackoff,
+    Duration maxRetryBackoff,
+    int maxAttempts
+  ) {
+    if (retryBackoff.isNegative() || retryBackoff.isZero()) {
+      throw new IllegalArgumentException("retryBackoff must be positive");
+    }
+    if (maxRetryBackoff.compareTo(retryBackoff) < 0) {
+      throw new IllegalArgumentException(
+        "maxRetryBackoff must not be less than retryBackoff"
+      );
+    }
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("maxAttempts must be positive");
+    }
+    this.stopPlaceRepository = stopPlaceRepository;
+    this.executor = new KeyOrderedExecutor(parallelism, maxInFlight);
+    this.coalesceEvents = coalesceEvents;
+    this.retryBackoffNanos = retryBackoff.toNanos();
+    this.maxRetryBackoffNanos = maxRetryBackoff.toNanos();
+    this.maxAttempts = maxAttempts;
+  }
+
+  @KafkaListener(
+    id = KafkaStopPlaceChangelog.CHANGELOG_LISTENER,
+    idIsGroup = false,
+    autoStartup = "${org.rutebanken.helper.stopplace.changelog.kafka.autostartup:true}",
+    topicPartitions = @org.springframework.kafka.annotation.TopicPartition(
+      topic = "${org.rutebanken.helper.stopplace.changelog.kafka.topic:}",
+      partitions = "#{@stopPlaceChangelogPartitionFinder.partitions(\"${org.rutebanken.helper.stopplace.changelog.kafka.topic:}\")}"
+    ),
+    filter = "publicationTimeRecordFilterStrategy",
+    containerFactory = "tiamatChangelogListenerContainerFactory"
+  )
+  public void consume(
+    @Payload List<ConsumerRecord<String, StopPlaceChangelogEvent>> messages,
+    Consumer<?, ?> consumer
+  ) {
+    var events = coalesceEvents
+      ? ChangelogEventCoalescer.coalesce(messages)
+      : messages;
+    Map<
+      RecordPosition,
+      ConsumerRecord<String, StopPlaceChangelogEvent>
+    > retained = new HashMap<>();
+    for (ConsumerRecord<String, StopPlaceChangelogEvent> event : events) {
+      retained.put(RecordPosition.of(event), event);
+    }
+    for (ConsumerRecord<String, StopPlaceChangelogEvent> message : messages) {
+      RecordPosition position = RecordPosition.of(message);
+      offsetTracker.submitted(position.partition(), message.offset());
+      var event = retained.get(position);
+      if (event == null) {
+        // superseded by a later event of the same stop place
+        offsetTracker.completed(position.partition(), message.offset());
+        continue;
+      }
+      executor.submit(
+        event.value().getStopPlaceId().toString(),
+        () -> process(position.partition(), event)
+      );
+    }
+    commit(consumer);
+    processed(offsetTracker.committableOffsets());
+  }
+
+  /**
+   * Return the offset of each partition up to which all events have been processed.
+   */
+  public Map<TopicPartition, Long> committableOffsets() {
+    return offsetTracker.committableOffsets();
+  }
+
+  /**
+   * Stop retrying the failed events, wait for the completion of the events in flight and stop the worker threads.
+   * The failed events and the events waiting behind them are left unprocessed, and consumed again on restart.
+   */
+  @Override
+  public void close() {
+    closed.countDown();
+    executor.close();
+  }
+
+  /**
+   * Handle an event that failed on its last attempt, before it is marked as processed. Logs the event by default;
+   * override to publish it to a dead letter topic for instance. Called from the worker threads.
+   *
+   * @param message the failed event.
+   * @param failure the failure of the last attempt.
+   */
+  protected void recover(
+    ConsumerRecord<String, StopPlaceChangelogEvent> message,
+    RuntimeException failure
+  ) {
+    logger.error(
+      "Skipping {} event for stop place {} at offset {} of {}-{} after {} attempts",
+      message.value().getEventType(),
+      message.value().getStopPlaceId(),
+      message.offset(),
+      message.topic(),
+      message.partition(),
+      maxAttempts,
+      failure
+    );
+  }
+
+  /**
+   * Process an event, retrying it until it succeeds or the maximum number of attempts is reached, and mark it as
+   * processed on success or once recovered.
+   */
+  private void process(
+    TopicPartition partition,
+    ConsumerRecord<String, StopPlaceChangelogEvent> message
+  ) {
+    var event = message.value();
+    String stopPlaceId = event.getStopPlaceId().toString();
+    long backoffNanos = retryBackoffNanos;
+    for (int attempt = 1;; attempt++) {
+      if (closed.getCount() == 0) {
+        return;
+      }
+      try {
+        if (event.getEventType().equals(EnumType.DELETE)) {
+          notifyDeleted(stopPlaceId);
+        } else {
+          notifyChanged(
+            event,
+            stopPlaceRepository.fetchStopPlaceContent(
+              stopPlaceId,
+              event.getStopPlaceVersion()
+            )
+          );
+        }
+        offsetTracker.completed(partition, message.offset());
+        return;
+      } catch (RuntimeException e) {
+        if (attempt >= maxAttempts) {
+          recover(message, e);
+          offsetTracker.completed(partition, message.offset());
+          return;
+        }
+        logger.error(
+          "Failed to process {} event for stop place {} at offset {} of {} (attempt {}), retrying in {} ms",
+          event.getEventType(),
+          stopPlaceId,
+          message.offset(),
+          partition,
+          attempt,
+          TimeUnit.NANOSECONDS.toMillis(backoffNanos),
+          e
+        );
+      }
+      try {
+        if (closed.await(backoffNanos, TimeUnit.NANOSECONDS)) {
+          return;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      backoffNanos = Math.min(backoffNanos * 2, maxRetryBackoffNanos);
+    }
+  }
+
+  private void commit(Consumer<?, ?> consumer) {
+    if (commitEnabled == null) {
+      commitEnabled = hasGroup(consumer);
+    }
+    if (!commitEnabled) {
+      return;
+    }
+    Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+    offsetTracker
+      .committableOffsets()
+      .forEach((partition, offset) -> {
+        if (!offset.equals(committedOffsets.get(partition))) {
+          offsets.put(partition, new OffsetAndMetadata(offset));
+        }
+      });
+    if (!offsets.isEmpty()) {
+      consumer.commitSync(offsets);
+      offsets.forEach((partition, offset) ->
+        committedOffsets.put(partition, offset.offset())
+      );
+    }
+  }
+
+  private static boolean hasGroup(Consumer<?, ?> consumer) {
+    try {
+      consumer.groupMetadata();
+      return true;
+    } catch (InvalidGroupIdException e) {
+      logger.info(
+        "The changelog consumer does not belong to a consumer group, offsets are not committed"
+      );
+      return false;
+    }
+  }
+
+  private record RecordPosition(TopicPartition partition, long offset) {
+    static RecordPosition of(ConsumerRecord<?, ?> record) {
+      return new RecordPosition(
+        new TopicPartition(record.topic(), record.partition()),
+        record.offset()
+      );
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package org.rutebanken.helper.stopplace.changelog.kafka;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Track the records of each partition handed over for processing, and compute for each partition the offset up to
+ * which all records have been processed.
+ *
+ * <p>Records of a partition may complete out of order. The committable offset of a partition is the offset of its
+ * oldest record still in progress, or the offset following its last record when all are processed, so that no
+ * unprocessed record is ever skipped on restart.</p>
+ */
+public final class PartitionOffsetTracker {
+
+  private final Map<TopicPartition, TreeSet<Long>> pendingOffsets =
+    new HashMap<>();
+
+  private final Map<TopicPartition, Long> nextOffsets = new HashMap<>();
+
+  /**
+   * Record that the record at the given offset has been handed over for processing.
+   * Records of a partition must be submitted in offset order.
+   */
+  public synchronized void submitted(TopicPartition partition, long offset) {
+    pendingOffsets.computeIfAbsent(partition, p -> new TreeSet<>()).add(offset);
+    nextOffsets.merge(partition, offset + 1, Math::max);
+  }
+
+  /**
+   * Record that the record at the given offset has been processed.
+   */
+  public synchronized void completed(TopicPartition partition, long offset) {
+    TreeSet<Long> pending = pendingOffsets.get(partition);
+    if (pending != null) {
+      pending.remove(offset);
+    }
+  }
+
+  /**
+   * Return the committable offset of each partition, that is the offset of the next record to consume on restart.
+   */
+  public synchronized Map<TopicPartition, Long> committableOffsets() {
+    Map<TopicPartition, Long> committableOffsets = new HashMap<>();
+    nextOffsets.forEach((partition, nextOffset) -> {
+      TreeSet<Long> pending = pendingOffsets.get(partition);
+      committableOffsets.put(
+        partition,
+        pending.isEmpty() ? nextOffset : pending.first()
+      );
+    });
+    return committableOffsets;
+  }
+
+  /**
+   * Return the number of records handed over for processing and not yet processed.
+   */
+  public synchronized int pendingCount() {
+    return pendingOffsets.values().stream().mapToInt(TreeSet::size).sum();
+  }
+}
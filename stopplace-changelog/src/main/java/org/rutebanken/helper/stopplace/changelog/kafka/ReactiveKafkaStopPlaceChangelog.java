@@ -0,0 +1,173 @@
+package org.rutebanken.helper.stopplace.changelog.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.rutebanken.helper.stopplace.changelog.repository.StopPlaceRepository;
+import org.rutebanken.irkalla.avro.EnumType;
+import org.rutebanken.irkalla.avro.StopPlaceChangelogEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.TopicPartition;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.messaging.handler.annotation.Payload;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Changelog consumer fetching the stop places of the records returned by a poll with non-blocking requests.
+ *
+ * <p>The stop places referenced by the CREATE, UPDATE and REMOVE events of the poll are fetched with
+ * {@link StopPlaceRepository#fetchStopPlaceUpdate(String, long)}, with up to {@code maxConcurrentFetches} requests
+ * in flight on the WebClient event loop instead of one blocked thread per request. A stop place version referenced
+ * by several events of the poll is fetched once.</p>
+ *
+ * <p>The events are delivered to the listeners on the consumer thread, in record order, as soon as the stop places
+ * of the preceding events are fetched. When the fetch of an event or a listener fails, the poll fails from the
+ * failing record with a {@link BatchListenerFailedException}: the preceding records are committed, and the container
+ * error handler retries the poll from the failing record.</p>
+ *
+ * <p>When event coalescing is enabled, the superseded events of the poll are dropped before fetching, see
+ * {@link ChangelogEventCoalescer}.</p>
+ *
+ * <p>The listener container factory must be configured as a batch listener factory.</p>
+ */
+public class ReactiveKafkaStopPlaceChangelog
+  extends AbstractKafkaStopPlaceChangelog {
+
+  public static final int DEFAULT_MAX_CONCURRENT_FETCHES = 16;
+
+  private static final Logger logger = LoggerFactory.getLogger(
+    ReactiveKafkaStopPlaceChangelog.class
+  );
+
+  private final StopPlaceRepository stopPlaceRepository;
+
+  private final int maxConcurrentFetches;
+
+  private final boolean coalesceEvents;
+
+  public ReactiveKafkaStopPlaceChangelog(
+    StopPlaceRepository stopPlaceRepository
+  ) {
+    this(stopPlaceRepository, DEFAULT_MAX_CONCURRENT_FETCHES, false);
+  }
+
+  /**
+   * @param stopPlaceRepository  the repository the stop places are fetched from.
+   * @param maxConcurrentFetches the maximum number of fetches in flight.
+   * @param coalesceEvents       whether the superseded events of a poll are dropped.
+   */
+  public ReactiveKafkaStopPlaceChangelog(
+    StopPlaceRepository stopPlaceRepository,
+    int maxConcurrentFetches,
+    boolean coalesceEvents
+  ) {
+    if (maxConcurrentFetches < 1) {
+      throw new IllegalArgumentException(
+        "maxConcurrentFetches must be positive"
+      );
+    }
+    this.stopPlaceRepository = stopPlaceRepository;
+    this.maxConcurrentFetches = maxConcurrentFetches;
+    this.coalesceEvents = coalesceEvents;
+  }
+
+  @KafkaListener(
+    id = KafkaStopPlaceChangelog.CHANGELOG_LISTENER,
+    idIsGroup = false,
+    autoStartup = "${org.rutebanken.helper.stopplace.changelog.kafka.autostartup:true}",
+    topicPartitions = @TopicPartition(
+      topic = "${org.rutebanken.helper.stopplace.changelog.kafka.topic:}",
+      partitions = "#{@stopPlaceChangelogPartitionFinder.partitions(\"${org.rutebanken.helper.stopplace.changelog.kafka.topic:}\")}"
+    ),
+    filter = "publicationTimeRecordFilterStrategy",
+    containerFactory = "tiamatChangelogListenerContainerFactory"
+  )
+  public void consume(
+    @Payload List<ConsumerRecord<String, StopPlaceChangelogEvent>> messages
+  ) {
+    var events = coalesceEvents
+      ? ChangelogEventCoalescer.coalesce(messages)
+      : messages;
+    Map<FetchKey, Mono<byte[]>> fetches = new HashMap<>();
+    List<Mono<FetchedEvent>> pendingEvents = new ArrayList<>(events.size());
+    for (ConsumerRecord<String, StopPlaceChangelogEvent> message : events) {
+      pendingEvents.add(fetch(message, fetches));
+    }
+    Flux<FetchedEvent> fetchedEvents = Flux.mergeSequential(
+      pendingEvents,
+      maxConcurrentFetches,
+      1
+    );
+    // iterating delivers the events on the consumer thread, not the event loop
+    for (FetchedEvent fetched : fetchedEvents.toIterable()) {
+      var event = fetched.message().value();
+      String stopPlaceId = event.getStopPlaceId().toString();
+      try {
+        if (fetched.failure() != null) {
+          throw fetched.failure();
+        } else if (fetched.update() == null) {
+          notifyDeleted(stopPlaceId);
+        } else {
+          byte[] update = fetched.update();
+          notifyChanged(event, () -> new ByteArrayInputStream(update));
+        }
+      } catch (RuntimeException e) {
+        throw batchFailure(messages, fetched.message(), e);
+      }
+    }
+    logger.debug(
+      "Fetched {} stop places for a poll of {} events",
+      fetches.size(),
+      messages.size()
+    );
+    messages.forEach(this::processed);
+  }
+
+  /**
+   * Fetch the stop place of an event. A failed fetch is emitted as a failed event instead of an error, so that the
+   * preceding events are still delivered.
+   */
+  private Mono<FetchedEvent> fetch(
+    ConsumerRecord<String, StopPlaceChangelogEvent> message,
+    Map<FetchKey, Mono<byte[]>> fetches
+  ) {
+    var event = message.value();
+    if (event.getEventType().equals(EnumType.DELETE)) {
+      return Mono.just(new FetchedEvent(message, null, null));
+    }
+    FetchKey key = new FetchKey(
+      event.getStopPlaceId().toString(),
+      event.getStopPlaceVersion()
+    );
+    return fetches
+      .computeIfAbsent(key, k ->
+        stopPlaceRepository
+          .fetchStopPlaceUpdate(k.stopPlaceId(), k.version())
+          .cache()
+      )
+      .map(update -> new FetchedEvent(message, update, null))
+      .onErrorResume(RuntimeException.class, e ->
+        Mono.just(new FetchedEvent(message, null, e))
+      );
+  }
+
+  /**
+   * A version of a stop place fetched for the events of a poll.
+   */
+  private record FetchKey(String stopPlaceId, long version) {}
+
+  /**
+   * An event with the data of its stop place, without data for a DELETE event, or with the failure of its fetch.
+   */
+  private record FetchedEvent(
+    ConsumerRecord<String, StopPlaceChangelogEvent> message,
+    byte[] update,
+    RuntimeException failure
+  ) {}
+}
@@ -0,0 +1,356 @@
+package org.rutebanken.helper.stopplace.changelog.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Split a NeTEx publication delivery holding several stop places into one publication delivery per stop place.
+ *
+ * <p>Each document keeps the whole envelope, and only the versions of the requested stop place in {@code stopPlaces},
+ * along with its parent (for a child stop place) or its children (for a multimodal parent). Of the frame members
+ * exported with the stop places, each document only keeps the ones related to its stop places, as in the export of
+ * that stop place alone:</p>
+ * <ul>
+ *   <li>the topographic places, tariff zones and fare zones referenced by its stop places, and transitively by these
+ *   members, such as the parents of the topographic places;</li>
+ *   <li>the groups of stop places, groups of tariff zones and parkings referencing its stop places or the members
+ *   above.</li>
+ * </ul>
+ * <p>The other frame members are kept in all the documents.</p>
+ */
+final class NetexStopPlaceSplitter {
+
+  private static final String STOP_PLACES = "stopPlaces";
+  private static final String FRAME_SUFFIX = "Frame";
+  private static final String PARENT_SITE_REF = "ParentSiteRef";
+  private static final QName ID = new QName("id");
+  private static final QName REF = new QName("ref");
+
+  /**
+   * Collections of the frame members kept when referenced by a kept stop place or member.
+   */
+  private static final Set<String> REFERENCED_COLLECTIONS = Set.of(
+    "topographicPlaces",
+    "tariffZones",
+    "fareZones"
+  );
+
+  /**
+   * Collections of the frame members kept when referencing a kept stop place or member.
+   */
+  private static final Set<String> REFERENCING_COLLECTIONS = Set.of(
+    "groupsOfStopPlaces",
+    "groupsOfTariffZones",
+    "parkings"
+  );
+
+  private static final XMLInputFactory INPUT_FACTORY = inputFactory();
+  private static final XMLOutputFactory OUTPUT_FACTORY =
+    XMLOutputFactory.newFactory();
+
+  /**
+   * A stop place or a frame member, with the values of the {@code ref} attributes of its descendants.
+   */
+  private record Element(
+    String id,
+    String parentRef,
+    Set<String> refs,
+    List<XMLEvent> events
+  ) {}
+
+  /**
+   * A part of the publication delivery: either events copied to all the documents, or a collection of stop places
+   * or frame members filtered per document.
+   */
+  private interface Part {}
+
+  private record SharedEvents(List<XMLEvent> events) implements Part {}
+
+  private record ElementCollection(
+    String name,
+    XMLEvent start,
+    List<Element> elements,
+    XMLEvent end
+  )
+    implements Part {}
+
+  private NetexStopPlaceSplitter() {}
+
+  /**
+   * @return the publication delivery of each requested stop place, indexed by stop place id. Stop places absent from
+   * the publication delivery are absent from the map.
+   */
+  static Map<String, byte[]> split(
+    byte[] publicationDelivery,
+    Collection<String> stopPlaceIds
+  ) throws XMLStreamException {
+    List<Part> parts = read(publicationDelivery);
+    List<Element> stopPlaces = new ArrayList<>();
+    Map<String, List<Element>> referencedMembers = new HashMap<>();
+    List<Element> referencingMembers = new ArrayList<>();
+    for (Part part : parts) {
+      if (part instanceof ElementCollection collection) {
+        if (STOP_PLACES.equals(collection.name())) {
+          stopPlaces.addAll(collection.elements());
+        } else if (REFERENCED_COLLECTIONS.contains(collection.name())) {
+          for (Element member : collection.elements()) {
+            referencedMembers
+              .computeIfAbsent(member.id(), id -> new ArrayList<>())
+              .add(member);
+          }
+        } else {
+          referencingMembers.addAll(collection.elements());
+        }
+      }
+    }
+
+    Map<String, byte[]> publicationDeliveries = new LinkedHashMap<>();
+    for (String stopPlaceId : stopPlaceIds) {
+      Set<Element> kept = keptStopPlaces(stopPlaces, stopPlaceId);
+      if (kept.isEmpty()) {
+        continue;
+      }
+      keepRelatedMembers(kept, referencedMembers, referencingMembers);
+      publicationDeliveries.put(stopPlaceId, write(parts, kept));
+    }
+    return publicationDeliveries;
+  }
+
+  /**
+   * Read the publication delivery, capturing the stop places and the filtered frame members.
+   */
+  private static List<Part> read(byte[] publicationDelivery)
+    throws XMLStreamException {
+    List<Part> parts = new ArrayList<>();
+    List<XMLEvent> shared = new ArrayList<>();
+    // local names of the open elements, outside of the captured collections
+    Deque<String> path = new ArrayDeque<>();
+    // elements of the current captured collection, null outside of it
+    String collectionName = null;
+    XMLEvent collectionStart = null;
+    List<Element> elements = null;
+    List<XMLEvent> elementEvents = null;
+    String elementId = null;
+    String parentRef = null;
+    Set<String> refs = null;
+    int depth = 0;
+
+    XMLEventReader reader = INPUT_FACTORY.createXMLEventReader(
+      new ByteArrayInputStream(publicationDelivery)
+    );
+    while (reader.hasNext()) {
+      XMLEvent event = reader.nextEvent();
+      if (elementEvents != null) {
+        elementEvents.add(event);
+        if (event.isStartElement()) {
+          depth++;
+          StartElement startElement = event.asStartElement();
+          String ref = attributeValue(startElement, REF);
+          if (ref != null) {
+            refs.add(ref);
+            if (
+              depth == 2 &&
+              PARENT_SITE_REF.equals(startElement.getName().getLocalPart())
+            ) {
+              parentRef = ref;
+            }
+          }
+        } else if (event.isEndElement() && --depth == 0) {
+          elements.add(new Element(elementId, parentRef, refs, elementEvents));
+          elementEvents = null;
+        }
+      } else if (elements != null) {
+        if (event.isStartElement()) {
+          elementEvents = new ArrayList<>();
+          elementEvents.add(event);
+          elementId = attributeValue(event.asStartElement(), ID);
+          parentRef = null;
+          refs = new HashSet<>();
+          depth = 1;
+        } else if (event.isEndElement()) {
+          parts.add(
+            new ElementCollection(
+              collectionName,
+              collectionStart,
+              elements,
+              event
+            )
+          );
+          elements = null;
+        }
+        // whitespace between the elements is dropped
+      } else if (event.isStartElement() && isCollection(event, path)) {
+        parts.add(new SharedEvents(shared));
+        shared = new ArrayList<>();
+        collectionName = event.asStartElement().getName().getLocalPart();
+        collectionStart = event;
+        elements = new ArrayList<>();
+      } else {
+        shared.add(event);
+        if (event.isStartElement()) {
+          path.push(event.asStartElement().getName().getLocalPart());
+        } else if (event.isEndElement()) {
+          path.pop();
+        }
+      }
+    }
+    reader.close();
+    parts.add(new SharedEvents(shared));
+    return parts;
+  }
+
+  /**
+   * Return whether an element is a collection of stop places or of filtered members, directly in a frame.
+   */
+  private static boolean isCollection(XMLEvent event, Deque<String> path) {
+    String name = event.asStartElement().getName().getLocalPart();
+    return (
+      (STOP_PLACES.equals(name) ||
+        REFERENCED_COLLECTIONS.contains(name) ||
+        REFERENCING_COLLECTIONS.contains(name)) &&
+      path.peek() != null &&
+      path.peek().endsWith(FRAME_SUFFIX)
+    );
+  }
+
+  /**
+   * Return the versions of the stop place, its parent and its children, or an empty set if the stop place is absent.
+   */
+  private static Set<Element> keptStopPlaces(
+    List<Element> stopPlaces,
+    String stopPlaceId
+  ) {
+    Set<String> parentIds = new HashSet<>();
+    boolean found = false;
+    for (Element stopPlace : stopPlaces) {
+      if (stopPlaceId.equals(stopPlace.id())) {
+        found = true;
+        if (stopPlace.parentRef() != null) {
+          parentIds.add(stopPlace.parentRef());
+        }
+      }
+    }
+    Set<Element> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+    if (!found) {
+      return kept;
+    }
+    for (Element stopPlace : stopPlaces) {
+      if (
+        stopPlaceId.equals(stopPlace.id()) ||
+        stopPlaceId.equals(stopPlace.parentRef()) ||
+        parentIds.contains(stopPlace.id())
+      ) {
+        kept.add(stopPlace);
+      }
+    }
+    return kept;
+  }
+
+  /**
+   * Add to the kept elements the members referenced by them, transitively, and then the members referencing them.
+   */
+  private static void keepRelatedMembers(
+    Set<Element> kept,
+    Map<String, List<Element>> referencedMembers,
+    List<Element> referencingMembers
+  ) {
+    Set<String> keptIds = new HashSet<>();
+    Deque<String> pendingRefs = new ArrayDeque<>();
+    for (Element stopPlace : kept) {
+      keptIds.add(stopPlace.id());
+      pendingRefs.addAll(stopPlace.refs());
+    }
+    while (!pendingRefs.isEmpty()) {
+      for (Element member : referencedMembers.getOrDefault(
+        pendingRefs.pop(),
+        List.of()
+      )) {
+        if (kept.add(member)) {
+          keptIds.add(member.id());
+          pendingRefs.addAll(member.refs());
+        }
+      }
+    }
+    for (Element member : referencingMembers) {
+      if (!Collections.disjoint(member.refs(), keptIds)) {
+        kept.add(member);
+      }
+    }
+  }
+
+  /**
+   * Write the shared events and the kept elements, leaving out the collections without any kept element.
+   */
+  private static byte[] write(List<Part> parts, Set<Element> kept)
+    throws XMLStreamException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    XMLEventWriter writer = OUTPUT_FACTORY.createXMLEventWriter(
+      output,
+      "UTF-8"
+    );
+    for (Part part : parts) {
+      if (part instanceof SharedEvents shared) {
+        addAll(writer, shared.events());
+      } else if (part instanceof ElementCollection collection) {
+        List<Element> elements = collection
+          .elements()
+          .stream()
+          .filter(kept::contains)
+          .toList();
+        if (!elements.isEmpty()) {
+          writer.add(collection.start());
+          for (Element element : elements) {
+            addAll(writer, element.events());
+          }
+          writer.add(collection.end());
+        }
+      }
+    }
+    writer.flush();
+    writer.close();
+    return output.toByteArray();
+  }
+
+  private static void addAll(XMLEventWriter writer, List<XMLEvent> events)
+    throws XMLStreamException {
+    for (XMLEvent event : events) {
+      writer.add(event);
+    }
+  }
+
+  private static String attributeValue(StartElement element, QName name) {
+    Attribute attribute = element.getAttributeByName(name);
+    return attribute == null ? null : attribute.getValue();
+  }
+
+  private static XMLInputFactory inputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(
+      XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+      false
+    );
+    return factory;
+  }
+}
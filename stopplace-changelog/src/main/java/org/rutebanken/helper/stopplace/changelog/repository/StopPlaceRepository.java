@@ -2,17 +2,28 @@ package org.rutebanken.helper.stopplace.changelog.repository;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLStreamException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 /**
  * Repository for fetching stop place data from the remote API.
  *
  * <p>This repository uses Spring's WebClient to fetch stop place data in NeTEx format
- * from the configured repository URL. The data is fetched synchronously and returned
- * as an InputStream for processing.</p>
+ * from the configured repository URL. The data is either fetched synchronously and
+ * returned as an InputStream for processing, fetched asynchronously as a Mono, or
+ * streamed as it is received.</p>
  *
  * @see StopPlaceFetchException
  * @since 5.41.0
@@ -34,6 +45,8 @@ public class StopPlaceRepository {
   private final String fareZoneExportMode;
   private final String groupOfStopPlacesExportMode;
 
+  private StopPlaceUpdateCache updateCache;
+
   public StopPlaceRepository(
     WebClient webClient,
     String tiamatUrl,
@@ -65,65 +78,282 @@ public class StopPlaceRepository {
    * @throws StopPlaceFetchException if the stop place cannot be fetched
    */
   public InputStream getStopPlaceUpdate(String stopPlaceId) {
-    logger.debug("Fetching stop place update for ID: {}", stopPlaceId);
+    return new ByteArrayInputStream(fetchStopPlaceUpdate(stopPlaceId).block());
+  }
 
-    try {
-      byte[] responseBytes = webClient
-        .get()
-        .uri(uriBuilder -> {
-          var uri = uriBuilder
-            .path("/netex")
-            .queryParam("idList", stopPlaceId)
-            .queryParam(
-              "topographicPlaceExportMode",
-              topographicPlaceExportMode
-            )
-            .queryParam("tariffZoneExportMode", tariffZoneExportMode)
-            .queryParam(
-              "groupOfTariffZonesExportMode",
-              groupOfTariffZonesExportMode
-            )
-            .queryParam("fareZoneExportMode", fareZoneExportMode)
-            .queryParam(
-              "groupOfStopPlacesExportMode",
-              groupOfStopPlacesExportMode
-            )
-            .queryParam("allVersions", allVersions)
-            .queryParam("size", Integer.MAX_VALUE)
-            .build();
-
-          logger.debug("Making HTTP request to: {}", uri);
-          return uri;
-        })
-        .retrieve()
-        .bodyToMono(byte[].class)
-        .block(); // Synchronous call for backward compatibility
-
-      if (responseBytes == null || responseBytes.length == 0) {
-        throw new StopPlaceFetchException(
-          stopPlaceId,
-          new IllegalStateException("Empty response from repository")
-        );
-      }
+  /**
+   * Fetches stop place data for a version of a stop place, reusing the data cached
+   * for that version if an update cache is set.
+   *
+   * @param stopPlaceId the NeTEx ID of the stop place to fetch
+   * @param version     the version of the stop place referenced by the changelog event
+   * @return an InputStream containing the NeTEx XML data
+   * @throws StopPlaceFetchException if the stop place cannot be fetched
+   * @see #setUpdateCache(StopPlaceUpdateCache)
+   */
+  public InputStream getStopPlaceUpdate(String stopPlaceId, long version) {
+    return new ByteArrayInputStream(
+      fetchStopPlaceUpdate(stopPlaceId, version).block()
+    );
+  }
+
+  /**
+   * Fetches asynchronously the stop place data for the given stop place ID.
+   *
+   * <p>The request is sent when the returned Mono is subscribed to, and the response is
+   * received on the WebClient event loop, so that many fetches can be in flight without
+   * holding a thread each. Use {@link Mono#toFuture()} to obtain a CompletableFuture.</p>
+   *
+   * @param stopPlaceId the NeTEx ID of the stop place to fetch
+   * @return a Mono emitting the NeTEx XML data, or signalling a
+   *         {@link StopPlaceFetchException} if the stop place cannot be fetched
+   */
+  public Mono<byte[]> fetchStopPlaceUpdate(String stopPlaceId) {
+    return Mono.defer(() -> {
+      logger.debug("Fetching stop place update for ID: {}", stopPlaceId);
+      return fetchAsync(stopPlaceId);
+    });
+  }
 
+  /**
+   * Fetches asynchronously the stop place data for a version of a stop place, reusing
+   * the data cached for that version if an update cache is set.
+   *
+   * @param stopPlaceId the NeTEx ID of the stop place to fetch
+   * @param version     the version of the stop place referenced by the changelog event
+   * @return a Mono emitting the NeTEx XML data, or signalling a
+   *         {@link StopPlaceFetchException} if the stop place cannot be fetched
+   * @see #fetchStopPlaceUpdate(String)
+   */
+  public Mono<byte[]> fetchStopPlaceUpdate(String stopPlaceId, long version) {
+    return Mono.defer(() -> {
+      StopPlaceUpdateCache cache = updateCache;
+      if (cache == null) {
+        return fetchStopPlaceUpdate(stopPlaceId);
+      }
+      byte[] update = cache.get(stopPlaceId, version);
+      if (update != null) {
+        return Mono.just(update);
+      }
       logger.debug(
-        "Successfully fetched stop place {} ({} bytes)",
+        "Fetching stop place update for ID: {}, version {}",
         stopPlaceId,
-        responseBytes.length
+        version
       );
+      return fetchAsync(stopPlaceId)
+        .doOnNext(fetched -> cache.put(stopPlaceId, version, fetched));
+    });
+  }
+
+  /**
+   * Streams asynchronously the stop place data for a version of a stop place.
+   *
+   * <p>The returned Mono emits the response body as soon as a successful response status
+   * is received, so that the NeTEx data can be read as it arrives instead of being
+   * collected in memory. The body must be subscribed to exactly once, to read or release
+   * the data. If an update cache is set, the data is fetched with
+   * {@link #fetchStopPlaceUpdate(String, long)} instead and emitted as a single buffer.</p>
+   *
+   * @param stopPlaceId the NeTEx ID of the stop place to fetch
+   * @param version     the version of the stop place referenced by the changelog event
+   * @return a Mono emitting the response body, or signalling a
+   *         {@link StopPlaceFetchException} if the stop place cannot be fetched. Errors
+   *         while receiving the body are signalled by the body.
+   */
+  public Mono<Flux<DataBuffer>> fetchStopPlaceContent(
+    String stopPlaceId,
+    long version
+  ) {
+    return Mono.defer(() -> {
+      if (updateCache != null) {
+        return fetchStopPlaceUpdate(stopPlaceId, version)
+          .map(update ->
+            Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(update))
+          );
+      }
+      logger.debug("Streaming stop place update for ID: {}", stopPlaceId);
+      return streamAsync(stopPlaceId);
+    });
+  }
 
-      return new ByteArrayInputStream(responseBytes);
-    } catch (WebClientResponseException e) {
+  /**
+   * Fetches stop place data for several stop places in a single request.
+   *
+   * <p>The response is split into one NeTEx document per stop place, holding the
+   * stop place with its parent or children, and only the related entities of that
+   * stop place, as in a fetch of the stop place alone.</p>
+   *
+   * @param stopPlaceIds the NeTEx IDs of the stop places to fetch
+   * @return the NeTEx XML data of each stop place, indexed by stop place ID. Stop places
+   *         missing from the response are absent from the map.
+   * @throws StopPlaceFetchException if the stop places cannot be fetched
+   */
+  public Map<String, byte[]> getStopPlaceUpdates(
+    Collection<String> stopPlaceIds
+  ) {
+    String idList = String.join(",", stopPlaceIds);
+    logger.debug("Fetching stop place updates for IDs: {}", idList);
+    byte[] responseBytes = fetch(idList);
+    try {
+      return NetexStopPlaceSplitter.split(responseBytes, stopPlaceIds);
+    } catch (XMLStreamException e) {
+      logger.error("Error splitting stop places {}", idList, e);
+      throw new StopPlaceFetchException(idList, e);
+    }
+  }
+
+  /**
+   * Fetches stop place data for versions of several stop places, requesting in a
+   * single request the stop places that are not in the update cache.
+   *
+   * @param stopPlaceVersions the versions referenced by the changelog events, indexed by
+   *                          stop place ID
+   * @return the NeTEx XML data of each stop place, indexed by stop place ID. Stop places
+   *         missing from the response are absent from the map.
+   * @throws StopPlaceFetchException if the stop places cannot be fetched
+   * @see #getStopPlaceUpdates(Collection)
+   */
+  public Map<String, byte[]> getStopPlaceVersionUpdates(
+    Map<String, Long> stopPlaceVersions
+  ) {
+    if (updateCache == null) {
+      return getStopPlaceUpdates(stopPlaceVersions.keySet());
+    }
+    Map<String, byte[]> updates = new HashMap<>();
+    List<String> missing = new ArrayList<>();
+    stopPlaceVersions.forEach((stopPlaceId, version) -> {
+      byte[] update = updateCache.get(stopPlaceId, version);
+      if (update == null) {
+        missing.add(stopPlaceId);
+      } else {
+        updates.put(stopPlaceId, update);
+      }
+    });
+    if (!missing.isEmpty()) {
+      getStopPlaceUpdates(missing).forEach((stopPlaceId, update) -> {
+        Long version = stopPlaceVersions.get(stopPlaceId);
+        if (version != null) {
+          updateCache.put(stopPlaceId, version, update);
+        }
+        updates.put(stopPlaceId, update);
+      });
+    }
+    return updates;
+  }
+
+  /**
+   * Sets the cache of the data fetched for each stop place version. The cache may be
+   * shared by several repositories fetching from the same repository URL with the same
+   * export parameters.
+   *
+   * @param updateCache the cache, or {@code null} to disable caching
+   */
+  public void setUpdateCache(StopPlaceUpdateCache updateCache) {
+    this.updateCache = updateCache;
+  }
+
+  /**
+   * Fetch the NeTEx export of the stop places in a comma-separated list of IDs.
+   */
+  private byte[] fetch(String idList) {
+    return fetchAsync(idList).block();
+  }
+
+  /**
+   * Fetch asynchronously the NeTEx export of the stop places in a comma-separated list of IDs.
+   * Errors are signalled as {@link StopPlaceFetchException}.
+   */
+  private Mono<byte[]> fetchAsync(String idList) {
+    return Mono
+      .defer(() -> retrieve(idList).bodyToMono(byte[].class))
+      .filter(responseBytes -> responseBytes.length > 0)
+      .switchIfEmpty(
+        Mono.error(() ->
+          new StopPlaceFetchException(
+            idList,
+            new IllegalStateException("Empty response from repository")
+          )
+        )
+      )
+      .doOnNext(responseBytes ->
+        logger.debug(
+          "Successfully fetched stop place {} ({} bytes)",
+          idList,
+          responseBytes.length
+        )
+      )
+      .onErrorMap(Exception.class, e -> fetchException(idList, e));
+  }
+
+  /**
+   * Stream asynchronously the NeTEx export of the stop places in a comma-separated list of IDs.
+   * The Mono emits the response body once a successful response status is received. Errors,
+   * including an empty body, are signalled as {@link StopPlaceFetchException}.
+   */
+  private Mono<Flux<DataBuffer>> streamAsync(String idList) {
+    return Mono
+      .defer(() -> retrieve(idList).toEntityFlux(DataBuffer.class))
+      .map(response ->
+        Flux
+          .from(response.getBody())
+          .switchIfEmpty(
+            Flux.error(() ->
+              new StopPlaceFetchException(
+                idList,
+                new IllegalStateException("Empty response from repository")
+              )
+            )
+          )
+          .onErrorMap(Exception.class, e -> fetchException(idList, e))
+      )
+      .onErrorMap(Exception.class, e -> fetchException(idList, e));
+  }
+
+  private WebClient.ResponseSpec retrieve(String idList) {
+    return webClient
+      .get()
+      .uri(uriBuilder -> {
+        var uri = uriBuilder
+          .path("/netex")
+          .queryParam("idList", idList)
+          .queryParam("topographicPlaceExportMode", topographicPlaceExportMode)
+          .queryParam("tariffZoneExportMode", tariffZoneExportMode)
+          .queryParam(
+            "groupOfTariffZonesExportMode",
+            groupOfTariffZonesExportMode
+          )
+          .queryParam("fareZoneExportMode", fareZoneExportMode)
+          .queryParam(
+            "groupOfStopPlacesExportMode",
+            groupOfStopPlacesExportMode
+          )
+          .queryParam("allVersions", allVersions)
+          .queryParam("size", Integer.MAX_VALUE)
+          .build();
+
+        logger.debug("Making HTTP request to: {}", uri);
+        return uri;
+      })
+      .retrieve();
+  }
+
+  private static StopPlaceFetchException fetchException(
+    String idList,
+    Exception e
+  ) {
+    if (e instanceof StopPlaceFetchException fetchException) {
+      return fetchException;
+    }
+    if (e instanceof WebClientResponseException responseException) {
       logger.error(
         "HTTP error fetching stop place {}: {} - {}",
-        stopPlaceId,
-        e.getStatusCode(),
-        e.getResponseBodyAsString()
+        idList,
+        responseException.getStatusCode(),
+        responseException.getResponseBodyAsString()
       );
-      throw new StopPlaceFetchException(stopPlaceId, e);
-    } catch (Exception e) {
-      logger.error("Error fetching stop place {}", stopPlaceId, e);
-      throw new StopPlaceFetchException(stopPlaceId, e);
+    } else {
+      logger.error("Error fetching stop place {}", idList, e);
     }
+    return new StopPlaceFetchException(idList, e);
   }
 }
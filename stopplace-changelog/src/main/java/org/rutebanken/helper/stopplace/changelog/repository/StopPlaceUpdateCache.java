@@ -0,0 +1,131 @@
+package org.rutebanken.helper.stopplace.changelog.repository;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the NeTEx data fetched for a version of a stop place.
+ *
+ * <p>A changelog event identifies a stop place version, so the data fetched for it can be reused when the same event
+ * is delivered again (replays, redeliveries after a restart), or consumed by several changelog consumers sharing the
+ * cache. The cache is bounded by the total size of the cached data, and the least recently used entries are evicted
+ * first. Data larger than the cache is not cached.</p>
+ *
+ * <p>The cache is thread-safe.</p>
+ */
+public class StopPlaceUpdateCache {
+
+  public static final long DEFAULT_MAX_SIZE_BYTES = 64L * 1024 * 1024;
+
+  private final long maxSizeBytes;
+
+  private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<>(
+    16,
+    0.75f,
+    true
+  );
+
+  private long sizeBytes;
+  private long hitCount;
+  private long missCount;
+  private long putCount;
+  private long evictionCount;
+
+  public StopPlaceUpdateCache() {
+    this(DEFAULT_MAX_SIZE_BYTES);
+  }
+
+  /**
+   * @param maxSizeBytes the maximum total size of the cached data.
+   */
+  public StopPlaceUpdateCache(long maxSizeBytes) {
+    if (maxSizeBytes < 1) {
+      throw new IllegalArgumentException("maxSizeBytes must be positive");
+    }
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  /**
+   * Return the data cached for a version of a stop place, or null if it is not cached.
+   */
+  public synchronized byte[] get(String stopPlaceId, long version) {
+    byte[] update = entries.get(new Key(stopPlaceId, version));
+    if (update == null) {
+      missCount++;
+    } else {
+      hitCount++;
+    }
+    return update;
+  }
+
+  /**
+   * Cache the data fetched for a version of a stop place, evicting the least recently used entries if needed.
+   */
+  public synchronized void put(
+    String stopPlaceId,
+    long version,
+    byte[] update
+  ) {
+    if (update.length > maxSizeBytes) {
+      return;
+    }
+    byte[] previous = entries.put(new Key(stopPlaceId, version), update);
+    if (previous != null) {
+      sizeBytes -= previous.length;
+    }
+    sizeBytes += update.length;
+    putCount++;
+
+    Iterator<byte[]> iterator = entries.values().iterator();
+    while (sizeBytes > maxSizeBytes) {
+      sizeBytes -= iterator.next().length;
+      iterator.remove();
+      evictionCount++;
+    }
+  }
+
+  /**
+   * Remove all the entries. The statistics are kept.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    sizeBytes = 0;
+  }
+
+  /**
+   * Return a snapshot of the cache statistics.
+   */
+  public synchronized Stats stats() {
+    return new Stats(
+      entries.size(),
+      sizeBytes,
+      hitCount,
+      missCount,
+      putCount,
+      evictionCount
+    );
+  }
+
+  /**
+   * Cache statistics, counted since the creation of the cache.
+   */
+  public record Stats(
+    long entryCount,
+    long sizeBytes,
+    long hitCount,
+    long missCount,
+    long putCount,
+    long evictionCount
+  ) {
+    /**
+     * Return the ratio of lookups answered from the cache, or 0 if there was no lookup.
+     */
+    public double hitRate() {
+      long requestCount = hitCount + missCount;
+      return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+    }
+  }
+
+  private record Key(String stopPlaceId, long version) {}
+}
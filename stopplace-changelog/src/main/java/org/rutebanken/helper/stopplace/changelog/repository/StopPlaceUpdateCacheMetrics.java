@@ -0,0 +1,71 @@
+package org.rutebanken.helper.stopplace.changelog.repository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CacheMeterBinder;
+
+/**
+ * Micrometer binding of the {@link StopPlaceUpdateCache} statistics, published as the standard {@code cache.*}
+ * meters: hits and misses ({@code cache.gets}), puts, evictions and size. The size of the cached data is published as
+ * {@code cache.size.bytes}.
+ */
+public class StopPlaceUpdateCacheMetrics
+  extends CacheMeterBinder<StopPlaceUpdateCache> {
+
+  public static final String CACHE_NAME = "stopPlaceUpdates";
+
+  public StopPlaceUpdateCacheMetrics(StopPlaceUpdateCache cache) {
+    super(cache, CACHE_NAME, Tags.empty());
+  }
+
+  @Override
+  protected Long size() {
+    StopPlaceUpdateCache.Stats stats = stats();
+    return stats == null ? null : stats.entryCount();
+  }
+
+  @Override
+  protected long hitCount() {
+    StopPlaceUpdateCache.Stats stats = stats();
+    return stats == null ? 0 : stats.hitCount();
+  }
+
+  @Override
+  protected Long missCount() {
+    StopPlaceUpdateCache.Stats stats = stats();
+    return stats == null ? null : stats.missCount();
+  }
+
+  @Override
+  protected Long evictionCount() {
+    StopPlaceUpdateCache.Stats stats = stats();
+    return stats == null ? null : stats.evictionCount();
+  }
+
+  @Override
+  protected long putCount() {
+    StopPlaceUpdateCache.Stats stats = stats();
+    return stats == null ? 0 : stats.putCount();
+  }
+
+  @Override
+  protected void bindImplementationSpecificMetrics(MeterRegistry registry) {
+    registry.gauge(
+      "cache.size.bytes",
+      getTagsWithCacheName(),
+      this,
+      metrics -> {
+        StopPlaceUpdateCache.Stats stats = metrics.stats();
+        return stats == null ? 0 : stats.sizeBytes();
+      }
+    );
+  }
+
+  /**
+   * Return the statistics of the cache, or null if the cache has been garbage collected.
+   */
+  private StopPlaceUpdateCache.Stats stats() {
+    StopPlaceUpdateCache cache = getCache();
+    return cache == null ? null : cache.stats();
+  }
+}
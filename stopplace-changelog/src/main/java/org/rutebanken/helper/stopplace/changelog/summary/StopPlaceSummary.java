@@ -0,0 +1,40 @@
+package org.rutebanken.helper.stopplace.changelog.summary;
+
+import java.util.List;
+
+/**
+ * The fields of a stop place most listeners need, extracted from its NeTEx representation without binding the whole
+ * document.
+ *
+ * @param id            the NeTEx ID of the stop place.
+ * @param version       the version of the stop place.
+ * @param name          the name of the stop place, or {@code null} if it has none.
+ * @param centroid      the centroid of the stop place, or {@code null} if it has none.
+ * @param quays         the quays of the stop place, in document order.
+ * @param parentSiteRef the NeTEx ID of the parent stop place, or {@code null} if the stop place has no parent.
+ * @see StopPlaceSummaryReader
+ */
+public record StopPlaceSummary(
+  String id,
+  String version,
+  String name,
+  Location centroid,
+  List<QuaySummary> quays,
+  String parentSiteRef
+) {
+  public StopPlaceSummary {
+    quays = List.copyOf(quays);
+  }
+
+  /**
+   * A WGS84 location.
+   */
+  public record Location(double longitude, double latitude) {}
+
+  /**
+   * @param id       the NeTEx ID of the quay.
+   * @param version  the version of the quay.
+   * @param centroid the centroid of the quay, or {@code null} if it has none.
+   */
+  public record QuaySummary(String id, String version, Location centroid) {}
+}
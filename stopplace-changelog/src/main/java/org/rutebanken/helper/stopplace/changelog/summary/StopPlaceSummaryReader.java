@@ -0,0 +1,243 @@
+package org.rutebanken.helper.stopplace.changelog.summary;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Extract the {@link StopPlaceSummary} of a stop place from a NeTEx publication delivery in a single streaming pass.
+ *
+ * <p>The document is read with a StAX cursor: only the fields of the summary are materialized, and the elements of
+ * the other stop places and of the other frame members are skipped without being bound.</p>
+ */
+public final class StopPlaceSummaryReader {
+
+  private static final String STOP_PLACES = "stopPlaces";
+  private static final String STOP_PLACE = "StopPlace";
+  private static final String NAME = "Name";
+  private static final String CENTROID = "Centroid";
+  private static final String LOCATION = "Location";
+  private static final String LONGITUDE = "Longitude";
+  private static final String LATITUDE = "Latitude";
+  private static final String PARENT_SITE_REF = "ParentSiteRef";
+  private static final String QUAYS = "quays";
+  private static final String QUAY = "Quay";
+  private static final String ID = "id";
+  private static final String VERSION = "version";
+  private static final String REF = "ref";
+
+  private static final XMLInputFactory INPUT_FACTORY = inputFactory();
+
+  private StopPlaceSummaryReader() {}
+
+  /**
+   * Read the summary of a stop place. When the publication delivery holds several versions of the stop place, the
+   * summary of the highest version is returned.
+   *
+   * @param publicationDelivery the NeTEx publication delivery, not closed by this method.
+   * @param stopPlaceId         the NeTEx ID of the stop place.
+   * @return the summary of the stop place, or {@code null} if the stop place is absent from the publication delivery.
+   * @throws XMLStreamException if the publication delivery is not well-formed.
+   */
+  public static StopPlaceSummary read(
+    InputStream publicationDelivery,
+    String stopPlaceId
+  ) throws XMLStreamException {
+    XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(
+      publicationDelivery
+    );
+    try {
+      StopPlaceSummary latest = null;
+      while (reader.hasNext()) {
+        if (
+          reader.next() == XMLStreamConstants.START_ELEMENT &&
+          STOP_PLACES.equals(reader.getLocalName())
+        ) {
+          latest = readStopPlaces(reader, stopPlaceId, latest);
+        }
+      }
+      return latest;
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static StopPlaceSummary readStopPlaces(
+    XMLStreamReader reader,
+    String stopPlaceId,
+    StopPlaceSummary latest
+  ) throws XMLStreamException {
+    while (nextChild(reader)) {
+      if (
+        STOP_PLACE.equals(reader.getLocalName()) &&
+        stopPlaceId.equals(reader.getAttributeValue(null, ID))
+      ) {
+        StopPlaceSummary stopPlace = readStopPlace(reader);
+        if (
+          latest == null ||
+          versionNumber(stopPlace.version()) > versionNumber(latest.version())
+        ) {
+          latest = stopPlace;
+        }
+      } else {
+        skipElement(reader);
+      }
+    }
+    return latest;
+  }
+
+  private static StopPlaceSummary readStopPlace(XMLStreamReader reader)
+    throws XMLStreamException {
+    String id = reader.getAttributeValue(null, ID);
+    String version = reader.getAttributeValue(null, VERSION);
+    String name = null;
+    StopPlaceSummary.Location centroid = null;
+    List<StopPlaceSummary.QuaySummary> quays = new ArrayList<>();
+    String parentSiteRef = null;
+    while (nextChild(reader)) {
+      switch (reader.getLocalName()) {
+        case NAME -> name = reader.getElementText();
+        case CENTROID -> centroid = readCentroid(reader);
+        case PARENT_SITE_REF -> {
+          parentSiteRef = reader.getAttributeValue(null, REF);
+          skipElement(reader);
+        }
+        case QUAYS -> {
+          while (nextChild(reader)) {
+            if (QUAY.equals(reader.getLocalName())) {
+              quays.add(readQuay(reader));
+            } else {
+              skipElement(reader);
+            }
+          }
+        }
+        default -> skipElement(reader);
+      }
+    }
+    return new StopPlaceSummary(
+      id,
+      version,
+      name,
+      centroid,
+      quays,
+      parentSiteRef
+    );
+  }
+
+  private static StopPlaceSummary.QuaySummary readQuay(XMLStreamReader reader)
+    throws XMLStreamException {
+    String id = reader.getAttributeValue(null, ID);
+    String version = reader.getAttributeValue(null, VERSION);
+    StopPlaceSummary.Location centroid = null;
+    while (nextChild(reader)) {
+      if (CENTROID.equals(reader.getLocalName())) {
+        centroid = readCentroid(reader);
+      } else {
+        skipElement(reader);
+      }
+    }
+    return new StopPlaceSummary.QuaySummary(id, version, centroid);
+  }
+
+  /**
+   * @return the location of the centroid, or null if it has no complete location.
+   */
+  private static StopPlaceSummary.Location readCentroid(
+    XMLStreamReader reader
+  ) throws XMLStreamException {
+    StopPlaceSummary.Location location = null;
+    while (nextChild(reader)) {
+      if (!LOCATION.equals(reader.getLocalName())) {
+        skipElement(reader);
+        continue;
+      }
+      Double longitude = null;
+      Double latitude = null;
+      while (nextChild(reader)) {
+        switch (reader.getLocalName()) {
+          case LONGITUDE -> longitude = parseCoordinate(reader);
+          case LATITUDE -> latitude = parseCoordinate(reader);
+          default -> skipElement(reader);
+        }
+      }
+      if (longitude != null && latitude != null) {
+        location = new StopPlaceSummary.Location(longitude, latitude);
+      }
+    }
+    return location;
+  }
+
+  private static Double parseCoordinate(XMLStreamReader reader)
+    throws XMLStreamException {
+    String text = reader.getElementText().strip();
+    try {
+      return Double.parseDouble(text);
+    } catch (NumberFormatException e) {
+      throw new XMLStreamException(
+        "Invalid coordinate " + text,
+        reader.getLocation(),
+        e
+      );
+    }
+  }
+
+  /**
+   * Move to the next child element of the current element.
+   *
+   * @return true if the reader is on the start of a child element, false if it is on the end of the current element.
+   */
+  private static boolean nextChild(XMLStreamReader reader)
+    throws XMLStreamException {
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        return true;
+      }
+      if (event == XMLStreamConstants.END_ELEMENT) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Move to the end of the current element.
+   */
+  private static void skipElement(XMLStreamReader reader)
+    throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0 && reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  /**
+   * @return the numeric value of a version, or -1 if it is not a number.
+   */
+  private static long versionNumber(String version) {
+    try {
+      return version == null ? -1 : Long.parseLong(version);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static XMLInputFactory inputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(
+      XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+      false
+    );
+    return factory;
+  }
+}
@@ -0,0 +1,94 @@
+package org.rutebanken.helper.stopplace.changelog.checkpoint;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutebanken.helper.stopplace.changelog.checkpoint.FileOffsetCheckpointStoreTest.TextSnapshot;
+
+class ChangelogCheckpointerTest {
+
+  private static final TopicPartition PARTITION = new TopicPartition(
+    "topic",
+    0
+  );
+
+  @TempDir
+  Path directory;
+
+  private FileOffsetCheckpointStore store;
+
+  @BeforeEach
+  void setUp() {
+    store = new FileOffsetCheckpointStore(directory);
+  }
+
+  @Test
+  void testNothingToRestoreWithoutCheckpoint() {
+    ChangelogCheckpointer checkpointer = new ChangelogCheckpointer(store);
+
+    assertFalse(checkpointer.hasCheckpoint());
+    assertEquals(Map.of(), checkpointer.restore());
+  }
+
+  @Test
+  void testCheckpointIsRestoredWithSnapshot() throws IOException {
+    TextSnapshot snapshot = new TextSnapshot();
+    snapshot.text = "after offset 10";
+    ChangelogCheckpointer checkpointer = new ChangelogCheckpointer(
+      store,
+      snapshot,
+      Duration.ZERO
+    );
+    checkpointer.restore();
+    checkpointer.processed(Map.of(PARTITION, 11L));
+
+    assertEquals(Map.of(PARTITION, 11L), store.loadOffsets());
+
+    TextSnapshot restoredSnapshot = new TextSnapshot();
+    ChangelogCheckpointer restarted = new ChangelogCheckpointer(
+      store,
+      restoredSnapshot,
+      Duration.ZERO
+    );
+    assertTrue(restarted.hasCheckpoint());
+    assertEquals(Map.of(PARTITION, 11L), restarted.restore());
+    assertEquals("after offset 10", restoredSnapshot.text);
+  }
+
+  @Test
+  void testCheckpointWaitsForInterval() throws IOException {
+    ChangelogCheckpointer checkpointer = new ChangelogCheckpointer(
+      store,
+      null,
+      Duration.ofHours(1)
+    );
+    checkpointer.restore();
+
+    checkpointer.processed(Map.of(PARTITION, 11L));
+    assertEquals(Map.of(), store.loadOffsets());
+
+    checkpointer.checkpoint();
+    assertEquals(Map.of(PARTITION, 11L), store.loadOffsets());
+  }
+
+  @Test
+  void testRestoreReturnsProcessedOffsetsOnReassignment() {
+    ChangelogCheckpointer checkpointer = new ChangelogCheckpointer(
+      store,
+      null,
+      Duration.ofHours(1)
+    );
+    checkpointer.restore();
+    checkpointer.processed(Map.of(PARTITION, 11L));
+
+    assertEquals(Map.of(PARTITION, 11L), checkpointer.restore());
+    assertFalse(checkpointer.hasCheckpoint());
+  }
+}
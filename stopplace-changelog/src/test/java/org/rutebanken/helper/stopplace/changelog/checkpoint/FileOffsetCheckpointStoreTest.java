@@ -0,0 +1,75 @@
+package org.rutebanken.helper.stopplace.changelog.checkpoint;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileOffsetCheckpointStoreTest {
+
+  @TempDir
+  Path directory;
+
+  private FileOffsetCheckpointStore store;
+
+  @BeforeEach
+  void setUp() {
+    store = new FileOffsetCheckpointStore(directory.resolve("checkpoint"));
+  }
+
+  @Test
+  void testOffsetsAreEmptyWithoutCheckpoint() throws IOException {
+    assertEquals(Map.of(), store.loadOffsets());
+  }
+
+  @Test
+  void testOffsetsRoundtrip() throws IOException {
+    Map<TopicPartition, Long> offsets = Map.of(
+      new TopicPartition("ror-stop-place-changelog", 0),
+      42L,
+      new TopicPartition("ror-stop-place-changelog", 11),
+      7L
+    );
+
+    store.saveOffsets(offsets);
+    store.saveOffsets(offsets);
+
+    assertEquals(offsets, store.loadOffsets());
+  }
+
+  @Test
+  void testSnapshotRoundtrip() throws IOException {
+    TextSnapshot snapshot = new TextSnapshot();
+    assertFalse(store.restoreSnapshot(snapshot));
+
+    snapshot.text = "state";
+    store.saveSnapshot(snapshot);
+    TextSnapshot restored = new TextSnapshot();
+
+    assertTrue(store.restoreSnapshot(restored));
+    assertEquals("state", restored.text);
+  }
+
+  static class TextSnapshot implements StopPlaceChangelogSnapshot {
+
+    String text;
+
+    @Override
+    public void writeSnapshot(OutputStream out) throws IOException {
+      out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void restoreSnapshot(InputStream in) throws IOException {
+      text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,255 @@
+package org.rutebanken.helper.stopplace.changelog.kafka;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.rutebanken.helper.stopplace.changelog.StopPlaceChangelogListener;
+import org.rutebanken.helper.stopplace.changelog.repository.StopPlaceRepository;
+import org.rutebanken.irkalla.avro.EnumType;
+import org.rutebanken.irkalla.avro.StopPlaceChangelogEvent;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+
+@ExtendWith(MockitoExtension.class)
+class BatchKafkaStopPlaceChangelogTest {
+
+  @Mock
+  private StopPlaceRepository stopPlaceRepository;
+
+  @Mock
+  private StopPlaceChangelogListener listener;
+
+  private BatchKafkaStopPlaceChangelog changelog;
+
+  @BeforeEach
+  void setUp() {
+    changelog = new BatchKafkaStopPlaceChangelog(stopPlaceRepository, 2);
+    changelog.registerStopPlaceChangelogListener(listener);
+  }
+
+  @Test
+  void testStopPlacesAreFetchedInChunks() {
+    when(stopPlaceRepository.getStopPlaceVersionUpdates(any()))
+      .thenAnswer(invocation -> {
+        Map<String, Long> versions = invocation.getArgument(0);
+        Map<String, byte[]> updates = new HashMap<>();
+        for (String id : versions.keySet()) {
+          updates.put(id, id.getBytes(StandardCharsets.UTF_8));
+        }
+        return updates;
+      });
+
+    changelog.consume(
+      List.of(
+        createRecord("NSR:StopPlace:1", EnumType.CREATE, 0),
+        createRecord("NSR:StopPlace:2", EnumType.UPDATE, 1),
+        createRecord("NSR:StopPlace:1", EnumType.UPDATE, 2),
+        createRecord("NSR:StopPlace:3", EnumType.REMOVE, 3),
+        createRecord("NSR:StopPlace:4", EnumType.DELETE, 4)
+      )
+    );
+
+    verify(stopPlaceRepository)
+      .getStopPlaceVersionUpdates(
+        Map.of("NSR:StopPlace:1", 1L, "NSR:StopPlace:2", 1L)
+      );
+    verify(stopPlaceRepository)
+      .getStopPlaceVersionUpdates(Map.of("NSR:StopPlace:3", 1L));
+    verify(stopPlaceRepository, never())
+      .getStopPlaceUpdate(anyString(), anyLong());
+
+    InOrder inOrder = inOrder(listener);
+    inOrder
+      .verify(listener)
+      .onStopPlaceCreated(eq("NSR:StopPlace:1"), any(InputStream.class));
+    inOrder
+      .verify(listener)
+      .onStopPlaceUpdated(eq("NSR:StopPlace:2"), any(InputStream.class));
+    inOrder
+      .verify(listener)
+      .onStopPlaceUpdated(eq("NSR:StopPlace:1"), any(InputStream.class));
+    inOrder
+      .verify(listener)
+      .onStopPlaceDeactivated(eq("NSR:StopPlace:3"), any(InputStream.class));
+    inOrder.verify(listener).onStopPlaceDeleted("NSR:StopPlace:4");
+  }
+
+  @Test
+  void testEachListenerReceivesTheStopPlaceData() {
+    List<String> received = new ArrayList<>();
+    StopPlaceChangelogListener readingListener =
+      new StopPlaceChangelogListener() {
+        @Override
+        public void onStopPlaceUpdated(String id, InputStream stopPlace) {
+          try {
+            received.add(
+              new String(stopPlace.readAllBytes(), StandardCharsets.UTF_8)
+            );
+          } catch (IOException e) {
+            fail(e);
+          }
+        }
+      };
+    changelog.unregisterStopPlaceChangelogListener(listener);
+    changelog.registerStopPlaceChangelogListener(readingListener);
+    when(
+      stopPlaceRepository.getStopPlaceVersionUpdates(
+        Map.of("NSR:StopPlace:1", 1L)
+      )
+    )
+      .thenReturn(Map.of("NSR:StopPlace:1", "<xml>1</xml>".getBytes()));
+
+    changelog.consume(
+      List.of(
+        createRecord("NSR:StopPlace:1", EnumType.UPDATE, 0),
+        createRecord("NSR:StopPlace:1", EnumType.UPDATE, 1)
+      )
+    );
+
+    assertEquals(List.of("<xml>1</xml>", "<xml>1</xml>"), received);
+  }
+
+  @Test
+  void testStopPlaceMissingFromBatchIsFetchedIndividually() {
+    when(stopPlaceRepository.getStopPlaceVersionUpdates(any()))
+      .thenReturn(Map.of());
+    when(stopPlaceRepository.getStopPlaceUpdate("NSR:StopPlace:1", 1L))
+      .thenReturn(new ByteArrayInputStream("<xml>1</xml>".getBytes()));
+
+    changelog.consume(
+      List.of(createRecord("NSR:StopPlace:1", EnumType.CREATE, 0))
+    );
+
+    verify(stopPlaceRepository).getStopPlaceUpdate("NSR:StopPlace:1", 1L);
+    verify(listener)
+      .onStopPlaceCreated(eq("NSR:StopPlace:1"), any(InputStream.class));
+  }
+
+  @Test
+  void testFailedChunkIsFetchedIndividually() {
+    when(stopPlaceRepository.getStopPlaceVersionUpdates(any()))
+      .thenThrow(new IllegalStateException("Request too large"));
+    when(stopPlaceRepository.getStopPlaceUpdate("NSR:StopPlace:1", 1L))
+      .thenReturn(new ByteArrayInputStream("<xml>1</xml>".getBytes()));
+
+    changelog.consume(
+      List.of(createRecord("NSR:StopPlace:1", EnumType.CREATE, 0))
+    );
+
+    verify(listener)
+      .onStopPlaceCreated(eq("NSR:StopPlace:1"), any(InputStream.class));
+  }
+
+  @Test
+  void testFailedListenerFailsTheBatchFromTheFailingRecord() {
+    when(stopPlaceRepository.getStopPlaceVersionUpdates(any()))
+      .thenReturn(
+        Map.of(
+          "NSR:StopPlace:1",
+          "<xml>1</xml>".getBytes(),
+          "NSR:StopPlace:2",
+          "<xml>2</xml>".getBytes()
+        )
+      );
+    RuntimeException failure = new IllegalStateException("Listener failure");
+    doThrow(failure)
+      .when(listener)
+      .onStopPlaceUpdated(eq("NSR:StopPlace:2"), any(InputStream.class));
+
+    BatchListenerFailedException exception = assertThrows(
+      BatchListenerFailedException.class,
+      () ->
+        changelog.consume(
+          List.of(
+            createRecord("NSR:StopPlace:1", EnumType.UPDATE, 0),
+            createRecord("NSR:StopPlace:2", EnumType.UPDATE, 1),
+            createRecord("NSR:StopPlace:3", EnumType.DELETE, 2)
+          )
+        )
+    );
+
+    assertEquals(1, exception.getIndex());
+    assertSame(failure, exception.getCause());
+    verify(listener)
+      .onStopPlaceUpdated(eq("NSR:StopPlace:1"), any(InputStream.class));
+    verify(listener, never()).onStopPlaceDeleted(anyString());
+  }
+
+  @Test
+  void testBatchOfDeletesDoesNotFetch() {
+    changelog.consume(
+      List.of(createRecord("NSR:StopPlace:1", EnumType.DELETE, 0))
+    );
+
+    verifyNoInteractions(stopPlaceRepository);
+    verify(listener).onStopPlaceDeleted("NSR:StopPlace:1");
+  }
+
+  @Test
+  void testSupersededEventsAreCoalesced() {
+    changelog = new BatchKafkaStopPlaceChangelog(stopPlaceRepository, 2, true);
+    changelog.registerStopPlaceChangelogListener(listener);
+    when(
+      stopPlaceRepository.getStopPlaceVersionUpdates(
+        Map.of("NSR:StopPlace:1", 1L)
+      )
+    )
+      .thenReturn(Map.of("NSR:StopPlace:1", "<xml>1</xml>".getBytes()));
+
+    changelog.consume(
+      List.of(
+        createRecord("NSR:StopPlace:1", EnumType.UPDATE, 0),
+        createRecord("NSR:StopPlace:2", EnumType.UPDATE, 1),
+        createRecord("NSR:StopPlace:1", EnumType.UPDATE, 2),
+        createRecord("NSR:StopPlace:2", EnumType.DELETE, 3)
+      )
+    );
+
+    verify(stopPlaceRepository)
+      .getStopPlaceVersionUpdates(Map.of("NSR:StopPlace:1", 1L));
+    verify(listener, times(1))
+      .onStopPlaceUpdated(eq("NSR:StopPlace:1"), any(InputStream.class));
+    verify(listener, never())
+      .onStopPlaceUpdated(eq("NSR:StopPlace:2"), any(InputStream.class));
+    verify(listener).onStopPlaceDeleted("NSR:StopPlace:2");
+  }
+
+  @Test
+  void testInvalidFetchBatchSizeThrowsException() {
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> new BatchKafkaStopPlaceChangelog(stopPlaceRepository, 0)
+    );
+  }
+
+  private ConsumerRecord<String, StopPlaceChangelogEvent> createRecord(
+    String stopPlaceId,
+    EnumType eventType,
+    long offset
+  ) {
+    StopPlaceChangelogEvent event = StopPlaceChangelogEvent
+      .newBuilder()
+      .setStopPlaceId(stopPlaceId)
+      .setStopPlaceVersion(1L)
+      .setEventType(eventType)
+      .build();
+    return new ConsumerRecord<>("topic", 0, offset, "key", event);
+  }
+}
@@ -0,0 +1,105 @@
+package org.rutebanken.helper.stopplace.changelog.kafka;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.irkalla.avro.EnumType;
+import org.rutebanken.irkalla.avro.StopPlaceChangelogEvent;
+
+class ChangelogEventCoalescerTest {
+
+  @Test
+  void testUpdatesCollapseIntoLatestVersion() {
+    var coalesced = ChangelogEventCoalescer.coalesce(
+      List.of(
+        createRecord("NSR:StopPlace:1", 1, EnumType.UPDATE, 0),
+        createRecord("NSR:StopPlace:2", 1, EnumType.UPDATE, 1),
+        createRecord("NSR:StopPlace:1", 2, EnumType.UPDATE, 2),
+        createRecord("NSR:StopPlace:1", 3, EnumType.REMOVE, 3)
+      )
+    );
+
+    assertEquals(List.of(1L, 3L), offsets(coalesced));
+    assertEquals(EnumType.REMOVE, coalesced.get(1).value().getEventType());
+  }
+
+  @Test
+  void testOutOfOrderVersionIsDropped() {
+    var coalesced = ChangelogEventCoalescer.coalesce(
+      List.of(
+        createRecord("NSR:StopPlace:1", 5, EnumType.UPDATE, 0),
+        createRecord("NSR:StopPlace:1", 4, EnumType.UPDATE, 1)
+      )
+    );
+
+    assertEquals(List.of(0L), offsets(coalesced));
+  }
+
+  @Test
+  void testCreateFollowedByUpdatesIsDeliveredAsCreate() {
+    var coalesced = ChangelogEventCoalescer.coalesce(
+      List.of(
+        createRecord("NSR:StopPlace:1", 1, EnumType.CREATE, 0),
+        createRecord("NSR:StopPlace:1", 2, EnumType.UPDATE, 1),
+        createRecord("NSR:StopPlace:1", 3, EnumType.UPDATE, 2)
+      )
+    );
+
+    assertEquals(List.of(2L), offsets(coalesced));
+    assertEquals(EnumType.CREATE, coalesced.get(0).value().getEventType());
+    assertEquals(3L, coalesced.get(0).value().getStopPlaceVersion());
+  }
+
+  @Test
+  void testDeleteCancelsPrecedingEvents() {
+    var coalesced = ChangelogEventCoalescer.coalesce(
+      List.of(
+        createRecord("NSR:StopPlace:1", 1, EnumType.CREATE, 0),
+        createRecord("NSR:StopPlace:1", 2, EnumType.UPDATE, 1),
+        createRecord("NSR:StopPlace:1", 2, EnumType.DELETE, 2),
+        createRecord("NSR:StopPlace:1", 2, EnumType.DELETE, 3)
+      )
+    );
+
+    assertEquals(List.of(3L), offsets(coalesced));
+    assertEquals(EnumType.DELETE, coalesced.get(0).value().getEventType());
+  }
+
+  @Test
+  void testEventsAfterDeleteAreKept() {
+    var coalesced = ChangelogEventCoalescer.coalesce(
+      List.of(
+        createRecord("NSR:StopPlace:1", 3, EnumType.UPDATE, 0),
+        createRecord("NSR:StopPlace:1", 3, EnumType.DELETE, 1),
+        createRecord("NSR:StopPlace:1", 1, EnumType.CREATE, 2),
+        createRecord("NSR:StopPlace:1", 2, EnumType.UPDATE, 3)
+      )
+    );
+
+    assertEquals(List.of(1L, 3L), offsets(coalesced));
+    assertEquals(EnumType.CREATE, coalesced.get(1).value().getEventType());
+  }
+
+  private static List<Long> offsets(
+    List<ConsumerRecord<String, StopPlaceChangelogEvent>> records
+  ) {
+    return records.stream().map(ConsumerRecord::offset).toList();
+  }
+
+  private static ConsumerRecord<String, StopPlaceChangelogEvent> createRecord(
+    String stopPlaceId,
+    long stopPlaceVersion,
+    EnumType eventType,
+    long offset
+  ) {
+    StopPlaceChangelogEvent event = StopPlaceChangelogEvent
+      .newBuilder()
+      .setStopPlaceId(stopPlaceId)
+      .setStopPlaceVersion(stopPlaceVersion)
+      .setEventType(eventType)
+      .build();
+    return new ConsumerRecord<>("topic", 0, offset, "key", event);
+  }
+}
@@ -1,22 +1,44 @@
 package org.rutebanken.helper.stopplace.changelog.kafka;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.rutebanken.helper.stopplace.changelog.StopPlaceChangelogListener;
+import org.rutebanken.helper.stopplace.changelog.StopPlaceSummaryListener;
+import org.rutebanken.helper.stopplace.changelog.checkpoint.ChangelogCheckpointer;
+import org.rutebanken.helper.stopplace.changelog.repository.StopPlaceFetchException;
 import org.rutebanken.helper.stopplace.changelog.repository.StopPlaceRepository;
+import org.rutebanken.helper.stopplace.changelog.summary.StopPlaceSummary;
 import org.rutebanken.irkalla.avro.EnumType;
 import org.rutebanken.irkalla.avro.StopPlaceChangelogEvent;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @ExtendWith(MockitoExtension.class)
 class KafkaStopPlaceChangelogTest {
@@ -87,11 +109,8 @@ class KafkaStopPlaceChangelogTest {
 
   @Test
   void testConsumeCreateEvent() {
-    InputStream mockData = new ByteArrayInputStream(
-      "<xml>test</xml>".getBytes()
-    );
-    when(stopPlaceRepository.getStopPlaceUpdate("NSR:StopPlace:1"))
-      .thenReturn(mockData);
+    when(stopPlaceRepository.fetchStopPlaceContent("NSR:StopPlace:1", 1L))
+      .thenReturn(content("<xml>test</xml>"));
 
     changelog.registerStopPlaceChangelogListener(listener);
 
@@ -104,18 +123,15 @@ class KafkaStopPlaceChangelogTest {
 
     changelog.consume(record);
 
-    verify(stopPlaceRepository).getStopPlaceUpdate("NSR:StopPlace:1");
+    verify(stopPlaceRepository).fetchStopPlaceContent("NSR:StopPlace:1", 1L);
     verify(listener)
       .onStopPlaceCreated(eq("NSR:StopPlace:1"), any(InputStream.class));
   }
 
   @Test
   void testConsumeUpdateEvent() {
-    InputStream mockData = new ByteArrayInputStream(
-      "<xml>test</xml>".getBytes()
-    );
-    when(stopPlaceRepository.getStopPlaceUpdate("NSR:StopPlace:1"))
-      .thenReturn(mockData);
+    when(stopPlaceRepository.fetchStopPlaceContent("NSR:StopPlace:1", 1L))
+      .thenReturn(content("<xml>test</xml>"));
 
     changelog.registerStopPlaceChangelogListener(listener);
 
@@ -128,18 +144,15 @@ class KafkaStopPlaceChangelogTest {
 
     changelog.consume(record);
 
-    verify(stopPlaceRepository).getStopPlaceUpdate("NSR:StopPlace:1");
+    verify(stopPlaceRepository).fetchStopPlaceContent("NSR:StopPlace:1", 1L);
     verify(listener)
       .onStopPlaceUpdated(eq("NSR:StopPlace:1"), any(InputStream.class));
   }
 
   @Test
   void testConsumeRemoveEvent() {
-    InputStream mockData = new ByteArrayInputStream(
-      "<xml>test</xml>".getBytes()
-    );
-    when(stopPlaceRepository.getStopPlaceUpdate("NSR:StopPlace:1"))
-      .thenReturn(mockData);
+    when(stopPlaceRepository.fetchStopPlaceContent("NSR:StopPlace:1", 1L))
+      .thenReturn(content("<xml>test</xml>"));
 
     changelog.registerStopPlaceChangelogListener(listener);
 
@@ -152,7 +165,7 @@ class KafkaStopPlaceChangelogTest {
 
     changelog.consume(record);
 
-    verify(stopPlaceRepository).getStopPlaceUpdate("NSR:StopPlace:1");
+    verify(stopPlaceRepository).fetchStopPlaceContent("NSR:StopPlace:1", 1L);
     verify(listener)
       .onStopPlaceDeactivated(eq("NSR:StopPlace:1"), any(InputStream.class));
   }
@@ -170,10 +183,215 @@ class KafkaStopPlaceChangelogTest {
 
     changelog.consume(record);
 
-    verify(stopPlaceRepository, never()).getStopPlaceUpdate(anyString());
+    verify(stopPlaceRepository, never())
+      .fetchStopPlaceContent(anyString(), anyLong());
     verify(listener).onStopPlaceDeleted("NSR:StopPlace:1");
   }
 
+  @Test
+  void testStopPlaceDataIsStreamedToEachListener() {
+    List<String> received = new ArrayList<>();
+    when(stopPlaceRepository.fetchStopPlaceContent("NSR:StopPlace:1", 1L))
+      .thenReturn(content("<xml>", "test", "</xml>"))
+      .thenReturn(content("<xml>", "test", "</xml>"));
+    changelog.registerStopPlaceChangelogListener(readingListener(received));
+    StopPlaceChangelogEvent event = createEvent(
+      "NSR:StopPlace:1",
+      EnumType.UPDATE
+    );
+    ConsumerRecord<String, StopPlaceChangelogEvent> record =
+      new ConsumerRecord<>("topic", 0, 0, "key", event);
+
+    // a single listener reads the response body as it is received
+    changelog.consume(record);
+    assertEquals(List.of("<xml>test</xml>"), received);
+
+    // several listeners read the response body buffered in memory
+    changelog.registerStopPlaceChangelogListener(readingListener(received));
+    changelog.consume(record);
+    assertEquals(
+      List.of("<xml>test</xml>", "<xml>test</xml>", "<xml>test</xml>"),
+      received
+    );
+    assertEquals(0, changelog.spilledEventCount());
+  }
+
+  @Test
+  void testStopPlaceDataAboveThresholdIsSpilled() {
+    List<String> received = new ArrayList<>();
+    when(stopPlaceRepository.fetchStopPlaceContent("NSR:StopPlace:1", 1L))
+      .thenReturn(content("<xml>", "test", "</xml>"));
+    changelog.setSpillThreshold(8);
+    changelog.registerStopPlaceChangelogListener(readingListener(received));
+    changelog.registerStopPlaceChangelogListener(readingListener(received));
+    StopPlaceChangelogEvent event = createEvent(
+      "NSR:StopPlace:1",
+      EnumType.UPDATE
+    );
+
+    changelog.consume(new ConsumerRecord<>("topic", 0, 0, "key", event));
+
+    assertEquals(List.of("<xml>test</xml>", "<xml>test</xml>"), received);
+    assertEquals(1, changelog.spilledEventCount());
+  }
+
+  @Test
+  void testBodyErrorHandledByTheListenerFailsTheEvent() {
+    IOException bodyFailure = new IOException("Connection reset");
+    when(stopPlaceRepository.fetchStopPlaceContent("NSR:StopPlace:1", 1L))
+      .thenReturn(
+        content("<xml>")
+          .map(body -> Flux.concat(body, Flux.error(bodyFailure)))
+      );
+    AtomicBoolean readFailed = new AtomicBoolean();
+    changelog.registerStopPlaceChangelogListener(
+      new StopPlaceChangelogListener() {
+        @Override
+        public void onStopPlaceUpdated(String id, InputStream stopPlace) {
+          try {
+            stopPlace.readAllBytes();
+          } catch (IOException e) {
+            readFailed.set(true);
+          }
+        }
+      }
+    );
+    StopPlaceChangelogEvent event = createEvent(
+      "NSR:StopPlace:1",
+      EnumType.UPDATE
+    );
+
+    StopPlaceFetchException exception = assertThrows(
+      StopPlaceFetchException.class,
+      () -> changelog.consume(new ConsumerRecord<>("topic", 0, 0, "key", event))
+    );
+
+    assertTrue(readFailed.get());
+    assertSame(bodyFailure, exception.getCause());
+  }
+
+  @Test
+  void testStopPlaceIsNotFetchedWithoutListener() {
+    AtomicBoolean subscribed = new AtomicBoolean();
+    when(stopPlaceRepository.fetchStopPlaceContent("NSR:StopPlace:1", 1L))
+      .thenReturn(
+        content("<xml>test</xml>")
+          .doOnSubscribe(subscription -> subscribed.set(true))
+      );
+    StopPlaceChangelogEvent event = createEvent(
+      "NSR:StopPlace:1",
+      EnumType.UPDATE
+    );
+
+    changelog.consume(new ConsumerRecord<>("topic", 0, 0, "key", event));
+
+    assertFalse(subscribed.get());
+  }
+
+  @Test
+  void testSummaryListenerReceivesTheSummary() {
+    StopPlaceSummaryListener summaryListener = mock(
+      StopPlaceSummaryListener.class
+    );
+    when(stopPlaceRepository.fetchStopPlaceContent("NSR:StopPlace:1", 1L))
+      .thenReturn(
+        content(
+          "<PublicationDelivery><stopPlaces>",
+          "<StopPlace id=\"NSR:StopPlace:1\" version=\"1\">",
+          "<Name>Oslo S</Name></StopPlace>",
+          "</stopPlaces></PublicationDelivery>"
+        )
+      );
+    changelog.registerStopPlaceChangelogListener(summaryListener);
+    changelog.registerStopPlaceChangelogListener(listener);
+    StopPlaceChangelogEvent event = createEvent(
+      "NSR:StopPlace:1",
+      EnumType.UPDATE
+    );
+
+    changelog.consume(new ConsumerRecord<>("topic", 0, 0, "key", event));
+
+    verify(summaryListener)
+      .onStopPlaceUpdated(
+        eq(
+          new StopPlaceSummary(
+            "NSR:StopPlace:1",
+            "1",
+            "Oslo S",
+            null,
+            List.of(),
+            null
+          )
+        ),
+        any(InputStream.class)
+      );
+    verify(summaryListener, never())
+      .onStopPlaceUpdated(anyString(), any(InputStream.class));
+    verify(listener)
+      .onStopPlaceUpdated(eq("NSR:StopPlace:1"), any(InputStream.class));
+  }
+
+  @Test
+  void testSingleSummaryListenerReadsTheDataFromMemory() {
+    String stopPlace =
+      "<PublicationDelivery><stopPlaces>" +
+      "<StopPlace id=\"NSR:StopPlace:1\" version=\"1\">" +
+      "<Name>Oslo S</Name></StopPlace>" +
+      "</stopPlaces></PublicationDelivery>";
+    when(stopPlaceRepository.fetchStopPlaceContent("NSR:StopPlace:1", 1L))
+      .thenReturn(content(stopPlace));
+    List<String> received = new ArrayList<>();
+    changelog.registerStopPlaceChangelogListener(
+      new StopPlaceSummaryListener() {
+        @Override
+        public void onStopPlaceUpdated(
+          StopPlaceSummary summary,
+          InputStream data
+        ) {
+          try {
+            received.add(summary.name());
+            received.add(
+              new String(data.readAllBytes(), StandardCharsets.UTF_8)
+            );
+          } catch (IOException e) {
+            fail(e);
+          }
+        }
+      }
+    );
+    StopPlaceChangelogEvent event = createEvent(
+      "NSR:StopPlace:1",
+      EnumType.UPDATE
+    );
+
+    changelog.consume(new ConsumerRecord<>("topic", 0, 0, "key", event));
+
+    // the summary and the listener read their own stream of the same buffered bytes
+    assertEquals(List.of("Oslo S", stopPlace), received);
+    assertEquals(0, changelog.spilledEventCount());
+  }
+
+  @Test
+  void testSummaryListenerWithoutStopPlaceReceivesTheData() {
+    StopPlaceSummaryListener summaryListener = mock(
+      StopPlaceSummaryListener.class
+    );
+    when(stopPlaceRepository.fetchStopPlaceContent("NSR:StopPlace:1", 1L))
+      .thenReturn(content("<PublicationDelivery/>"));
+    changelog.registerStopPlaceChangelogListener(summaryListener);
+    StopPlaceChangelogEvent event = createEvent(
+      "NSR:StopPlace:1",
+      EnumType.CREATE
+    );
+
+    changelog.consume(new ConsumerRecord<>("topic", 0, 0, "key", event));
+
+    verify(summaryListener)
+      .onStopPlaceCreated(eq("NSR:StopPlace:1"), any(InputStream.class));
+    verify(summaryListener, never())
+      .onStopPlaceCreated(any(StopPlaceSummary.class), any(InputStream.class));
+  }
+
   @Test
   void testMultipleListeners() {
     StopPlaceChangelogListener listener2 = mock(
@@ -196,6 +414,63 @@ class KafkaStopPlaceChangelogTest {
     verify(listener2).onStopPlaceDeleted("NSR:StopPlace:1");
   }
 
+  @Test
+  void testListenersAreCalledConcurrentlyOnExecutor() {
+    CyclicBarrier barrier = new CyclicBarrier(2);
+    AtomicInteger counter = new AtomicInteger(0);
+    for (int i = 0; i < 2; i++) {
+      changelog.registerStopPlaceChangelogListener(
+        new StopPlaceChangelogListener() {
+          @Override
+          public void onStopPlaceDeleted(String id) {
+            try {
+              // only passes if both listeners are called at the same time
+              barrier.await(10, TimeUnit.SECONDS);
+            } catch (Exception e) {
+              fail("Listeners were not called concurrently", e);
+            }
+            counter.incrementAndGet();
+          }
+        }
+      );
+    }
+    StopPlaceChangelogEvent event = createEvent(
+      "NSR:StopPlace:1",
+      EnumType.DELETE
+    );
+
+    try (
+      ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()
+    ) {
+      changelog.setListenerExecutor(executor);
+      changelog.consume(new ConsumerRecord<>("topic", 0, 0, "key", event));
+    }
+
+    assertEquals(2, counter.get());
+  }
+
+  @Test
+  void testListenerCanBeRegisteredDuringDispatch() {
+    changelog.registerStopPlaceChangelogListener(
+      new StopPlaceChangelogListener() {
+        @Override
+        public void onStopPlaceDeleted(String id) {
+          changelog.registerStopPlaceChangelogListener(listener);
+        }
+      }
+    );
+    StopPlaceChangelogEvent event = createEvent(
+      "NSR:StopPlace:1",
+      EnumType.DELETE
+    );
+
+    changelog.consume(new ConsumerRecord<>("topic", 0, 0, "key", event));
+    verify(listener, never()).onStopPlaceDeleted(anyString());
+
+    changelog.consume(new ConsumerRecord<>("topic", 0, 1, "key", event));
+    verify(listener).onStopPlaceDeleted("NSR:StopPlace:1");
+  }
+
   @Test
   void testAllListenersExecute() {
     AtomicInteger counter = new AtomicInteger(0);
@@ -231,6 +506,130 @@ class KafkaStopPlaceChangelogTest {
     assertEquals(2, counter.get(), "Both listeners should have executed");
   }
 
+  @Test
+  void testFailingListenerDoesNotStopTheOthers() {
+    AtomicInteger counter = new AtomicInteger(0);
+    changelog.registerStopPlaceChangelogListener(
+      new StopPlaceChangelogListener() {
+        @Override
+        public void onStopPlaceDeleted(String id) {
+          throw new IllegalStateException("failure");
+        }
+      }
+    );
+    changelog.registerStopPlaceChangelogListener(
+      new StopPlaceChangelogListener() {
+        @Override
+        public void onStopPlaceDeleted(String id) {
+          counter.incrementAndGet();
+        }
+      }
+    );
+    StopPlaceChangelogEvent event = createEvent(
+      "NSR:StopPlace:1",
+      EnumType.DELETE
+    );
+    ConsumerRecord<String, StopPlaceChangelogEvent> record =
+      new ConsumerRecord<>("topic", 0, 0, "key", event);
+
+    assertThrows(IllegalStateException.class, () -> changelog.consume(record));
+    assertEquals(1, counter.get(), "The second listener should have executed");
+  }
+
+  @Test
+  void testPartitionsAreSoughtToSeekTime() {
+    Instant seekTime = Instant.parse("2024-01-01T00:00:00Z");
+    changelog.setSeekTime(() -> seekTime);
+    ConsumerSeekAware.ConsumerSeekCallback callback = mock(
+      ConsumerSeekAware.ConsumerSeekCallback.class
+    );
+    TopicPartition partition = new TopicPartition("topic", 0);
+
+    changelog.onPartitionsAssigned(Map.of(partition, 10L), callback);
+
+    verify(callback)
+      .seekToTimestamp(Set.of(partition), seekTime.toEpochMilli());
+  }
+
+  @Test
+  void testPartitionsAreSoughtToCheckpoint() {
+    Instant seekTime = Instant.parse("2024-01-01T00:00:00Z");
+    TopicPartition checkpointed = new TopicPartition("topic", 0);
+    TopicPartition added = new TopicPartition("topic", 1);
+    ChangelogCheckpointer checkpointer = mock(ChangelogCheckpointer.class);
+    when(checkpointer.restore()).thenReturn(Map.of(checkpointed, 42L));
+    changelog.setCheckpointer(checkpointer);
+    changelog.setSeekTime(() -> seekTime);
+    ConsumerSeekAware.ConsumerSeekCallback callback = mock(
+      ConsumerSeekAware.ConsumerSeekCallback.class
+    );
+
+    changelog.onPartitionsAssigned(
+      Map.of(checkpointed, 0L, added, 0L),
+      callback
+    );
+
+    verify(callback).seek("topic", 0, 42L);
+    verify(callback).seekToTimestamp(Set.of(added), seekTime.toEpochMilli());
+  }
+
+  @Test
+  void testProcessedOffsetIsReportedToCheckpointer() {
+    ChangelogCheckpointer checkpointer = mock(ChangelogCheckpointer.class);
+    changelog.setCheckpointer(checkpointer);
+    StopPlaceChangelogEvent event = createEvent(
+      "NSR:StopPlace:1",
+      EnumType.DELETE
+    );
+
+    changelog.consume(new ConsumerRecord<>("topic", 2, 41, "key", event));
+
+    verify(checkpointer).processed(Map.of(new TopicPartition("topic", 2), 42L));
+  }
+
+  @Test
+  void testPartitionsAreNotSoughtWithoutSeekTime() {
+    ConsumerSeekAware.ConsumerSeekCallback callback = mock(
+      ConsumerSeekAware.ConsumerSeekCallback.class
+    );
+
+    changelog.onPartitionsAssigned(
+      Map.of(new TopicPartition("topic", 0), 10L),
+      callback
+    );
+
+    verifyNoInteractions(callback);
+  }
+
+  private static StopPlaceChangelogListener readingListener(
+    List<String> received
+  ) {
+    return new StopPlaceChangelogListener() {
+      @Override
+      public void onStopPlaceUpdated(String id, InputStream stopPlace) {
+        try {
+          received.add(
+            new String(stopPlace.readAllBytes(), StandardCharsets.UTF_8)
+          );
+        } catch (IOException e) {
+          fail(e);
+        }
+      }
+    };
+  }
+
+  private static Mono<Flux<DataBuffer>> content(String... chunks) {
+    return Mono.fromSupplier(() ->
+      Flux
+        .fromArray(chunks)
+        .map(chunk ->
+          DefaultDataBufferFactory.sharedInstance.wrap(
+            chunk.getBytes(StandardCharsets.UTF_8)
+          )
+        )
+    );
+  }
+
   private StopPlaceChangelogEvent createEvent(
     String stopPlaceId,
     EnumType eventType
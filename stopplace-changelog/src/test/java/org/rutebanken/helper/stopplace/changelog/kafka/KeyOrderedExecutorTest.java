@@ -0,0 +1,102 @@
+package org.rutebanken.helper.stopplace.changelog.kafka;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class KeyOrderedExecutorTest {
+
+  @Test
+  void testTasksWithSameKeyRunInOrder() {
+    List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    try (KeyOrderedExecutor executor = new KeyOrderedExecutor(4, 100)) {
+      for (int i = 0; i < 50; i++) {
+        int task = i;
+        futures.add(executor.submit("key", () -> executed.add(task)));
+      }
+      CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+    }
+    for (int i = 0; i < 50; i++) {
+      assertEquals(i, (int) executed.get(i));
+    }
+  }
+
+  @Test
+  void testTasksWithDifferentKeysRunConcurrently() throws Exception {
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    try (KeyOrderedExecutor executor = new KeyOrderedExecutor(2, 100)) {
+      CompletableFuture<Void> first = executor.submit(
+        "a",
+        () -> startAndAwait(bothStarted)
+      );
+      CompletableFuture<Void> second = executor.submit(
+        "b",
+        () -> startAndAwait(bothStarted)
+      );
+      first.get(10, TimeUnit.SECONDS);
+      second.get(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  void testFailedTaskDoesNotBlockFollowingTasks() throws Exception {
+    AtomicInteger executed = new AtomicInteger();
+    try (KeyOrderedExecutor executor = new KeyOrderedExecutor(1, 100)) {
+      CompletableFuture<Void> failed = executor.submit(
+        "key",
+        () -> {
+          throw new IllegalStateException("failure");
+        }
+      );
+      executor
+        .submit("key", executed::incrementAndGet)
+        .get(10, TimeUnit.SECONDS);
+      assertTrue(failed.isCompletedExceptionally());
+    }
+    assertEquals(1, executed.get());
+  }
+
+  @Test
+  void testSubmitWaitsForCapacity() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    try (KeyOrderedExecutor executor = new KeyOrderedExecutor(2, 1)) {
+      executor.submit("a", () -> awaitQuietly(release));
+      CompletableFuture<Void> submitted = CompletableFuture.runAsync(() ->
+        executor.submit("b", () -> {})
+      );
+      Thread.sleep(100);
+      assertFalse(submitted.isDone());
+      release.countDown();
+      submitted.get(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  void testInvalidParallelismThrowsException() {
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> new KeyOrderedExecutor(0, 1)
+    );
+  }
+
+  private static void startAndAwait(CountDownLatch started) {
+    started.countDown();
+    awaitQuietly(started);
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      assertTrue(latch.await(10, TimeUnit.SECONDS));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,325 @@
+package org.rutebanken.helper.stopplace.changelog.kafka;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.InvalidGroupIdException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.rutebanken.helper.stopplace.changelog.StopPlaceChangelogListener;
+import org.rutebanken.helper.stopplace.changelog.repository.StopPlaceRepository;
+import org.rutebanken.irkalla.avro.EnumType;
+import org.rutebanken.irkalla.avro.StopPlaceChangelogEvent;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@ExtendWith(MockitoExtension.class)
+class ParallelKafkaStopPlaceChangelogTest {
+
+  private static final TopicPartition PARTITION = new TopicPartition(
+    "topic",
+    0
+  );
+
+  @Mock
+  private StopPlaceRepository stopPlaceRepository;
+
+  @Mock
+  private Consumer<?, ?> consumer;
+
+  private ParallelKafkaStopPlaceChangelog changelog;
+
+  @BeforeEach
+  void setUp() {
+    changelog =
+      new ParallelKafkaStopPlaceChangelog(stopPlaceRepository, 4, 100);
+  }
+
+  @AfterEach
+  void tearDown() {
+    changelog.close();
+  }
+
+  @Test
+  void testAllEventsAreDeliveredAndCommittable() {
+    List<String> deleted = Collections.synchronizedList(new ArrayList<>());
+    changelog.registerStopPlaceChangelogListener(
+      new StopPlaceChangelogListener() {
+        @Override
+        public void onStopPlaceDeleted(String id) {
+          deleted.add(id);
+        }
+      }
+    );
+    List<ConsumerRecord<String, StopPlaceChangelogEvent>> records =
+      new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      records.add(createRecord("NSR:StopPlace:" + (i % 2), i));
+    }
+
+    changelog.consume(records, consumer);
+    changelog.close();
+
+    assertEquals(20, deleted.size());
+    assertEquals(
+      10,
+      deleted.stream().filter("NSR:StopPlace:0"::equals).count()
+    );
+    assertEquals(
+      Map.of(PARTITION, 20L),
+      changelog.committableOffsets(),
+      "All events are processed"
+    );
+  }
+
+  @Test
+  void testCommitStopsAtOldestEventInFlight() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch othersDone = new CountDownLatch(2);
+    changelog.registerStopPlaceChangelogListener(
+      new StopPlaceChangelogListener() {
+        @Override
+        public void onStopPlaceDeleted(String id) {
+          if (id.equals("NSR:StopPlace:slow")) {
+            awaitQuietly(release);
+          } else {
+            othersDone.countDown();
+          }
+        }
+      }
+    );
+
+    changelog.consume(
+      List.of(
+        createRecord("NSR:StopPlace:fast", 10),
+        createRecord("NSR:StopPlace:slow", 11),
+        createRecord("NSR:StopPlace:other", 12)
+      ),
+      consumer
+    );
+    assertTrue(othersDone.await(10, TimeUnit.SECONDS));
+
+    changelog.consume(List.of(), consumer);
+    verify(consumer, atLeastOnce())
+      .commitSync(Map.of(PARTITION, new OffsetAndMetadata(11)));
+    verify(consumer, never())
+      .commitSync(Map.of(PARTITION, new OffsetAndMetadata(13)));
+
+    release.countDown();
+    changelog.close();
+    changelog.consume(List.of(), consumer);
+    verify(consumer).commitSync(Map.of(PARTITION, new OffsetAndMetadata(13)));
+  }
+
+  @Test
+  void testOffsetsAreNotCommittedWithoutConsumerGroup() {
+    when(consumer.groupMetadata())
+      .thenThrow(new InvalidGroupIdException("no group"));
+
+    changelog.consume(List.of(createRecord("NSR:StopPlace:1", 0)), consumer);
+
+    verify(consumer, never()).commitSync(anyMap());
+  }
+
+  @Test
+  void testFailedEventIsNotCommitted() throws Exception {
+    CountDownLatch retried = new CountDownLatch(2);
+    changelog.close();
+    changelog =
+      new ParallelKafkaStopPlaceChangelog(
+        stopPlaceRepository,
+        4,
+        100,
+        false,
+        Duration.ofMillis(10),
+        Duration.ofMillis(10),
+        Integer.MAX_VALUE
+      );
+    changelog.registerStopPlaceChangelogListener(
+      new StopPlaceChangelogListener() {
+        @Override
+        public void onStopPlaceDeleted(String id) {
+          if (id.equals("NSR:StopPlace:1")) {
+            retried.countDown();
+            throw new IllegalStateException("failure");
+          }
+        }
+      }
+    );
+
+    changelog.consume(
+      List.of(
+        createRecord("NSR:StopPlace:1", 0),
+        createRecord("NSR:StopPlace:2", 1)
+      ),
+      consumer
+    );
+    assertTrue(retried.await(10, TimeUnit.SECONDS));
+    changelog.consume(List.of(), consumer);
+    changelog.close();
+    changelog.consume(List.of(), consumer);
+
+    assertEquals(Map.of(PARTITION, 0L), changelog.committableOffsets());
+    verify(consumer, never())
+      .commitSync(Map.of(PARTITION, new OffsetAndMetadata(1)));
+    verify(consumer, never())
+      .commitSync(Map.of(PARTITION, new OffsetAndMetadata(2)));
+  }
+
+  @Test
+  void testFailedEventIsRetried() {
+    when(stopPlaceRepository.fetchStopPlaceContent("NSR:StopPlace:1", 1L))
+      .thenReturn(Mono.error(new IllegalStateException("failure")))
+      .thenReturn(Mono.just(Flux.empty()));
+    changelog.close();
+    changelog =
+      new ParallelKafkaStopPlaceChangelog(
+        stopPlaceRepository,
+        4,
+        100,
+        false,
+        Duration.ofMillis(10),
+        Duration.ofMillis(10),
+        3
+      );
+    List<String> updated = Collections.synchronizedList(new ArrayList<>());
+    changelog.registerStopPlaceChangelogListener(
+      new StopPlaceChangelogListener() {
+        @Override
+        public void onStopPlaceUpdated(String id, InputStream stopPlace) {
+          updated.add(id);
+        }
+      }
+    );
+
+    changelog.consume(
+      List.of(
+        createRecord("NSR:StopPlace:1", 0, EnumType.UPDATE),
+        createRecord("NSR:StopPlace:1", 1)
+      ),
+      consumer
+    );
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (
+      !changelog.committableOffsets().equals(Map.of(PARTITION, 2L)) &&
+      System.nanoTime() < deadline
+    ) {
+      Thread.onSpinWait();
+    }
+    changelog.close();
+
+    assertEquals(Map.of(PARTITION, 2L), changelog.committableOffsets());
+    assertEquals(List.of("NSR:StopPlace:1"), updated);
+    verify(stopPlaceRepository, times(2))
+      .fetchStopPlaceContent("NSR:StopPlace:1", 1L);
+  }
+
+  @Test
+  void testFailedEventIsRecoveredAfterMaxAttempts() {
+    AtomicInteger attempts = new AtomicInteger();
+    List<Long> recovered = Collections.synchronizedList(new ArrayList<>());
+    changelog.close();
+    changelog =
+      new ParallelKafkaStopPlaceChangelog(
+        stopPlaceRepository,
+        4,
+        100,
+        false,
+        Duration.ofMillis(10),
+        Duration.ofMillis(10),
+        3
+      ) {
+        @Override
+        protected void recover(
+          ConsumerRecord<String, StopPlaceChangelogEvent> message,
+          RuntimeException failure
+        ) {
+          recovered.add(message.offset());
+        }
+      };
+    changelog.registerStopPlaceChangelogListener(
+      new StopPlaceChangelogListener() {
+        @Override
+        public void onStopPlaceDeleted(String id) {
+          if (id.equals("NSR:StopPlace:1")) {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("failure");
+          }
+        }
+      }
+    );
+
+    changelog.consume(
+      List.of(
+        createRecord("NSR:StopPlace:1", 0),
+        createRecord("NSR:StopPlace:1", 1)
+      ),
+      consumer
+    );
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (
+      !changelog.committableOffsets().equals(Map.of(PARTITION, 2L)) &&
+      System.nanoTime() < deadline
+    ) {
+      Thread.onSpinWait();
+    }
+    changelog.close();
+
+    // the first event is skipped after its attempts, so the next event of the stop place is processed
+    assertEquals(Map.of(PARTITION, 2L), changelog.committableOffsets());
+    assertEquals(6, attempts.get());
+    assertEquals(List.of(0L, 1L), recovered);
+  }
+
+  private ConsumerRecord<String, StopPlaceChangelogEvent> createRecord(
+    String stopPlaceId,
+    long offset
+  ) {
+    return createRecord(stopPlaceId, offset, EnumType.DELETE);
+  }
+
+  private ConsumerRecord<String, StopPlaceChangelogEvent> createRecord(
+    String stopPlaceId,
+    long offset,
+    EnumType eventType
+  ) {
+    StopPlaceChangelogEvent event = StopPlaceChangelogEvent
+      .newBuilder()
+      .setStopPlaceId(stopPlaceId)
+      .setStopPlaceVersion(1L)
+      .setEventType(eventType)
+      .build();
+    return new ConsumerRecord<>(
+      PARTITION.topic(),
+      PARTITION.partition(),
+      offset,
+      "key",
+      event
+    );
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
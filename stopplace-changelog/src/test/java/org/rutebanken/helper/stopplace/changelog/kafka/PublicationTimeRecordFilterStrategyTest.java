@@ -2,11 +2,18 @@ package org.rutebanken.helper.stopplace.changelog.kafka;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.Map;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutebanken.helper.stopplace.changelog.checkpoint.ChangelogCheckpointer;
+import org.rutebanken.helper.stopplace.changelog.checkpoint.FileOffsetCheckpointStore;
 import org.rutebanken.irkalla.avro.EnumType;
 import org.rutebanken.irkalla.avro.StopPlaceChangelogEvent;
 
@@ -14,6 +21,10 @@ class PublicationTimeRecordFilterStrategyTest {
 
   private static final String STOP_PLACE_ID = "NSR:StopPlace:123";
   private static final String TOPIC = "stop-place-changelog";
+
+  @TempDir
+  Path directory;
+
   private Instant cutoffTime;
   private PublicationTimeRecordFilterStrategy filterStrategy;
 
@@ -297,4 +308,37 @@ class PublicationTimeRecordFilterStrategyTest {
       "publicationTime() should return the time passed to constructor"
     );
   }
+
+  @Test
+  void testOnlyPartitionsResumedFromCheckpointAreNotFiltered()
+    throws IOException {
+    FileOffsetCheckpointStore store = new FileOffsetCheckpointStore(directory);
+    store.saveOffsets(Map.of(new TopicPartition(TOPIC, 0), 10L));
+    CheckpointAwarePublicationTimeRecordFilterStrategy checkpointFilter =
+      new CheckpointAwarePublicationTimeRecordFilterStrategy(
+        cutoffTime,
+        new ChangelogCheckpointer(store)
+      );
+    StopPlaceChangelogEvent event = StopPlaceChangelogEvent
+      .newBuilder()
+      .setStopPlaceId(STOP_PLACE_ID)
+      .setStopPlaceVersion(1L)
+      .setStopPlaceChanged(cutoffTime.minus(1, ChronoUnit.HOURS))
+      .setEventType(EnumType.UPDATE)
+      .build();
+
+    assertEquals(cutoffTime, checkpointFilter.getPublicationTime());
+    assertFalse(
+      checkpointFilter.filter(
+        new ConsumerRecord<>(TOPIC, 0, 10L, STOP_PLACE_ID, event)
+      ),
+      "Events of a partition resumed from the checkpoint should not be filtered"
+    );
+    assertTrue(
+      checkpointFilter.filter(
+        new ConsumerRecord<>(TOPIC, 1, 0L, STOP_PLACE_ID, event)
+      ),
+      "Events of a partition missing from the checkpoint should be filtered"
+    );
+  }
 }
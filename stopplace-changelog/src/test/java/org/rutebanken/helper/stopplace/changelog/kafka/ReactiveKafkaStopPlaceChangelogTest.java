@@ -0,0 +1,150 @@
+package org.rutebanken.helper.stopplace.changelog.kafka;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.rutebanken.helper.stopplace.changelog.StopPlaceChangelogListener;
+import org.rutebanken.helper.stopplace.changelog.repository.StopPlaceFetchException;
+import org.rutebanken.helper.stopplace.changelog.repository.StopPlaceRepository;
+import org.rutebanken.irkalla.avro.EnumType;
+import org.rutebanken.irkalla.avro.StopPlaceChangelogEvent;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import reactor.core.publisher.Mono;
+
+@ExtendWith(MockitoExtension.class)
+class ReactiveKafkaStopPlaceChangelogTest {
+
+  @Mock
+  private StopPlaceRepository stopPlaceRepository;
+
+  @Mock
+  private StopPlaceChangelogListener listener;
+
+  private ReactiveKafkaStopPlaceChangelog changelog;
+
+  @BeforeEach
+  void setUp() {
+    changelog =
+      new ReactiveKafkaStopPlaceChangelog(stopPlaceRepository, 4, false);
+    changelog.registerStopPlaceChangelogListener(listener);
+  }
+
+  @Test
+  void testEventsAreDeliveredInRecordOrder() {
+    // the first stop place is fetched after the second one
+    when(stopPlaceRepository.fetchStopPlaceUpdate("NSR:StopPlace:1", 1L))
+      .thenReturn(
+        Mono
+          .just("<xml>1</xml>".getBytes())
+          .delayElement(Duration.ofMillis(100))
+      );
+    when(stopPlaceRepository.fetchStopPlaceUpdate("NSR:StopPlace:2", 1L))
+      .thenReturn(Mono.just("<xml>2</xml>".getBytes()));
+
+    changelog.consume(
+      List.of(
+        createRecord("NSR:StopPlace:1", EnumType.UPDATE, 0),
+        createRecord("NSR:StopPlace:2", EnumType.CREATE, 1),
+        createRecord("NSR:StopPlace:3", EnumType.DELETE, 2)
+      )
+    );
+
+    InOrder inOrder = inOrder(listener);
+    inOrder
+      .verify(listener)
+      .onStopPlaceUpdated(eq("NSR:StopPlace:1"), any(InputStream.class));
+    inOrder
+      .verify(listener)
+      .onStopPlaceCreated(eq("NSR:StopPlace:2"), any(InputStream.class));
+    inOrder.verify(listener).onStopPlaceDeleted("NSR:StopPlace:3");
+  }
+
+  @Test
+  void testStopPlaceVersionIsFetchedOnce() {
+    when(stopPlaceRepository.fetchStopPlaceUpdate("NSR:StopPlace:1", 1L))
+      .thenReturn(Mono.fromCallable("<xml>1</xml>"::getBytes));
+
+    changelog.consume(
+      List.of(
+        createRecord("NSR:StopPlace:1", EnumType.CREATE, 0),
+        createRecord("NSR:StopPlace:1", EnumType.UPDATE, 1)
+      )
+    );
+
+    verify(stopPlaceRepository, times(1))
+      .fetchStopPlaceUpdate("NSR:StopPlace:1", 1L);
+    verify(listener)
+      .onStopPlaceCreated(eq("NSR:StopPlace:1"), any(InputStream.class));
+    verify(listener)
+      .onStopPlaceUpdated(eq("NSR:StopPlace:1"), any(InputStream.class));
+  }
+
+  @Test
+  void testFailedFetchFailsThePollFromTheFailingRecord() {
+    StopPlaceFetchException failure = new StopPlaceFetchException(
+      "NSR:StopPlace:2",
+      new IllegalStateException("Empty response from repository")
+    );
+    when(stopPlaceRepository.fetchStopPlaceUpdate("NSR:StopPlace:2", 1L))
+      .thenReturn(Mono.error(failure));
+
+    BatchListenerFailedException exception = assertThrows(
+      BatchListenerFailedException.class,
+      () ->
+        changelog.consume(
+          List.of(
+            createRecord("NSR:StopPlace:1", EnumType.DELETE, 0),
+            createRecord("NSR:StopPlace:2", EnumType.UPDATE, 1)
+          )
+        )
+    );
+    assertEquals(1, exception.getIndex());
+    assertSame(failure, exception.getCause());
+    verify(listener).onStopPlaceDeleted("NSR:StopPlace:1");
+    verify(listener, never())
+      .onStopPlaceUpdated(eq("NSR:StopPlace:2"), any(InputStream.class));
+  }
+
+  @Test
+  void testBatchOfDeletesDoesNotFetch() {
+    changelog.consume(
+      List.of(createRecord("NSR:StopPlace:1", EnumType.DELETE, 0))
+    );
+
+    verifyNoInteractions(stopPlaceRepository);
+    verify(listener).onStopPlaceDeleted("NSR:StopPlace:1");
+  }
+
+  @Test
+  void testInvalidMaxConcurrentFetchesThrowsException() {
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> new ReactiveKafkaStopPlaceChangelog(stopPlaceRepository, 0, false)
+    );
+  }
+
+  private ConsumerRecord<String, StopPlaceChangelogEvent> createRecord(
+    String stopPlaceId,
+    EnumType eventType,
+    long offset
+  ) {
+    StopPlaceChangelogEvent event = StopPlaceChangelogEvent
+      .newBuilder()
+      .setStopPlaceId(stopPlaceId)
+      .setStopPlaceVersion(1L)
+      .setEventType(eventType)
+      .build();
+    return new ConsumerRecord<>("topic", 0, offset, "key", event);
+  }
+}
@@ -0,0 +1,245 @@
+package org.rutebanken.helper.stopplace.changelog.repository;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+class NetexStopPlaceSplitterTest {
+
+  private static final String PUBLICATION_DELIVERY =
+    """
+    <?xml version="1.0" encoding="UTF-8"?>
+    <PublicationDelivery xmlns="http://www.netex.org.uk/netex" version="1.0">
+      <dataObjects>
+        <SiteFrame id="NSR:SiteFrame:1" version="1">
+          <topographicPlaces>
+            <TopographicPlace id="KVE:TopographicPlace:1" version="1"/>
+          </topographicPlaces>
+          <stopPlaces>
+            <StopPlace id="NSR:StopPlace:1" version="1">
+              <Name>One</Name>
+            </StopPlace>
+            <StopPlace id="NSR:StopPlace:1" version="2">
+              <Name>One bis</Name>
+              <TopographicPlaceRef ref="KVE:TopographicPlace:1" version="1"/>
+            </StopPlace>
+            <StopPlace id="NSR:StopPlace:2" version="1">
+              <Name>Two</Name>
+              <ParentSiteRef ref="NSR:StopPlace:3" version="1"/>
+            </StopPlace>
+            <StopPlace id="NSR:StopPlace:3" version="1">
+              <Name>Parent</Name>
+            </StopPlace>
+          </stopPlaces>
+        </SiteFrame>
+      </dataObjects>
+    </PublicationDelivery>
+    """;
+
+  /**
+   * Two stop places in different municipalities and tariff zones, fetched together.
+   */
+  private static final String BATCH_PUBLICATION_DELIVERY =
+    """
+    <?xml version="1.0" encoding="UTF-8"?>
+    <PublicationDelivery xmlns="http://www.netex.org.uk/netex" version="1.0">
+      <dataObjects>
+        <SiteFrame id="NSR:SiteFrame:1" version="1">
+          <topographicPlaces>
+            <TopographicPlace id="KVE:TopographicPlace:03" version="1"/>
+            <TopographicPlace id="KVE:TopographicPlace:0301" version="1">
+              <ParentTopographicPlaceRef ref="KVE:TopographicPlace:03" version="1"/>
+            </TopographicPlace>
+            <TopographicPlace id="KVE:TopographicPlace:32" version="1"/>
+            <TopographicPlace id="KVE:TopographicPlace:3201" version="1">
+              <ParentTopographicPlaceRef ref="KVE:TopographicPlace:32" version="1"/>
+            </TopographicPlace>
+          </topographicPlaces>
+          <groupsOfStopPlaces>
+            <GroupOfStopPlaces id="NSR:GroupOfStopPlaces:1" version="1">
+              <members>
+                <StopPlaceRef ref="NSR:StopPlace:10"/>
+              </members>
+            </GroupOfStopPlaces>
+          </groupsOfStopPlaces>
+          <stopPlaces>
+            <StopPlace id="NSR:StopPlace:10" version="1">
+              <Name>Oslo S</Name>
+              <TopographicPlaceRef ref="KVE:TopographicPlace:0301" version="1"/>
+              <tariffZones>
+                <TariffZoneRef ref="RUT:TariffZone:1"/>
+              </tariffZones>
+            </StopPlace>
+            <StopPlace id="NSR:StopPlace:20" version="1">
+              <Name>Sandvika</Name>
+              <TopographicPlaceRef ref="KVE:TopographicPlace:3201" version="1"/>
+              <tariffZones>
+                <TariffZoneRef ref="RUT:TariffZone:2"/>
+              </tariffZones>
+            </StopPlace>
+          </stopPlaces>
+          <tariffZones>
+            <TariffZone id="RUT:TariffZone:1" version="1"/>
+            <TariffZone id="RUT:TariffZone:2" version="1"/>
+          </tariffZones>
+        </SiteFrame>
+      </dataObjects>
+    </PublicationDelivery>
+    """;
+
+  /**
+   * The export of NSR:StopPlace:10 alone, with its relevant topographic places, tariff zones and groups.
+   */
+  private static final String SINGLE_PUBLICATION_DELIVERY =
+    """
+    <?xml version="1.0" encoding="UTF-8"?>
+    <PublicationDelivery xmlns="http://www.netex.org.uk/netex" version="1.0">
+      <dataObjects>
+        <SiteFrame id="NSR:SiteFrame:1" version="1">
+          <topographicPlaces>
+            <TopographicPlace id="KVE:TopographicPlace:03" version="1"/>
+            <TopographicPlace id="KVE:TopographicPlace:0301" version="1">
+              <ParentTopographicPlaceRef ref="KVE:TopographicPlace:03" version="1"/>
+            </TopographicPlace>
+          </topographicPlaces>
+          <groupsOfStopPlaces>
+            <GroupOfStopPlaces id="NSR:GroupOfStopPlaces:1" version="1">
+              <members>
+                <StopPlaceRef ref="NSR:StopPlace:10"/>
+              </members>
+            </GroupOfStopPlaces>
+          </groupsOfStopPlaces>
+          <stopPlaces>
+            <StopPlace id="NSR:StopPlace:10" version="1">
+              <Name>Oslo S</Name>
+              <TopographicPlaceRef ref="KVE:TopographicPlace:0301" version="1"/>
+              <tariffZones>
+                <TariffZoneRef ref="RUT:TariffZone:1"/>
+              </tariffZones>
+            </StopPlace>
+          </stopPlaces>
+          <tariffZones>
+            <TariffZone id="RUT:TariffZone:1" version="1"/>
+          </tariffZones>
+        </SiteFrame>
+      </dataObjects>
+    </PublicationDelivery>
+    """;
+
+  @Test
+  void testSplitKeepsAllVersionsOfTheStopPlace() throws Exception {
+    Map<String, byte[]> split = NetexStopPlaceSplitter.split(
+      PUBLICATION_DELIVERY.getBytes(StandardCharsets.UTF_8),
+      List.of("NSR:StopPlace:1")
+    );
+
+    String stopPlace = new String(
+      split.get("NSR:StopPlace:1"),
+      StandardCharsets.UTF_8
+    );
+    assertTrue(stopPlace.contains("One bis"));
+    assertTrue(stopPlace.contains("<Name>One</Name>"));
+    assertTrue(stopPlace.contains("KVE:TopographicPlace:1"));
+    assertFalse(stopPlace.contains("NSR:StopPlace:2"));
+    assertFalse(stopPlace.contains("Parent"));
+  }
+
+  @Test
+  void testSplitKeepsParentAndChildren() throws Exception {
+    Map<String, byte[]> split = NetexStopPlaceSplitter.split(
+      PUBLICATION_DELIVERY.getBytes(StandardCharsets.UTF_8),
+      List.of("NSR:StopPlace:2", "NSR:StopPlace:3")
+    );
+
+    String child = new String(
+      split.get("NSR:StopPlace:2"),
+      StandardCharsets.UTF_8
+    );
+    assertTrue(child.contains("Two"));
+    assertTrue(child.contains("Parent"));
+    assertFalse(child.contains("One"));
+
+    String parent = new String(
+      split.get("NSR:StopPlace:3"),
+      StandardCharsets.UTF_8
+    );
+    assertTrue(parent.contains("Two"));
+    assertTrue(parent.contains("Parent"));
+    assertFalse(parent.contains("One"));
+  }
+
+  @Test
+  void testSplitDocumentMatchesSingleFetch() throws Exception {
+    Map<String, byte[]> split = NetexStopPlaceSplitter.split(
+      BATCH_PUBLICATION_DELIVERY.getBytes(StandardCharsets.UTF_8),
+      List.of("NSR:StopPlace:10", "NSR:StopPlace:20")
+    );
+
+    Element expected = parse(
+      SINGLE_PUBLICATION_DELIVERY.getBytes(StandardCharsets.UTF_8)
+    );
+    Element actual = parse(split.get("NSR:StopPlace:10"));
+    assertTrue(
+      expected.isEqualNode(actual),
+      new String(split.get("NSR:StopPlace:10"), StandardCharsets.UTF_8)
+    );
+
+    String other = new String(
+      split.get("NSR:StopPlace:20"),
+      StandardCharsets.UTF_8
+    );
+    assertTrue(other.contains("KVE:TopographicPlace:32\""));
+    assertTrue(other.contains("KVE:TopographicPlace:3201"));
+    assertTrue(other.contains("<TariffZone id=\"RUT:TariffZone:2\""));
+    assertFalse(other.contains("KVE:TopographicPlace:03\""));
+    assertFalse(other.contains("RUT:TariffZone:1"));
+    assertFalse(other.contains("groupsOfStopPlaces"));
+  }
+
+  @Test
+  void testMissingStopPlaceIsAbsent() throws Exception {
+    Map<String, byte[]> split = NetexStopPlaceSplitter.split(
+      PUBLICATION_DELIVERY.getBytes(StandardCharsets.UTF_8),
+      List.of("NSR:StopPlace:1", "NSR:StopPlace:4")
+    );
+
+    assertEquals(List.of("NSR:StopPlace:1"), List.copyOf(split.keySet()));
+  }
+
+  /**
+   * Parse a document into its root element, without the whitespace between the elements.
+   */
+  private static Element parse(byte[] xml) throws Exception {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    Element root = factory
+      .newDocumentBuilder()
+      .parse(new ByteArrayInputStream(xml))
+      .getDocumentElement();
+    removeWhitespace(root);
+    return root;
+  }
+
+  private static void removeWhitespace(Node node) {
+    NodeList children = node.getChildNodes();
+    for (int i = children.getLength() - 1; i >= 0; i--) {
+      Node child = children.item(i);
+      if (
+        child.getNodeType() == Node.TEXT_NODE &&
+        child.getTextContent().isBlank()
+      ) {
+        node.removeChild(child);
+      } else {
+        removeWhitespace(child);
+      }
+    }
+  }
+}
@@ -7,6 +7,10 @@ import static org.mockito.Mockito.*;
 import java.io.InputStream;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Function;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -14,8 +18,13 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @ExtendWith(MockitoExtension.class)
@@ -96,6 +105,123 @@ class StopPlaceRepositoryTest {
     }
   }
 
+  @Test
+  void testGetStopPlaceUpdateWithVersionUsesCache() throws Exception {
+    byte[] responseBytes = "<StopPlace>test</StopPlace>".getBytes(
+      StandardCharsets.UTF_8
+    );
+    when(webClient.get()).thenReturn(requestHeadersUriSpec);
+    when(requestHeadersUriSpec.uri(any(Function.class)))
+      .thenReturn(requestHeadersSpec);
+    when(requestHeadersSpec.retrieve()).thenReturn(responseSpec);
+    when(responseSpec.bodyToMono(byte[].class))
+      .thenReturn(Mono.just(responseBytes));
+    StopPlaceUpdateCache cache = new StopPlaceUpdateCache();
+    repository.setUpdateCache(cache);
+
+    repository.getStopPlaceUpdate(stopPlaceId, 1L);
+    InputStream cached = repository.getStopPlaceUpdate(stopPlaceId, 1L);
+    repository.getStopPlaceUpdate(stopPlaceId, 2L);
+
+    assertArrayEquals(responseBytes, cached.readAllBytes());
+    verify(webClient, times(2)).get();
+    assertEquals(1, cache.stats().hitCount());
+    assertEquals(2, cache.stats().missCount());
+  }
+
+  @Test
+  void testFetchStopPlaceUpdateIsLazy() {
+    byte[] responseBytes = "<StopPlace>test</StopPlace>".getBytes(
+      StandardCharsets.UTF_8
+    );
+    when(webClient.get()).thenReturn(requestHeadersUriSpec);
+    when(requestHeadersUriSpec.uri(any(Function.class)))
+      .thenReturn(requestHeadersSpec);
+    when(requestHeadersSpec.retrieve()).thenReturn(responseSpec);
+    when(responseSpec.bodyToMono(byte[].class))
+      .thenReturn(Mono.just(responseBytes));
+
+    Mono<byte[]> update = repository.fetchStopPlaceUpdate(stopPlaceId);
+    verify(webClient, never()).get();
+
+    assertArrayEquals(responseBytes, update.block());
+    verify(webClient).get();
+  }
+
+  @Test
+  void testFetchStopPlaceUpdateSignalsFetchException() {
+    RuntimeException networkError = new RuntimeException("Connection timeout");
+    when(webClient.get()).thenReturn(requestHeadersUriSpec);
+    when(requestHeadersUriSpec.uri(any(Function.class)))
+      .thenReturn(requestHeadersSpec);
+    when(requestHeadersSpec.retrieve()).thenReturn(responseSpec);
+    when(responseSpec.bodyToMono(byte[].class))
+      .thenReturn(Mono.error(networkError));
+
+    CompletableFuture<byte[]> update = repository
+      .fetchStopPlaceUpdate(stopPlaceId)
+      .toFuture();
+
+    CompletionException exception = assertThrows(
+      CompletionException.class,
+      update::join
+    );
+    assertInstanceOf(StopPlaceFetchException.class, exception.getCause());
+    assertEquals(networkError, exception.getCause().getCause());
+  }
+
+  @Test
+  void testFetchStopPlaceContentStreamsResponse() {
+    Flux<DataBuffer> body = Flux
+      .just("<StopPlace>", "test", "</StopPlace>")
+      .map(chunk ->
+        DefaultDataBufferFactory.sharedInstance.wrap(
+          chunk.getBytes(StandardCharsets.UTF_8)
+        )
+      );
+    when(webClient.get()).thenReturn(requestHeadersUriSpec);
+    when(requestHeadersUriSpec.uri(any(Function.class)))
+      .thenReturn(requestHeadersSpec);
+    when(requestHeadersSpec.retrieve()).thenReturn(responseSpec);
+    when(responseSpec.toEntityFlux(DataBuffer.class))
+      .thenReturn(Mono.just(ResponseEntity.ok(body)));
+
+    Flux<DataBuffer> content = repository
+      .fetchStopPlaceContent(stopPlaceId, 1L)
+      .block();
+
+    String received = DataBufferUtils
+      .join(content)
+      .map(buffer -> buffer.toString(StandardCharsets.UTF_8))
+      .block();
+    assertEquals("<StopPlace>test</StopPlace>", received);
+    verify(responseSpec, never()).bodyToMono(byte[].class);
+  }
+
+  @Test
+  void testFetchStopPlaceContentSignalsHttpError() {
+    WebClientResponseException httpError = WebClientResponseException.create(
+      404,
+      "Not Found",
+      null,
+      "Stop place not found".getBytes(),
+      null
+    );
+    when(webClient.get()).thenReturn(requestHeadersUriSpec);
+    when(requestHeadersUriSpec.uri(any(Function.class)))
+      .thenReturn(requestHeadersSpec);
+    when(requestHeadersSpec.retrieve()).thenReturn(responseSpec);
+    when(responseSpec.toEntityFlux(DataBuffer.class))
+      .thenReturn(Mono.error(httpError));
+
+    StopPlaceFetchException exception = assertThrows(
+      StopPlaceFetchException.class,
+      () -> repository.fetchStopPlaceContent(stopPlaceId, 1L).block()
+    );
+
+    assertEquals(httpError, exception.getCause());
+  }
+
   @Test
   void testGetStopPlaceUpdateEmptyResponse() {
     // Setup
@@ -239,4 +365,42 @@ class StopPlaceRepositoryTest {
       fail("Failed to read large response: " + e.getMessage());
     }
   }
+
+  @Test
+  void testGetStopPlaceUpdatesSplitsResponse() {
+    String xmlResponse =
+      """
+      <?xml version="1.0" encoding="UTF-8"?>
+      <PublicationDelivery xmlns="http://www.netex.org.uk/netex">
+        <dataObjects>
+          <SiteFrame>
+            <stopPlaces>
+              <StopPlace id="NSR:StopPlace:1" version="1"/>
+              <StopPlace id="NSR:StopPlace:2" version="1"/>
+            </stopPlaces>
+          </SiteFrame>
+        </dataObjects>
+      </PublicationDelivery>
+      """;
+
+    when(webClient.get()).thenReturn(requestHeadersUriSpec);
+    when(requestHeadersUriSpec.uri(any(Function.class)))
+      .thenReturn(requestHeadersSpec);
+    when(requestHeadersSpec.retrieve()).thenReturn(responseSpec);
+    when(responseSpec.bodyToMono(byte[].class))
+      .thenReturn(Mono.just(xmlResponse.getBytes(StandardCharsets.UTF_8)));
+
+    Map<String, byte[]> result = repository.getStopPlaceUpdates(
+      List.of("NSR:StopPlace:1", "NSR:StopPlace:2", "NSR:StopPlace:3")
+    );
+
+    assertEquals(2, result.size());
+    String first = new String(
+      result.get("NSR:StopPlace:1"),
+      StandardCharsets.UTF_8
+    );
+    assertTrue(first.contains("NSR:StopPlace:1"));
+    assertFalse(first.contains("NSR:StopPlace:2"));
+    verify(requestHeadersUriSpec, times(1)).uri(any(Function.class));
+  }
 }
@@ -0,0 +1,69 @@
+package org.rutebanken.helper.stopplace.changelog.repository;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class StopPlaceUpdateCacheTest {
+
+  @Test
+  void testCachedVersionIsReturned() {
+    StopPlaceUpdateCache cache = new StopPlaceUpdateCache(100);
+    byte[] update = new byte[10];
+    cache.put("NSR:StopPlace:1", 1, update);
+
+    assertSame(update, cache.get("NSR:StopPlace:1", 1));
+    assertNull(cache.get("NSR:StopPlace:1", 2));
+    assertNull(cache.get("NSR:StopPlace:2", 1));
+
+    StopPlaceUpdateCache.Stats stats = cache.stats();
+    assertEquals(1, stats.hitCount());
+    assertEquals(2, stats.missCount());
+    assertEquals(1.0 / 3, stats.hitRate());
+  }
+
+  @Test
+  void testLeastRecentlyUsedEntriesAreEvicted() {
+    StopPlaceUpdateCache cache = new StopPlaceUpdateCache(100);
+    cache.put("NSR:StopPlace:1", 1, new byte[40]);
+    cache.put("NSR:StopPlace:2", 1, new byte[40]);
+    cache.get("NSR:StopPlace:1", 1);
+
+    cache.put("NSR:StopPlace:3", 1, new byte[40]);
+
+    assertNotNull(cache.get("NSR:StopPlace:1", 1));
+    assertNull(cache.get("NSR:StopPlace:2", 1));
+    assertNotNull(cache.get("NSR:StopPlace:3", 1));
+    assertEquals(80, cache.stats().sizeBytes());
+    assertEquals(1, cache.stats().evictionCount());
+  }
+
+  @Test
+  void testReplacedEntryIsAccountedOnce() {
+    StopPlaceUpdateCache cache = new StopPlaceUpdateCache(100);
+    cache.put("NSR:StopPlace:1", 1, new byte[40]);
+    cache.put("NSR:StopPlace:1", 1, new byte[30]);
+
+    assertEquals(1, cache.stats().entryCount());
+    assertEquals(30, cache.stats().sizeBytes());
+  }
+
+  @Test
+  void testDataLargerThanCacheIsNotCached() {
+    StopPlaceUpdateCache cache = new StopPlaceUpdateCache(100);
+    cache.put("NSR:StopPlace:1", 1, new byte[40]);
+
+    cache.put("NSR:StopPlace:2", 1, new byte[101]);
+
+    assertNull(cache.get("NSR:StopPlace:2", 1));
+    assertNotNull(cache.get("NSR:StopPlace:1", 1));
+  }
+
+  @Test
+  void testInvalidMaxSizeThrowsException() {
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> new StopPlaceUpdateCache(0)
+    );
+  }
+}
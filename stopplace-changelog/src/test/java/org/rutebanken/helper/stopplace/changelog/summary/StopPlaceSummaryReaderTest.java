@@ -0,0 +1,233 @@
+package org.rutebanken.helper.stopplace.changelog.summary;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.sun.management.ThreadMXBean;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+class StopPlaceSummaryReaderTest {
+
+  private static final String PUBLICATION_DELIVERY =
+    """
+    <?xml version="1.0" encoding="UTF-8"?>
+    <PublicationDelivery xmlns="http://www.netex.org.uk/netex">
+      <dataObjects>
+        <SiteFrame>
+          <topographicPlaces>
+            <TopographicPlace id="KVE:TopographicPlace:03" version="1">
+              <Descriptor><Name>Oslo</Name></Descriptor>
+            </TopographicPlace>
+          </topographicPlaces>
+          <stopPlaces>
+            <StopPlace id="NSR:StopPlace:2" version="1">
+              <Name>Oslo S</Name>
+            </StopPlace>
+            <StopPlace id="NSR:StopPlace:1" version="2">
+              <alternativeNames>
+                <AlternativeName><Name>Jernbanetorget</Name></AlternativeName>
+              </alternativeNames>
+              <Name lang="nor">Oslo S bussterminal</Name>
+              <Centroid>
+                <Location>
+                  <Longitude>10.756</Longitude>
+                  <Latitude>59.911</Latitude>
+                </Location>
+              </Centroid>
+              <ParentSiteRef ref="NSR:StopPlace:2" version="1"/>
+              <quays>
+                <Quay id="NSR:Quay:1" version="3">
+                  <Name>A</Name>
+                  <Centroid>
+                    <Location>
+                      <Longitude>10.757</Longitude>
+                      <Latitude>59.912</Latitude>
+                    </Location>
+                  </Centroid>
+                </Quay>
+                <Quay id="NSR:Quay:2" version="1"/>
+              </quays>
+            </StopPlace>
+            <StopPlace id="NSR:StopPlace:1" version="1">
+              <Name>Old name</Name>
+            </StopPlace>
+          </stopPlaces>
+        </SiteFrame>
+      </dataObjects>
+    </PublicationDelivery>
+    """;
+
+  @Test
+  void testSummaryOfLatestVersionIsRead() throws XMLStreamException {
+    StopPlaceSummary summary = StopPlaceSummaryReader.read(
+      stream(PUBLICATION_DELIVERY),
+      "NSR:StopPlace:1"
+    );
+
+    assertEquals(
+      new StopPlaceSummary(
+        "NSR:StopPlace:1",
+        "2",
+        "Oslo S bussterminal",
+        new StopPlaceSummary.Location(10.756, 59.911),
+        List.of(
+          new StopPlaceSummary.QuaySummary(
+            "NSR:Quay:1",
+            "3",
+            new StopPlaceSummary.Location(10.757, 59.912)
+          ),
+          new StopPlaceSummary.QuaySummary("NSR:Quay:2", "1", null)
+        ),
+        "NSR:StopPlace:2"
+      ),
+      summary
+    );
+  }
+
+  @Test
+  void testStopPlaceWithoutOptionalFields() throws XMLStreamException {
+    StopPlaceSummary summary = StopPlaceSummaryReader.read(
+      stream(PUBLICATION_DELIVERY),
+      "NSR:StopPlace:2"
+    );
+
+    assertEquals(
+      new StopPlaceSummary(
+        "NSR:StopPlace:2",
+        "1",
+        "Oslo S",
+        null,
+        List.of(),
+        null
+      ),
+      summary
+    );
+  }
+
+  @Test
+  void testAbsentStopPlaceHasNoSummary() throws XMLStreamException {
+    assertNull(
+      StopPlaceSummaryReader.read(
+        stream(PUBLICATION_DELIVERY),
+        "NSR:StopPlace:3"
+      )
+    );
+  }
+
+  @Test
+  void testMalformedDocumentThrowsException() {
+    assertThrows(
+      XMLStreamException.class,
+      () ->
+        StopPlaceSummaryReader.read(
+          stream("<stopPlaces><StopPlace id=\"NSR:StopPlace:1\">"),
+          "NSR:StopPlace:1"
+        )
+    );
+  }
+
+  @Test
+  void testSummaryAllocatesLessThanADocumentParse() throws Exception {
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(
+      threads.isThreadAllocatedMemorySupported() &&
+      threads.isThreadAllocatedMemoryEnabled()
+    );
+    byte[] document = publicationDelivery(500, 20)
+      .getBytes(StandardCharsets.UTF_8);
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    long summaryBytes = Long.MAX_VALUE;
+    long documentBytes = Long.MAX_VALUE;
+    // the smallest of several runs, once the classes are loaded and the buffers warmed up
+    for (int i = 0; i < 5; i++) {
+      long start = threads.getCurrentThreadAllocatedBytes();
+      StopPlaceSummary summary = StopPlaceSummaryReader.read(
+        new ByteArrayInputStream(document),
+        "NSR:StopPlace:250"
+      );
+      summaryBytes =
+        Math.min(
+          summaryBytes,
+          threads.getCurrentThreadAllocatedBytes() - start
+        );
+      assertEquals(20, summary.quays().size());
+
+      start = threads.getCurrentThreadAllocatedBytes();
+      Document dom = factory
+        .newDocumentBuilder()
+        .parse(new ByteArrayInputStream(document));
+      documentBytes =
+        Math.min(
+          documentBytes,
+          threads.getCurrentThreadAllocatedBytes() - start
+        );
+      assertNotNull(dom.getDocumentElement());
+    }
+
+    // a document parse binds every element of every stop place, the summary only the fields of one stop place
+    assertTrue(
+      summaryBytes * 10 < documentBytes,
+      "The summary allocated " +
+      summaryBytes +
+      " bytes, the document parse " +
+      documentBytes +
+      " bytes"
+    );
+  }
+
+  /**
+   * A publication delivery with the given number of stop places, each with the given number of quays.
+   */
+  private static String publicationDelivery(int stopPlaces, int quays) {
+    StringBuilder xml = new StringBuilder(
+      "<PublicationDelivery xmlns=\"http://www.netex.org.uk/netex\">" +
+      "<dataObjects><SiteFrame><stopPlaces>"
+    );
+    for (int i = 0; i < stopPlaces; i++) {
+      xml
+        .append("<StopPlace id=\"NSR:StopPlace:")
+        .append(i)
+        .append("\" version=\"1\"><Name>Stop place ")
+        .append(i)
+        .append("</Name>")
+        .append(centroid(i))
+        .append("<quays>");
+      for (int j = 0; j < quays; j++) {
+        xml
+          .append("<Quay id=\"NSR:Quay:")
+          .append(i * quays + j)
+          .append("\" version=\"1\"><Name>")
+          .append(j)
+          .append("</Name>")
+          .append(centroid(j))
+          .append("</Quay>");
+      }
+      xml.append("</quays></StopPlace>");
+    }
+    return xml
+      .append("</stopPlaces></SiteFrame></dataObjects></PublicationDelivery>")
+      .toString();
+  }
+
+  private static String centroid(int i) {
+    return (
+      "<Centroid><Location><Longitude>10." +
+      i +
+      "</Longitude><Latitude>59." +
+      i +
+      "</Latitude></Location></Centroid>"
+    );
+  }
+
+  private static ByteArrayInputStream stream(String xml) {
+    return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,60 @@
+package org.rutebanken.helper.aws.repository;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.rutebanken.helper.storage.observation.BlobStoreObservations;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+
+/**
+ * SDK interceptor recording the retries of each request in the observation that was current when the request was
+ * issued. Register it on the client with
+ * <code>overrideConfiguration(c -> c.addExecutionInterceptor(new ObservationExecutionInterceptor(registry)))</code>.
+ * <p>
+ * Retries performed natively by the CRT-based client are not visible to interceptors and are not counted.
+ */
+public class ObservationExecutionInterceptor implements ExecutionInterceptor {
+
+  private static final ExecutionAttribute<Observation> OBSERVATION =
+    new ExecutionAttribute<>("BlobStoreObservation");
+
+  private static final ExecutionAttribute<AtomicInteger> ATTEMPTS =
+    new ExecutionAttribute<>("BlobStoreObservationAttempts");
+
+  private final ObservationRegistry observationRegistry;
+
+  public ObservationExecutionInterceptor(
+    ObservationRegistry observationRegistry
+  ) {
+    this.observationRegistry = observationRegistry;
+  }
+
+  @Override
+  public void beforeExecution(
+    Context.BeforeExecution context,
+    ExecutionAttributes executionAttributes
+  ) {
+    Observation observation = observationRegistry.getCurrentObservation();
+    if (observation != null) {
+      executionAttributes.putAttribute(OBSERVATION, observation);
+      executionAttributes.putAttribute(ATTEMPTS, new AtomicInteger());
+    }
+  }
+
+  @Override
+  public void beforeTransmission(
+    Context.BeforeTransmission context,
+    ExecutionAttributes executionAttributes
+  ) {
+    Observation observation = executionAttributes.getAttribute(OBSERVATION);
+    if (
+      observation != null &&
+      executionAttributes.getAttribute(ATTEMPTS).incrementAndGet() > 1
+    ) {
+      BlobStoreObservations.recordRetry(observation);
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package org.rutebanken.helper.aws.repository;
+
+import java.util.List;
+import software.amazon.awssdk.services.s3.model.S3Error;
+
+/**
+ * Outcome of a prefix delete.
+ *
+ * @param deletedCount the number of objects deleted.
+ * @param errors       the objects that could not be deleted, with the S3 error code and message for each key.
+ */
+public record PrefixDeleteResult(long deletedCount, List<S3Error> errors) {
+  public PrefixDeleteResult {
+    errors = List.copyOf(errors);
+  }
+
+  public boolean isSuccessful() {
+    return errors.isEmpty();
+  }
+}
@@ -1,8 +1,10 @@
 package org.rutebanken.helper.aws.repository;
 
-import java.io.IOException;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
@@ -10,17 +12,31 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.function.Function;
 import org.rutebanken.helper.storage.BlobAlreadyExistsException;
 import org.rutebanken.helper.storage.BlobStoreException;
+import org.rutebanken.helper.storage.buffer.UploadBuffer;
+import org.rutebanken.helper.storage.buffer.UploadBufferPool;
+import org.rutebanken.helper.storage.execution.BlobStoreExecutor;
 import org.rutebanken.helper.storage.model.BlobDescriptor;
+import org.rutebanken.helper.storage.model.BlobMetadata;
+import org.rutebanken.helper.storage.observation.BlobStoreObservations;
 import org.rutebanken.helper.storage.repository.BlobStoreRepository;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.core.sync.ResponseTransformer;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ChecksumMode;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.S3Object;
 import software.amazon.awssdk.services.s3.paginators.ListObjectsV2Iterable;
 
@@ -38,12 +54,50 @@ public class S3BlobStoreRepository implements BlobStoreRepository {
    */
   private static final long UNKNOWN_LATEST_VERSION = 0;
 
+  public static final int DEFAULT_MAX_CONCURRENT_DELETES = 8;
+
+  /**
+   * Per-key DeleteObjects error codes returned when the request rate is too high for the prefix.
+   */
+  private static final Set<String> THROTTLING_ERROR_CODES = Set.of(
+    "SlowDown",
+    "ServiceUnavailable",
+    "InternalError"
+  );
+
+  private static final String MIME_ENCODED_PREFIX = "=?UTF-8?B?";
+
+  private static final String MIME_ENCODED_SUFFIX = "?=";
+
+  private static final int MAX_DELETE_ATTEMPTS = 5;
+
+  private static final Duration DELETE_RETRY_BACKOFF = Duration.ofMillis(200);
+
   private final S3Client s3Client;
 
+  private final UploadBufferPool uploadBufferPool;
+
+  private ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+
+  private BlobStoreExecutor executor;
+
   private String containerName;
 
   public S3BlobStoreRepository(S3Client s3Client) {
+    this(s3Client, UploadBufferPool.shared());
+  }
+
+  /**
+   * @param s3Client         the S3 client.
+   * @param uploadBufferPool the pool used to buffer uploads, so that their length and checksum are known before the
+   *                         single-request PUT.
+   */
+  public S3BlobStoreRepository(
+    S3Client s3Client,
+    UploadBufferPool uploadBufferPool
+  ) {
     this.s3Client = Objects.requireNonNull(s3Client);
+    this.uploadBufferPool = Objects.requireNonNull(uploadBufferPool);
   }
 
   @Override
@@ -54,37 +108,107 @@ public class S3BlobStoreRepository implements BlobStoreRepository {
           .builder()
           .bucket(containerName)
           .key(objectName)
+          .checksumMode(ChecksumMode.ENABLED)
+          .build(),
+        ResponseTransformer.toInputStream()
+      );
+    } catch (NoSuchKeyException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Download a specific version of a blob.
+   * <p>
+   * S3 identifies object versions with opaque version ids that cannot be mapped to the numeric generations used by
+   * {@link BlobStoreRepository#getBlob(String, long)}, which is therefore not supported by this implementation.
+   * The bucket must have versioning enabled.
+   *
+   * @param objectName the name of the blob
+   * @param versionId  the S3 version id of the blob
+   * @return an InputStream on the file content or null if the object or the version does not exist.
+   */
+  public InputStream getBlob(String objectName, String versionId) {
+    try {
+      return s3Client.getObject(
+        GetObjectRequest
+          .builder()
+          .bucket(containerName)
+          .key(objectName)
+          .versionId(versionId)
+          .checksumMode(ChecksumMode.ENABLED)
           .build(),
         ResponseTransformer.toInputStream()
       );
     } catch (NoSuchKeyException e) {
       return null;
+    } catch (S3Exception e) {
+      if (e.statusCode() == 404) {
+        // an unknown version id is reported as NoSuchVersion
+        return null;
+      }
+      throw e;
     }
   }
 
   @Override
-  public long uploadBlob(BlobDescriptor blobDescriptor) {
-    RequestBody body = null;
+  public BlobMetadata stat(String objectName) {
     try {
-      body = RequestBody.fromBytes(blobDescriptor.inputStream().readAllBytes());
-    } catch (IOException e) {
-      throw new BlobStoreException(
-        "Failed to read all bytes from given InputStream",
-        e
+      return blobMetadata(
+        objectName,
+        s3Client.headObject(headObjectRequest ->
+          headObjectRequest.bucket(containerName).key(objectName)
+        )
       );
+    } catch (NoSuchKeyException e) {
+      return null;
     }
+  }
 
-    s3Client.putObject(
-      r -> {
-        r.bucket(containerName).key(blobDescriptor.name());
-        blobDescriptor.contentType().ifPresent(r::contentType);
-        blobDescriptor
-          .metadata()
-          .map(this::mimeEncodeValues)
-          .ifPresent(r::metadata);
-      },
-      body
+  @Override
+  public List<String> listBlobNames(String prefix) {
+    List<String> blobNames = new ArrayList<>();
+    iteratePrefix(
+      containerName,
+      prefix,
+      s3Objects -> {
+        s3Objects.forEach(s3Object -> blobNames.add(s3Object.key()));
+        return null;
+      }
     );
+    return blobNames;
+  }
+
+  @Override
+  public long uploadBlob(BlobDescriptor blobDescriptor) {
+    try (
+      UploadBuffer uploadBuffer = uploadBufferPool.buffer(
+        blobDescriptor.inputStream()
+      )
+    ) {
+      RequestBody body = uploadBuffer.isSpilled()
+        ? RequestBody.fromFile(uploadBuffer.file())
+        : RequestBody.fromInputStream(
+          uploadBuffer.newInputStream(),
+          uploadBuffer.length()
+        );
+      s3Client.putObject(
+        r -> {
+          r
+            .bucket(containerName)
+            .key(blobDescriptor.name())
+            .contentLength(uploadBuffer.length())
+            .contentMD5(uploadBuffer.md5Base64())
+            .checksumCRC32C(uploadBuffer.crc32cBase64());
+          blobDescriptor.contentType().ifPresent(r::contentType);
+          blobDescriptor
+            .metadata()
+            .map(S3BlobStoreRepository::mimeEncodeValues)
+            .ifPresent(r::metadata);
+        },
+        body
+      );
+    }
     return UNKNOWN_LATEST_VERSION;
   }
 
@@ -95,16 +219,66 @@ public class S3BlobStoreRepository implements BlobStoreRepository {
    * @param metadata Original metadata.
    * @return Updated metadata with encoded values.
    */
-  private Map<String, String> mimeEncodeValues(Map<String, String> metadata) {
+  static Map<String, String> mimeEncodeValues(Map<String, String> metadata) {
     Map<String, String> encodedMetadata = new HashMap<>(metadata.size());
     for (Map.Entry<String, String> entry : metadata.entrySet()) {
       byte[] utf8Bytes = entry.getValue().getBytes(StandardCharsets.UTF_8);
       String base64Encoded = Base64.getEncoder().encodeToString(utf8Bytes);
-      encodedMetadata.put(entry.getKey(), "=?UTF-8?B?" + base64Encoded + "?=");
+      encodedMetadata.put(
+        entry.getKey(),
+        MIME_ENCODED_PREFIX + base64Encoded + MIME_ENCODED_SUFFIX
+      );
     }
     return encodedMetadata;
   }
 
+  /**
+   * Decode the metadata values encoded by {@link #mimeEncodeValues(Map)}. Values that are not encoded, for example
+   * because the object was written by another client, are returned as-is.
+   *
+   * @param metadata Metadata as returned by S3.
+   * @return Metadata with decoded values.
+   */
+  static Map<String, String> mimeDecodeValues(Map<String, String> metadata) {
+    Map<String, String> decodedMetadata = new HashMap<>(metadata.size());
+    for (Map.Entry<String, String> entry : metadata.entrySet()) {
+      String value = entry.getValue();
+      if (
+        value.startsWith(MIME_ENCODED_PREFIX) &&
+        value.endsWith(MIME_ENCODED_SUFFIX)
+      ) {
+        byte[] utf8Bytes = Base64
+          .getDecoder()
+          .decode(
+            value.substring(
+              MIME_ENCODED_PREFIX.length(),
+              value.length() - MIME_ENCODED_SUFFIX.length()
+            )
+          );
+        value = new String(utf8Bytes, StandardCharsets.UTF_8);
+      }
+      decodedMetadata.put(entry.getKey(), value);
+    }
+    return decodedMetadata;
+  }
+
+  /**
+   * Map the response of a HeadObject request. S3 does not expose numeric generations.
+   */
+  static BlobMetadata blobMetadata(
+    String objectName,
+    HeadObjectResponse headObjectResponse
+  ) {
+    return new BlobMetadata(
+      objectName,
+      headObjectResponse.contentLength(),
+      BlobMetadata.UNKNOWN_GENERATION,
+      Optional.ofNullable(headObjectResponse.contentType()),
+      mimeDecodeValues(headObjectResponse.metadata()),
+      Optional.ofNullable(headObjectResponse.lastModified())
+    );
+  }
+
   @Override
   public long uploadBlob(String objectName, InputStream inputStream) {
     return uploadBlob(
@@ -224,7 +398,7 @@ public class S3BlobStoreRepository implements BlobStoreRepository {
     );
   }
 
-  private String trimPrefix(String prefix, String s) {
+  static String trimPrefix(String prefix, String s) {
     if (s.startsWith(prefix)) {
       return s.substring(prefix.length());
     }
@@ -240,31 +414,172 @@ public class S3BlobStoreRepository implements BlobStoreRepository {
 
   @Override
   public boolean deleteAllFilesInFolder(String folder) {
-    for (boolean pageResult : iteratePrefix(
-      containerName,
-      folder,
-      s3Objects -> {
-        List<ObjectIdentifier> objectIdentifiers = s3Objects
+    return deletePrefix(folder).isSuccessful();
+  }
+
+  /**
+   * Delete all objects under a prefix, with at most {@link #DEFAULT_MAX_CONCURRENT_DELETES} concurrent
+   * DeleteObjects requests.
+   *
+   * @see #deletePrefix(String, int)
+   */
+  public PrefixDeleteResult deletePrefix(String prefix) {
+    return deletePrefix(prefix, DEFAULT_MAX_CONCURRENT_DELETES);
+  }
+
+  /**
+   * Delete all objects under a prefix.
+   * Each listing page (up to 1000 keys) is deleted by a single DeleteObjects request while the next page is being
+   * listed. Listing pauses when maxConcurrentRequests batches are in flight.
+   * Keys rejected because of throttling are retried with exponential backoff. Other per-key errors are not retried and
+   * are reported in the result.
+   *
+   * @param prefix                the prefix of the objects to delete.
+   * @param maxConcurrentRequests the maximum number of concurrent DeleteObjects requests.
+   * @return the number of deleted objects and the errors for the objects that could not be deleted.
+   */
+  public PrefixDeleteResult deletePrefix(
+    String prefix,
+    int maxConcurrentRequests
+  ) {
+    String bucket = containerName;
+    BlobStoreExecutor executor = this.executor != null
+      ? this.executor
+      : BlobStoreExecutor.platformThreads(
+        "s3-prefix-delete",
+        maxConcurrentRequests
+      );
+    Semaphore inFlightBatches = new Semaphore(maxConcurrentRequests);
+    List<Future<PrefixDeleteResult>> batches = new ArrayList<>();
+    ListObjectsV2Iterable pages = s3Client.listObjectsV2Paginator(req ->
+      req.bucket(bucket).prefix(prefix)
+    );
+    try {
+      for (ListObjectsV2Response page : pages) {
+        if (page.contents().isEmpty()) {
+          continue;
+        }
+        List<ObjectIdentifier> objectIdentifiers = page
+          .contents()
           .stream()
           .map(s3Object ->
             ObjectIdentifier.builder().key(s3Object.key()).build()
           )
           .toList();
-        return s3Client
-          .deleteObjects(deleteObjectsRequest ->
-            deleteObjectsRequest.delete(delete ->
-              delete.objects(objectIdentifiers)
+        inFlightBatches.acquire();
+        batches.add(
+          executor.supplyAsync(
+            BlobStoreObservations.wrapSupplier(
+              observationRegistry,
+              () -> {
+                try {
+                  return observeDeleteBatch(bucket, objectIdentifiers);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  throw new BlobStoreException(e);
+                } finally {
+                  inFlightBatches.release();
+                }
+              }
             )
           )
-          .errors()
-          .isEmpty();
+        );
+      }
+      long deletedCount = 0;
+      List<S3Error> errors = new ArrayList<>();
+      for (Future<PrefixDeleteResult> batch : batches) {
+        PrefixDeleteResult batchResult = batch.get();
+        deletedCount += batchResult.deletedCount();
+        errors.addAll(batchResult.errors());
+      }
+      return new PrefixDeleteResult(deletedCount, errors);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new BlobStoreException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
       }
-    )) {
-      if (!pageResult) {
-        return false;
+      throw new BlobStoreException(e.getCause());
+    } finally {
+      batches.forEach(batch -> batch.cancel(false));
+      if (executor != this.executor) {
+        executor.close();
       }
     }
-    return true;
+  }
+
+  /**
+   * Delete a batch in a child observation of the current operation, recording the number of keys, the number of
+   * throttling retries and the number of keys that could not be deleted.
+   */
+  private PrefixDeleteResult observeDeleteBatch(
+    String bucket,
+    List<ObjectIdentifier> objectIdentifiers
+  ) throws InterruptedException {
+    Observation observation = Observation
+      .createNotStarted(
+        BlobStoreObservations.PART_OBSERVATION,
+        observationRegistry
+      )
+      .contextualName("blob delete batch")
+      .lowCardinalityKeyValue(BlobStoreObservations.OPERATION, "delete_batch")
+      .lowCardinalityKeyValue(
+        BlobStoreObservations.BACKEND,
+        getClass().getSimpleName()
+      )
+      .lowCardinalityKeyValue(BlobStoreObservations.CONTAINER, bucket)
+      .highCardinalityKeyValue(
+        BlobStoreObservations.KEY_COUNT,
+        String.valueOf(objectIdentifiers.size())
+      );
+    return observation.observeChecked(() -> {
+      PrefixDeleteResult result = deleteBatch(bucket, objectIdentifiers);
+      observation.highCardinalityKeyValue(
+        BlobStoreObservations.ERROR_COUNT,
+        String.valueOf(result.errors().size())
+      );
+      return result;
+    });
+  }
+
+  private PrefixDeleteResult deleteBatch(
+    String bucket,
+    List<ObjectIdentifier> objectIdentifiers
+  ) throws InterruptedException {
+    long deletedCount = 0;
+    List<S3Error> errors = new ArrayList<>();
+    List<ObjectIdentifier> remaining = objectIdentifiers;
+    for (int attempt = 1;; attempt++) {
+      List<ObjectIdentifier> batch = remaining;
+      List<S3Error> batchErrors = s3Client
+        .deleteObjects(deleteObjectsRequest ->
+          deleteObjectsRequest
+            .bucket(bucket)
+            .delete(delete -> delete.objects(batch).quiet(true))
+        )
+        .errors();
+      deletedCount += batch.size() - batchErrors.size();
+      List<S3Error> throttled = new ArrayList<>();
+      for (S3Error error : batchErrors) {
+        if (THROTTLING_ERROR_CODES.contains(error.code())) {
+          throttled.add(error);
+        } else {
+          errors.add(error);
+        }
+      }
+      if (throttled.isEmpty() || attempt == MAX_DELETE_ATTEMPTS) {
+        errors.addAll(throttled);
+        return new PrefixDeleteResult(deletedCount, errors);
+      }
+      Thread.sleep(DELETE_RETRY_BACKOFF.toMillis() << (attempt - 1));
+      BlobStoreObservations.recordRetry(observationRegistry);
+      remaining =
+        throttled
+          .stream()
+          .map(error -> ObjectIdentifier.builder().key(error.key()).build())
+          .toList();
+    }
   }
 
   private <U> List<U> iteratePrefix(
@@ -281,6 +596,24 @@ public class S3BlobStoreRepository implements BlobStoreRepository {
     return pageResults;
   }
 
+  /**
+   * Set the executor running the DeleteObjects batches of {@link #deletePrefix}, for example a virtual-thread
+   * {@link BlobStoreExecutor} shared by several repositories. By default, each call uses its own pool of
+   * maxConcurrentRequests platform threads.
+   */
+  public void setExecutor(BlobStoreExecutor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Set the registry used to record a child observation for each DeleteObjects batch of {@link #deletePrefix}.
+   * Operations are observed by wrapping this repository in an
+   * {@link org.rutebanken.helper.storage.observation.ObservedBlobStoreRepository}.
+   */
+  public void setObservationRegistry(ObservationRegistry observationRegistry) {
+    this.observationRegistry = Objects.requireNonNull(observationRegistry);
+  }
+
   /**
    * {@inheritDoc}
    * <p>
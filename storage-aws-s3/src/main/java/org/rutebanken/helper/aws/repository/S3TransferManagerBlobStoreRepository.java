@@ -0,0 +1,452 @@
+package org.rutebanken.helper.aws.repository;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import org.rutebanken.helper.storage.BlobAlreadyExistsException;
+import org.rutebanken.helper.storage.BlobStoreException;
+import org.rutebanken.helper.storage.buffer.UploadBuffer;
+import org.rutebanken.helper.storage.buffer.UploadBufferPool;
+import org.rutebanken.helper.storage.model.BlobDescriptor;
+import org.rutebanken.helper.storage.model.BlobMetadata;
+import org.rutebanken.helper.storage.repository.BlobStoreRepository;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.ChecksumMode;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+import software.amazon.awssdk.transfer.s3.model.DownloadRequest;
+
+/**
+ * <a href="https://aws.amazon.com/s3/">AWS S3</a> backed implementation of {@link BlobStoreRepository} built on the
+ * asynchronous {@link S3AsyncClient} and the {@link S3TransferManager}.
+ * <p>
+ * When the client is created with {@link S3AsyncClient#crtBuilder()} (which requires the optional
+ * {@code software.amazon.awssdk.crt:aws-crt} dependency), large uploads, downloads and copies are automatically split
+ * into parts transferred in parallel, and all transfers share the small thread pool of the CRT event loop instead of
+ * blocking one thread per request.
+ * <p>
+ * The methods of {@link BlobStoreRepository} are blocking: each one waits for the completion of the underlying
+ * asynchronous transfers. Blob versions are handled as in {@link S3BlobStoreRepository}.
+ */
+public class S3TransferManagerBlobStoreRepository
+  implements BlobStoreRepository, AutoCloseable {
+
+  private static final long UNKNOWN_LATEST_VERSION = 0;
+
+  private final S3AsyncClient s3AsyncClient;
+
+  private final S3TransferManager transferManager;
+
+  private final UploadBufferPool uploadBufferPool;
+
+  private String containerName;
+
+  public S3TransferManagerBlobStoreRepository(S3AsyncClient s3AsyncClient) {
+    this(s3AsyncClient, UploadBufferPool.shared());
+  }
+
+  /**
+   * @param s3AsyncClient    the S3 client, preferably CRT-based. The client is not closed with this repository.
+   * @param uploadBufferPool the pool used to buffer uploads, so that their length is known before the transfer
+   *                         starts. Payloads spilled to disk are uploaded from the file, in parallel parts.
+   */
+  public S3TransferManagerBlobStoreRepository(
+    S3AsyncClient s3AsyncClient,
+    UploadBufferPool uploadBufferPool
+  ) {
+    this.s3AsyncClient = Objects.requireNonNull(s3AsyncClient);
+    this.uploadBufferPool = Objects.requireNonNull(uploadBufferPool);
+    this.transferManager =
+      S3TransferManager.builder().s3Client(s3AsyncClient).build();
+  }
+
+  @Override
+  public boolean exist(String objectName) {
+    return objectExists(containerName, objectName);
+  }
+
+  @Override
+  public InputStream getBlob(String objectName) {
+    return download(
+      GetObjectRequest
+        .builder()
+        .bucket(containerName)
+        .key(objectName)
+        .checksumMode(ChecksumMode.ENABLED)
+        .build()
+    );
+  }
+
+  /**
+   * Download a specific version of a blob.
+   * The bucket must have versioning enabled.
+   *
+   * @param objectName the name of the blob
+   * @param versionId  the S3 version id of the blob
+   * @return an InputStream on the file content or null if the object or the version does not exist.
+   * @see S3BlobStoreRepository#getBlob(String, String)
+   */
+  public InputStream getBlob(String objectName, String versionId) {
+    return download(
+      GetObjectRequest
+        .builder()
+        .bucket(containerName)
+        .key(objectName)
+        .versionId(versionId)
+        .checksumMode(ChecksumMode.ENABLED)
+        .build()
+    );
+  }
+
+  private InputStream download(GetObjectRequest getObjectRequest) {
+    try {
+      DownloadRequest<ResponseInputStream<GetObjectResponse>> downloadRequest =
+        DownloadRequest
+          .builder()
+          .getObjectRequest(getObjectRequest)
+          .responseTransformer(AsyncResponseTransformer.toBlockingInputStream())
+          .build();
+      return join(transferManager.download(downloadRequest).completionFuture())
+        .result();
+    } catch (NoSuchKeyException e) {
+      return null;
+    } catch (S3Exception e) {
+      if (e.statusCode() == 404) {
+        // an unknown version id is reported as NoSuchVersion
+        return null;
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public BlobMetadata stat(String objectName) {
+    try {
+      return S3BlobStoreRepository.blobMetadata(
+        objectName,
+        join(
+          s3AsyncClient.headObject(headObjectRequest ->
+            headObjectRequest.bucket(containerName).key(objectName)
+          )
+        )
+      );
+    } catch (NoSuchKeyException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public List<String> listBlobNames(String prefix) {
+    List<String> blobNames = Collections.synchronizedList(new ArrayList<>());
+    iteratePrefix(
+      containerName,
+      prefix,
+      s3Objects -> s3Objects.forEach(s3Object -> blobNames.add(s3Object.key()))
+    );
+    return List.copyOf(blobNames);
+  }
+
+  @Override
+  public long uploadBlob(BlobDescriptor blobDescriptor) {
+    try (
+      UploadBuffer uploadBuffer = uploadBufferPool.buffer(
+        blobDescriptor.inputStream()
+      )
+    ) {
+      PutObjectRequest putObjectRequest = PutObjectRequest
+        .builder()
+        .applyMutation(r -> {
+          r
+            .bucket(containerName)
+            .key(blobDescriptor.name())
+            .contentLength(uploadBuffer.length())
+            .contentMD5(uploadBuffer.md5Base64())
+            .checksumCRC32C(uploadBuffer.crc32cBase64());
+          blobDescriptor.contentType().ifPresent(r::contentType);
+          blobDescriptor
+            .metadata()
+            .map(S3BlobStoreRepository::mimeEncodeValues)
+            .ifPresent(r::metadata);
+        })
+        .build();
+      if (uploadBuffer.isSpilled()) {
+        join(
+          transferManager
+            .uploadFile(uploadFileRequest ->
+              uploadFileRequest
+                .putObjectRequest(putObjectRequest)
+                .source(uploadBuffer.file())
+            )
+            .completionFuture()
+        );
+      } else {
+        // sent without a copy, the buffer is released after the upload
+        join(
+          transferManager
+            .upload(uploadRequest ->
+              uploadRequest
+                .putObjectRequest(putObjectRequest)
+                .requestBody(
+                  AsyncRequestBody.fromRemainingByteBufferUnsafe(
+                    uploadBuffer.byteBuffer()
+                  )
+                )
+            )
+            .completionFuture()
+        );
+      }
+    }
+    return UNKNOWN_LATEST_VERSION;
+  }
+
+  @Override
+  public long uploadBlob(String objectName, InputStream inputStream) {
+    return uploadBlob(
+      new BlobDescriptor(
+        objectName,
+        inputStream,
+        Optional.empty(),
+        Optional.empty()
+      )
+    );
+  }
+
+  @Override
+  public long uploadBlob(
+    String objectName,
+    InputStream inputStream,
+    String contentType
+  ) {
+    return uploadBlob(
+      new BlobDescriptor(
+        objectName,
+        inputStream,
+        Optional.of(contentType),
+        Optional.empty()
+      )
+    );
+  }
+
+  @Override
+  public long uploadNewBlob(String objectName, InputStream inputStream) {
+    if (objectExists(containerName, objectName)) {
+      throw new BlobAlreadyExistsException(
+        "Blob '" +
+        objectName +
+        "' already exists in bucket '" +
+        containerName +
+        "'"
+      );
+    }
+    return uploadBlob(objectName, inputStream);
+  }
+
+  private boolean objectExists(String containerName, String objectName) {
+    try {
+      join(
+        s3AsyncClient.headObject(headObjectRequest ->
+          headObjectRequest.bucket(containerName).key(objectName)
+        )
+      );
+      return true;
+    } catch (NoSuchKeyException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public void copyBlob(
+    String sourceContainerName,
+    String sourceObjectName,
+    String targetContainerName,
+    String targetObjectName
+  ) {
+    join(
+      startCopy(
+        sourceContainerName,
+        sourceObjectName,
+        targetContainerName,
+        targetObjectName
+      )
+    );
+  }
+
+  private CompletableFuture<?> startCopy(
+    String sourceContainerName,
+    String sourceObjectName,
+    String targetContainerName,
+    String targetObjectName
+  ) {
+    return transferManager
+      .copy(copyRequest ->
+        copyRequest.copyObjectRequest(copyObjectRequest ->
+          copyObjectRequest
+            .sourceBucket(sourceContainerName)
+            .sourceKey(sourceObjectName)
+            .destinationBucket(targetContainerName)
+            .destinationKey(targetObjectName)
+        )
+      )
+      .completionFuture();
+  }
+
+  @Override
+  public void copyVersionedBlob(
+    String sourceContainerName,
+    String sourceObjectName,
+    Long sourceVersion,
+    String targetContainerName,
+    String targetObjectName
+  ) {
+    // NOTE: S3 implementation does not support numeric versioning
+    copyBlob(
+      sourceContainerName,
+      sourceObjectName,
+      targetContainerName,
+      targetObjectName
+    );
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The copies are started as soon as each listing page is received and run concurrently.
+   */
+  @Override
+  public void copyAllBlobs(
+    String sourceContainerName,
+    String prefix,
+    String targetContainerName,
+    String targetPrefix
+  ) {
+    List<CompletableFuture<?>> copies = Collections.synchronizedList(
+      new ArrayList<>()
+    );
+    iteratePrefix(
+      sourceContainerName,
+      prefix,
+      s3Objects -> {
+        for (S3Object s3Object : s3Objects) {
+          copies.add(
+            startCopy(
+              sourceContainerName,
+              s3Object.key(),
+              targetContainerName,
+              targetPrefix +
+              S3BlobStoreRepository.trimPrefix(prefix, s3Object.key())
+            )
+          );
+        }
+      }
+    );
+    join(CompletableFuture.allOf(copies.toArray(CompletableFuture[]::new)));
+  }
+
+  @Override
+  public boolean delete(String objectName) {
+    join(
+      s3AsyncClient.deleteObject(r -> r.bucket(containerName).key(objectName))
+    );
+    return !objectExists(containerName, objectName);
+  }
+
+  @Override
+  public boolean deleteAllFilesInFolder(String folder) {
+    List<CompletableFuture<Boolean>> deletions =
+      Collections.synchronizedList(new ArrayList<>());
+    iteratePrefix(
+      containerName,
+      folder,
+      s3Objects -> {
+        List<ObjectIdentifier> objectIdentifiers = s3Objects
+          .stream()
+          .map(s3Object ->
+            ObjectIdentifier.builder().key(s3Object.key()).build()
+          )
+          .toList();
+        deletions.add(
+          s3AsyncClient
+            .deleteObjects(deleteObjectsRequest ->
+              deleteObjectsRequest
+                .bucket(containerName)
+                .delete(delete -> delete.objects(objectIdentifiers))
+            )
+            .thenApply(response -> response.errors().isEmpty())
+        );
+      }
+    );
+    boolean deleted = true;
+    for (CompletableFuture<Boolean> deletion : deletions) {
+      deleted &= join(deletion);
+    }
+    return deleted;
+  }
+
+  /**
+   * Pass each non-empty listing page to the consumer as soon as it is received, and wait for the end of the listing.
+   */
+  private void iteratePrefix(
+    String containerName,
+    String prefix,
+    Consumer<List<S3Object>> consumer
+  ) {
+    join(
+      s3AsyncClient
+        .listObjectsV2Paginator(req -> req.bucket(containerName).prefix(prefix))
+        .subscribe(page -> {
+          if (!page.contents().isEmpty()) {
+            consumer.accept(page.contents());
+          }
+        })
+    );
+  }
+
+  /**
+   * Wait for the completion of an asynchronous operation, rethrowing the SDK exception that caused its failure.
+   */
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new BlobStoreException(e.getCause());
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * For this implementation container name maps to AWS S3 bucket name as-is.
+   *
+   * @param containerName Container name to use as source AWS S3 bucket name.
+   */
+  @Override
+  public void setContainerName(String containerName) {
+    this.containerName = containerName;
+  }
+
+  /**
+   * Close the transfer manager. The S3 client passed to the constructor is not closed.
+   */
+  @Override
+  public void close() {
+    transferManager.close();
+  }
+}
@@ -0,0 +1,101 @@
+package org.rutebanken.helper.aws.repository;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.helper.storage.testsupport.FakeS3Server;
+import org.rutebanken.helper.storage.testsupport.Fault;
+import org.rutebanken.helper.storage.testsupport.FaultProfile;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.awscore.retry.AwsRetryStrategy;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+
+/**
+ * Verify that the SDK retries make the repository operations succeed against a server rejecting requests at a high
+ * rate.
+ */
+public class S3BlobStoreRepositoryFaultToleranceTests {
+
+  private static final String TEST_BUCKET = "test-fault-tolerance";
+
+  private FakeS3Server server;
+
+  private S3Client s3Client;
+
+  private S3BlobStoreRepository blobStore;
+
+  @BeforeEach
+  public void setUp() {
+    server =
+      FakeS3Server.start(
+        FaultProfile
+          .builder()
+          .withThrottledRate(0.1)
+          .withUnavailableRate(0.2)
+          .build()
+      );
+    s3Client =
+      S3Client
+        .builder()
+        .endpointOverride(server.endpoint())
+        .forcePathStyle(true)
+        .region(Region.EU_NORTH_1)
+        .credentialsProvider(
+          StaticCredentialsProvider.create(
+            AwsBasicCredentials.create("access", "secret")
+          )
+        )
+        .overrideConfiguration(configuration ->
+          configuration.retryStrategy(
+            AwsRetryStrategy
+              .standardRetryStrategy()
+              .toBuilder()
+              .maxAttempts(10)
+              .build()
+          )
+        )
+        .build();
+    s3Client.createBucket(request -> request.bucket(TEST_BUCKET));
+    blobStore = new S3BlobStoreRepository(s3Client);
+    blobStore.setContainerName(TEST_BUCKET);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    s3Client.close();
+    server.close();
+  }
+
+  @Test
+  public void operationsSucceedDespiteTransientFailures() throws Exception {
+    List<String> names = IntStream
+      .range(0, 20)
+      .mapToObj(i -> "things/" + i)
+      .sorted()
+      .toList();
+    for (String name : names) {
+      blobStore.uploadBlob(name, asStream(name));
+    }
+    assertEquals(names, blobStore.listBlobNames("things/"));
+    for (String name : names) {
+      assertEquals(name, new String(blobStore.getBlob(name).readAllBytes()));
+    }
+    assertTrue(blobStore.deletePrefix("things/").isSuccessful());
+    assertEquals(List.of(), blobStore.listBlobNames("things/"));
+
+    assertTrue(server.faultCount(Fault.THROTTLED) > 0);
+    assertTrue(server.faultCount(Fault.UNAVAILABLE) > 0);
+  }
+
+  private static ByteArrayInputStream asStream(String source) {
+    return new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8));
+  }
+}
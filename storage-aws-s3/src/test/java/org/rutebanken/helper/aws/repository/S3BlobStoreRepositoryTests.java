@@ -15,7 +15,9 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.rutebanken.helper.storage.BlobAlreadyExistsException;
+import org.rutebanken.helper.storage.buffer.UploadBufferPool;
 import org.rutebanken.helper.storage.model.BlobDescriptor;
+import org.rutebanken.helper.storage.model.BlobMetadata;
 import org.testcontainers.containers.localstack.LocalStackContainer;
 import org.testcontainers.containers.localstack.LocalStackContainer.Service;
 import org.testcontainers.junit.jupiter.Testcontainers;
@@ -24,6 +26,7 @@ import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.BucketVersioningStatus;
 import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
@@ -99,6 +102,21 @@ public class S3BlobStoreRepositoryTests {
     assertTrue(blobStore.delete("myblob"));
   }
 
+  @Test
+  public void canUploadPayloadSpilledToDisk() throws Exception {
+    S3BlobStoreRepository spillingBlobStore = new S3BlobStoreRepository(
+      s3Client,
+      new UploadBufferPool(16, 1, null)
+    );
+    spillingBlobStore.setContainerName(TEST_BUCKET);
+    String original = "A payload larger than the upload buffer";
+    spillingBlobStore.uploadBlob("spilledblob", asStream(original));
+    assertEquals(
+      original,
+      new String(blobStore.getBlob("spilledblob").readAllBytes())
+    );
+  }
+
   @Test
   public void cannotOverWriteExistingObject() {
     String original = "another bytes the dust";
@@ -179,6 +197,38 @@ public class S3BlobStoreRepositoryTests {
     blobStore.setContainerName(TEST_BUCKET);
   }
 
+  @Test
+  public void canReadSpecificVersion() throws Exception {
+    String versionedBucket = "versioned-bucket";
+    createBucket(versionedBucket);
+    s3Client.putBucketVersioning(request ->
+      request
+        .bucket(versionedBucket)
+        .versioningConfiguration(configuration ->
+          configuration.status(BucketVersioningStatus.ENABLED)
+        )
+    );
+    blobStore.setContainerName(versionedBucket);
+    blobStore.uploadBlob("versionedfile", asStream("first"));
+    String firstVersionId = s3Client
+      .headObject(request ->
+        request.bucket(versionedBucket).key("versionedfile")
+      )
+      .versionId();
+    blobStore.uploadBlob("versionedfile", asStream("second"));
+    assertEquals(
+      "first",
+      new String(
+        blobStore.getBlob("versionedfile", firstVersionId).readAllBytes()
+      )
+    );
+    assertEquals(
+      "second",
+      new String(blobStore.getBlob("versionedfile").readAllBytes())
+    );
+    blobStore.setContainerName(TEST_BUCKET);
+  }
+
   @Test
   public void canCopyAllBlobsWithSharedPrefix() {
     String targetBucket = "one-more-bucket";
@@ -194,6 +244,22 @@ public class S3BlobStoreRepositoryTests {
     assertBlobExists(targetBucket, "stuff/d", false);
   }
 
+  @Test
+  public void canDeleteAllBlobsWithSharedPrefix() {
+    blobStore.uploadBlob("temporary/a", asStream("a"));
+    blobStore.uploadBlob("temporary/b", asStream("b"));
+    blobStore.uploadBlob("temporary/c/d", asStream("d"));
+    blobStore.uploadBlob("permanent/e", asStream("e"));
+    PrefixDeleteResult result = blobStore.deletePrefix("temporary/", 2);
+    assertTrue(result.isSuccessful());
+    assertEquals(3, result.deletedCount());
+    assertBlobExists(TEST_BUCKET, "temporary/a", false);
+    assertBlobExists(TEST_BUCKET, "temporary/c/d", false);
+    assertBlobExists(TEST_BUCKET, "permanent/e", true);
+    assertTrue(blobStore.deleteAllFilesInFolder("permanent/"));
+    assertBlobExists(TEST_BUCKET, "permanent/e", false);
+  }
+
   @Test
   public void attachesGivenMetadataToUploadWhenPresent() {
     Map<String, String> metadata = Map.of("metadata.test", "testing");
@@ -208,6 +274,26 @@ public class S3BlobStoreRepositoryTests {
     assertBlobExists(TEST_BUCKET, "things/a", true, metadata);
   }
 
+  @Test
+  public void canStatABlobWithoutDownloadingIt() {
+    assertNull(blobStore.stat("described/a"));
+    Map<String, String> metadata = Map.of("owner", "Bjørn");
+    blobStore.uploadBlob(
+      new BlobDescriptor(
+        "described/a",
+        asStream("abc"),
+        Optional.of("text/plain"),
+        Optional.of(metadata)
+      )
+    );
+    BlobMetadata blobMetadata = blobStore.stat("described/a");
+    assertEquals("described/a", blobMetadata.name());
+    assertEquals(3, blobMetadata.size());
+    assertEquals(Optional.of("text/plain"), blobMetadata.contentType());
+    assertEquals(metadata, blobMetadata.metadata());
+    assertTrue(blobMetadata.updated().isPresent());
+  }
+
   private static @NotNull ByteArrayInputStream asStream(String source) {
     return new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8));
   }
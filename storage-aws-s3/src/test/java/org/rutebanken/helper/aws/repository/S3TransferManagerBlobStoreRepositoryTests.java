@@ -0,0 +1,168 @@
+package org.rutebanken.helper.aws.repository;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.helper.storage.BlobAlreadyExistsException;
+import org.rutebanken.helper.storage.buffer.UploadBufferPool;
+import org.rutebanken.helper.storage.model.BlobMetadata;
+import org.testcontainers.containers.localstack.LocalStackContainer;
+import org.testcontainers.containers.localstack.LocalStackContainer.Service;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+
+@Testcontainers
+public class S3TransferManagerBlobStoreRepositoryTests {
+
+  private static final String TEST_BUCKET = "test-transfer-manager";
+
+  private static LocalStackContainer localStack;
+
+  private S3AsyncClient s3AsyncClient;
+
+  private S3TransferManagerBlobStoreRepository blobStore;
+
+  @BeforeAll
+  public static void init() {
+    localStack =
+      new LocalStackContainer(
+        DockerImageName.parse("localstack/localstack:3.4.0")
+      )
+        .withServices(Service.S3)
+        .withEnv("DEFAULT_REGION", Region.EU_NORTH_1.id());
+    localStack.start();
+  }
+
+  @AfterAll
+  public static void tearDown() {
+    localStack.stop();
+  }
+
+  @BeforeEach
+  public void setUp() {
+    s3AsyncClient =
+      S3AsyncClient
+        .crtBuilder()
+        .endpointOverride(localStack.getEndpointOverride(Service.S3))
+        .forcePathStyle(true)
+        .region(Region.of(localStack.getRegion()))
+        .credentialsProvider(
+          StaticCredentialsProvider.create(
+            AwsBasicCredentials.create(
+              localStack.getAccessKey(),
+              localStack.getSecretKey()
+            )
+          )
+        )
+        .build();
+    blobStore = new S3TransferManagerBlobStoreRepository(s3AsyncClient);
+    createBucket(TEST_BUCKET);
+    blobStore.setContainerName(TEST_BUCKET);
+  }
+
+  @AfterEach
+  public void closeClient() {
+    blobStore.close();
+    s3AsyncClient.close();
+  }
+
+  private void createBucket(String bucketName) {
+    s3AsyncClient
+      .createBucket(request -> request.bucket(bucketName))
+      .exceptionally(alreadyExists -> null)
+      .join();
+  }
+
+  @Test
+  public void canRoundtripAFile() throws Exception {
+    String original = "Hello, BlobStore!";
+    assertFalse(blobStore.exist("myblob"));
+    assertNull(blobStore.getBlob("myblob"));
+    blobStore.uploadBlob("myblob", asStream(original));
+    assertTrue(blobStore.exist("myblob"));
+    assertEquals(
+      original,
+      new String(blobStore.getBlob("myblob").readAllBytes())
+    );
+    assertTrue(blobStore.delete("myblob"));
+  }
+
+  @Test
+  public void canUploadPayloadSpilledToDisk() throws Exception {
+    S3TransferManagerBlobStoreRepository spillingBlobStore =
+      new S3TransferManagerBlobStoreRepository(
+        s3AsyncClient,
+        new UploadBufferPool(16, 1, null)
+      );
+    spillingBlobStore.setContainerName(TEST_BUCKET);
+    String original = "A payload larger than the upload buffer";
+    spillingBlobStore.uploadBlob("spilledblob", asStream(original));
+    assertEquals(
+      original,
+      new String(blobStore.getBlob("spilledblob").readAllBytes())
+    );
+    spillingBlobStore.close();
+  }
+
+  @Test
+  public void cannotOverWriteExistingObject() {
+    blobStore.uploadNewBlob("anotherblob", asStream("another bytes the dust"));
+    assertThrows(
+      BlobAlreadyExistsException.class,
+      () -> blobStore.uploadNewBlob("anotherblob", asStream("something silly"))
+    );
+  }
+
+  @Test
+  public void canCopyContentBetweenBuckets() throws Exception {
+    String targetBucket = "another-transfer-bucket";
+    String content = "1";
+    createBucket(targetBucket);
+    blobStore.uploadBlob("smallfile", asStream(content));
+    blobStore.copyBlob(TEST_BUCKET, "smallfile", targetBucket, "tinyfile");
+    blobStore.setContainerName(targetBucket);
+    assertEquals(
+      content,
+      new String(blobStore.getBlob("tinyfile").readAllBytes())
+    );
+  }
+
+  @Test
+  public void canCopyListAndDeleteBlobsWithSharedPrefix() {
+    String targetBucket = "one-more-transfer-bucket";
+    createBucket(targetBucket);
+    blobStore.uploadBlob("things/a", asStream("a"));
+    blobStore.uploadBlob("things/b", asStream("b"));
+    blobStore.uploadBlob("stuff/c", asStream("c"));
+    blobStore.copyAllBlobs(TEST_BUCKET, "things/", targetBucket, "bits/");
+    blobStore.setContainerName(targetBucket);
+    assertEquals(List.of("bits/a", "bits/b"), blobStore.listBlobNames(""));
+    assertTrue(blobStore.deleteAllFilesInFolder("bits/"));
+    assertEquals(List.of(), blobStore.listBlobNames(""));
+  }
+
+  @Test
+  public void canStatABlobWithoutDownloadingIt() {
+    assertNull(blobStore.stat("statblob"));
+    blobStore.uploadBlob("statblob", asStream("abc"), "text/plain");
+    BlobMetadata blobMetadata = blobStore.stat("statblob");
+    assertEquals(3, blobMetadata.size());
+    assertEquals(Optional.of("text/plain"), blobMetadata.contentType());
+  }
+
+  private static ByteArrayInputStream asStream(String source) {
+    return new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.gcp;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.storage.CopyWriter;
+import org.rutebanken.helper.storage.BlobStoreException;
+
+/**
+ * Thrown when a chunked server-side copy fails. The copy can be continued from the last completed chunk with
+ * {@link GcsBlobCopier#resume(RestorableState, java.util.function.Consumer)}.
+ */
+public class BlobCopyException extends BlobStoreException {
+
+  private final transient RestorableState<CopyWriter> resumeState;
+
+  public BlobCopyException(
+    String message,
+    Throwable cause,
+    RestorableState<CopyWriter> resumeState
+  ) {
+    super(message, cause);
+    this.resumeState = resumeState;
+  }
+
+  /**
+   * Return the state of the copy after the last completed chunk, or null if the copy failed before the first chunk.
+   */
+  public RestorableState<CopyWriter> resumeState() {
+    return resumeState;
+  }
+}
@@ -26,16 +26,27 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.rutebanken.helper.storage.BlobAlreadyExistsException;
+import org.rutebanken.helper.storage.BlobChecksumMismatchException;
 import org.rutebanken.helper.storage.BlobConcurrentUpdateException;
 import org.rutebanken.helper.storage.BlobStoreException;
+import org.rutebanken.helper.storage.buffer.ChunkBufferPool;
+import org.rutebanken.helper.storage.checksum.ChecksumMismatchException;
+import org.rutebanken.helper.storage.checksum.ChecksumVerifyingInputStream;
+import org.rutebanken.helper.storage.model.BlobMetadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,12 +57,70 @@ public class BlobStoreHelper {
   );
 
   private static final int DEFAULT_CHUNK_SIZE = 15 * 1024 * 1024;
+  public static final int DEFAULT_MAX_CHUNK_BUFFERS = 8;
+  public static final Duration DEFAULT_CHUNK_ACQUIRE_TIMEOUT =
+    Duration.ofMinutes(5);
+
+  /**
+   * Internal buffer size of the GCS write channel. The channel writes pooled chunks that are a multiple of this size
+   * directly, without copying them, and only buffers the tail of the last chunk.
+   */
+  private static final int WRITER_CHUNK_SIZE = 256 * 1024;
   private static final int CONNECT_AND_READ_TIMEOUT = 60000;
   private static final String DEFAULT_CACHE_CONTROL = "public, max-age=600";
   public static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
 
+  /**
+   * Chunks shared by all chunked uploads, bounding the memory used by concurrent uploads.
+   */
+  private static volatile ChunkBufferPool chunkBufferPool = newChunkBufferPool(
+    DEFAULT_MAX_CHUNK_BUFFERS,
+    DEFAULT_CHUNK_ACQUIRE_TIMEOUT
+  );
+
   private BlobStoreHelper() {}
 
+  /**
+   * Return the pool of chunks used by chunked uploads, for monitoring its utilisation.
+   */
+  public static ChunkBufferPool chunkBufferPool() {
+    return chunkBufferPool;
+  }
+
+  /**
+   * Create a pool of 15 MB chunks suitable for chunked uploads.
+   *
+   * @param maxChunks      the maximum number of concurrent chunked uploads.
+   * @param acquireTimeout how long an upload waits for a chunk when all chunks are in use.
+   */
+  public static ChunkBufferPool newChunkBufferPool(
+    int maxChunks,
+    Duration acquireTimeout
+  ) {
+    return new ChunkBufferPool(DEFAULT_CHUNK_SIZE, maxChunks, acquireTimeout);
+  }
+
+  /**
+   * Replace the pool of chunks used by subsequent chunked uploads. Uploads in progress return their chunk to the pool
+   * they borrowed it from.
+   *
+   * @throws IllegalArgumentException if the chunk size is not a positive multiple of 256 KiB, the granularity of GCS
+   *                                  resumable uploads.
+   */
+  public static void setChunkBufferPool(ChunkBufferPool pool) {
+    if (
+      pool.chunkSize() <= 0 || pool.chunkSize() % WRITER_CHUNK_SIZE != 0
+    ) {
+      throw new IllegalArgumentException(
+        "The chunk size must be a positive multiple of " +
+        WRITER_CHUNK_SIZE +
+        " bytes: " +
+        pool.chunkSize()
+      );
+    }
+    chunkBufferPool = pool;
+  }
+
   public static Iterator<Blob> listAllBlobsRecursively(
     Storage storage,
     String containerName,
@@ -194,18 +263,33 @@ public class BlobStoreHelper {
 
   /**
    * Write the blob in chunks. Chunks are  retried internally by the GCS client library.
+   * The chunk is borrowed from the shared chunk pool and the upload waits if all chunks are in use.
+   * The write channel is given a small internal buffer so that the pooled chunk is sent as is instead of being copied
+   * into a channel buffer of the same size.
    */
   private static void writeWithRetry(
     Storage storage,
     BlobInfo blobInfo,
     InputStream inputStream
   ) throws IOException {
+    ChunkBufferPool pool = chunkBufferPool;
+    ByteBuffer chunk = pool.acquire();
     try (WriteChannel writer = storage.writer(blobInfo)) {
-      byte[] buffer = new byte[DEFAULT_CHUNK_SIZE];
-      int length;
-      while ((length = inputStream.read(buffer)) >= 0) {
-        writer.write(ByteBuffer.wrap(buffer, 0, length));
+      writer.setChunkSize(WRITER_CHUNK_SIZE);
+      ReadableByteChannel source = Channels.newChannel(inputStream);
+      boolean endOfStream = false;
+      while (!endOfStream) {
+        while (chunk.hasRemaining() && !endOfStream) {
+          endOfStream = source.read(chunk) < 0;
+        }
+        chunk.flip();
+        while (chunk.hasRemaining()) {
+          writer.write(chunk);
+        }
+        chunk.clear();
       }
+    } finally {
+      pool.release(chunk);
     }
   }
 
@@ -462,6 +546,60 @@ public class BlobStoreHelper {
     return blob != null;
   }
 
+  /**
+   * Fetch the metadata of a blob without downloading its content. Only the fields exposed by {@link BlobMetadata}
+   * are requested.
+   *
+   * @return the metadata of the latest generation of the blob, or null if the blob does not exist.
+   */
+  public static BlobMetadata getBlobMetadata(
+    Storage storage,
+    String containerName,
+    String name
+  ) {
+    LOGGER.debug(
+      "Fetching metadata of blob {} from bucket {}",
+      name,
+      containerName
+    );
+    Blob blob = storage.get(
+      BlobId.of(containerName, name),
+      Storage.BlobGetOption.fields(
+        Storage.BlobField.SIZE,
+        Storage.BlobField.GENERATION,
+        Storage.BlobField.CONTENT_TYPE,
+        Storage.BlobField.METADATA,
+        Storage.BlobField.UPDATED
+      )
+    );
+    if (blob == null) {
+      return null;
+    }
+    Map<String, String> metadata = new HashMap<>();
+    if (blob.getMetadata() != null) {
+      // a null value marks a metadata entry to remove and is never returned by the service
+      blob
+        .getMetadata()
+        .forEach((key, value) -> {
+          if (value != null) {
+            metadata.put(key, value);
+          }
+        });
+    }
+    return new BlobMetadata(
+      name,
+      blob.getSize() == null ? 0 : blob.getSize(),
+      blob.getGeneration() == null
+        ? BlobMetadata.UNKNOWN_GENERATION
+        : blob.getGeneration(),
+      Optional.ofNullable(blob.getContentType()),
+      metadata,
+      Optional
+        .ofNullable(blob.getUpdateTimeOffsetDateTime())
+        .map(OffsetDateTime::toInstant)
+    );
+  }
+
   public static InputStream getBlob(
     Storage storage,
     String containerName,
@@ -488,11 +626,86 @@ public class BlobStoreHelper {
     }
   }
 
+  /**
+   * Download a specific generation of a blob.
+   *
+   * @return an InputStream on the blob content or null if the blob or the generation does not exist.
+   */
+  public static InputStream getBlob(
+    Storage storage,
+    String containerName,
+    String name,
+    long generation
+  ) {
+    LOGGER.debug(
+      "Fetching blob {} with generation {} from bucket {}",
+      name,
+      generation,
+      containerName
+    );
+    BlobId blobId = BlobId.of(containerName, name, generation);
+    Blob blob = storage.get(blobId);
+    if (blob != null) {
+      LOGGER.debug(
+        "Retrieved blob with name '{}', generation '{}' and size '{}' from bucket '{}'",
+        blob.getName(),
+        blob.getGeneration(),
+        blob.getSize(),
+        blob.getBucket()
+      );
+      return getBlobInputStream(blob);
+    } else {
+      LOGGER.info(
+        "File '{}' with generation '{}' in bucket '{}' does not exist",
+        blobId.getName(),
+        generation,
+        blobId.getBucket()
+      );
+      return null;
+    }
+  }
+
+  /**
+   * Download the content of the blob into memory. The content is downloaded once and verified against the CRC32C
+   * checksum of the blob while it is read. The returned {@link ByteArrayInputStream} does not hold any connection and
+   * can be read again after it is closed, as required for example by the Camel stream cache.
+   * Use {@link #openBlobInputStream(Blob)} to stream large blobs without holding them in memory.
+   *
+   * @throws BlobChecksumMismatchException wrapping the {@link ChecksumMismatchException} of the stream if the content
+   *                                        does not match the checksum.
+   */
   public static InputStream getBlobInputStream(Blob blob) {
-    validateBlob(blob);
-    return new ByteArrayInputStream(blob.getContent());
+    try (InputStream inputStream = openBlobInputStream(blob)) {
+      return new ByteArrayInputStream(inputStream.readAllBytes());
+    } catch (ChecksumMismatchException e) {
+      throw new BlobChecksumMismatchException(blob.getName(), e);
+    } catch (IOException e) {
+      throw new BlobStoreException(e);
+    }
   }
 
+  /**
+   * Stream the content of the blob. The content is read lazily from a GCS read channel, and the stream must be closed
+   * to release it. The content is verified against the CRC32C checksum of the blob while it is read, and a
+   * {@link ChecksumMismatchException} is thrown by the read call reaching the end of the stream if they differ.
+   * Reading is pinned to the generation of the blob, so that the content matches the checksum.
+   * Blobs stored with gzip content encoding may be decompressed on download and are not verified.
+   */
+  public static InputStream openBlobInputStream(Blob blob) {
+    InputStream inputStream = Channels.newInputStream(
+      blob.reader(Blob.BlobSourceOption.generationMatch())
+    );
+    if (blob.getCrc32c() == null || "gzip".equals(blob.getContentEncoding())) {
+      return inputStream;
+    }
+    return ChecksumVerifyingInputStream.crc32c(inputStream, blob.getCrc32c());
+  }
+
+  /**
+   * @deprecated downloads the whole blob to validate it. {@link #getBlobInputStream(Blob)} and
+   * {@link #openBlobInputStream(Blob)} verify the content while it is downloaded.
+   */
+  @Deprecated
   public static void validateBlob(Blob blob) {
     byte[] blobContent = blob.getContent();
     String serverMd5 = blob.getMd5ToHexString();
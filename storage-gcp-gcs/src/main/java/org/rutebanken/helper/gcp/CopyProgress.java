@@ -0,0 +1,38 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.gcp;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.storage.CopyWriter;
+
+/**
+ * Progress of a chunked server-side copy, reported after each rewrite call.
+ *
+ * @param totalBytesCopied the number of bytes copied so far.
+ * @param blobSize         the size of the source blob.
+ * @param resumeState      the state of the copy, which can be persisted and passed to
+ *                         {@link GcsBlobCopier#resume(RestorableState, java.util.function.Consumer)} to continue the
+ *                         copy after a failure or a restart.
+ */
+public record CopyProgress(
+  long totalBytesCopied,
+  long blobSize,
+  RestorableState<CopyWriter> resumeState
+) {
+  public boolean isDone() {
+    return totalBytesCopied == blobSize;
+  }
+}
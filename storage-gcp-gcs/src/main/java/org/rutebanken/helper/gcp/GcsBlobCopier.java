@@ -0,0 +1,259 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.gcp;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.CopyWriter;
+import com.google.cloud.storage.Storage;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.rutebanken.helper.storage.execution.BlobStoreExecutor;
+import org.rutebanken.helper.storage.observation.BlobStoreObservations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server-side copy of blobs driven chunk by chunk with rewrite tokens.
+ * <p>
+ * Copies across locations or storage classes are performed by GCS in several rewrite calls. Instead of waiting for the
+ * whole rewrite in a single call, which can exceed the HTTP read timeout for multi-GB blobs, each call copies at most
+ * the configured number of megabytes and returns a rewrite token used by the next call. Progress is reported after
+ * each call, together with a state that can be persisted to resume the copy after a failure or a restart.
+ * <p>
+ * Asynchronous copies run on a {@link BlobStoreExecutor}, by default a bounded pool of daemon threads released when
+ * idle.
+ * <p>
+ * Each rewrite call is recorded as an observation, child of the observation current when the copy was started.
+ */
+public class GcsBlobCopier {
+
+  public static final int DEFAULT_MAX_CONCURRENT_COPIES = 4;
+  public static final long DEFAULT_MEGABYTES_COPIED_PER_CHUNK = 256;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(
+    GcsBlobCopier.class
+  );
+
+  private final Storage storage;
+  private final long megabytesCopiedPerChunk;
+  private final BlobStoreExecutor executor;
+  private final ObservationRegistry observationRegistry;
+
+  public GcsBlobCopier(Storage storage) {
+    this(
+      storage,
+      DEFAULT_MAX_CONCURRENT_COPIES,
+      DEFAULT_MEGABYTES_COPIED_PER_CHUNK
+    );
+  }
+
+  /**
+   * @param storage                 the storage client.
+   * @param maxConcurrentCopies     the maximum number of asynchronous copies running at the same time. Additional
+   *                                copies are queued.
+   * @param megabytesCopiedPerChunk the maximum number of megabytes copied by each rewrite call.
+   */
+  public GcsBlobCopier(
+    Storage storage,
+    int maxConcurrentCopies,
+    long megabytesCopiedPerChunk
+  ) {
+    this(
+      storage,
+      maxConcurrentCopies,
+      megabytesCopiedPerChunk,
+      ObservationRegistry.NOOP
+    );
+  }
+
+  /**
+   * @param storage                 the storage client.
+   * @param maxConcurrentCopies     the maximum number of asynchronous copies running at the same time. Additional
+   *                                copies are queued.
+   * @param megabytesCopiedPerChunk the maximum number of megabytes copied by each rewrite call.
+   * @param observationRegistry     the registry recording an observation for each rewrite call.
+   */
+  public GcsBlobCopier(
+    Storage storage,
+    int maxConcurrentCopies,
+    long megabytesCopiedPerChunk,
+    ObservationRegistry observationRegistry
+  ) {
+    this(
+      storage,
+      BlobStoreExecutor.platformThreads("gcs-blob-copier", maxConcurrentCopies),
+      megabytesCopiedPerChunk,
+      observationRegistry
+    );
+  }
+
+  /**
+   * @param storage                 the storage client.
+   * @param executor                the executor running the asynchronous copies, which limits the number of copies
+   *                                running at the same time. Additional copies are queued.
+   * @param megabytesCopiedPerChunk the maximum number of megabytes copied by each rewrite call.
+   * @param observationRegistry     the registry recording an observation for each rewrite call.
+   */
+  public GcsBlobCopier(
+    Storage storage,
+    BlobStoreExecutor executor,
+    long megabytesCopiedPerChunk,
+    ObservationRegistry observationRegistry
+  ) {
+    this.storage = storage;
+    this.executor = executor;
+    this.megabytesCopiedPerChunk = megabytesCopiedPerChunk;
+    this.observationRegistry = observationRegistry;
+  }
+
+  /**
+   * Copy a blob, blocking until the copy is complete.
+   *
+   * @param source           the source blob, optionally with a generation.
+   * @param target           the target blob.
+   * @param progressListener called after each rewrite call.
+   * @return the target blob.
+   * @throws BlobCopyException if the copy fails. The exception holds the state needed to resume the copy.
+   */
+  public Blob copy(
+    BlobId source,
+    BlobId target,
+    Consumer<CopyProgress> progressListener
+  ) {
+    Storage.CopyRequest request = Storage.CopyRequest
+      .newBuilder()
+      .setSource(source)
+      .setTarget(target)
+      .setMegabytesCopiedPerChunk(megabytesCopiedPerChunk)
+      .build();
+    CopyWriter copyWriter;
+    try {
+      copyWriter = observeChunk(0, () -> storage.copy(request));
+    } catch (RuntimeException e) {
+      throw new BlobCopyException(
+        "Failed to start copy of " + source + " to " + target,
+        e,
+        null
+      );
+    }
+    return complete(copyWriter, progressListener);
+  }
+
+  /**
+   * Copy a blob on the bounded copy executor.
+   *
+   * @see #copy(BlobId, BlobId, Consumer)
+   */
+  public CompletableFuture<Blob> copyAsync(
+    BlobId source,
+    BlobId target,
+    Consumer<CopyProgress> progressListener
+  ) {
+    return executor.supplyAsync(
+      BlobStoreObservations.wrapSupplier(
+        observationRegistry,
+        () -> copy(source, target, progressListener)
+      )
+    );
+  }
+
+  /**
+   * Resume a copy from the state reported by {@link CopyProgress#resumeState()} or
+   * {@link BlobCopyException#resumeState()}, blocking until the copy is complete.
+   */
+  public Blob resume(
+    RestorableState<CopyWriter> resumeState,
+    Consumer<CopyProgress> progressListener
+  ) {
+    return complete(resumeState.restore(), progressListener);
+  }
+
+  private Blob complete(
+    CopyWriter copyWriter,
+    Consumer<CopyProgress> progressListener
+  ) {
+    while (true) {
+      RestorableState<CopyWriter> resumeState = copyWriter.capture();
+      LOGGER.debug(
+        "Copied {} of {} bytes",
+        copyWriter.getTotalBytesCopied(),
+        copyWriter.getBlobSize()
+      );
+      progressListener.accept(
+        new CopyProgress(
+          copyWriter.getTotalBytesCopied(),
+          copyWriter.getBlobSize(),
+          resumeState
+        )
+      );
+      if (copyWriter.isDone()) {
+        return copyWriter.getResult();
+      }
+      try {
+        CopyWriter chunkWriter = copyWriter;
+        observeChunk(
+          chunkWriter.getTotalBytesCopied(),
+          () -> {
+            chunkWriter.copyChunk();
+            return chunkWriter;
+          }
+        );
+      } catch (RuntimeException e) {
+        throw new BlobCopyException(
+          "Failed to copy chunk after " +
+          copyWriter.getTotalBytesCopied() +
+          " bytes",
+          e,
+          resumeState
+        );
+      }
+    }
+  }
+
+  /**
+   * Run a rewrite call in an observation recording the number of bytes it copied.
+   * The blob name and container are recorded by the parent observation.
+   */
+  private CopyWriter observeChunk(
+    long bytesCopiedBefore,
+    Supplier<CopyWriter> rewrite
+  ) {
+    Observation observation = Observation
+      .createNotStarted(
+        BlobStoreObservations.PART_OBSERVATION,
+        observationRegistry
+      )
+      .contextualName("blob copy chunk")
+      .lowCardinalityKeyValue(BlobStoreObservations.OPERATION, "copy_chunk")
+      .lowCardinalityKeyValue(
+        BlobStoreObservations.BACKEND,
+        getClass().getSimpleName()
+      );
+    return observation.observe(() -> {
+      CopyWriter copyWriter = rewrite.get();
+      observation.highCardinalityKeyValue(
+        BlobStoreObservations.SIZE,
+        String.valueOf(copyWriter.getTotalBytesCopied() - bytesCopiedBefore)
+      );
+      return copyWriter;
+    });
+  }
+}
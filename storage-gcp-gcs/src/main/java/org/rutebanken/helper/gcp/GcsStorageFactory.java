@@ -0,0 +1,194 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.gcp;
+
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
+import com.google.api.gax.retrying.RetrySettings;
+import com.google.auth.oauth2.ServiceAccountCredentials;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.http.HttpTransportOptions;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.rutebanken.helper.storage.BlobStoreException;
+
+/**
+ * Build a GCS {@link Storage} client with a tunable transport.
+ * <ul>
+ *   <li>{@link Transport#HTTP}: JSON API over HTTP/1.1, with a pooled Apache HTTP client instead of the JDK
+ *   HttpURLConnection transport, whose connection reuse is limited by the {@code http.maxConnections} system
+ *   property.</li>
+ *   <li>{@link Transport#GRPC}: gRPC API over HTTP/2, multiplexing concurrent requests on a few connections, with
+ *   optional direct path connectivity for workloads running on Google Cloud.</li>
+ * </ul>
+ * Unset credentials default to the application default credentials, or to no credentials when a custom host is set.
+ */
+public class GcsStorageFactory {
+
+  public enum Transport {
+    HTTP,
+    GRPC,
+  }
+
+  public static final int DEFAULT_MAX_CONNECTIONS = 100;
+  public static final Duration DEFAULT_KEEP_ALIVE = Duration.ofSeconds(30);
+  public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(60);
+  public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(60);
+
+  private String projectId;
+  private String credentialPath;
+  private String host;
+  private Transport transport = Transport.HTTP;
+  private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+  private Duration keepAlive = DEFAULT_KEEP_ALIVE;
+  private boolean directPath;
+  private Duration connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+  private Duration readTimeout = DEFAULT_READ_TIMEOUT;
+  private Duration operationTimeout;
+
+  public GcsStorageFactory withProjectId(String projectId) {
+    this.projectId = projectId;
+    return this;
+  }
+
+  /**
+   * Path to a service account key file. If not set, the application default credentials are used.
+   */
+  public GcsStorageFactory withCredentialPath(String credentialPath) {
+    this.credentialPath = credentialPath;
+    return this;
+  }
+
+  /**
+   * Endpoint of the storage service, for example the URL of a GCS emulator. If not set, the public endpoint is used.
+   */
+  public GcsStorageFactory withHost(String host) {
+    this.host = host;
+    return this;
+  }
+
+  public GcsStorageFactory withTransport(Transport transport) {
+    this.transport = transport;
+    return this;
+  }
+
+  /**
+   * Maximum number of pooled HTTP connections (HTTP transport only).
+   */
+  public GcsStorageFactory withMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+    return this;
+  }
+
+  /**
+   * Time an idle pooled HTTP connection is kept open for reuse (HTTP transport only).
+   */
+  public GcsStorageFactory withKeepAlive(Duration keepAlive) {
+    this.keepAlive = keepAlive;
+    return this;
+  }
+
+  /**
+   * Attempt direct path connectivity, bypassing the Google front ends (gRPC transport only, on Google Cloud).
+   */
+  public GcsStorageFactory withDirectPath(boolean directPath) {
+    this.directPath = directPath;
+    return this;
+  }
+
+  /**
+   * Timeout for establishing a connection (HTTP transport only).
+   */
+  public GcsStorageFactory withConnectTimeout(Duration connectTimeout) {
+    this.connectTimeout = connectTimeout;
+    return this;
+  }
+
+  /**
+   * Timeout for reading a response (HTTP transport only).
+   */
+  public GcsStorageFactory withReadTimeout(Duration readTimeout) {
+    this.readTimeout = readTimeout;
+    return this;
+  }
+
+  /**
+   * Total timeout of the retry settings: the maximum duration of an operation across all its attempts, shared by all
+   * operations. It does not bound the individual attempts, whose HTTP timeouts are set by the connect and read
+   * timeouts. If not set, the client library default is used.
+   */
+  public GcsStorageFactory withOperationTimeout(Duration operationTimeout) {
+    this.operationTimeout = operationTimeout;
+    return this;
+  }
+
+  public Storage build() {
+    StorageOptions.Builder builder = transport == Transport.GRPC
+      ? StorageOptions.grpc().setAttemptDirectPath(directPath)
+      : StorageOptions.http().setTransportOptions(httpTransportOptions());
+    builder.setProjectId(projectId);
+    if (host != null && !host.isEmpty()) {
+      builder.setHost(host);
+      builder.setCredentials(NoCredentials.getInstance());
+    }
+    if (credentialPath != null && !credentialPath.isEmpty()) {
+      try (
+        InputStream credentials = Files.newInputStream(
+          Paths.get(credentialPath)
+        )
+      ) {
+        builder.setCredentials(
+          ServiceAccountCredentials.fromStream(credentials)
+        );
+      } catch (IOException e) {
+        throw new BlobStoreException(e);
+      }
+    }
+    if (operationTimeout != null) {
+      RetrySettings retrySettings = StorageOptions
+        .getDefaultRetrySettings()
+        .toBuilder()
+        .setTotalTimeoutDuration(operationTimeout)
+        .build();
+      builder.setRetrySettings(retrySettings);
+    }
+    return builder.build().getService();
+  }
+
+  private HttpTransportOptions httpTransportOptions() {
+    HttpClientBuilder httpClientBuilder = ApacheHttpTransport
+      .newDefaultHttpClientBuilder()
+      .setMaxConnTotal(maxConnections)
+      .setMaxConnPerRoute(maxConnections)
+      .setKeepAliveStrategy((response, context) -> keepAlive.toMillis())
+      .evictIdleConnections(keepAlive.toMillis(), TimeUnit.MILLISECONDS);
+    ApacheHttpTransport httpTransport = new ApacheHttpTransport(
+      httpClientBuilder.build()
+    );
+    return HttpTransportOptions
+      .newBuilder()
+      .setHttpTransportFactory(() -> httpTransport)
+      .setConnectTimeout(Math.toIntExact(connectTimeout.toMillis()))
+      .setReadTimeout(Math.toIntExact(readTimeout.toMillis()))
+      .build();
+  }
+}
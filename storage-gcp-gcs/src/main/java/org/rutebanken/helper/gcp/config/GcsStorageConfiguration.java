@@ -0,0 +1,83 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.gcp.config;
+
+import com.google.cloud.storage.Storage;
+import org.rutebanken.helper.gcp.BlobStoreHelper;
+import org.rutebanken.helper.gcp.GcsStorageFactory;
+import org.rutebanken.helper.gcp.repository.GcsBlobStoreRepository;
+import org.rutebanken.helper.storage.buffer.ChunkBufferPool;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Scope;
+
+/**
+ * Spring Boot auto-configuration of the GCS client and of {@link GcsBlobStoreRepository}.
+ * Enabled with the property {@code org.rutebanken.helper.storage.gcs.enabled=true}, configured with
+ * {@link GcsStorageProperties}.
+ */
+@AutoConfiguration
+@ConditionalOnProperty(
+  name = "org.rutebanken.helper.storage.gcs.enabled",
+  havingValue = "true"
+)
+@EnableConfigurationProperties(GcsStorageProperties.class)
+public class GcsStorageConfiguration {
+
+  @Bean("gcsStorage")
+  @ConditionalOnMissingBean(name = "gcsStorage")
+  public Storage gcsStorage(GcsStorageProperties properties) {
+    return new GcsStorageFactory()
+      .withProjectId(properties.getProjectId())
+      .withCredentialPath(properties.getCredentialPath())
+      .withTransport(properties.getTransport())
+      .withMaxConnections(properties.getMaxConnections())
+      .withKeepAlive(properties.getKeepAlive())
+      .withDirectPath(properties.isDirectPath())
+      .withConnectTimeout(properties.getConnectTimeout())
+      .withReadTimeout(properties.getReadTimeout())
+      .withOperationTimeout(properties.getOperationTimeout())
+      .build();
+  }
+
+  /**
+   * Pool of chunks used by chunked uploads. The pool is installed in {@link BlobStoreHelper} when the bean is created.
+   */
+  @Bean("gcsChunkBufferPool")
+  @ConditionalOnMissingBean(name = "gcsChunkBufferPool")
+  public ChunkBufferPool gcsChunkBufferPool(GcsStorageProperties properties) {
+    ChunkBufferPool pool = BlobStoreHelper.newChunkBufferPool(
+      properties.getUploadChunkBuffers(),
+      properties.getUploadChunkAcquireTimeout()
+    );
+    BlobStoreHelper.setChunkBufferPool(pool);
+    return pool;
+  }
+
+  /**
+   * The repository holds the current container name, a new instance is therefore created for each injection point.
+   */
+  @Bean
+  @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+  @ConditionalOnMissingBean(GcsBlobStoreRepository.class)
+  public GcsBlobStoreRepository gcsBlobStoreRepository(Storage gcsStorage) {
+    return new GcsBlobStoreRepository(gcsStorage);
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.gcp.config;
+
+import java.time.Duration;
+import org.rutebanken.helper.gcp.GcsStorageFactory;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Properties of {@link GcsStorageConfiguration}, bound from {@code org.rutebanken.helper.storage.gcs.*}.
+ */
+@ConfigurationProperties(prefix = "org.rutebanken.helper.storage.gcs")
+public class GcsStorageProperties {
+
+  /**
+   * Enable the auto-configuration.
+   */
+  private boolean enabled;
+
+  /**
+   * GCP project.
+   */
+  private String projectId;
+
+  /**
+   * Service account key file. If not set, the application default credentials are used.
+   */
+  private String credentialPath;
+
+  /**
+   * Transport of the client, HTTP by default.
+   */
+  private GcsStorageFactory.Transport transport =
+    GcsStorageFactory.Transport.HTTP;
+
+  /**
+   * Maximum number of pooled HTTP connections (HTTP transport only).
+   */
+  private int maxConnections = GcsStorageFactory.DEFAULT_MAX_CONNECTIONS;
+
+  /**
+   * Time an idle pooled HTTP connection is kept open for reuse (HTTP transport only).
+   */
+  private Duration keepAlive = GcsStorageFactory.DEFAULT_KEEP_ALIVE;
+
+  /**
+   * Attempt direct path connectivity (gRPC transport only, on Google Cloud).
+   */
+  private boolean directPath;
+
+  /**
+   * Timeout for establishing a connection (HTTP transport only).
+   */
+  private Duration connectTimeout =
+    GcsStorageFactory.DEFAULT_CONNECT_TIMEOUT;
+
+  /**
+   * Timeout for reading a response (HTTP transport only).
+   */
+  private Duration readTimeout = GcsStorageFactory.DEFAULT_READ_TIMEOUT;
+
+  /**
+   * Total timeout of an operation across all its attempts, see {@link GcsStorageFactory#withOperationTimeout}.
+   */
+  private Duration operationTimeout;
+
+  /**
+   * Maximum number of concurrent chunked uploads.
+   */
+  private int uploadChunkBuffers = 8;
+
+  /**
+   * How long a chunked upload waits for a chunk buffer.
+   */
+  private Duration uploadChunkAcquireTimeout = Duration.ofMinutes(5);
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public String getProjectId() {
+    return projectId;
+  }
+
+  public void setProjectId(String projectId) {
+    this.projectId = projectId;
+  }
+
+  public String getCredentialPath() {
+    return credentialPath;
+  }
+
+  public void setCredentialPath(String credentialPath) {
+    this.credentialPath = credentialPath;
+  }
+
+  public GcsStorageFactory.Transport getTransport() {
+    return transport;
+  }
+
+  public void setTransport(GcsStorageFactory.Transport transport) {
+    this.transport = transport;
+  }
+
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  public void setMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
+  public Duration getKeepAlive() {
+    return keepAlive;
+  }
+
+  public void setKeepAlive(Duration keepAlive) {
+    this.keepAlive = keepAlive;
+  }
+
+  public boolean isDirectPath() {
+    return directPath;
+  }
+
+  public void setDirectPath(boolean directPath) {
+    this.directPath = directPath;
+  }
+
+  public Duration getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public void setConnectTimeout(Duration connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  public Duration getReadTimeout() {
+    return readTimeout;
+  }
+
+  public void setReadTimeout(Duration readTimeout) {
+    this.readTimeout = readTimeout;
+  }
+
+  public Duration getOperationTimeout() {
+    return operationTimeout;
+  }
+
+  public void setOperationTimeout(Duration operationTimeout) {
+    this.operationTimeout = operationTimeout;
+  }
+
+  public int getUploadChunkBuffers() {
+    return uploadChunkBuffers;
+  }
+
+  public void setUploadChunkBuffers(int uploadChunkBuffers) {
+    this.uploadChunkBuffers = uploadChunkBuffers;
+  }
+
+  public Duration getUploadChunkAcquireTimeout() {
+    return uploadChunkAcquireTimeout;
+  }
+
+  public void setUploadChunkAcquireTimeout(Duration uploadChunkAcquireTimeout) {
+    this.uploadChunkAcquireTimeout = uploadChunkAcquireTimeout;
+  }
+}
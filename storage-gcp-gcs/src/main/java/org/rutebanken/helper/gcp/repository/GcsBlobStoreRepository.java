@@ -21,10 +21,17 @@ import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import org.rutebanken.helper.gcp.BlobStoreHelper;
+import org.rutebanken.helper.gcp.GcsBlobCopier;
+import org.rutebanken.helper.storage.BlobStoreException;
 import org.rutebanken.helper.storage.model.BlobDescriptor;
+import org.rutebanken.helper.storage.model.BlobMetadata;
 import org.rutebanken.helper.storage.repository.BlobStoreRepository;
 
 /**
@@ -35,6 +42,8 @@ public class GcsBlobStoreRepository implements BlobStoreRepository {
 
   private final Storage storage;
 
+  private final GcsBlobCopier blobCopier;
+
   private String containerName;
 
   public GcsBlobStoreRepository(String projectId, String credentialPath) {
@@ -42,7 +51,17 @@ public class GcsBlobStoreRepository implements BlobStoreRepository {
   }
 
   public GcsBlobStoreRepository(Storage storage) {
+    this(storage, new GcsBlobCopier(storage));
+  }
+
+  /**
+   * @param storage    the storage client.
+   * @param blobCopier the copier performing server-side copies chunk by chunk, on a bounded executor for
+   *                   {@link #copyAllBlobs(String, String, String, String)}.
+   */
+  public GcsBlobStoreRepository(Storage storage, GcsBlobCopier blobCopier) {
     this.storage = storage;
+    this.blobCopier = blobCopier;
   }
 
   protected String containerName() {
@@ -63,6 +82,25 @@ public class GcsBlobStoreRepository implements BlobStoreRepository {
     return BlobStoreHelper.getBlob(storage, containerName, name);
   }
 
+  @Override
+  public InputStream getBlob(String name, long generation) {
+    return BlobStoreHelper.getBlob(storage, containerName, name, generation);
+  }
+
+  @Override
+  public BlobMetadata stat(String objectName) {
+    return BlobStoreHelper.getBlobMetadata(storage, containerName, objectName);
+  }
+
+  @Override
+  public List<String> listBlobNames(String prefix) {
+    List<String> blobNames = new ArrayList<>();
+    BlobStoreHelper
+      .listAllBlobsRecursively(storage, containerName, prefix)
+      .forEachRemaining(blob -> blobNames.add(blob.getName()));
+    return blobNames;
+  }
+
   @Override
   public long uploadBlob(BlobDescriptor blobDescriptor) {
     Blob blob = BlobStoreHelper.createOrReplace(
@@ -142,16 +180,19 @@ public class GcsBlobStoreRepository implements BlobStoreRepository {
     String targetContainerName,
     String targetObjectName
   ) {
-    Storage.CopyRequest request = Storage.CopyRequest
-      .newBuilder()
-      .setSource(
-        BlobId.of(sourceContainerName, sourceObjectName, sourceVersion)
-      )
-      .setTarget(BlobId.of(targetContainerName, targetObjectName))
-      .build();
-    storage.copy(request).getResult();
+    blobCopier.copy(
+      BlobId.of(sourceContainerName, sourceObjectName, sourceVersion),
+      BlobId.of(targetContainerName, targetObjectName),
+      progress -> {}
+    );
   }
 
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The blobs are copied concurrently, with at most the number of concurrent copies configured in the
+   * {@link GcsBlobCopier}.
+   */
   @Override
   public void copyAllBlobs(
     String sourceContainerName,
@@ -164,29 +205,34 @@ public class GcsBlobStoreRepository implements BlobStoreRepository {
       sourceContainerName,
       prefix
     );
+    List<CompletableFuture<Void>> copies = new ArrayList<>();
     while (blobIterator.hasNext()) {
       Blob blob = blobIterator.next();
-
-      BlobInfo.Builder targetBlobInfoBuilder = BlobInfo.newBuilder(
+      BlobId targetBlobId = BlobId.of(
         targetContainerName,
         blob.getName().replace(prefix, targetPrefix)
       );
-      BlobId targetBlobId = targetBlobInfoBuilder.build().getBlobId();
-
-      Storage.CopyRequest request = Storage.CopyRequest
-        .newBuilder()
-        .setSource(blob.getBlobId())
-        .setTarget(targetBlobId)
-        .build();
-      Blob targetBlob = storage.copy(request).getResult();
-
-      if (targetBlob.getName().endsWith(".html")) {
-        BlobInfo updatedInfo = targetBlob
-          .toBuilder()
-          .setContentType("text/html")
-          .build();
-        storage.update(updatedInfo);
+      copies.add(
+        blobCopier
+          .copyAsync(blob.getBlobId(), targetBlobId, progress -> {})
+          .thenAccept(targetBlob -> {
+            if (targetBlob.getName().endsWith(".html")) {
+              BlobInfo updatedInfo = targetBlob
+                .toBuilder()
+                .setContentType("text/html")
+                .build();
+              storage.update(updatedInfo);
+            }
+          })
+      );
+    }
+    try {
+      CompletableFuture.allOf(copies.toArray(CompletableFuture[]::new)).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
       }
+      throw new BlobStoreException(e.getCause());
     }
   }
 
@@ -0,0 +1,138 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.gcp;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.CRC32C;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.helper.storage.BlobChecksumMismatchException;
+import org.rutebanken.helper.storage.checksum.ChecksumMismatchException;
+
+/**
+ * Downloads of a mocked {@link Blob} whose read channel serves a fixed content.
+ */
+class BlobDownloadTest {
+
+  private static final byte[] CONTENT = "content".getBytes(
+    StandardCharsets.UTF_8
+  );
+
+  @Test
+  void testDownloadCanBeReadAgainAfterClose() throws IOException {
+    ReadChannel readChannel = readChannel(CONTENT);
+    Blob blob = blob(readChannel, crc32c(CONTENT));
+
+    InputStream inputStream = BlobStoreHelper.getBlobInputStream(blob);
+
+    verify(readChannel, times(1)).close();
+    assertArrayEquals(CONTENT, inputStream.readAllBytes());
+    inputStream.close();
+    inputStream.reset();
+    assertArrayEquals(CONTENT, inputStream.readAllBytes());
+  }
+
+  @Test
+  void testDownloadChecksumMismatch() throws IOException {
+    ReadChannel readChannel = readChannel(
+      "corrupted".getBytes(StandardCharsets.UTF_8)
+    );
+    Blob blob = blob(readChannel, crc32c(CONTENT));
+
+    BlobChecksumMismatchException e = assertThrows(
+      BlobChecksumMismatchException.class,
+      () -> BlobStoreHelper.getBlobInputStream(blob)
+    );
+    assertEquals(crc32c(CONTENT), e.getCause().getExpectedChecksum());
+    verify(readChannel, times(1)).close();
+  }
+
+  @Test
+  void testStreamingDownloadChecksumMismatchIsAnIOException()
+    throws IOException {
+    ReadChannel readChannel = readChannel(
+      "corrupted".getBytes(StandardCharsets.UTF_8)
+    );
+    Blob blob = blob(readChannel, crc32c(CONTENT));
+
+    try (InputStream inputStream = BlobStoreHelper.openBlobInputStream(blob)) {
+      assertThrows(ChecksumMismatchException.class, inputStream::readAllBytes);
+    }
+    verify(readChannel, times(1)).close();
+  }
+
+  @Test
+  void testStreamingDownload() throws IOException {
+    ReadChannel readChannel = readChannel(CONTENT);
+    Blob blob = blob(readChannel, crc32c(CONTENT));
+
+    try (InputStream inputStream = BlobStoreHelper.openBlobInputStream(blob)) {
+      assertArrayEquals(CONTENT, inputStream.readAllBytes());
+    }
+    verify(readChannel, times(1)).close();
+  }
+
+  private static Blob blob(ReadChannel readChannel, String crc32c) {
+    Blob blob = mock(Blob.class);
+    when(blob.getName()).thenReturn("blob");
+    when(blob.getCrc32c()).thenReturn(crc32c);
+    when(blob.reader(any(Blob.BlobSourceOption[].class))).thenReturn(
+      readChannel
+    );
+    return blob;
+  }
+
+  private static ReadChannel readChannel(byte[] content) throws IOException {
+    ByteBuffer source = ByteBuffer.wrap(content);
+    ReadChannel readChannel = mock(ReadChannel.class);
+    when(readChannel.isOpen()).thenReturn(true);
+    when(readChannel.read(any(ByteBuffer.class))).thenAnswer(invocation -> {
+      if (!source.hasRemaining()) {
+        return -1;
+      }
+      ByteBuffer target = invocation.getArgument(0);
+      int length = Math.min(source.remaining(), target.remaining());
+      ByteBuffer slice = source.slice();
+      slice.limit(length);
+      target.put(slice);
+      source.position(source.position() + length);
+      return length;
+    });
+    return readChannel;
+  }
+
+  private static String crc32c(byte[] content) {
+    CRC32C crc32c = new CRC32C();
+    crc32c.update(content);
+    return Base64
+      .getEncoder()
+      .encodeToString(
+        ByteBuffer.allocate(4).putInt((int) crc32c.getValue()).array()
+      );
+  }
+}
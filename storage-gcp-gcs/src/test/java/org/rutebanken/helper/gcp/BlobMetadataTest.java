@@ -0,0 +1,139 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.gcp;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.rutebanken.helper.storage.model.BlobMetadata;
+
+/**
+ * Metadata lookups against a mocked {@link Storage}.
+ */
+class BlobMetadataTest {
+
+  private static final String BUCKET_NAME = "test-bucket";
+  private static final String BLOB_NAME = "netex/export.zip";
+  private static final BlobId BLOB_ID = BlobId.of(BUCKET_NAME, BLOB_NAME);
+
+  private Storage storage;
+
+  @BeforeEach
+  void setUp() {
+    storage = mock(Storage.class);
+  }
+
+  @Test
+  void testGetBlobMetadata() {
+    OffsetDateTime updated = OffsetDateTime.of(
+      2024,
+      5,
+      1,
+      12,
+      0,
+      0,
+      0,
+      ZoneOffset.UTC
+    );
+    Map<String, String> metadata = new HashMap<>();
+    metadata.put("codespace", "RUT");
+    metadata.put("removed", null);
+    Blob blob = mock(Blob.class);
+    when(blob.getSize()).thenReturn(1234L);
+    when(blob.getGeneration()).thenReturn(42L);
+    when(blob.getContentType()).thenReturn("application/zip");
+    when(blob.getMetadata()).thenReturn(metadata);
+    when(blob.getUpdateTimeOffsetDateTime()).thenReturn(updated);
+    when(storage.get(eq(BLOB_ID), any(Storage.BlobGetOption[].class)))
+      .thenReturn(blob);
+
+    BlobMetadata blobMetadata = BlobStoreHelper.getBlobMetadata(
+      storage,
+      BUCKET_NAME,
+      BLOB_NAME
+    );
+
+    assertEquals(BLOB_NAME, blobMetadata.name());
+    assertEquals(1234L, blobMetadata.size());
+    assertEquals(42L, blobMetadata.generation());
+    assertEquals(Optional.of("application/zip"), blobMetadata.contentType());
+    assertEquals(Map.of("codespace", "RUT"), blobMetadata.metadata());
+    assertEquals(Optional.of(updated.toInstant()), blobMetadata.updated());
+  }
+
+  @Test
+  void testOnlyMetadataFieldsAreRequested() {
+    BlobStoreHelper.getBlobMetadata(storage, BUCKET_NAME, BLOB_NAME);
+
+    ArgumentCaptor<Storage.BlobGetOption> options = ArgumentCaptor.forClass(
+      Storage.BlobGetOption.class
+    );
+    verify(storage).get(eq(BLOB_ID), options.capture());
+    assertEquals(
+      List.of(
+        Storage.BlobGetOption.fields(
+          Storage.BlobField.SIZE,
+          Storage.BlobField.GENERATION,
+          Storage.BlobField.CONTENT_TYPE,
+          Storage.BlobField.METADATA,
+          Storage.BlobField.UPDATED
+        )
+      ),
+      options.getAllValues()
+    );
+  }
+
+  @Test
+  void testMissingFieldsAreDefaulted() {
+    when(storage.get(eq(BLOB_ID), any(Storage.BlobGetOption[].class)))
+      .thenReturn(mock(Blob.class));
+
+    BlobMetadata blobMetadata = BlobStoreHelper.getBlobMetadata(
+      storage,
+      BUCKET_NAME,
+      BLOB_NAME
+    );
+
+    assertEquals(0, blobMetadata.size());
+    assertEquals(BlobMetadata.UNKNOWN_GENERATION, blobMetadata.generation());
+    assertEquals(Optional.empty(), blobMetadata.contentType());
+    assertEquals(Map.of(), blobMetadata.metadata());
+    assertEquals(Optional.empty(), blobMetadata.updated());
+  }
+
+  @Test
+  void testMissingBlob() {
+    assertNull(
+      BlobStoreHelper.getBlobMetadata(storage, BUCKET_NAME, BLOB_NAME)
+    );
+  }
+}
@@ -0,0 +1,284 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.gcp;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.helper.storage.BlobStoreException;
+import org.rutebanken.helper.storage.buffer.ChunkBufferPool;
+
+/**
+ * Chunked uploads against a mocked {@link Storage} whose write channel records the buffers it receives.
+ */
+@SuppressWarnings("deprecation")
+class ChunkedUploadTest {
+
+  private static final String BUCKET_NAME = "test-bucket";
+  private static final int CHUNK_SIZE = 512 * 1024;
+  private static final int WRITER_CHUNK_SIZE = 256 * 1024;
+
+  private ChunkBufferPool defaultPool;
+  private Storage storage;
+  private final List<RecordingWriteChannel> writers = new ArrayList<>();
+  private volatile CountDownLatch writeGate = new CountDownLatch(0);
+  private final AtomicInteger concurrentWriters = new AtomicInteger();
+  private final AtomicInteger maxConcurrentWriters = new AtomicInteger();
+
+  @BeforeEach
+  void setUp() {
+    defaultPool = BlobStoreHelper.chunkBufferPool();
+    storage = mock(Storage.class);
+    when(storage.writer(any(BlobInfo.class))).thenAnswer(invocation -> {
+      RecordingWriteChannel writer = new RecordingWriteChannel();
+      synchronized (writers) {
+        writers.add(writer);
+      }
+      return writer;
+    });
+    when(storage.get(any(BlobId.class))).thenReturn(mock(Blob.class));
+  }
+
+  @AfterEach
+  void tearDown() {
+    BlobStoreHelper.setChunkBufferPool(defaultPool);
+  }
+
+  @Test
+  void testPooledChunkIsWrittenWithoutCopy() {
+    ChunkBufferPool pool = new ChunkBufferPool(
+      CHUNK_SIZE,
+      1,
+      Duration.ofSeconds(1)
+    );
+    BlobStoreHelper.setChunkBufferPool(pool);
+    byte[] content = randomContent(2 * CHUNK_SIZE + 1000);
+
+    BlobStoreHelper.uploadBlobWithRetry(
+      storage,
+      BUCKET_NAME,
+      "blob",
+      new ByteArrayInputStream(content),
+      false
+    );
+
+    RecordingWriteChannel writer = writers.get(0);
+    assertEquals(WRITER_CHUNK_SIZE, writer.chunkSize);
+    assertFalse(writer.chunkSizeSetAfterWrite);
+    assertArrayEquals(content, writer.written.toByteArray());
+    assertEquals(1, writer.sources.size());
+    assertTrue(writer.sources.get(0).isDirect());
+    assertEquals(CHUNK_SIZE, writer.sources.get(0).capacity());
+    assertEquals(1, pool.allocatedChunks());
+    assertEquals(0, pool.chunksInUse());
+  }
+
+  @Test
+  void testConcurrentUploadsAreBoundedByThePool() throws Exception {
+    ChunkBufferPool pool = new ChunkBufferPool(
+      CHUNK_SIZE,
+      2,
+      Duration.ofSeconds(10)
+    );
+    BlobStoreHelper.setChunkBufferPool(pool);
+    writeGate = new CountDownLatch(1);
+    int uploads = 6;
+    ExecutorService executor = Executors.newFixedThreadPool(uploads);
+    try {
+      List<Future<Blob>> futures = new ArrayList<>();
+      for (int i = 0; i < uploads; i++) {
+        String name = "blob-" + i;
+        futures.add(
+          executor.submit(() ->
+            BlobStoreHelper.uploadBlobWithRetry(
+              storage,
+              BUCKET_NAME,
+              name,
+              new ByteArrayInputStream(randomContent(CHUNK_SIZE + 1000)),
+              false
+            )
+          )
+        );
+      }
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (pool.waitCount() < uploads - 2 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(2, pool.chunksInUse());
+      writeGate.countDown();
+      for (Future<Blob> future : futures) {
+        assertNotNull(future.get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(uploads, writers.size());
+    assertEquals(2, maxConcurrentWriters.get());
+    assertEquals(2, pool.allocatedChunks());
+    assertEquals(uploads - 2, pool.waitCount());
+    assertEquals(0, pool.timeoutCount());
+    assertEquals(0, pool.chunksInUse());
+  }
+
+  @Test
+  void testUploadFailsWhenNoChunkIsReleasedInTime() throws Exception {
+    ChunkBufferPool pool = new ChunkBufferPool(
+      CHUNK_SIZE,
+      1,
+      Duration.ofMillis(50)
+    );
+    BlobStoreHelper.setChunkBufferPool(pool);
+    writeGate = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Blob> blocked = executor.submit(() ->
+        BlobStoreHelper.uploadBlobWithRetry(
+          storage,
+          BUCKET_NAME,
+          "blocked",
+          new ByteArrayInputStream(randomContent(1000)),
+          false
+        )
+      );
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (pool.chunksInUse() == 0 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertThrows(
+        BlobStoreException.class,
+        () ->
+          BlobStoreHelper.uploadBlobWithRetry(
+            storage,
+            BUCKET_NAME,
+            "rejected",
+            new ByteArrayInputStream(randomContent(1000)),
+            false
+          )
+      );
+      writeGate.countDown();
+      assertNotNull(blocked.get(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, pool.timeoutCount());
+    assertEquals(0, pool.chunksInUse());
+  }
+
+  @Test
+  void testChunkSizeMustBeAMultipleOfTheResumableUploadGranularity() {
+    assertThrows(
+      IllegalArgumentException.class,
+      () ->
+        BlobStoreHelper.setChunkBufferPool(
+          new ChunkBufferPool(CHUNK_SIZE + 1, 1, Duration.ofSeconds(1))
+        )
+    );
+  }
+
+  private static byte[] randomContent(int size) {
+    byte[] content = new byte[size];
+    new Random(42).nextBytes(content);
+    return content;
+  }
+
+  /**
+   * Write channel that records the written bytes and the distinct buffers passed to {@link #write(ByteBuffer)}.
+   */
+  private class RecordingWriteChannel implements WriteChannel {
+
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private final List<ByteBuffer> sources = new ArrayList<>();
+    private int chunkSize;
+    private boolean chunkSizeSetAfterWrite;
+    private boolean open = true;
+    private boolean counted;
+
+    @Override
+    public void setChunkSize(int chunkSize) {
+      this.chunkSize = chunkSize;
+      chunkSizeSetAfterWrite = written.size() > 0;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+      if (!counted) {
+        counted = true;
+        maxConcurrentWriters.accumulateAndGet(
+          concurrentWriters.incrementAndGet(),
+          Math::max
+        );
+      }
+      try {
+        if (!writeGate.await(10, TimeUnit.SECONDS)) {
+          throw new IllegalStateException("Write gate not opened");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      }
+      if (sources.stream().noneMatch(source -> source == src)) {
+        sources.add(src);
+      }
+      int length = src.remaining();
+      byte[] bytes = new byte[length];
+      src.get(bytes);
+      written.writeBytes(bytes);
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public void close() {
+      if (counted) {
+        concurrentWriters.decrementAndGet();
+      }
+      open = false;
+    }
+
+    @Override
+    public RestorableState<WriteChannel> capture() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.gcp;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.CopyWriter;
+import com.google.cloud.storage.Storage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Chunked copies against a mocked {@link Storage} whose rewrite copies a fixed number of bytes per call.
+ */
+class GcsBlobCopierTest {
+
+  private static final String BUCKET_NAME = "test-bucket";
+  private static final BlobId SOURCE = BlobId.of(BUCKET_NAME, "source");
+  private static final BlobId TARGET = BlobId.of(BUCKET_NAME, "target");
+  private static final long BLOB_SIZE = 3 * 1024;
+  private static final long BYTES_PER_CHUNK = 1024;
+
+  private Storage storage;
+  private CopyWriter copyWriter;
+  private Blob result;
+  private final AtomicLong bytesCopied = new AtomicLong();
+
+  @BeforeEach
+  void setUp() {
+    storage = mock(Storage.class);
+    copyWriter = mock(CopyWriter.class);
+    result = mock(Blob.class);
+    when(storage.copy(any(Storage.CopyRequest.class))).thenAnswer(
+      invocation -> {
+        bytesCopied.addAndGet(BYTES_PER_CHUNK);
+        return copyWriter;
+      }
+    );
+    when(copyWriter.getBlobSize()).thenReturn(BLOB_SIZE);
+    when(copyWriter.getTotalBytesCopied()).thenAnswer(invocation ->
+      bytesCopied.get()
+    );
+    when(copyWriter.isDone()).thenAnswer(invocation ->
+      bytesCopied.get() == BLOB_SIZE
+    );
+    when(copyWriter.getResult()).thenReturn(result);
+    when(copyWriter.capture()).thenAnswer(invocation ->
+      mock(RestorableState.class)
+    );
+    doAnswer(invocation -> bytesCopied.addAndGet(BYTES_PER_CHUNK))
+      .when(copyWriter)
+      .copyChunk();
+  }
+
+  @Test
+  void testCopyInChunks() {
+    List<CopyProgress> progress = new ArrayList<>();
+
+    Blob copy = new GcsBlobCopier(storage, 1, 1).copy(
+      SOURCE,
+      TARGET,
+      progress::add
+    );
+
+    assertSame(result, copy);
+    ArgumentCaptor<Storage.CopyRequest> request = ArgumentCaptor.forClass(
+      Storage.CopyRequest.class
+    );
+    verify(storage).copy(request.capture());
+    assertEquals(SOURCE, request.getValue().getSource());
+    assertEquals(TARGET, request.getValue().getTarget().getBlobId());
+    assertEquals(1, request.getValue().getMegabytesCopiedPerChunk());
+    verify(copyWriter, times(2)).copyChunk();
+    assertEquals(
+      List.of(BYTES_PER_CHUNK, 2 * BYTES_PER_CHUNK, BLOB_SIZE),
+      progress.stream().map(CopyProgress::totalBytesCopied).toList()
+    );
+    assertFalse(progress.get(0).isDone());
+    assertTrue(progress.get(progress.size() - 1).isDone());
+  }
+
+  @Test
+  void testFailedChunkCanBeResumed() {
+    List<CopyProgress> progress = new ArrayList<>();
+    doThrow(new IllegalStateException("read timeout"))
+      .doAnswer(invocation -> bytesCopied.addAndGet(BYTES_PER_CHUNK))
+      .when(copyWriter)
+      .copyChunk();
+    GcsBlobCopier copier = new GcsBlobCopier(storage, 1, 1);
+
+    BlobCopyException exception = assertThrows(
+      BlobCopyException.class,
+      () -> copier.copy(SOURCE, TARGET, progress::add)
+    );
+
+    RestorableState<CopyWriter> resumeState = exception.resumeState();
+    assertSame(progress.get(progress.size() - 1).resumeState(), resumeState);
+    when(resumeState.restore()).thenReturn(copyWriter);
+    assertSame(result, copier.resume(resumeState, progress::add));
+    assertTrue(progress.get(progress.size() - 1).isDone());
+    verify(storage, times(1)).copy(any(Storage.CopyRequest.class));
+  }
+
+  @Test
+  void testFailedStartHasNoResumeState() {
+    when(storage.copy(any(Storage.CopyRequest.class))).thenThrow(
+      new IllegalStateException("forbidden")
+    );
+
+    BlobCopyException exception = assertThrows(
+      BlobCopyException.class,
+      () -> new GcsBlobCopier(storage, 1, 1).copy(SOURCE, TARGET, progress -> {})
+    );
+
+    assertNull(exception.resumeState());
+    verify(copyWriter, never()).copyChunk();
+  }
+}
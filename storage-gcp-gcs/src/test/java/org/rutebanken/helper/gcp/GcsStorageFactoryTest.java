@@ -0,0 +1,165 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.gcp;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Concurrent requests through the HTTP transport against a local server answering object metadata requests after a
+ * short delay, so that requests overlap.
+ */
+class GcsStorageFactoryTest {
+
+  private static final String BUCKET_NAME = "test-bucket";
+  private static final int MAX_CONNECTIONS = 8;
+  private static final int CONCURRENCY = 32;
+  private static final int REQUEST_COUNT = 200;
+  private static final long RESPONSE_DELAY_MILLIS = 20;
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger requestCount = new AtomicInteger();
+
+  @BeforeEach
+  void setUp() throws IOException {
+    server =
+      HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+        0
+      );
+    serverExecutor = Executors.newFixedThreadPool(CONCURRENCY);
+    server.setExecutor(serverExecutor);
+    server.createContext("/", this::handle);
+    server.start();
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  @Test
+  void testHttpTransportReusesPooledConnections() throws Exception {
+    Storage storage = new GcsStorageFactory()
+      .withProjectId("test-project")
+      .withHost(host())
+      .withMaxConnections(MAX_CONNECTIONS)
+      .build();
+
+    getConcurrently(storage);
+
+    // more concurrent callers than connections: requests wait for a pooled connection instead of opening new ones
+    assertTrue(
+      clientPorts.size() <= MAX_CONNECTIONS,
+      "Requests used " + clientPorts.size() + " connections"
+    );
+  }
+
+  @Test
+  void testDefaultTransportOpensAConnectionPerConcurrentRequest()
+    throws Exception {
+    Storage storage = StorageOptions
+      .http()
+      .setProjectId("test-project")
+      .setHost(host())
+      .setCredentials(NoCredentials.getInstance())
+      .build()
+      .getService();
+
+    getConcurrently(storage);
+
+    assertTrue(
+      clientPorts.size() > MAX_CONNECTIONS,
+      "Requests used " + clientPorts.size() + " connections"
+    );
+  }
+
+  private String host() {
+    return "http://localhost:" + server.getAddress().getPort();
+  }
+
+  private void getConcurrently(Storage storage) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+    try {
+      List<Future<Blob>> futures = new ArrayList<>();
+      for (int i = 0; i < REQUEST_COUNT; i++) {
+        BlobId blobId = BlobId.of(BUCKET_NAME, "blob-" + i);
+        futures.add(executor.submit(() -> storage.get(blobId)));
+      }
+      for (int i = 0; i < REQUEST_COUNT; i++) {
+        Blob blob = futures.get(i).get();
+        assertEquals("blob-" + i, blob.getName());
+        assertEquals(3L, blob.getSize());
+      }
+    } finally {
+      executor.shutdown();
+      storage.close();
+    }
+    assertEquals(REQUEST_COUNT, requestCount.get());
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+    try {
+      Thread.sleep(RESPONSE_DELAY_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+    clientPorts.add(exchange.getRemoteAddress().getPort());
+    requestCount.incrementAndGet();
+    String path = exchange.getRequestURI().getPath();
+    String name = path.substring(path.lastIndexOf('/') + 1);
+    byte[] response = (
+      "{\"kind\":\"storage#object\",\"bucket\":\"" +
+      BUCKET_NAME +
+      "\",\"name\":\"" +
+      name +
+      "\",\"size\":\"3\",\"generation\":\"1\"}"
+    ).getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(200, response.length);
+    try (OutputStream body = exchange.getResponseBody()) {
+      body.write(response);
+    }
+  }
+}
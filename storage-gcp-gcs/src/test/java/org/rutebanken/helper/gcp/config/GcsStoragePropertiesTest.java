@@ -0,0 +1,85 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.gcp.config;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.helper.gcp.GcsStorageFactory;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+class GcsStoragePropertiesTest {
+
+  private static final String PREFIX = "org.rutebanken.helper.storage.gcs";
+
+  @Test
+  void testDefaults() {
+    GcsStorageProperties properties = bind(
+      Map.of(PREFIX + ".enabled", "true")
+    );
+    assertTrue(properties.isEnabled());
+    assertEquals(GcsStorageFactory.Transport.HTTP, properties.getTransport());
+    assertEquals(
+      GcsStorageFactory.DEFAULT_MAX_CONNECTIONS,
+      properties.getMaxConnections()
+    );
+    assertEquals(Duration.ofSeconds(30), properties.getKeepAlive());
+    assertEquals(Duration.ofSeconds(60), properties.getReadTimeout());
+    assertNull(properties.getOperationTimeout());
+    assertEquals(8, properties.getUploadChunkBuffers());
+    assertEquals(
+      Duration.ofMinutes(5),
+      properties.getUploadChunkAcquireTimeout()
+    );
+  }
+
+  @Test
+  void testBindKebabCaseProperties() {
+    GcsStorageProperties properties = bind(
+      Map.of(
+        PREFIX + ".project-id",
+        "my-project",
+        PREFIX + ".transport",
+        "GRPC",
+        PREFIX + ".max-connections",
+        "200",
+        PREFIX + ".direct-path",
+        "true",
+        PREFIX + ".operation-timeout",
+        "5m",
+        PREFIX + ".upload-chunk-acquire-timeout",
+        "30s"
+      )
+    );
+    assertEquals("my-project", properties.getProjectId());
+    assertEquals(GcsStorageFactory.Transport.GRPC, properties.getTransport());
+    assertEquals(200, properties.getMaxConnections());
+    assertTrue(properties.isDirectPath());
+    assertEquals(Duration.ofMinutes(5), properties.getOperationTimeout());
+    assertEquals(
+      Duration.ofSeconds(30),
+      properties.getUploadChunkAcquireTimeout()
+    );
+  }
+
+  private static GcsStorageProperties bind(Map<String, String> values) {
+    return new Binder(new MapConfigurationPropertySource(values))
+      .bindOrCreate(PREFIX, GcsStorageProperties.class);
+  }
+}
@@ -0,0 +1,628 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.testsupport;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process HTTP server implementing the subset of the S3 REST API used by the S3 blob store repositories, with
+ * latency, bandwidth limits and failures injected from a {@link FaultProfile}.
+ * <p>
+ * Supported operations, with path-style addressing: CreateBucket, PutObject (including aws-chunked request bodies),
+ * CopyObject, GetObject, HeadObject, DeleteObject, DeleteObjects and ListObjectsV2. Requests are not authenticated.
+ * Throttled and unavailable requests are answered with S3 error responses (SlowDown, ServiceUnavailable), so that the
+ * retry logic of the AWS SDK is exercised. Partial GetObject failures close the connection after part of the body.
+ * Partial PutObject failures answer InternalError after reading part of the body, the rest of the body being
+ * discarded.
+ * <pre>
+ * try (FakeS3Server server = FakeS3Server.start(profile)) {
+ *   S3Client s3Client = S3Client.builder().endpointOverride(server.endpoint()).forcePathStyle(true)...build();
+ * }
+ * </pre>
+ */
+public class FakeS3Server implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(
+    FakeS3Server.class
+  );
+
+  private static final int MAX_KEYS = 1000;
+
+  private static final String XML_DECLARATION =
+    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+  private static final String S3_NAMESPACE =
+    "http://s3.amazonaws.com/doc/2006-03-01/";
+
+  private static final Pattern KEY_PATTERN = Pattern.compile(
+    "<Key>(.*?)</Key>",
+    Pattern.DOTALL
+  );
+
+  private record StoredObject(
+    byte[] content,
+    String contentType,
+    Map<String, String> metadata,
+    String etag,
+    Instant lastModified
+  ) {}
+
+  private final FaultInjector faultInjector;
+  private final HttpServer httpServer;
+  private final ExecutorService executor;
+  private final Map<String, NavigableMap<String, StoredObject>> buckets =
+    new ConcurrentHashMap<>();
+
+  private FakeS3Server(FaultProfile profile) throws IOException {
+    this.faultInjector = new FaultInjector(profile);
+    this.httpServer =
+      HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+        0
+      );
+    this.executor =
+      Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "fake-s3-server");
+        thread.setDaemon(true);
+        return thread;
+      });
+    httpServer.setExecutor(executor);
+    httpServer.createContext("/", this::handle);
+  }
+
+  /**
+   * Start a server on a free port of the loopback interface.
+   */
+  public static FakeS3Server start(FaultProfile profile) {
+    try {
+      FakeS3Server server = new FakeS3Server(profile);
+      server.httpServer.start();
+      return server;
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to start fake S3 server", e);
+    }
+  }
+
+  public URI endpoint() {
+    InetSocketAddress address = httpServer.getAddress();
+    return URI.create(
+      "http://" + address.getHostString() + ":" + address.getPort()
+    );
+  }
+
+  /**
+   * Return the number of requests received.
+   */
+  public long requestCount() {
+    return faultInjector.callCount();
+  }
+
+  /**
+   * Return the number of requests in which the given fault was injected.
+   */
+  public long faultCount(Fault fault) {
+    return faultInjector.faultCount(fault);
+  }
+
+  @Override
+  public void close() {
+    httpServer.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      String method = exchange.getRequestMethod();
+      boolean transfer = method.equals("GET") || method.equals("PUT");
+      Fault fault = faultInjector.beforeCall(transfer);
+      if (fault == Fault.THROTTLED) {
+        sendError(exchange, fault.statusCode(), "SlowDown", "Slow down");
+        return;
+      }
+      if (fault == Fault.UNAVAILABLE) {
+        sendError(
+          exchange,
+          fault.statusCode(),
+          "ServiceUnavailable",
+          "Service unavailable"
+        );
+        return;
+      }
+      route(exchange, fault == Fault.PARTIAL);
+    } catch (RuntimeException e) {
+      LOGGER.warn("Failed to handle {}", exchange.getRequestURI(), e);
+    }
+  }
+
+  private void route(HttpExchange exchange, boolean partialFailure)
+    throws IOException {
+    String path = exchange.getRequestURI().getPath();
+    int slash = path.indexOf('/', 1);
+    String bucket = slash < 0 ? path.substring(1) : path.substring(1, slash);
+    String key = slash < 0 ? "" : path.substring(slash + 1);
+    Map<String, String> query = parseQuery(
+      exchange.getRequestURI().getRawQuery()
+    );
+    String method = exchange.getRequestMethod();
+    if (key.isEmpty()) {
+      switch (method) {
+        case "PUT" -> createBucket(exchange, bucket);
+        case "GET", "HEAD" -> listObjects(exchange, bucket, query);
+        case "POST" -> {
+          if (query.containsKey("delete")) {
+            deleteObjects(exchange, bucket);
+          } else {
+            sendError(exchange, 501, "NotImplemented", method);
+          }
+        }
+        default -> sendError(exchange, 501, "NotImplemented", method);
+      }
+      return;
+    }
+    NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+    if (objects == null) {
+      sendError(exchange, 404, "NoSuchBucket", bucket);
+      return;
+    }
+    switch (method) {
+      case "PUT" -> {
+        if (exchange.getRequestHeaders().containsKey("x-amz-copy-source")) {
+          copyObject(exchange, objects, key);
+        } else {
+          putObject(exchange, objects, key, partialFailure);
+        }
+      }
+      case "GET" -> getObject(exchange, objects, key, partialFailure, true);
+      case "HEAD" -> getObject(exchange, objects, key, false, false);
+      case "DELETE" -> {
+        objects.remove(key);
+        sendResponseHeaders(exchange, 204, -1);
+      }
+      default -> sendError(exchange, 501, "NotImplemented", method);
+    }
+  }
+
+  private void createBucket(HttpExchange exchange, String bucket)
+    throws IOException {
+    buckets.putIfAbsent(bucket, new ConcurrentSkipListMap<>());
+    exchange.getResponseHeaders().add("Location", "/" + bucket);
+    sendResponseHeaders(exchange, 200, -1);
+  }
+
+  private void putObject(
+    HttpExchange exchange,
+    NavigableMap<String, StoredObject> objects,
+    String key,
+    boolean partialFailure
+  ) throws IOException {
+    Headers headers = exchange.getRequestHeaders();
+    InputStream body = exchange.getRequestBody();
+    if (partialFailure) {
+      long length = parseLong(headers.getFirst("Content-Length"), 0);
+      body.readNBytes((int) faultInjector.partialLength(length));
+      sendError(
+        exchange,
+        Fault.PARTIAL.statusCode(),
+        "InternalError",
+        "Injected partial failure"
+      );
+      return;
+    }
+    if (
+      "*".equals(headers.getFirst("If-None-Match")) && objects.containsKey(key)
+    ) {
+      sendError(exchange, 412, "PreconditionFailed", key);
+      return;
+    }
+    byte[] content = new ThrottledInputStream(
+      body,
+      faultInjector.profile().bytesPerSecond(),
+      -1
+    )
+      .readAllBytes();
+    if (isAwsChunked(headers)) {
+      content = decodeAwsChunked(content);
+    }
+    Map<String, String> metadata = new HashMap<>();
+    headers.forEach((name, values) -> {
+      String lowerCaseName = name.toLowerCase();
+      if (lowerCaseName.startsWith("x-amz-meta-")) {
+        metadata.put(lowerCaseName.substring(11), values.get(0));
+      }
+    });
+    StoredObject storedObject = new StoredObject(
+      content,
+      headers.getFirst("Content-Type"),
+      metadata,
+      etag(content),
+      Instant.now()
+    );
+    objects.put(key, storedObject);
+    exchange.getResponseHeaders().add("ETag", storedObject.etag());
+    sendResponseHeaders(exchange, 200, -1);
+  }
+
+  private void copyObject(
+    HttpExchange exchange,
+    NavigableMap<String, StoredObject> objects,
+    String key
+  ) throws IOException {
+    String copySource = URLDecoder.decode(
+      exchange.getRequestHeaders().getFirst("x-amz-copy-source"),
+      StandardCharsets.UTF_8
+    );
+    if (copySource.startsWith("/")) {
+      copySource = copySource.substring(1);
+    }
+    int slash = copySource.indexOf('/');
+    int versionSeparator = copySource.indexOf("?versionId=");
+    NavigableMap<String, StoredObject> sourceObjects = buckets.get(
+      copySource.substring(0, slash)
+    );
+    StoredObject source = sourceObjects == null
+      ? null
+      : sourceObjects.get(
+        copySource.substring(
+          slash + 1,
+          versionSeparator < 0 ? copySource.length() : versionSeparator
+        )
+      );
+    if (source == null) {
+      sendError(exchange, 404, "NoSuchKey", copySource);
+      return;
+    }
+    StoredObject copy = new StoredObject(
+      source.content(),
+      source.contentType(),
+      source.metadata(),
+      source.etag(),
+      Instant.now()
+    );
+    objects.put(key, copy);
+    sendXml(
+      exchange,
+      200,
+      "<CopyObjectResult><ETag>" +
+      xmlEscape(copy.etag()) +
+      "</ETag><LastModified>" +
+      DateTimeFormatter.ISO_INSTANT.format(copy.lastModified()) +
+      "</LastModified></CopyObjectResult>"
+    );
+  }
+
+  private void getObject(
+    HttpExchange exchange,
+    NavigableMap<String, StoredObject> objects,
+    String key,
+    boolean partialFailure,
+    boolean withBody
+  ) throws IOException {
+    StoredObject storedObject = objects.get(key);
+    if (storedObject == null) {
+      if (withBody) {
+        sendError(exchange, 404, "NoSuchKey", key);
+      } else {
+        sendResponseHeaders(exchange, 404, -1);
+      }
+      return;
+    }
+    Headers responseHeaders = exchange.getResponseHeaders();
+    responseHeaders.add("ETag", storedObject.etag());
+    responseHeaders.add(
+      "Last-Modified",
+      DateTimeFormatter.RFC_1123_DATE_TIME.format(
+        storedObject.lastModified().atOffset(ZoneOffset.UTC)
+      )
+    );
+    if (storedObject.contentType() != null) {
+      responseHeaders.add("Content-Type", storedObject.contentType());
+    }
+    storedObject
+      .metadata()
+      .forEach((name, value) ->
+        responseHeaders.add("x-amz-meta-" + name, value)
+      );
+    byte[] content = storedObject.content();
+    if (!withBody) {
+      responseHeaders.add("Content-Length", String.valueOf(content.length));
+      sendResponseHeaders(exchange, 200, -1);
+      return;
+    }
+    sendResponseHeaders(exchange, 200, content.length);
+    long failAfter = partialFailure
+      ? faultInjector.partialLength(content.length)
+      : -1;
+    OutputStream responseBody = exchange.getResponseBody();
+    try (
+      InputStream throttled = new ThrottledInputStream(
+        new ByteArrayInputStream(content),
+        faultInjector.profile().bytesPerSecond(),
+        failAfter
+      )
+    ) {
+      throttled.transferTo(responseBody);
+      responseBody.flush();
+    } catch (IOException e) {
+      // the connection is closed before the end of the announced body
+      responseBody.flush();
+    }
+  }
+
+  private void listObjects(
+    HttpExchange exchange,
+    String bucket,
+    Map<String, String> query
+  ) throws IOException {
+    NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+    if (objects == null) {
+      sendError(exchange, 404, "NoSuchBucket", bucket);
+      return;
+    }
+    String prefix = query.getOrDefault("prefix", "");
+    String startAfter = query.getOrDefault(
+      "continuation-token",
+      query.getOrDefault("start-after", "")
+    );
+    int maxKeys = (int) Math.min(
+      parseLong(query.get("max-keys"), MAX_KEYS),
+      MAX_KEYS
+    );
+    List<Map.Entry<String, StoredObject>> page = objects
+      .tailMap(startAfter, false)
+      .entrySet()
+      .stream()
+      .filter(entry -> entry.getKey().startsWith(prefix))
+      .limit(maxKeys + 1L)
+      .toList();
+    boolean truncated = page.size() > maxKeys;
+    if (truncated) {
+      page = page.subList(0, maxKeys);
+    }
+    StringBuilder xml = new StringBuilder()
+      .append("<ListBucketResult xmlns=\"")
+      .append(S3_NAMESPACE)
+      .append("\"><Name>")
+      .append(xmlEscape(bucket))
+      .append("</Name><Prefix>")
+      .append(xmlEscape(prefix))
+      .append("</Prefix><KeyCount>")
+      .append(page.size())
+      .append("</KeyCount><MaxKeys>")
+      .append(maxKeys)
+      .append("</MaxKeys><IsTruncated>")
+      .append(truncated)
+      .append("</IsTruncated>");
+    for (Map.Entry<String, StoredObject> entry : page) {
+      xml
+        .append("<Contents><Key>")
+        .append(xmlEscape(entry.getKey()))
+        .append("</Key><LastModified>")
+        .append(
+          DateTimeFormatter.ISO_INSTANT.format(entry.getValue().lastModified())
+        )
+        .append("</LastModified><ETag>")
+        .append(xmlEscape(entry.getValue().etag()))
+        .append("</ETag><Size>")
+        .append(entry.getValue().content().length)
+        .append("</Size><StorageClass>STANDARD</StorageClass></Contents>");
+    }
+    if (truncated) {
+      xml
+        .append("<NextContinuationToken>")
+        .append(xmlEscape(page.get(page.size() - 1).getKey()))
+        .append("</NextContinuationToken>");
+    }
+    xml.append("</ListBucketResult>");
+    sendXml(exchange, 200, xml.toString());
+  }
+
+  private void deleteObjects(HttpExchange exchange, String bucket)
+    throws IOException {
+    NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+    if (objects == null) {
+      sendError(exchange, 404, "NoSuchBucket", bucket);
+      return;
+    }
+    byte[] body = exchange.getRequestBody().readAllBytes();
+    if (isAwsChunked(exchange.getRequestHeaders())) {
+      body = decodeAwsChunked(body);
+    }
+    String request = new String(body, StandardCharsets.UTF_8);
+    boolean quiet = request.contains("<Quiet>true</Quiet>");
+    StringBuilder xml = new StringBuilder()
+      .append("<DeleteResult xmlns=\"")
+      .append(S3_NAMESPACE)
+      .append("\">");
+    Matcher matcher = KEY_PATTERN.matcher(request);
+    while (matcher.find()) {
+      String key = xmlUnescape(matcher.group(1));
+      objects.remove(key);
+      if (!quiet) {
+        xml
+          .append("<Deleted><Key>")
+          .append(xmlEscape(key))
+          .append("</Key></Deleted>");
+      }
+    }
+    xml.append("</DeleteResult>");
+    sendXml(exchange, 200, xml.toString());
+  }
+
+  private static boolean isAwsChunked(Headers headers) {
+    String contentSha256 = headers.getFirst("x-amz-content-sha256");
+    String contentEncoding = headers.getFirst("Content-Encoding");
+    return (
+      (contentSha256 != null && contentSha256.startsWith("STREAMING-")) ||
+      (contentEncoding != null && contentEncoding.contains("aws-chunked"))
+    );
+  }
+
+  /**
+   * Decode an aws-chunked body: chunks of "hex-size[;extensions]\r\ndata\r\n", ending with a zero-size chunk followed
+   * by optional trailing headers.
+   */
+  private static byte[] decodeAwsChunked(byte[] body) {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    int position = 0;
+    while (position < body.length) {
+      int lineEnd = indexOfCrlf(body, position);
+      String sizeLine = new String(
+        body,
+        position,
+        lineEnd - position,
+        StandardCharsets.US_ASCII
+      );
+      int extension = sizeLine.indexOf(';');
+      int size = Integer.parseInt(
+        (extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim(),
+        16
+      );
+      if (size == 0) {
+        break;
+      }
+      content.write(body, lineEnd + 2, size);
+      position = lineEnd + 2 + size + 2;
+    }
+    return content.toByteArray();
+  }
+
+  private static int indexOfCrlf(byte[] body, int from) {
+    for (int i = from; i < body.length - 1; i++) {
+      if (body[i] == '\r' && body[i + 1] == '\n') {
+        return i;
+      }
+    }
+    return body.length;
+  }
+
+  private static void sendError(
+    HttpExchange exchange,
+    int statusCode,
+    String code,
+    String message
+  ) throws IOException {
+    if (exchange.getRequestMethod().equals("HEAD")) {
+      sendResponseHeaders(exchange, statusCode, -1);
+      return;
+    }
+    sendXml(
+      exchange,
+      statusCode,
+      "<Error><Code>" +
+      code +
+      "</Code><Message>" +
+      xmlEscape(message) +
+      "</Message></Error>"
+    );
+  }
+
+  private static void sendXml(HttpExchange exchange, int statusCode, String xml)
+    throws IOException {
+    byte[] body = (XML_DECLARATION + xml).getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "application/xml");
+    sendResponseHeaders(exchange, statusCode, body.length);
+    exchange.getResponseBody().write(body);
+  }
+
+  /**
+   * Send the response headers once the rest of the request body is discarded: the HTTP server resets a kept-alive
+   * connection when the response is sent before the request body is read.
+   */
+  private static void sendResponseHeaders(
+    HttpExchange exchange,
+    int statusCode,
+    long length
+  ) throws IOException {
+    exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+    exchange.sendResponseHeaders(statusCode, length);
+  }
+
+  private static Map<String, String> parseQuery(String rawQuery) {
+    Map<String, String> query = new HashMap<>();
+    if (rawQuery == null || rawQuery.isEmpty()) {
+      return query;
+    }
+    for (String parameter : rawQuery.split("&")) {
+      int equals = parameter.indexOf('=');
+      String name = equals < 0 ? parameter : parameter.substring(0, equals);
+      String value = equals < 0 ? "" : parameter.substring(equals + 1);
+      query.put(
+        URLDecoder.decode(name, StandardCharsets.UTF_8),
+        URLDecoder.decode(value, StandardCharsets.UTF_8)
+      );
+    }
+    return query;
+  }
+
+  private static long parseLong(String value, long defaultValue) {
+    return value == null ? defaultValue : Long.parseLong(value);
+  }
+
+  private static String etag(byte[] content) {
+    try {
+      byte[] md5 = MessageDigest.getInstance("MD5").digest(content);
+      return "\"" + HexFormat.of().formatHex(md5) + "\"";
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String xmlEscape(String value) {
+    return value
+      .replace("&", "&amp;")
+      .replace("<", "&lt;")
+      .replace(">", "&gt;")
+      .replace("\"", "&quot;");
+  }
+
+  private static String xmlUnescape(String value) {
+    return value
+      .replace("&quot;", "\"")
+      .replace("&gt;", ">")
+      .replace("&lt;", "<")
+      .replace("&amp;", "&");
+  }
+}
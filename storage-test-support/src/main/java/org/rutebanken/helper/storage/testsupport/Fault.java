@@ -0,0 +1,49 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.testsupport;
+
+/**
+ * Fault injected in a call.
+ */
+public enum Fault {
+  /**
+   * The call is rejected as if the request rate was too high (HTTP 429).
+   */
+  THROTTLED(429),
+
+  /**
+   * The call is rejected as if the service was unavailable (HTTP 503).
+   */
+  UNAVAILABLE(503),
+
+  /**
+   * The transfer is interrupted after part of the content was sent or received.
+   */
+  PARTIAL(500);
+
+  private final int statusCode;
+
+  Fault(int statusCode) {
+    this.statusCode = statusCode;
+  }
+
+  /**
+   * The HTTP status code returned by the fake servers for this fault.
+   */
+  public int statusCode() {
+    return statusCode;
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.testsupport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import org.rutebanken.helper.storage.BlobStoreException;
+import org.rutebanken.helper.storage.model.BlobDescriptor;
+import org.rutebanken.helper.storage.model.BlobMetadata;
+import org.rutebanken.helper.storage.repository.BlobStoreRepository;
+import org.rutebanken.helper.storage.repository.DelegatingBlobStoreRepository;
+
+/**
+ * Blob store repository decorator injecting latency, bandwidth limits and failures, for testing retries, hedging,
+ * parallel transfers and timeouts under realistic conditions.
+ * <ul>
+ *   <li>Each call waits for a latency drawn from the profile.</li>
+ *   <li>Calls are rejected with an {@link InjectedFaultException} at the throttled and unavailable rates, before
+ *   reaching the decorated repository.</li>
+ *   <li>Downloads and uploads are limited to the profile transfer rate.</li>
+ *   <li>At the partial failure rate, a download fails with an IOException after part of the content was read, and an
+ *   upload fails with an {@link InjectedFaultException} after part of the content was consumed, without storing
+ *   anything.</li>
+ * </ul>
+ */
+public class FaultInjectingBlobStoreRepository
+  extends DelegatingBlobStoreRepository {
+
+  private final FaultInjector faultInjector;
+
+  public FaultInjectingBlobStoreRepository(
+    BlobStoreRepository delegate,
+    FaultProfile profile
+  ) {
+    super(delegate);
+    this.faultInjector = new FaultInjector(profile);
+  }
+
+  @Override
+  public boolean exist(String objectName) {
+    return call(() -> super.exist(objectName));
+  }
+
+  @Override
+  public InputStream getBlob(String objectName) {
+    return download(() -> super.getBlob(objectName));
+  }
+
+  @Override
+  public InputStream getBlob(String objectName, long generation) {
+    return download(() -> super.getBlob(objectName, generation));
+  }
+
+  @Override
+  public long uploadBlob(BlobDescriptor blobDescriptor) {
+    return upload(
+      blobDescriptor.inputStream(),
+      inputStream ->
+        super.uploadBlob(
+          new BlobDescriptor(
+            blobDescriptor.name(),
+            inputStream,
+            blobDescriptor.contentType(),
+            blobDescriptor.metadata()
+          )
+        )
+    );
+  }
+
+  @Override
+  public long uploadBlob(String objectName, InputStream inputStream) {
+    return upload(
+      inputStream,
+      throttled -> super.uploadBlob(objectName, throttled)
+    );
+  }
+
+  @Override
+  public long uploadBlob(
+    String objectName,
+    InputStream inputStream,
+    String contentType
+  ) {
+    return upload(
+      inputStream,
+      throttled -> super.uploadBlob(objectName, throttled, contentType)
+    );
+  }
+
+  @Override
+  public long uploadNewBlob(String objectName, InputStream inputStream) {
+    return upload(
+      inputStream,
+      throttled -> super.uploadNewBlob(objectName, throttled)
+    );
+  }
+
+  @Override
+  public void copyBlob(
+    String sourceContainerName,
+    String sourceObjectName,
+    String targetContainerName,
+    String targetObjectName
+  ) {
+    call(() -> {
+      super.copyBlob(
+        sourceContainerName,
+        sourceObjectName,
+        targetContainerName,
+        targetObjectName
+      );
+      return null;
+    });
+  }
+
+  @Override
+  public void copyVersionedBlob(
+    String sourceContainerName,
+    String sourceObjectName,
+    Long sourceVersion,
+    String targetContainerName,
+    String targetObjectName
+  ) {
+    call(() -> {
+      super.copyVersionedBlob(
+        sourceContainerName,
+        sourceObjectName,
+        sourceVersion,
+        targetContainerName,
+        targetObjectName
+      );
+      return null;
+    });
+  }
+
+  @Override
+  public void copyAllBlobs(
+    String sourceContainerName,
+    String prefix,
+    String targetContainerName,
+    String targetPrefix
+  ) {
+    call(() -> {
+      super.copyAllBlobs(
+        sourceContainerName,
+        prefix,
+        targetContainerName,
+        targetPrefix
+      );
+      return null;
+    });
+  }
+
+  @Override
+  public BlobMetadata stat(String objectName) {
+    return call(() -> super.stat(objectName));
+  }
+
+  @Override
+  public List<String> listBlobNames(String prefix) {
+    return call(() -> super.listBlobNames(prefix));
+  }
+
+  @Override
+  public boolean delete(String objectName) {
+    return call(() -> super.delete(objectName));
+  }
+
+  @Override
+  public boolean deleteAllFilesInFolder(String folder) {
+    return call(() -> super.deleteAllFilesInFolder(folder));
+  }
+
+  /**
+   * Return the number of calls made to this repository.
+   */
+  public long callCount() {
+    return faultInjector.callCount();
+  }
+
+  /**
+   * Return the number of calls in which the given fault was injected.
+   */
+  public long faultCount(Fault fault) {
+    return faultInjector.faultCount(fault);
+  }
+
+  private <T> T call(Supplier<T> call) {
+    throwIfFault(faultInjector.beforeCall(false));
+    return call.get();
+  }
+
+  private InputStream download(Supplier<InputStream> download) {
+    Fault fault = faultInjector.beforeCall(true);
+    throwIfFault(fault);
+    InputStream content = download.get();
+    if (content == null) {
+      return null;
+    }
+    long failAfter = -1;
+    if (fault == Fault.PARTIAL) {
+      // the content is buffered to know its length
+      byte[] bytes = readAllBytes(content);
+      content = new ByteArrayInputStream(bytes);
+      failAfter = faultInjector.partialLength(bytes.length);
+    }
+    return new ThrottledInputStream(
+      content,
+      faultInjector.profile().bytesPerSecond(),
+      failAfter
+    );
+  }
+
+  private long upload(
+    InputStream content,
+    ToLongFunction<InputStream> upload
+  ) {
+    Fault fault = faultInjector.beforeCall(true);
+    throwIfFault(fault);
+    if (fault == Fault.PARTIAL) {
+      byte[] bytes = readAllBytes(content);
+      long sent = faultInjector.partialLength(bytes.length);
+      readAllBytes(
+        new ThrottledInputStream(
+          new ByteArrayInputStream(bytes, 0, (int) sent),
+          faultInjector.profile().bytesPerSecond(),
+          -1
+        )
+      );
+      throw new InjectedFaultException(
+        fault,
+        "Injected partial upload failure after " + sent + " bytes"
+      );
+    }
+    return upload.applyAsLong(
+      new ThrottledInputStream(
+        content,
+        faultInjector.profile().bytesPerSecond(),
+        -1
+      )
+    );
+  }
+
+  private static void throwIfFault(Fault fault) {
+    if (fault == Fault.THROTTLED || fault == Fault.UNAVAILABLE) {
+      throw new InjectedFaultException(fault, "Injected fault " + fault);
+    }
+  }
+
+  private static byte[] readAllBytes(InputStream inputStream) {
+    try (inputStream) {
+      return inputStream.readAllBytes();
+    } catch (IOException e) {
+      throw new BlobStoreException(e);
+    }
+  }
+}
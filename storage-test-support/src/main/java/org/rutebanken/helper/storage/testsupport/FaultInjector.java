@@ -0,0 +1,116 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.testsupport;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import org.rutebanken.helper.storage.BlobStoreException;
+
+/**
+ * Draw the latency and faults of each call from a {@link FaultProfile}, and count the injected faults.
+ */
+class FaultInjector {
+
+  private final FaultProfile profile;
+  private final Random random;
+  private final Map<Fault, AtomicLong> faultCounts = new EnumMap<>(
+    Fault.class
+  );
+  private final AtomicLong callCount = new AtomicLong();
+
+  FaultInjector(FaultProfile profile) {
+    this.profile = profile;
+    this.random = new Random(profile.seed());
+    for (Fault fault : Fault.values()) {
+      faultCounts.put(fault, new AtomicLong());
+    }
+  }
+
+  FaultProfile profile() {
+    return profile;
+  }
+
+  /**
+   * Wait for the latency of a call, and draw its fault.
+   *
+   * @param transfer true if the call transfers content and can be interrupted by a partial failure.
+   * @return the fault to inject, or null if the call succeeds.
+   * @throws BlobStoreException if the thread is interrupted while waiting, the call is then aborted.
+   */
+  Fault beforeCall(boolean transfer) {
+    callCount.incrementAndGet();
+    Duration latency;
+    double draw;
+    synchronized (random) {
+      latency = profile.latency().sample(random);
+      draw = random.nextDouble();
+    }
+    try {
+      sleep(latency);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new BlobStoreException(
+        "Interrupted while waiting for the injected latency",
+        e
+      );
+    }
+    Fault fault = null;
+    if (draw < profile.throttledRate()) {
+      fault = Fault.THROTTLED;
+    } else if (draw < profile.throttledRate() + profile.unavailableRate()) {
+      fault = Fault.UNAVAILABLE;
+    } else if (
+      transfer &&
+      draw <
+      profile.throttledRate() +
+      profile.unavailableRate() +
+      profile.partialFailureRate()
+    ) {
+      fault = Fault.PARTIAL;
+    }
+    if (fault != null) {
+      faultCounts.get(fault).incrementAndGet();
+    }
+    return fault;
+  }
+
+  /**
+   * Draw the number of bytes transferred before a partial failure.
+   */
+  long partialLength(long length) {
+    synchronized (random) {
+      return length <= 1 ? 0 : random.nextLong(length);
+    }
+  }
+
+  long callCount() {
+    return callCount.get();
+  }
+
+  long faultCount(Fault fault) {
+    return faultCounts.get(fault).get();
+  }
+
+  static void sleep(Duration duration) throws InterruptedException {
+    if (duration.isZero() || duration.isNegative()) {
+      return;
+    }
+    Thread.sleep(duration.toMillis(), duration.toNanosPart() % 1_000_000);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.testsupport;
+
+import java.util.Objects;
+
+/**
+ * Latency, bandwidth and error rates injected by {@link FaultInjectingBlobStoreRepository} and {@link FakeS3Server}.
+ * Faults are drawn from a random generator initialized with the seed, so that a single-threaded test run injects the
+ * same faults every time.
+ *
+ * @param latency            the latency added before each call.
+ * @param bytesPerSecond     the maximum transfer rate of uploads and downloads, or 0 for no limit.
+ * @param throttledRate      the probability that a call is rejected as throttled.
+ * @param unavailableRate    the probability that a call is rejected as unavailable.
+ * @param partialFailureRate the probability that a transfer is interrupted after part of the content.
+ * @param seed               the seed of the random generator.
+ */
+public record FaultProfile(
+  LatencyDistribution latency,
+  long bytesPerSecond,
+  double throttledRate,
+  double unavailableRate,
+  double partialFailureRate,
+  long seed
+) {
+  public FaultProfile {
+    Objects.requireNonNull(latency);
+    if (throttledRate + unavailableRate + partialFailureRate > 1) {
+      throw new IllegalArgumentException(
+        "The sum of the fault rates must not exceed 1"
+      );
+    }
+  }
+
+  /**
+   * A profile injecting no fault.
+   */
+  public static FaultProfile none() {
+    return builder().build();
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+
+    private LatencyDistribution latency = LatencyDistribution.none();
+    private long bytesPerSecond;
+    private double throttledRate;
+    private double unavailableRate;
+    private double partialFailureRate;
+    private long seed = 42;
+
+    public Builder withLatency(LatencyDistribution latency) {
+      this.latency = latency;
+      return this;
+    }
+
+    public Builder withBytesPerSecond(long bytesPerSecond) {
+      this.bytesPerSecond = bytesPerSecond;
+      return this;
+    }
+
+    public Builder withThrottledRate(double throttledRate) {
+      this.throttledRate = throttledRate;
+      return this;
+    }
+
+    public Builder withUnavailableRate(double unavailableRate) {
+      this.unavailableRate = unavailableRate;
+      return this;
+    }
+
+    public Builder withPartialFailureRate(double partialFailureRate) {
+      this.partialFailureRate = partialFailureRate;
+      return this;
+    }
+
+    public Builder withSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public FaultProfile build() {
+      return new FaultProfile(
+        latency,
+        bytesPerSecond,
+        throttledRate,
+        unavailableRate,
+        partialFailureRate,
+        seed
+      );
+    }
+  }
+}
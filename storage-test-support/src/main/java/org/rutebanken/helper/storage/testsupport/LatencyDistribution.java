@@ -0,0 +1,59 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.testsupport;
+
+import java.time.Duration;
+import java.util.Random;
+
+/**
+ * Distribution of the latency added before each call.
+ */
+@FunctionalInterface
+public interface LatencyDistribution {
+  /**
+   * Draw a latency from the distribution.
+   */
+  Duration sample(Random random);
+
+  static LatencyDistribution none() {
+    return random -> Duration.ZERO;
+  }
+
+  static LatencyDistribution fixed(Duration latency) {
+    return random -> latency;
+  }
+
+  /**
+   * Latency uniformly distributed between min and max.
+   */
+  static LatencyDistribution uniform(Duration min, Duration max) {
+    long rangeNanos = max.minus(min).toNanos();
+    return random ->
+      min.plusNanos((long) (random.nextDouble() * rangeNanos));
+  }
+
+  /**
+   * Log-normal latency with the given median and 99th percentile, a common model of the latency of remote calls with
+   * a long tail.
+   */
+  static LatencyDistribution logNormal(Duration median, Duration p99) {
+    double mu = Math.log(median.toNanos());
+    // the 99th percentile of the standard normal distribution
+    double sigma = (Math.log(p99.toNanos()) - mu) / 2.326;
+    return random ->
+      Duration.ofNanos((long) Math.exp(mu + sigma * random.nextGaussian()));
+  }
+}
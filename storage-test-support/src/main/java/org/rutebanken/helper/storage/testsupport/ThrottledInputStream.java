@@ -0,0 +1,95 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.testsupport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+
+/**
+ * Input stream limiting the transfer rate, and optionally failing after a given number of bytes.
+ */
+class ThrottledInputStream extends FilterInputStream {
+
+  private final long bytesPerSecond;
+  private final long failAfter;
+  private final long startNanos = System.nanoTime();
+  private long count;
+
+  /**
+   * @param bytesPerSecond the maximum transfer rate, or 0 for no limit.
+   * @param failAfter      the number of bytes after which reads fail, or -1 to never fail.
+   */
+  ThrottledInputStream(InputStream in, long bytesPerSecond, long failAfter) {
+    super(in);
+    this.bytesPerSecond = bytesPerSecond;
+    this.failAfter = failAfter;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (failAfter >= 0) {
+      if (count >= failAfter) {
+        throw new IOException(
+          "Injected partial failure after " + count + " bytes"
+        );
+      }
+      len = (int) Math.min(len, failAfter - count);
+    }
+    int n = super.read(b, off, len);
+    if (n > 0) {
+      count += n;
+      throttle();
+    }
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    return Math.max(read(new byte[(int) Math.min(n, 8192)]), 0);
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  /**
+   * Sleep until the bytes read so far fit in the transfer rate.
+   *
+   * @throws InterruptedIOException if the thread is interrupted while sleeping.
+   */
+  private void throttle() throws InterruptedIOException {
+    if (bytesPerSecond > 0) {
+      long expectedNanos = count * 1_000_000_000L / bytesPerSecond;
+      long elapsedNanos = System.nanoTime() - startNanos;
+      try {
+        FaultInjector.sleep(Duration.ofNanos(expectedNanos - elapsedNanos));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while throttling");
+      }
+    }
+  }
+}
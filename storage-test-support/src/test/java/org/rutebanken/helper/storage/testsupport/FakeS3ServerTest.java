@@ -0,0 +1,126 @@
+package org.rutebanken.helper.storage.testsupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import org.junit.jupiter.api.Test;
+
+class FakeS3ServerTest {
+
+  private final HttpClient httpClient = HttpClient.newHttpClient();
+
+  @Test
+  void testObjectLifecycle() throws Exception {
+    try (FakeS3Server server = FakeS3Server.start(FaultProfile.none())) {
+      assertEquals(200, send(server, "PUT", "/bucket", "").statusCode());
+      assertEquals(
+        200,
+        send(server, "PUT", "/bucket/dir/blob", "content").statusCode()
+      );
+
+      HttpResponse<String> get = send(server, "GET", "/bucket/dir/blob", "");
+      assertEquals(200, get.statusCode());
+      assertEquals("content", get.body());
+
+      HttpResponse<String> list = send(
+        server,
+        "GET",
+        "/bucket?list-type=2&prefix=dir/",
+        ""
+      );
+      assertTrue(list.body().contains("<Key>dir/blob</Key>"));
+
+      assertEquals(
+        204,
+        send(server, "DELETE", "/bucket/dir/blob", "").statusCode()
+      );
+      assertEquals(
+        404,
+        send(server, "GET", "/bucket/dir/blob", "").statusCode()
+      );
+    }
+  }
+
+  @Test
+  void testAwsChunkedBodyIsDecoded() throws Exception {
+    try (FakeS3Server server = FakeS3Server.start(FaultProfile.none())) {
+      send(server, "PUT", "/bucket", "");
+      HttpRequest request = HttpRequest
+        .newBuilder(uri(server, "/bucket/blob"))
+        .header("Content-Encoding", "aws-chunked")
+        .PUT(
+          HttpRequest.BodyPublishers.ofString(
+            "7\r\ncontent\r\n0\r\nx-amz-checksum-crc32:AAAAAA==\r\n\r\n"
+          )
+        )
+        .build();
+      httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+      assertEquals("content", send(server, "GET", "/bucket/blob", "").body());
+    }
+  }
+
+  @Test
+  void testUnavailableResponse() throws Exception {
+    FaultProfile profile = FaultProfile
+      .builder()
+      .withUnavailableRate(1)
+      .build();
+    try (FakeS3Server server = FakeS3Server.start(profile)) {
+      HttpResponse<String> response = send(server, "GET", "/bucket/blob", "");
+      assertEquals(503, response.statusCode());
+      assertTrue(response.body().contains("<Code>ServiceUnavailable</Code>"));
+      assertEquals(1, server.faultCount(Fault.UNAVAILABLE));
+    }
+  }
+
+  @Test
+  void testPartialFailures() throws Exception {
+    FaultProfile profile = FaultProfile
+      .builder()
+      .withPartialFailureRate(0.5)
+      .build();
+    try (FakeS3Server server = FakeS3Server.start(profile)) {
+      send(server, "PUT", "/bucket", "");
+      int putAttempts = 1;
+      String content = "x".repeat(10_000);
+      while (send(server, "PUT", "/bucket/blob", content).statusCode() != 200) {
+        putAttempts++;
+      }
+      int truncatedGets = 0;
+      for (int i = 0; i < 10; i++) {
+        try {
+          String body = send(server, "GET", "/bucket/blob", "").body();
+          assertEquals(10_000, body.length());
+        } catch (IOException e) {
+          truncatedGets++;
+        }
+      }
+      assertEquals(
+        putAttempts - 1 + truncatedGets,
+        server.faultCount(Fault.PARTIAL)
+      );
+      assertTrue(truncatedGets > 0);
+    }
+  }
+
+  private HttpResponse<String> send(
+    FakeS3Server server,
+    String method,
+    String path,
+    String body
+  ) throws IOException, InterruptedException {
+    HttpRequest request = HttpRequest
+      .newBuilder(uri(server, path))
+      .method(method, HttpRequest.BodyPublishers.ofString(body))
+      .build();
+    return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+  }
+
+  private static URI uri(FakeS3Server server, String path) {
+    return URI.create(server.endpoint() + path);
+  }
+}
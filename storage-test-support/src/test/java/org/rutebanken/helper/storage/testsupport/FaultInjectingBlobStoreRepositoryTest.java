@@ -0,0 +1,161 @@
+package org.rutebanken.helper.storage.testsupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.HashMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.helper.storage.BlobStoreException;
+import org.rutebanken.helper.storage.repository.InMemoryBlobStoreRepository;
+
+class FaultInjectingBlobStoreRepositoryTest {
+
+  public static final String CONTAINER_NAME = "container";
+  public static final String BLOB_NAME = "myblob";
+  public static final byte[] BLOB_CONTENT = new byte[1000];
+
+  private InMemoryBlobStoreRepository delegate;
+
+  @BeforeEach
+  void setUp() {
+    delegate = new InMemoryBlobStoreRepository(new HashMap<>());
+    delegate.setContainerName(CONTAINER_NAME);
+    delegate.uploadBlob(BLOB_NAME, new ByteArrayInputStream(BLOB_CONTENT));
+  }
+
+  @Test
+  void testNoFaultsByDefault() throws IOException {
+    FaultInjectingBlobStoreRepository repository = repository(
+      FaultProfile.none()
+    );
+    assertTrue(repository.exist(BLOB_NAME));
+    assertArrayEquals(
+      BLOB_CONTENT,
+      repository.getBlob(BLOB_NAME).readAllBytes()
+    );
+    assertEquals(2, repository.callCount());
+  }
+
+  @Test
+  void testFaultRatesAreDeterministic() {
+    FaultProfile profile = FaultProfile
+      .builder()
+      .withThrottledRate(0.2)
+      .withUnavailableRate(0.1)
+      .withSeed(7)
+      .build();
+    long firstRunFailures = countFailures(repository(profile), 1000);
+    long secondRunFailures = countFailures(repository(profile), 1000);
+
+    assertEquals(firstRunFailures, secondRunFailures);
+    assertTrue(firstRunFailures > 200 && firstRunFailures < 400);
+  }
+
+  @Test
+  void testInjectedFaultCarriesStatusCode() {
+    FaultInjectingBlobStoreRepository repository = repository(
+      FaultProfile.builder().withThrottledRate(1).build()
+    );
+    InjectedFaultException exception = assertThrows(
+      InjectedFaultException.class,
+      () -> repository.exist(BLOB_NAME)
+    );
+    assertEquals(Fault.THROTTLED, exception.fault());
+    assertEquals(429, exception.statusCode());
+    assertEquals(1, repository.faultCount(Fault.THROTTLED));
+  }
+
+  @Test
+  void testPartialDownloadFailsMidStream() {
+    FaultInjectingBlobStoreRepository repository = repository(
+      FaultProfile.builder().withPartialFailureRate(1).build()
+    );
+    InputStream content = repository.getBlob(BLOB_NAME);
+    assertThrows(IOException.class, content::readAllBytes);
+  }
+
+  @Test
+  void testPartialUploadStoresNothing() {
+    FaultInjectingBlobStoreRepository repository = repository(
+      FaultProfile.builder().withPartialFailureRate(1).build()
+    );
+    assertThrows(
+      InjectedFaultException.class,
+      () ->
+        repository.uploadBlob(
+          "otherblob",
+          new ByteArrayInputStream(BLOB_CONTENT)
+        )
+    );
+    assertFalse(delegate.exist("otherblob"));
+  }
+
+  @Test
+  void testLatencyAndBandwidthAreApplied() throws IOException {
+    FaultInjectingBlobStoreRepository repository = repository(
+      FaultProfile
+        .builder()
+        .withLatency(LatencyDistribution.fixed(Duration.ofMillis(50)))
+        .withBytesPerSecond(10_000)
+        .build()
+    );
+    long start = System.nanoTime();
+    repository.getBlob(BLOB_NAME).readAllBytes();
+    long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+    // 50 ms of latency and 1000 bytes at 10 kB/s
+    assertTrue(elapsedMillis >= 140, "elapsed " + elapsedMillis + " ms");
+  }
+
+  @Test
+  void testInterruptedCallIsAborted() {
+    FaultInjectingBlobStoreRepository repository = repository(
+      FaultProfile
+        .builder()
+        .withLatency(LatencyDistribution.fixed(Duration.ofSeconds(10)))
+        .build()
+    );
+    Thread.currentThread().interrupt();
+    BlobStoreException exception = assertThrows(
+      BlobStoreException.class,
+      () -> repository.getBlob(BLOB_NAME)
+    );
+    assertInstanceOf(InterruptedException.class, exception.getCause());
+    assertTrue(Thread.interrupted());
+  }
+
+  @Test
+  void testInterruptedTransferIsAborted() throws IOException {
+    FaultInjectingBlobStoreRepository repository = repository(
+      FaultProfile.builder().withBytesPerSecond(10).build()
+    );
+    try (InputStream content = repository.getBlob(BLOB_NAME)) {
+      Thread.currentThread().interrupt();
+      assertThrows(InterruptedIOException.class, content::readAllBytes);
+      assertTrue(Thread.interrupted());
+    }
+  }
+
+  private FaultInjectingBlobStoreRepository repository(FaultProfile profile) {
+    return new FaultInjectingBlobStoreRepository(delegate, profile);
+  }
+
+  private static long countFailures(
+    FaultInjectingBlobStoreRepository repository,
+    int calls
+  ) {
+    long failures = 0;
+    for (int i = 0; i < calls; i++) {
+      try {
+        repository.exist(BLOB_NAME);
+      } catch (InjectedFaultException e) {
+        failures++;
+      }
+    }
+    return failures;
+  }
+}
@@ -0,0 +1,26 @@
+package org.rutebanken.helper.storage;
+
+import org.rutebanken.helper.storage.checksum.ChecksumMismatchException;
+
+/**
+ * Thrown when the checksum of downloaded content differs from the checksum reported by the backend, by operations
+ * that return content already read. It always wraps the {@link ChecksumMismatchException} thrown by the streaming
+ * path, so that a mismatch is described by a single type whichever path detected it.
+ */
+public class BlobChecksumMismatchException extends BlobStoreException {
+
+  public BlobChecksumMismatchException(
+    String blobName,
+    ChecksumMismatchException cause
+  ) {
+    super(
+      "Checksum mismatch for blob " + blobName + ": " + cause.getMessage(),
+      cause
+    );
+  }
+
+  @Override
+  public synchronized ChecksumMismatchException getCause() {
+    return (ChecksumMismatchException) super.getCause();
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.buffer;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.rutebanken.helper.storage.BlobStoreException;
+
+/**
+ * Size-capped pool of direct byte buffers used as chunks by chunked blob writers.
+ * Reusing the chunks avoids allocating a large array per upload, which would otherwise be allocated in humongous G1
+ * regions and put pressure on the garbage collector under concurrent uploads.
+ * When all chunks are in use, {@link #acquire()} blocks until a chunk is released or the acquire timeout elapses,
+ * which applies back-pressure to the uploading threads.
+ * The utilisation counters can be exposed as metrics, for example as gauges.
+ */
+public class ChunkBufferPool {
+
+  private final int chunkSize;
+  private final int maxChunks;
+  private final Duration acquireTimeout;
+  private final Semaphore permits;
+  private final Queue<ByteBuffer> freeChunks = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger allocatedChunks = new AtomicInteger();
+  private final AtomicLong waitCount = new AtomicLong();
+  private final AtomicLong timeoutCount = new AtomicLong();
+
+  /**
+   * @param chunkSize      the size in bytes of each chunk.
+   * @param maxChunks      the maximum number of chunks, in use or free.
+   * @param acquireTimeout how long {@link #acquire()} waits for a chunk when all chunks are in use.
+   */
+  public ChunkBufferPool(
+    int chunkSize,
+    int maxChunks,
+    Duration acquireTimeout
+  ) {
+    this.chunkSize = chunkSize;
+    this.maxChunks = maxChunks;
+    this.acquireTimeout = acquireTimeout;
+    this.permits = new Semaphore(maxChunks, true);
+  }
+
+  /**
+   * Acquire a cleared chunk, waiting if all chunks are in use. The chunk must be returned with {@link #release(ByteBuffer)}.
+   *
+   * @throws BlobStoreException if no chunk is released within the acquire timeout or the thread is interrupted.
+   */
+  public ByteBuffer acquire() {
+    try {
+      if (!permits.tryAcquire()) {
+        waitCount.incrementAndGet();
+        if (
+          !permits.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)
+        ) {
+          timeoutCount.incrementAndGet();
+          throw new BlobStoreException(
+            "No chunk buffer available after " + acquireTimeout
+          );
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new BlobStoreException(
+        "Interrupted while waiting for a chunk buffer",
+        e
+      );
+    }
+    ByteBuffer chunk = freeChunks.poll();
+    if (chunk == null) {
+      allocatedChunks.incrementAndGet();
+      chunk = ByteBuffer.allocateDirect(chunkSize);
+    }
+    return chunk;
+  }
+
+  /**
+   * Return a chunk to the pool.
+   */
+  public void release(ByteBuffer chunk) {
+    chunk.clear();
+    freeChunks.offer(chunk);
+    permits.release();
+  }
+
+  public int chunkSize() {
+    return chunkSize;
+  }
+
+  public int maxChunks() {
+    return maxChunks;
+  }
+
+  /**
+   * Return the number of chunks currently held by writers.
+   */
+  public int chunksInUse() {
+    return maxChunks - permits.availablePermits();
+  }
+
+  /**
+   * Return the number of chunks allocated so far. Chunks are allocated lazily, up to the maximum number of chunks.
+   */
+  public int allocatedChunks() {
+    return allocatedChunks.get();
+  }
+
+  /**
+   * Return the number of acquisitions that had to wait for a chunk to be released.
+   */
+  public long waitCount() {
+    return waitCount.get();
+  }
+
+  /**
+   * Return the number of acquisitions that failed because no chunk was released within the acquire timeout.
+   */
+  public long timeoutCount() {
+    return timeoutCount.get();
+  }
+}
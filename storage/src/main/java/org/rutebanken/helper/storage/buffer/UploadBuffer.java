@@ -0,0 +1,165 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.buffer;
+
+import jakarta.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import org.rutebanken.helper.storage.BlobStoreException;
+
+/**
+ * Fully buffered upload payload, held either in a pooled heap buffer or in a temporary file.
+ * The length and checksums of the payload are known before it is uploaded, which allows uploading it in a single
+ * request with integrity verification on the server side.
+ * The buffer can be read any number of times and must be closed after use.
+ *
+ * @see UploadBufferPool#buffer(InputStream)
+ */
+public final class UploadBuffer implements AutoCloseable {
+
+  private final UploadBufferPool pool;
+  private byte[] heapBuffer;
+  private final Path file;
+  private final long length;
+  private final byte[] md5;
+  private final int crc32c;
+
+  UploadBuffer(
+    UploadBufferPool pool,
+    byte[] heapBuffer,
+    Path file,
+    long length,
+    byte[] md5,
+    int crc32c
+  ) {
+    this.pool = pool;
+    this.heapBuffer = heapBuffer;
+    this.file = file;
+    this.length = length;
+    this.md5 = md5;
+    this.crc32c = crc32c;
+  }
+
+  /**
+   * Return the length in bytes of the payload.
+   */
+  public long length() {
+    return length;
+  }
+
+  /**
+   * Return the MD5 digest of the payload.
+   */
+  public byte[] md5() {
+    return md5.clone();
+  }
+
+  /**
+   * Return the base64-encoded MD5 digest of the payload, as used in the Content-MD5 HTTP header and in GCS object
+   * metadata.
+   */
+  public String md5Base64() {
+    return Base64.getEncoder().encodeToString(md5);
+  }
+
+  /**
+   * Return the CRC32C checksum of the payload.
+   */
+  public int crc32c() {
+    return crc32c;
+  }
+
+  /**
+   * Return the base64-encoded big-endian CRC32C checksum of the payload, as used by GCS and S3.
+   */
+  public String crc32cBase64() {
+    return Base64
+      .getEncoder()
+      .encodeToString(ByteBuffer.allocate(4).putInt(crc32c).array());
+  }
+
+  /**
+   * Return true if the payload was spilled to a temporary file.
+   */
+  public boolean isSpilled() {
+    return file != null;
+  }
+
+  /**
+   * Return the temporary file holding the payload, or null if the payload is held in memory.
+   */
+  @Nullable
+  public Path file() {
+    return file;
+  }
+
+  /**
+   * Return a new input stream on the payload.
+   */
+  public InputStream newInputStream() {
+    if (file == null) {
+      if (heapBuffer == null) {
+        throw new IllegalStateException("The upload buffer is closed");
+      }
+      return new ByteArrayInputStream(heapBuffer, 0, (int) length);
+    }
+    try {
+      return Files.newInputStream(file);
+    } catch (IOException e) {
+      throw new BlobStoreException(e);
+    }
+  }
+
+  /**
+   * Return a read-only view of the payload held in memory, without copying it.
+   * The view must not be read after the buffer is closed.
+   *
+   * @throws IllegalStateException if the payload was spilled to a temporary file or the buffer is closed.
+   */
+  public ByteBuffer byteBuffer() {
+    if (file != null) {
+      throw new IllegalStateException("The payload is held in a file");
+    }
+    if (heapBuffer == null) {
+      throw new IllegalStateException("The upload buffer is closed");
+    }
+    return ByteBuffer.wrap(heapBuffer, 0, (int) length).asReadOnlyBuffer();
+  }
+
+  /**
+   * Release the heap buffer to the pool or delete the temporary file.
+   * Input streams opened on a heap buffer must not be read after the buffer is closed.
+   */
+  @Override
+  public void close() {
+    if (heapBuffer != null) {
+      pool.releaseBuffer(heapBuffer);
+      heapBuffer = null;
+    }
+    if (file != null) {
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        throw new BlobStoreException(e);
+      }
+    }
+  }
+}
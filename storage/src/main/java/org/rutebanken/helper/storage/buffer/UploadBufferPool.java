@@ -0,0 +1,222 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.buffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+import org.rutebanken.helper.storage.BlobStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of heap buffers used to buffer uploads of unknown length.
+ * A payload that fits in a heap buffer is kept in memory, a larger payload is spilled to a temporary file. Payloads
+ * are also spilled when all heap buffers are in use, so that the heap memory used for buffering never exceeds
+ * {@code maxBuffers * bufferSize}.
+ * The resulting {@link UploadBuffer} knows the exact length and checksums of the payload before it is uploaded.
+ * A process-wide instance is available through {@link #shared()}.
+ */
+public class UploadBufferPool {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(
+    UploadBufferPool.class
+  );
+
+  /**
+   * Size in bytes of the heap buffers of the process-wide pool, above which payloads are spilled to disk.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+  /**
+   * Number of heap buffers in the process-wide pool.
+   */
+  public static final int DEFAULT_MAX_BUFFERS = 16;
+
+  private static final int SPILL_COPY_BUFFER_SIZE = 8192;
+
+  private static final UploadBufferPool SHARED = new UploadBufferPool(
+    DEFAULT_BUFFER_SIZE,
+    DEFAULT_MAX_BUFFERS,
+    null
+  );
+
+  private final int bufferSize;
+  private final int maxBuffers;
+  private final Path tempDirectory;
+  private final BlockingQueue<byte[]> freeBuffers;
+  private final AtomicInteger allocatedBuffers = new AtomicInteger();
+
+  /**
+   * @param bufferSize    the size in bytes of each heap buffer. Larger payloads are spilled to disk.
+   * @param maxBuffers    the maximum number of heap buffers.
+   * @param tempDirectory the directory where payloads are spilled, or null for the default temporary directory.
+   */
+  public UploadBufferPool(int bufferSize, int maxBuffers, Path tempDirectory) {
+    this.bufferSize = bufferSize;
+    this.maxBuffers = maxBuffers;
+    this.tempDirectory = tempDirectory;
+    this.freeBuffers = new ArrayBlockingQueue<>(Math.max(1, maxBuffers));
+  }
+
+  /**
+   * Return the process-wide pool.
+   */
+  public static UploadBufferPool shared() {
+    return SHARED;
+  }
+
+  /**
+   * Read the input stream until the end and buffer its content.
+   * The input stream is not closed.
+   *
+   * @return a buffer that must be closed after use to release its heap buffer or temporary file.
+   * @throws BlobStoreException if the input stream cannot be read or the temporary file cannot be written.
+   */
+  public UploadBuffer buffer(InputStream inputStream) {
+    MessageDigest md5 = newMd5Digest();
+    CRC32C crc32c = new CRC32C();
+    byte[] heapBuffer = acquireBuffer();
+    try {
+      if (heapBuffer != null) {
+        int length = inputStream.readNBytes(heapBuffer, 0, bufferSize);
+        md5.update(heapBuffer, 0, length);
+        crc32c.update(heapBuffer, 0, length);
+        int nextByte = length < bufferSize ? -1 : inputStream.read();
+        if (nextByte < 0) {
+          return new UploadBuffer(
+            this,
+            heapBuffer,
+            null,
+            length,
+            md5.digest(),
+            (int) crc32c.getValue()
+          );
+        }
+        return spill(inputStream, heapBuffer, length, nextByte, md5, crc32c);
+      }
+      LOGGER.debug("All upload buffers are in use, spilling upload to disk");
+      return spill(inputStream, null, 0, -1, md5, crc32c);
+    } catch (IOException e) {
+      releaseBuffer(heapBuffer);
+      throw new BlobStoreException("Failed to buffer upload", e);
+    } catch (RuntimeException e) {
+      releaseBuffer(heapBuffer);
+      throw e;
+    }
+  }
+
+  /**
+   * Write the already-read prefix and the rest of the input stream to a temporary file.
+   * The heap buffer, if any, is used as copy buffer and released once the payload is on disk.
+   *
+   * @param bufferedLength the length of the prefix already read into the heap buffer and digested.
+   * @param nextByte       the byte read after the prefix, not yet digested, or -1 if there is none.
+   */
+  private UploadBuffer spill(
+    InputStream inputStream,
+    byte[] heapBuffer,
+    int bufferedLength,
+    int nextByte,
+    MessageDigest md5,
+    CRC32C crc32c
+  ) throws IOException {
+    Path file = tempDirectory == null
+      ? Files.createTempFile("upload", ".tmp")
+      : Files.createTempFile(tempDirectory, "upload", ".tmp");
+    try (OutputStream outputStream = Files.newOutputStream(file)) {
+      byte[] copyBuffer = heapBuffer == null
+        ? new byte[SPILL_COPY_BUFFER_SIZE]
+        : heapBuffer;
+      long length = bufferedLength;
+      outputStream.write(copyBuffer, 0, bufferedLength);
+      if (nextByte >= 0) {
+        md5.update((byte) nextByte);
+        crc32c.update(nextByte);
+        outputStream.write(nextByte);
+        length++;
+      }
+      int read;
+      while ((read = inputStream.read(copyBuffer)) >= 0) {
+        md5.update(copyBuffer, 0, read);
+        crc32c.update(copyBuffer, 0, read);
+        outputStream.write(copyBuffer, 0, read);
+        length += read;
+      }
+      LOGGER.debug("Spilled upload of {} bytes to {}", length, file);
+      releaseBuffer(heapBuffer);
+      return new UploadBuffer(
+        this,
+        null,
+        file,
+        length,
+        md5.digest(),
+        (int) crc32c.getValue()
+      );
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(file);
+      throw e;
+    }
+  }
+
+  private byte[] acquireBuffer() {
+    byte[] buffer = freeBuffers.poll();
+    if (buffer != null) {
+      return buffer;
+    }
+    if (allocatedBuffers.incrementAndGet() <= maxBuffers) {
+      return new byte[bufferSize];
+    }
+    allocatedBuffers.decrementAndGet();
+    return null;
+  }
+
+  void releaseBuffer(byte[] buffer) {
+    if (buffer != null && !freeBuffers.offer(buffer)) {
+      allocatedBuffers.decrementAndGet();
+    }
+  }
+
+  /**
+   * Return the number of heap buffers currently allocated, whether in use or free.
+   */
+  public int allocatedBuffers() {
+    return allocatedBuffers.get();
+  }
+
+  /**
+   * Return the number of heap buffers available for new uploads without allocation.
+   */
+  public int freeBuffers() {
+    return freeBuffers.size();
+  }
+
+  private static MessageDigest newMd5Digest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.cache;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Space-efficient probabilistic set of strings.
+ * {@link #mightContain(String)} never returns false for a string that was added, and returns true for a string that
+ * was not added with a probability close to the false-positive rate the filter was sized for.
+ * Strings cannot be removed from the filter.
+ * This class is thread-safe.
+ */
+public class BloomFilter {
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final long[] bits;
+  private final long bitCount;
+  private final int hashFunctionCount;
+
+  /**
+   * Create a filter sized for the given number of strings and false-positive rate.
+   *
+   * @param expectedInsertions the number of strings expected to be added to the filter.
+   * @param falsePositiveRate  the desired false-positive rate, strictly between 0 and 1.
+   */
+  public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+    if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+      throw new IllegalArgumentException(
+        "The false-positive rate must be strictly between 0 and 1"
+      );
+    }
+    long n = Math.max(1, expectedInsertions);
+    long m = Math.max(
+      64,
+      (long) Math.ceil(
+        -n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))
+      )
+    );
+    this.bits = new long[(int) ((m + 63) / 64)];
+    this.bitCount = bits.length * 64L;
+    this.hashFunctionCount =
+      Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+  }
+
+  public synchronized void put(String value) {
+    long hash = hash(value);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < hashFunctionCount; i++) {
+      long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+      bits[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  public synchronized boolean mightContain(String value) {
+    long hash = hash(value);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < hashFunctionCount; i++) {
+      long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+      if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * 64-bit FNV-1a hash of the UTF-8 encoding of the string, followed by the MurmurHash3 finalizer so that both
+   * halves of the hash are well distributed.
+   */
+  private static long hash(String value) {
+    long hash = FNV_OFFSET_BASIS;
+    for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= FNV_PRIME;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package org.rutebanken.helper.storage.cache;
+
+import jakarta.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache for the content of specific blob generations.
+ * Since the content of a given generation never changes, entries never need to be revalidated: they are only evicted,
+ * least recently used first, when the total size of the cached content exceeds the configured maximum size.
+ * A process-wide instance is available through {@link #shared()}.
+ */
+public class VersionedBlobCache {
+
+  /**
+   * Maximum size in bytes of the process-wide cache.
+   */
+  public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+  private static final VersionedBlobCache SHARED = new VersionedBlobCache(
+    DEFAULT_MAX_SIZE
+  );
+
+  private record Key(
+    String namespace,
+    String containerName,
+    String objectName,
+    long generation
+  ) {}
+
+  private final long maxSize;
+
+  private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<>(
+    16,
+    0.75f,
+    true
+  );
+
+  private long size;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /**
+   * @param maxSize maximum total size in bytes of the cached content.
+   */
+  public VersionedBlobCache(long maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Return the process-wide cache.
+   */
+  public static VersionedBlobCache shared() {
+    return SHARED;
+  }
+
+  /**
+   * Return the content of a blob generation, loading it on cache miss.
+   * Concurrent misses on the same entry may load it more than once.
+   *
+   * @param namespace     identifies the storage backend, so that containers with the same name in different backends
+   *                      do not share entries.
+   * @param containerName the name of the container.
+   * @param objectName    the name of the blob.
+   * @param generation    the generation of the blob.
+   * @param loader        loads the content from the storage backend, returns null if the blob does not exist.
+   * @return the content of the blob or null if the blob does not exist. Missing blobs are not cached.
+   */
+  @Nullable
+  public byte[] get(
+    String namespace,
+    String containerName,
+    String objectName,
+    long generation,
+    Supplier<byte[]> loader
+  ) {
+    Key key = new Key(namespace, containerName, objectName, generation);
+    byte[] content;
+    synchronized (this) {
+      content = entries.get(key);
+    }
+    if (content != null) {
+      hitCount.incrementAndGet();
+      return content;
+    }
+    missCount.incrementAndGet();
+    content = loader.get();
+    if (content != null) {
+      put(key, content);
+    }
+    return content;
+  }
+
+  private synchronized void put(Key key, byte[] content) {
+    if (content.length > maxSize) {
+      return;
+    }
+    byte[] previous = entries.put(key, content);
+    size += content.length - (previous == null ? 0 : previous.length);
+    Iterator<Map.Entry<Key, byte[]>> iterator = entries.entrySet().iterator();
+    while (size > maxSize && iterator.hasNext()) {
+      size -= iterator.next().getValue().length;
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Return the total size in bytes of the cached content.
+   */
+  public synchronized long size() {
+    return size;
+  }
+
+  public long hitCount() {
+    return hitCount.get();
+  }
+
+  public long missCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Remove all entries from the cache.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    size = 0;
+  }
+}
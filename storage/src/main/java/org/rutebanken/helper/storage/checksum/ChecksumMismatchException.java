@@ -0,0 +1,70 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.checksum;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link ChecksumVerifyingInputStream} when the checksum of the content read differs from the expected
+ * checksum. It is an {@link IOException} so that it reaches the callers of {@link java.io.InputStream#read()} through
+ * the usual I/O error handling, for example when the stream is copied by a framework.
+ * Operations returning content already read, such as {@code BlobStoreRepository.getBlob}, report a mismatch with
+ * an unchecked {@link org.rutebanken.helper.storage.BlobChecksumMismatchException} wrapping this exception.
+ */
+public class ChecksumMismatchException extends IOException {
+
+  private final String algorithm;
+  private final String actualChecksum;
+  private final String expectedChecksum;
+
+  /**
+   * @param algorithm        the checksum algorithm, such as CRC32C or MD5.
+   * @param actualChecksum   the base64-encoded checksum of the content read.
+   * @param expectedChecksum the base64-encoded checksum reported by the backend.
+   */
+  public ChecksumMismatchException(
+    String algorithm,
+    String actualChecksum,
+    String expectedChecksum
+  ) {
+    super(
+      "Client " +
+      algorithm +
+      " checksum (" +
+      actualChecksum +
+      ") and expected " +
+      algorithm +
+      " checksum (" +
+      expectedChecksum +
+      ") do not match"
+    );
+    this.algorithm = algorithm;
+    this.actualChecksum = actualChecksum;
+    this.expectedChecksum = expectedChecksum;
+  }
+
+  public String getAlgorithm() {
+    return algorithm;
+  }
+
+  public String getActualChecksum() {
+    return actualChecksum;
+  }
+
+  public String getExpectedChecksum() {
+    return expectedChecksum;
+  }
+}
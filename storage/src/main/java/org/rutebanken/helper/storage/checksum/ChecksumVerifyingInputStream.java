@@ -0,0 +1,187 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.checksum;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.CRC32C;
+import org.rutebanken.helper.storage.BlobStoreException;
+
+/**
+ * InputStream that computes the checksum of the content while it is read and compares it with the checksum reported
+ * by the storage backend when the end of the stream is reached.
+ * Integrity is verified on the streaming path, without materialising the content or reading it a second time.
+ * A {@link ChecksumMismatchException} is thrown by the read call reaching the end of the stream if the checksums
+ * differ. A stream closed before the end of the content is not verified.
+ */
+public final class ChecksumVerifyingInputStream extends FilterInputStream {
+
+  private final String algorithm;
+  private final byte[] expectedChecksum;
+  private final CRC32C crc32c;
+  private final MessageDigest md5;
+  private boolean verified;
+
+  private ChecksumVerifyingInputStream(
+    InputStream in,
+    String algorithm,
+    byte[] expectedChecksum,
+    CRC32C crc32c,
+    MessageDigest md5
+  ) {
+    super(in);
+    this.algorithm = algorithm;
+    this.expectedChecksum = expectedChecksum;
+    this.crc32c = crc32c;
+    this.md5 = md5;
+  }
+
+  /**
+   * Verify the content against a CRC32C checksum, computed with the hardware-accelerated {@link CRC32C}.
+   *
+   * @param in           the content.
+   * @param crc32cBase64 the base64-encoded big-endian CRC32C checksum, as reported by GCS and S3.
+   */
+  public static ChecksumVerifyingInputStream crc32c(
+    InputStream in,
+    String crc32cBase64
+  ) {
+    return new ChecksumVerifyingInputStream(
+      in,
+      "CRC32C",
+      Base64.getDecoder().decode(crc32cBase64),
+      new CRC32C(),
+      null
+    );
+  }
+
+  /**
+   * Verify the content against an MD5 digest.
+   *
+   * @param in        the content.
+   * @param md5Base64 the base64-encoded MD5 digest, as reported by GCS and in the Content-MD5 HTTP header.
+   */
+  public static ChecksumVerifyingInputStream md5(
+    InputStream in,
+    String md5Base64
+  ) {
+    try {
+      return new ChecksumVerifyingInputStream(
+        in,
+        "MD5",
+        Base64.getDecoder().decode(md5Base64),
+        null,
+        MessageDigest.getInstance("MD5")
+      );
+    } catch (NoSuchAlgorithmException e) {
+      throw new BlobStoreException(e);
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = in.read();
+    if (b == -1) {
+      verify();
+    } else {
+      if (crc32c != null) {
+        crc32c.update(b);
+      } else {
+        md5.update((byte) b);
+      }
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n = in.read(b, off, len);
+    if (n == -1) {
+      verify();
+    } else {
+      update(b, off, n);
+    }
+    return n;
+  }
+
+  /**
+   * Skipped bytes are read, since they are part of the checksum.
+   */
+  @Override
+  public long skip(long n) throws IOException {
+    if (n <= 0) {
+      return 0;
+    }
+    byte[] skipBuffer = new byte[(int) Math.min(n, 8192)];
+    long skipped = 0;
+    while (skipped < n) {
+      int read = read(
+        skipBuffer,
+        0,
+        (int) Math.min(skipBuffer.length, n - skipped)
+      );
+      if (read == -1) {
+        break;
+      }
+      skipped += read;
+    }
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public synchronized void mark(int readlimit) {}
+
+  @Override
+  public synchronized void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+
+  private void update(byte[] b, int off, int len) {
+    if (crc32c != null) {
+      crc32c.update(b, off, len);
+    } else {
+      md5.update(b, off, len);
+    }
+  }
+
+  private void verify() throws ChecksumMismatchException {
+    if (verified) {
+      return;
+    }
+    verified = true;
+    byte[] actualChecksum = crc32c != null
+      ? ByteBuffer.allocate(4).putInt((int) crc32c.getValue()).array()
+      : md5.digest();
+    if (!Arrays.equals(expectedChecksum, actualChecksum)) {
+      throw new ChecksumMismatchException(
+        algorithm,
+        Base64.getEncoder().encodeToString(actualChecksum),
+        Base64.getEncoder().encodeToString(expectedChecksum)
+      );
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.execution;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.rutebanken.helper.storage.BlobStoreException;
+
+/**
+ * Executor for blocking storage calls, with a limit on the number of calls running at the same time.
+ * <p>
+ * In platform-thread mode, calls run on a pool of daemon threads sized to the concurrency limit, released when idle.
+ * In virtual-thread mode (Java 21 or later), each call runs on its own virtual thread and concurrency is limited by a
+ * semaphore only, so that thousands of concurrent calls waiting on the network do not require thousands of platform
+ * threads. Calls above the limit wait for a permit on their own thread, the submitting thread is never blocked.
+ */
+public final class BlobStoreExecutor implements Executor, AutoCloseable {
+
+  private static final MethodHandle NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR =
+    virtualThreadPerTaskExecutorFactory();
+
+  private final ExecutorService executorService;
+  private final Semaphore permits;
+  private final int maxConcurrency;
+  private final boolean virtualThreads;
+
+  private BlobStoreExecutor(
+    ExecutorService executorService,
+    int maxConcurrency,
+    boolean virtualThreads
+  ) {
+    this.executorService = executorService;
+    this.permits = new Semaphore(maxConcurrency);
+    this.maxConcurrency = maxConcurrency;
+    this.virtualThreads = virtualThreads;
+  }
+
+  /**
+   * Run calls on a pool of maxConcurrency daemon platform threads.
+   *
+   * @param name           the name of the threads.
+   * @param maxConcurrency the number of threads, and maximum number of calls running at the same time.
+   */
+  public static BlobStoreExecutor platformThreads(
+    String name,
+    int maxConcurrency
+  ) {
+    ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+      maxConcurrency,
+      maxConcurrency,
+      60,
+      TimeUnit.SECONDS,
+      new LinkedBlockingQueue<>(),
+      runnable -> {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+      }
+    );
+    threadPoolExecutor.allowCoreThreadTimeOut(true);
+    return new BlobStoreExecutor(threadPoolExecutor, maxConcurrency, false);
+  }
+
+  /**
+   * Run each call on a new virtual thread, with at most maxConcurrency calls running at the same time.
+   *
+   * @throws BlobStoreException if virtual threads are not supported by the running JVM.
+   * @see #isVirtualThreadsSupported()
+   */
+  public static BlobStoreExecutor virtualThreads(int maxConcurrency) {
+    if (!isVirtualThreadsSupported()) {
+      throw new BlobStoreException(
+        "Virtual threads require Java 21 or later, running " +
+        Runtime.version()
+      );
+    }
+    try {
+      return new BlobStoreExecutor(
+        (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(),
+        maxConcurrency,
+        true
+      );
+    } catch (Throwable e) {
+      throw new BlobStoreException(e);
+    }
+  }
+
+  /**
+   * Run calls on virtual threads when the running JVM supports them, and on platform threads otherwise.
+   */
+  public static BlobStoreExecutor preferVirtualThreads(
+    String name,
+    int maxConcurrency
+  ) {
+    return isVirtualThreadsSupported()
+      ? virtualThreads(maxConcurrency)
+      : platformThreads(name, maxConcurrency);
+  }
+
+  public static boolean isVirtualThreadsSupported() {
+    return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+  }
+
+  public boolean isVirtualThreads() {
+    return virtualThreads;
+  }
+
+  public int maxConcurrency() {
+    return maxConcurrency;
+  }
+
+  /**
+   * Return the number of calls currently running.
+   */
+  public int activeCount() {
+    return maxConcurrency - permits.availablePermits();
+  }
+
+  /**
+   * Run a blocking call asynchronously.
+   */
+  public <T> CompletableFuture<T> supplyAsync(Supplier<T> call) {
+    return CompletableFuture.supplyAsync(
+      () -> withPermit(call),
+      executorService
+    );
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    executorService.execute(() ->
+      withPermit(() -> {
+        command.run();
+        return null;
+      })
+    );
+  }
+
+  /**
+   * Stop accepting calls. Calls already submitted run to completion.
+   */
+  @Override
+  public void close() {
+    executorService.shutdown();
+  }
+
+  private <T> T withPermit(Supplier<T> call) {
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new BlobStoreException(e);
+    }
+    try {
+      return call.get();
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Look up Executors.newVirtualThreadPerTaskExecutor(), which is not available before Java 21.
+   */
+  private static MethodHandle virtualThreadPerTaskExecutorFactory() {
+    try {
+      return MethodHandles
+        .publicLookup()
+        .findStatic(
+          Executors.class,
+          "newVirtualThreadPerTaskExecutor",
+          MethodType.methodType(ExecutorService.class)
+        );
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      return null;
+    }
+  }
+}
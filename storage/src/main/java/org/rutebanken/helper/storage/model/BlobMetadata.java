@@ -0,0 +1,42 @@
+package org.rutebanken.helper.storage.model;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Metadata of a stored blob, as returned by a metadata-only lookup that does not read the blob content.
+ * @param name the name of the blob.
+ * @param size the size of the blob content in bytes.
+ * @param generation the generation of the latest version, or {@link #UNKNOWN_GENERATION} if the backend does not expose it.
+ * @param contentType the content type, if known.
+ * @param metadata the user-defined metadata attached to the blob.
+ * @param updated the time the latest version was written, if known.
+ */
+public record BlobMetadata(
+  String name,
+  long size,
+  long generation,
+  Optional<String> contentType,
+  Map<String, String> metadata,
+  Optional<Instant> updated
+) {
+  /**
+   * Generation reported by backends that do not expose blob versions.
+   */
+  public static final long UNKNOWN_GENERATION = 0;
+
+  public BlobMetadata {
+    metadata = Map.copyOf(metadata);
+  }
+
+  /**
+   * Convenience constructor for building <code>BlobMetadata</code> with just the required parameters.
+   * @param name
+   * @param size
+   * @param generation
+   */
+  public BlobMetadata(String name, long size, long generation) {
+    this(name, size, generation, Optional.empty(), Map.of(), Optional.empty());
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.observation;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * Names and attributes of the observations recorded around blob store operations, and helpers shared by the storage
+ * backends.
+ */
+public final class BlobStoreObservations {
+
+  /**
+   * Observation recorded around each {@link org.rutebanken.helper.storage.repository.BlobStoreRepository} operation.
+   */
+  public static final String OPERATION_OBSERVATION = "blob.store.operation";
+
+  /**
+   * Observation recorded around each part of an operation split into several requests (copy chunks, delete batches).
+   */
+  public static final String PART_OBSERVATION = "blob.store.part";
+
+  public static final String OPERATION = "blob.operation";
+  public static final String BACKEND = "blob.backend";
+  public static final String CONTAINER = "blob.container";
+  public static final String NAME = "blob.name";
+  public static final String SIZE = "blob.size";
+  public static final String RETRY_COUNT = "blob.retry.count";
+  public static final String KEY_COUNT = "blob.key.count";
+  public static final String ERROR_COUNT = "blob.error.count";
+
+  private BlobStoreObservations() {}
+
+  /**
+   * Increment the retry count of the current observation, if any.
+   */
+  public static void recordRetry(ObservationRegistry registry) {
+    Observation observation = registry.getCurrentObservation();
+    if (observation != null) {
+      recordRetry(observation);
+    }
+  }
+
+  /**
+   * Increment the retry count of the given observation.
+   */
+  public static void recordRetry(Observation observation) {
+    int retryCount = observation.getContext().getOrDefault(RETRY_COUNT, 0) + 1;
+    observation.getContext().put(RETRY_COUNT, retryCount);
+    observation.highCardinalityKeyValue(
+      RETRY_COUNT,
+      String.valueOf(retryCount)
+    );
+  }
+
+  /**
+   * Wrap a task submitted to another thread so that it runs in the scope of the observation current at submission
+   * time. Observations started by the task become children of that observation.
+   */
+  public static <T> Callable<T> wrapCallable(
+    ObservationRegistry registry,
+    Callable<T> task
+  ) {
+    Observation parent = registry.getCurrentObservation();
+    if (parent == null) {
+      return task;
+    }
+    return () -> parent.scopedChecked(task::call);
+  }
+
+  /**
+   * @see #wrapCallable(ObservationRegistry, Callable)
+   */
+  public static <T> Supplier<T> wrapSupplier(
+    ObservationRegistry registry,
+    Supplier<T> task
+  ) {
+    Observation parent = registry.getCurrentObservation();
+    if (parent == null) {
+      return task;
+    }
+    return () -> parent.scoped(task);
+  }
+}
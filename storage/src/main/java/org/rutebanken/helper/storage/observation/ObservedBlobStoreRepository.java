@@ -0,0 +1,436 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.observation;
+
+import static org.rutebanken.helper.storage.observation.BlobStoreObservations.BACKEND;
+import static org.rutebanken.helper.storage.observation.BlobStoreObservations.CONTAINER;
+import static org.rutebanken.helper.storage.observation.BlobStoreObservations.NAME;
+import static org.rutebanken.helper.storage.observation.BlobStoreObservations.OPERATION;
+import static org.rutebanken.helper.storage.observation.BlobStoreObservations.OPERATION_OBSERVATION;
+import static org.rutebanken.helper.storage.observation.BlobStoreObservations.SIZE;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.rutebanken.helper.storage.model.BlobDescriptor;
+import org.rutebanken.helper.storage.model.BlobMetadata;
+import org.rutebanken.helper.storage.repository.BlobStoreRepository;
+import org.rutebanken.helper.storage.repository.DelegatingBlobStoreRepository;
+
+/**
+ * Blob store repository decorator recording an observation around each operation.
+ * The observation carries the operation, container and backend as low-cardinality attributes and the blob name and
+ * number of bytes transferred as high-cardinality attributes.
+ * Observations started by the backend while the operation runs (copy chunks, delete batches) become children of the
+ * operation observation.
+ * The observation of a download ends when the backend returns the content buffered in memory, or when the returned
+ * stream is closed if the backend streams the content.
+ */
+public class ObservedBlobStoreRepository extends DelegatingBlobStoreRepository {
+
+  private final ObservationRegistry observationRegistry;
+  private final String backend;
+  private String containerName;
+
+  public ObservedBlobStoreRepository(
+    BlobStoreRepository delegate,
+    ObservationRegistry observationRegistry
+  ) {
+    super(delegate);
+    this.observationRegistry = observationRegistry;
+    this.backend = delegate.getClass().getSimpleName();
+  }
+
+  @Override
+  public boolean exist(String objectName) {
+    return observe(
+      "exist",
+      containerName,
+      objectName,
+      () -> super.exist(objectName)
+    );
+  }
+
+  @Override
+  public InputStream getBlob(String objectName) {
+    return observeDownload(objectName, () -> super.getBlob(objectName));
+  }
+
+  @Override
+  public InputStream getBlob(String objectName, long generation) {
+    return observeDownload(
+      objectName,
+      () -> super.getBlob(objectName, generation)
+    );
+  }
+
+  @Override
+  public long uploadBlob(BlobDescriptor blobDescriptor) {
+    return observeUpload(
+      "upload",
+      blobDescriptor.name(),
+      blobDescriptor.inputStream(),
+      inputStream ->
+        super.uploadBlob(
+          new BlobDescriptor(
+            blobDescriptor.name(),
+            inputStream,
+            blobDescriptor.contentType(),
+            blobDescriptor.metadata()
+          )
+        )
+    );
+  }
+
+  @Override
+  public long uploadBlob(String objectName, InputStream inputStream) {
+    return observeUpload(
+      "upload",
+      objectName,
+      inputStream,
+      countingInputStream -> super.uploadBlob(objectName, countingInputStream)
+    );
+  }
+
+  @Override
+  public long uploadBlob(
+    String objectName,
+    InputStream inputStream,
+    String contentType
+  ) {
+    return observeUpload(
+      "upload",
+      objectName,
+      inputStream,
+      countingInputStream ->
+        super.uploadBlob(objectName, countingInputStream, contentType)
+    );
+  }
+
+  @Override
+  public long uploadNewBlob(String objectName, InputStream inputStream) {
+    return observeUpload(
+      "upload_new",
+      objectName,
+      inputStream,
+      countingInputStream ->
+        super.uploadNewBlob(objectName, countingInputStream)
+    );
+  }
+
+  @Override
+  public void copyBlob(
+    String sourceContainerName,
+    String sourceObjectName,
+    String targetContainerName,
+    String targetObjectName
+  ) {
+    observe(
+      "copy",
+      targetContainerName,
+      targetObjectName,
+      () -> {
+        super.copyBlob(
+          sourceContainerName,
+          sourceObjectName,
+          targetContainerName,
+          targetObjectName
+        );
+        return null;
+      }
+    );
+  }
+
+  @Override
+  public void copyVersionedBlob(
+    String sourceContainerName,
+    String sourceObjectName,
+    Long sourceVersion,
+    String targetContainerName,
+    String targetObjectName
+  ) {
+    observe(
+      "copy_versioned",
+      targetContainerName,
+      targetObjectName,
+      () -> {
+        super.copyVersionedBlob(
+          sourceContainerName,
+          sourceObjectName,
+          sourceVersion,
+          targetContainerName,
+          targetObjectName
+        );
+        return null;
+      }
+    );
+  }
+
+  @Override
+  public void copyAllBlobs(
+    String sourceContainerName,
+    String prefix,
+    String targetContainerName,
+    String targetPrefix
+  ) {
+    observe(
+      "copy_all",
+      targetContainerName,
+      targetPrefix,
+      () -> {
+        super.copyAllBlobs(
+          sourceContainerName,
+          prefix,
+          targetContainerName,
+          targetPrefix
+        );
+        return null;
+      }
+    );
+  }
+
+  @Override
+  public BlobMetadata stat(String objectName) {
+    return observe(
+      "stat",
+      containerName,
+      objectName,
+      () -> super.stat(objectName)
+    );
+  }
+
+  @Override
+  public List<String> listBlobNames(String prefix) {
+    return observe(
+      "list",
+      containerName,
+      prefix,
+      () -> super.listBlobNames(prefix)
+    );
+  }
+
+  @Override
+  public boolean delete(String objectName) {
+    return observe(
+      "delete",
+      containerName,
+      objectName,
+      () -> super.delete(objectName)
+    );
+  }
+
+  @Override
+  public boolean deleteAllFilesInFolder(String folder) {
+    return observe(
+      "delete_all",
+      containerName,
+      folder,
+      () -> super.deleteAllFilesInFolder(folder)
+    );
+  }
+
+  @Override
+  public void setContainerName(String containerName) {
+    this.containerName = containerName;
+    super.setContainerName(containerName);
+  }
+
+  private Observation observation(
+    String operation,
+    String container,
+    String objectName
+  ) {
+    return Observation
+      .createNotStarted(OPERATION_OBSERVATION, observationRegistry)
+      .contextualName("blob " + operation)
+      .lowCardinalityKeyValue(OPERATION, operation)
+      .lowCardinalityKeyValue(BACKEND, backend)
+      .lowCardinalityKeyValue(CONTAINER, String.valueOf(container))
+      .highCardinalityKeyValue(NAME, String.valueOf(objectName));
+  }
+
+  private <T> T observe(
+    String operation,
+    String container,
+    String objectName,
+    Supplier<T> action
+  ) {
+    return observation(operation, container, objectName).observe(action);
+  }
+
+  private long observeUpload(
+    String operation,
+    String objectName,
+    InputStream inputStream,
+    Function<InputStream, Long> upload
+  ) {
+    Observation observation = observation(
+      operation,
+      containerName,
+      objectName
+    );
+    CountingInputStream countingInputStream = new CountingInputStream(
+      inputStream
+    );
+    return observation.observe(() -> {
+      long generation = upload.apply(countingInputStream);
+      observation.highCardinalityKeyValue(
+        SIZE,
+        String.valueOf(countingInputStream.count)
+      );
+      return generation;
+    });
+  }
+
+  private InputStream observeDownload(
+    String objectName,
+    Supplier<InputStream> download
+  ) {
+    Observation observation = observation("get", containerName, objectName)
+      .start();
+    InputStream inputStream;
+    try {
+      inputStream = observation.scoped(download);
+    } catch (RuntimeException e) {
+      observation.error(e);
+      observation.stop();
+      throw e;
+    }
+    if (inputStream == null) {
+      observation.stop();
+      return null;
+    }
+    if (inputStream instanceof ByteArrayInputStream buffered) {
+      // already downloaded, and callers rarely close an in-memory stream
+      observation.highCardinalityKeyValue(
+        SIZE,
+        String.valueOf(buffered.available())
+      );
+      observation.stop();
+      return inputStream;
+    }
+    return new ObservedInputStream(inputStream, observation);
+  }
+
+  /**
+   * Count the bytes read from the underlying stream.
+   */
+  private static class CountingInputStream extends FilterInputStream {
+
+    protected long count;
+    private long markedCount;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+      super.mark(readlimit);
+      markedCount = count;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+      super.reset();
+      count = markedCount;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return in.markSupported();
+    }
+  }
+
+  /**
+   * Stop the download observation when the stream is closed, recording the number of bytes read by the caller and
+   * any read error.
+   */
+  private static class ObservedInputStream extends CountingInputStream {
+
+    private final Observation observation;
+    private final AtomicBoolean stopped = new AtomicBoolean();
+
+    ObservedInputStream(InputStream in, Observation observation) {
+      super(in);
+      this.observation = observation;
+    }
+
+    @Override
+    public int read() throws IOException {
+      try {
+        return super.read();
+      } catch (IOException | RuntimeException e) {
+        observation.error(e);
+        throw e;
+      }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      try {
+        return super.read(b, off, len);
+      } catch (IOException | RuntimeException e) {
+        observation.error(e);
+        throw e;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        if (stopped.compareAndSet(false, true)) {
+          observation.highCardinalityKeyValue(SIZE, String.valueOf(count));
+          observation.stop();
+        }
+      }
+    }
+  }
+}
@@ -18,8 +18,10 @@ package org.rutebanken.helper.storage.repository;
 
 import jakarta.annotation.Nullable;
 import java.io.InputStream;
+import java.util.List;
 import org.rutebanken.helper.storage.BlobAlreadyExistsException;
 import org.rutebanken.helper.storage.model.BlobDescriptor;
+import org.rutebanken.helper.storage.model.BlobMetadata;
 
 /**
  * Repository for managing binary files.
@@ -47,6 +49,50 @@ public interface BlobStoreRepository {
   @Nullable
   InputStream getBlob(String objectName);
 
+  /**
+   * Download a specific generation of a blob from storage.
+   * The content of a given generation never changes, which makes the result safe to cache indefinitely
+   * (see {@link VersionedBlobCachingRepository}).
+   * The default implementation throws an {@link UnsupportedOperationException}.
+   *
+   * @param objectName the name of the blob
+   * @param generation the generation of the blob, as returned by the upload methods.
+   * @return an InputStream on the file content or null if the object or the generation does not exist.
+   */
+  @Nullable
+  default InputStream getBlob(String objectName, long generation) {
+    throw new UnsupportedOperationException(
+      "Versioned reads are not supported by " + getClass().getSimpleName()
+    );
+  }
+
+  /**
+   * Look up the metadata of a blob without reading its content.
+   * The default implementation throws an {@link UnsupportedOperationException}.
+   *
+   * @param objectName the name of the blob.
+   * @return the metadata of the latest version of the blob, or null if the blob does not exist.
+   */
+  @Nullable
+  default BlobMetadata stat(String objectName) {
+    throw new UnsupportedOperationException(
+      "Metadata lookups are not supported by " + getClass().getSimpleName()
+    );
+  }
+
+  /**
+   * List the names of all blobs under a specific prefix (folder).
+   * The default implementation throws an {@link UnsupportedOperationException}.
+   *
+   * @param prefix the prefix of the blob names. An empty prefix lists the whole container.
+   * @return the names of the blobs, in lexicographic order.
+   */
+  default List<String> listBlobNames(String prefix) {
+    throw new UnsupportedOperationException(
+      "Listing is not supported by " + getClass().getSimpleName()
+    );
+  }
+
   /**
    * Upload a blob and return its generation number.
    *
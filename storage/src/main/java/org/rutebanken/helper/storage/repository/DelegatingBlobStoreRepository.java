@@ -0,0 +1,151 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package org.rutebanken.helper.storage.repository;
+
+import java.io.InputStream;
+import java.util.List;
+import org.rutebanken.helper.storage.model.BlobDescriptor;
+import org.rutebanken.helper.storage.model.BlobMetadata;
+
+/**
+ * Base class for blob store repository decorators. All operations are forwarded to the underlying repository.
+ * Subclasses override the operations they decorate.
+ */
+public abstract class DelegatingBlobStoreRepository
+  implements BlobStoreRepository {
+
+  private final BlobStoreRepository delegate;
+
+  protected DelegatingBlobStoreRepository(BlobStoreRepository delegate) {
+    this.delegate = delegate;
+  }
+
+  protected BlobStoreRepository delegate() {
+    return delegate;
+  }
+
+  @Override
+  public boolean exist(String objectName) {
+    return delegate.exist(objectName);
+  }
+
+  @Override
+  public InputStream getBlob(String objectName) {
+    return delegate.getBlob(objectName);
+  }
+
+  @Override
+  public InputStream getBlob(String objectName, long generation) {
+    return delegate.getBlob(objectName, generation);
+  }
+
+  @Override
+  public long uploadBlob(BlobDescriptor blobDescriptor) {
+    return delegate.uploadBlob(blobDescriptor);
+  }
+
+  @Override
+  public long uploadBlob(String objectName, InputStream inputStream) {
+    return delegate.uploadBlob(objectName, inputStream);
+  }
+
+  @Override
+  public long uploadBlob(
+    String objectName,
+    InputStream inputStream,
+    String contentType
+  ) {
+    return delegate.uploadBlob(objectName, inputStream, contentType);
+  }
+
+  @Override
+  public long uploadNewBlob(String objectName, InputStream inputStream) {
+    return delegate.uploadNewBlob(objectName, inputStream);
+  }
+
+  @Override
+  public void copyBlob(
+    String sourceContainerName,
+    String sourceObjectName,
+    String targetContainerName,
+    String targetObjectName
+  ) {
+    delegate.copyBlob(
+      sourceContainerName,
+      sourceObjectName,
+      targetContainerName,
+      targetObjectName
+    );
+  }
+
+  @Override
+  public void copyVersionedBlob(
+    String sourceContainerName,
+    String sourceObjectName,
+    Long sourceVersion,
+    String targetContainerName,
+    String targetObjectName
+  ) {
+    delegate.copyVersionedBlob(
+      sourceContainerName,
+      sourceObjectName,
+      sourceVersion,
+      targetContainerName,
+      targetObjectName
+    );
+  }
+
+  @Override
+  public void copyAllBlobs(
+    String sourceContainerName,
+    String prefix,
+    String targetContainerName,
+    String targetPrefix
+  ) {
+    delegate.copyAllBlobs(
+      sourceContainerName,
+      prefix,
+      targetContainerName,
+      targetPrefix
+    );
+  }
+
+  @Override
+  public BlobMetadata stat(String objectName) {
+    return delegate.stat(objectName);
+  }
+
+  @Override
+  public List<String> listBlobNames(String prefix) {
+    return delegate.listBlobNames(prefix);
+  }
+
+  @Override
+  public boolean delete(String objectName) {
+    return delegate.delete(objectName);
+  }
+
+  @Override
+  public boolean deleteAllFilesInFolder(String folder) {
+    return delegate.deleteAllFilesInFolder(folder);
+  }
+
+  @Override
+  public void setContainerName(String containerName) {
+    delegate.setContainerName(containerName);
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.repository;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.rutebanken.helper.storage.cache.BloomFilter;
+import org.rutebanken.helper.storage.model.BlobDescriptor;
+import org.rutebanken.helper.storage.model.BlobMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Blob store repository decorator that answers existence checks for blobs that definitely do not exist without
+ * accessing the underlying repository.
+ * The names of the blobs under a given prefix are loaded from a listing into a {@link BloomFilter}. Blobs uploaded or
+ * copied through this repository are added to the filter immediately, while blobs written by other clients are only
+ * taken into account after the next refresh. The index is refreshed on first access after the refresh interval has
+ * elapsed, or explicitly with {@link #refresh()}. The new index is built without blocking the lookups, which use the
+ * expired index until the new one is published. Only the first lookup waits for the index to be loaded. When the
+ * listing fails, the lookups are delegated until the index is loaded.
+ * Lookups that hit the filter (existing blobs and false positives) are delegated to the underlying repository.
+ * Blob names outside the indexed prefix, and reads of a given generation, are always delegated: the listing only
+ * covers the current blobs, not the earlier generations of overwritten or deleted blobs.
+ */
+public class ExistenceIndexBlobStoreRepository
+  extends DelegatingBlobStoreRepository {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(
+    ExistenceIndexBlobStoreRepository.class
+  );
+
+  private final String prefix;
+  private final long expectedBlobCount;
+  private final double falsePositiveRate;
+  private final Duration refreshInterval;
+
+  /**
+   * Held while the index is loaded, so that a single listing runs at a time.
+   */
+  private final ReentrantLock refreshLock = new ReentrantLock();
+
+  /**
+   * Blobs written through this repository while the index is loaded, added to the new index once it is published.
+   */
+  private final Set<String> writtenDuringRefresh =
+    ConcurrentHashMap.newKeySet();
+
+  private volatile String containerName;
+  private volatile Index index;
+
+  /**
+   * Incremented when the index is invalidated, so that an index loaded from an outdated listing is not published.
+   * Guarded by this.
+   */
+  private long indexEpoch;
+
+  private record Index(BloomFilter filter, Instant loadedAt) {}
+
+  /**
+   * @param delegate          the underlying repository. It must support {@link BlobStoreRepository#listBlobNames(String)}.
+   * @param prefix            the prefix (folder) of the indexed blobs.
+   * @param expectedBlobCount the expected number of blobs under the prefix, used to size the filter. The filter is
+   *                          sized for the actual number of blobs if it is larger.
+   * @param falsePositiveRate the rate of lookups of missing blobs that are still delegated to the underlying
+   *                          repository. Lower rates require more memory.
+   * @param refreshInterval   the maximum age of the index before it is reloaded from a listing.
+   */
+  public ExistenceIndexBlobStoreRepository(
+    BlobStoreRepository delegate,
+    String prefix,
+    long expectedBlobCount,
+    double falsePositiveRate,
+    Duration refreshInterval
+  ) {
+    super(delegate);
+    this.prefix = prefix;
+    this.expectedBlobCount = expectedBlobCount;
+    this.falsePositiveRate = falsePositiveRate;
+    this.refreshInterval = refreshInterval;
+  }
+
+  @Override
+  public boolean exist(String objectName) {
+    if (isDefinitelyMissing(objectName)) {
+      return false;
+    }
+    return super.exist(objectName);
+  }
+
+  @Override
+  public InputStream getBlob(String objectName) {
+    if (isDefinitelyMissing(objectName)) {
+      return null;
+    }
+    return super.getBlob(objectName);
+  }
+
+  @Override
+  public BlobMetadata stat(String objectName) {
+    if (isDefinitelyMissing(objectName)) {
+      return null;
+    }
+    return super.stat(objectName);
+  }
+
+  @Override
+  public long uploadBlob(BlobDescriptor blobDescriptor) {
+    long generation = super.uploadBlob(blobDescriptor);
+    addToIndex(blobDescriptor.name());
+    return generation;
+  }
+
+  @Override
+  public long uploadBlob(String objectName, InputStream inputStream) {
+    long generation = super.uploadBlob(objectName, inputStream);
+    addToIndex(objectName);
+    return generation;
+  }
+
+  @Override
+  public long uploadBlob(
+    String objectName,
+    InputStream inputStream,
+    String contentType
+  ) {
+    long generation = super.uploadBlob(objectName, inputStream, contentType);
+    addToIndex(objectName);
+    return generation;
+  }
+
+  @Override
+  public long uploadNewBlob(String objectName, InputStream inputStream) {
+    long generation = super.uploadNewBlob(objectName, inputStream);
+    addToIndex(objectName);
+    return generation;
+  }
+
+  @Override
+  public void copyBlob(
+    String sourceContainerName,
+    String sourceObjectName,
+    String targetContainerName,
+    String targetObjectName
+  ) {
+    super.copyBlob(
+      sourceContainerName,
+      sourceObjectName,
+      targetContainerName,
+      targetObjectName
+    );
+    if (targetContainerName.equals(containerName)) {
+      addToIndex(targetObjectName);
+    }
+  }
+
+  @Override
+  public void copyVersionedBlob(
+    String sourceContainerName,
+    String sourceObjectName,
+    Long sourceVersion,
+    String targetContainerName,
+    String targetObjectName
+  ) {
+    super.copyVersionedBlob(
+      sourceContainerName,
+      sourceObjectName,
+      sourceVersion,
+      targetContainerName,
+      targetObjectName
+    );
+    if (targetContainerName.equals(containerName)) {
+      addToIndex(targetObjectName);
+    }
+  }
+
+  @Override
+  public void copyAllBlobs(
+    String sourceContainerName,
+    String prefix,
+    String targetContainerName,
+    String targetPrefix
+  ) {
+    super.copyAllBlobs(
+      sourceContainerName,
+      prefix,
+      targetContainerName,
+      targetPrefix
+    );
+    if (targetContainerName.equals(containerName)) {
+      // the names of the copied blobs are not known, reload the index on next access
+      invalidate();
+    }
+  }
+
+  @Override
+  public void setContainerName(String containerName) {
+    super.setContainerName(containerName);
+    this.containerName = containerName;
+    invalidate();
+  }
+
+  /**
+   * Reload the index from a listing of the blobs under the indexed prefix. Lookups are answered from the previous
+   * index while the listing runs.
+   */
+  public void refresh() {
+    refreshLock.lock();
+    try {
+      load();
+    } finally {
+      refreshLock.unlock();
+    }
+  }
+
+  private void load() {
+    long epoch;
+    synchronized (this) {
+      epoch = indexEpoch;
+    }
+    writtenDuringRefresh.clear();
+    List<String> blobNames = delegate().listBlobNames(prefix);
+    BloomFilter filter = new BloomFilter(
+      Math.max(expectedBlobCount, blobNames.size()),
+      falsePositiveRate
+    );
+    blobNames.forEach(filter::put);
+    // blobs written during the listing may only have been added to the previous index
+    writtenDuringRefresh.forEach(filter::put);
+    synchronized (this) {
+      if (epoch != indexEpoch) {
+        // invalidated during the listing, the next lookup loads a new index
+        return;
+      }
+      index = new Index(filter, Instant.now());
+    }
+    // and blobs written while the index was published
+    writtenDuringRefresh.forEach(filter::put);
+    LOGGER.debug(
+      "Loaded existence index for {} blobs under prefix '{}' in container '{}'",
+      blobNames.size(),
+      prefix,
+      containerName
+    );
+  }
+
+  private synchronized void invalidate() {
+    indexEpoch++;
+    index = null;
+  }
+
+  private boolean isDefinitelyMissing(String objectName) {
+    if (!objectName.startsWith(prefix)) {
+      return false;
+    }
+    BloomFilter filter = currentIndex();
+    return filter != null && !filter.mightContain(objectName);
+  }
+
+  /**
+   * Return the index, loading it if it is missing or expired. An expired index is returned as is while another thread
+   * loads the new one.
+   *
+   * @return the index, or null if it was invalidated or could not be loaded, in which case the lookup is delegated.
+   */
+  private BloomFilter currentIndex() {
+    Index current = index;
+    if (current != null && !isExpired(current)) {
+      return current.filter();
+    }
+    if (current != null && !refreshLock.tryLock()) {
+      return current.filter();
+    }
+    if (current == null) {
+      refreshLock.lock();
+    }
+    try {
+      Index latest = index;
+      if (latest == null || isExpired(latest)) {
+        load();
+        latest = index;
+      }
+      return latest == null ? null : latest.filter();
+    } catch (RuntimeException e) {
+      LOGGER.warn(
+        "Failed to load existence index under prefix '{}' in container '{}', delegating the lookup",
+        prefix,
+        containerName,
+        e
+      );
+      return null;
+    } finally {
+      refreshLock.unlock();
+    }
+  }
+
+  private boolean isExpired(Index index) {
+    return Instant.now().isAfter(index.loadedAt().plus(refreshInterval));
+  }
+
+  /**
+   * Add a blob written through this repository to the index. While the index is loaded, the blob is also recorded so
+   * that it is added to the new index, in case the listing started before the blob was written.
+   */
+  private void addToIndex(String objectName) {
+    if (!objectName.startsWith(prefix)) {
+      return;
+    }
+    if (refreshLock.isLocked()) {
+      writtenDuringRefresh.add(objectName);
+    }
+    Index current = index;
+    if (current != null) {
+      current.filter().put(objectName);
+    }
+  }
+}
@@ -19,12 +19,18 @@ package org.rutebanken.helper.storage.repository;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.rutebanken.helper.storage.BlobAlreadyExistsException;
 import org.rutebanken.helper.storage.BlobStoreException;
+import org.rutebanken.helper.storage.model.BlobMetadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,12 +49,51 @@ public class InMemoryBlobStoreRepository implements BlobStoreRepository {
    */
   private final Map<String, Map<String, byte[]>> blobsInContainers;
 
+  /**
+   * Number of generations kept in the version history of each blob by default.
+   */
+  public static final int DEFAULT_MAX_VERSIONS = 10;
+
+  /**
+   * Version history of each blob, indexed by container and blob name, limited to the last {@link #maxVersions}
+   * generations. Deleted blobs keep their history, as in a bucket with object versioning enabled, so that generation
+   * numbers are never reused.
+   */
+  private final Map<String, Map<String, NavigableMap<Long, byte[]>>> versions;
+
+  private int maxVersions = DEFAULT_MAX_VERSIONS;
+
   private String containerName;
 
   public InMemoryBlobStoreRepository(
     Map<String, Map<String, byte[]>> blobsInContainers
+  ) {
+    this(blobsInContainers, Collections.synchronizedMap(new HashMap<>()));
+  }
+
+  /**
+   * @param blobsInContainers shared map of the latest version of each blob.
+   * @param versions          shared map of the version history of each blob.
+   */
+  public InMemoryBlobStoreRepository(
+    Map<String, Map<String, byte[]>> blobsInContainers,
+    Map<String, Map<String, NavigableMap<Long, byte[]>>> versions
   ) {
     this.blobsInContainers = blobsInContainers;
+    this.versions = versions;
+  }
+
+  /**
+   * Set the number of generations kept in the version history of each blob. Older generations are dropped when a new
+   * one is stored, and can no longer be read with {@link #getBlob(String, long)}.
+   */
+  public void setMaxVersions(int maxVersions) {
+    if (maxVersions < 1) {
+      throw new IllegalArgumentException(
+        "At least one version must be kept, got " + maxVersions
+      );
+    }
+    this.maxVersions = maxVersions;
   }
 
   protected Map<String, byte[]> getBlobsForCurrentContainer() {
@@ -69,6 +114,48 @@ public class InMemoryBlobStoreRepository implements BlobStoreRepository {
     return (data == null) ? null : new ByteArrayInputStream(data);
   }
 
+  @Override
+  public InputStream getBlob(String objectName, long generation) {
+    LOGGER.debug("get versioned blob called in in-memory blob store");
+    byte[] data = getVersion(containerName, objectName, generation);
+    return (data == null) ? null : new ByteArrayInputStream(data);
+  }
+
+  @Override
+  public BlobMetadata stat(String objectName) {
+    LOGGER.debug("stat called in in-memory blob store");
+    NavigableMap<Long, byte[]> history = getVersionsForContainer(
+      containerName
+    )
+      .get(objectName);
+    if (history == null) {
+      byte[] data = getBlobsForCurrentContainer().get(objectName);
+      return data == null
+        ? null
+        : new BlobMetadata(
+          objectName,
+          data.length,
+          BlobMetadata.UNKNOWN_GENERATION
+        );
+    }
+    synchronized (history) {
+      byte[] data = getBlobsForCurrentContainer().get(objectName);
+      return data == null
+        ? null
+        : new BlobMetadata(objectName, data.length, history.lastKey());
+    }
+  }
+
+  @Override
+  public List<String> listBlobNames(String prefix) {
+    return getBlobsForCurrentContainer()
+      .keySet()
+      .stream()
+      .filter(blobName -> blobName.startsWith(prefix))
+      .sorted()
+      .toList();
+  }
+
   @Override
   public long uploadBlob(
     String objectName,
@@ -95,9 +182,7 @@ public class InMemoryBlobStoreRepository implements BlobStoreRepository {
       ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
       IOUtils.copy(inputStream, byteArrayOutputStream);
       byte[] data = byteArrayOutputStream.toByteArray();
-      getBlobsForCurrentContainer().put(objectName, data);
-      // no blob versioning for the in memory implementation
-      return 0;
+      return store(containerName, objectName, data);
     } catch (IOException e) {
       throw new BlobStoreException(e);
     }
@@ -127,9 +212,54 @@ public class InMemoryBlobStoreRepository implements BlobStoreRepository {
     String targetContainerName,
     String targetObjectName
   ) {
-    byte[] sourceData = getBlobsForContainer(sourceContainerName)
-      .get(sourceObjectName);
-    getBlobsForContainer(targetContainerName).put(targetObjectName, sourceData);
+    byte[] sourceData = (sourceVersion == null)
+      ? getBlobsForContainer(sourceContainerName).get(sourceObjectName)
+      : getVersion(sourceContainerName, sourceObjectName, sourceVersion);
+    if (sourceData == null) {
+      throw new BlobStoreException(
+        "The blob with name '" + sourceObjectName + "' does not exist"
+      );
+    }
+    store(targetContainerName, targetObjectName, sourceData);
+  }
+
+  /**
+   * Store the blob as the latest version and add it to the version history, dropping the generations beyond the
+   * retention limit.
+   *
+   * @return the generation of the new version.
+   */
+  private long store(String aContainer, String objectName, byte[] data) {
+    NavigableMap<Long, byte[]> history = getVersionsForContainer(aContainer)
+      .computeIfAbsent(objectName, k -> new ConcurrentSkipListMap<>());
+    synchronized (history) {
+      long generation = history.isEmpty() ? 1 : history.lastKey() + 1;
+      history.put(generation, data);
+      while (history.size() > maxVersions) {
+        history.pollFirstEntry();
+      }
+      getBlobsForContainer(aContainer).put(objectName, data);
+      return generation;
+    }
+  }
+
+  private byte[] getVersion(
+    String aContainer,
+    String objectName,
+    long generation
+  ) {
+    NavigableMap<Long, byte[]> versions = getVersionsForContainer(aContainer)
+      .get(objectName);
+    return (versions == null) ? null : versions.get(generation);
+  }
+
+  private Map<String, NavigableMap<Long, byte[]>> getVersionsForContainer(
+    String aContainer
+  ) {
+    return versions.computeIfAbsent(
+      aContainer,
+      k -> new ConcurrentHashMap<>()
+    );
   }
 
   @Override
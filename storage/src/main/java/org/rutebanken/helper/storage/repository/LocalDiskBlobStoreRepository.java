@@ -19,14 +19,30 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Base64;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
 import org.rutebanken.helper.storage.BlobAlreadyExistsException;
+import org.rutebanken.helper.storage.BlobChecksumMismatchException;
 import org.rutebanken.helper.storage.BlobStoreException;
+import org.rutebanken.helper.storage.checksum.ChecksumMismatchException;
+import org.rutebanken.helper.storage.model.BlobMetadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,18 +55,73 @@ public class LocalDiskBlobStoreRepository implements BlobStoreRepository {
     LocalDiskBlobStoreRepository.class
   );
 
+  /**
+   * Number of generations kept in the version history of each blob by default.
+   */
+  public static final int DEFAULT_MAX_VERSIONS = 10;
+
+  /**
+   * Folder, relative to the base folder, where the version history of each blob is stored, limited to the last
+   * {@link #maxVersions} generations.
+   * Deleted blobs keep their history, as in a bucket with object versioning enabled, so that generation numbers are
+   * never reused.
+   */
+  private static final String VERSIONS_FOLDER = ".versions";
+
+  /**
+   * Folder, relative to the base folder, where the base64-encoded CRC32C checksum of each blob is stored, so that
+   * corrupted files are detected on read.
+   */
+  private static final String CHECKSUMS_FOLDER = ".checksums";
+
   private final String baseFolder;
 
+  private int maxVersions = DEFAULT_MAX_VERSIONS;
+
   private String containerName;
 
   public LocalDiskBlobStoreRepository(String baseFolder) {
     this.baseFolder = baseFolder;
   }
 
+  /**
+   * Set the number of generations kept in the version history of each blob. Older generations are deleted when a new
+   * one is archived, and can no longer be read with {@link #getBlob(String, long)}.
+   */
+  public void setMaxVersions(int maxVersions) {
+    if (maxVersions < 1) {
+      throw new IllegalArgumentException(
+        "At least one version must be kept, got " + maxVersions
+      );
+    }
+    this.maxVersions = maxVersions;
+  }
+
   protected String getContainerFolder() {
     return baseFolder + File.separator + containerName;
   }
 
+  /**
+   * Return the folder containing the version history of a blob. The blob name is encoded into a single path segment
+   * so that the history of a blob cannot collide with the history of blobs nested under it.
+   */
+  protected Path getVersionFolder(String aContainer, String objectName) {
+    return Paths
+      .get(baseFolder + File.separator + VERSIONS_FOLDER)
+      .resolve(String.valueOf(aContainer))
+      .resolve(URLEncoder.encode(objectName, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Return the file containing the checksum of a blob.
+   */
+  protected Path getChecksumFile(String aContainer, String objectName) {
+    return Paths
+      .get(baseFolder + File.separator + CHECKSUMS_FOLDER)
+      .resolve(String.valueOf(aContainer))
+      .resolve(URLEncoder.encode(objectName, StandardCharsets.UTF_8));
+  }
+
   @Override
   public InputStream getBlob(String objectName) {
     LOGGER.debug("get blob called in local-disk blob store on {}", objectName);
@@ -64,14 +135,94 @@ public class LocalDiskBlobStoreRepository implements BlobStoreRepository {
     }
     LOGGER.debug("getBlob(): File found in local-disk blob store: {} ", path);
     try {
+      byte[] content = Files.readAllBytes(path);
+      verifyChecksum(objectName, content);
       // converted as ByteArrayInputStream so that Camel stream cache can reopen it
       // since ByteArrayInputStream.close() does nothing
+      return new ByteArrayInputStream(content);
+    } catch (IOException e) {
+      throw new BlobStoreException(e);
+    }
+  }
+
+  @Override
+  public InputStream getBlob(String objectName, long generation) {
+    LOGGER.debug(
+      "get versioned blob called in local-disk blob store on {} with generation {}",
+      objectName,
+      generation
+    );
+    Path path = getVersionFolder(containerName, objectName)
+      .resolve(Long.toString(generation));
+    if (!path.toFile().exists()) {
+      LOGGER.debug(
+        "getBlob(): File version not found in local-disk blob store: {} ",
+        path
+      );
+      return null;
+    }
+    try {
       return new ByteArrayInputStream(Files.readAllBytes(path));
     } catch (IOException e) {
       throw new BlobStoreException(e);
     }
   }
 
+  /**
+   * Read the metadata from the file attributes. The content type is not stored on disk and is therefore never set.
+   */
+  @Override
+  public BlobMetadata stat(String objectName) {
+    LOGGER.debug("stat called in local-disk blob store on {}", objectName);
+    Path path = Paths.get(getContainerFolder()).resolve(objectName);
+    if (!Files.isRegularFile(path)) {
+      return null;
+    }
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(
+        path,
+        BasicFileAttributes.class
+      );
+      Path versionFolder = getVersionFolder(containerName, objectName);
+      long generation = Files.isDirectory(versionFolder)
+        ? lastGeneration(versionFolder)
+        : BlobMetadata.UNKNOWN_GENERATION;
+      return new BlobMetadata(
+        objectName,
+        attributes.size(),
+        generation,
+        Optional.empty(),
+        Map.of(),
+        Optional.of(attributes.lastModifiedTime().toInstant())
+      );
+    } catch (IOException e) {
+      throw new BlobStoreException(e);
+    }
+  }
+
+  @Override
+  public List<String> listBlobNames(String prefix) {
+    Path containerFolder = Paths.get(getContainerFolder());
+    if (!containerFolder.toFile().isDirectory()) {
+      return List.of();
+    }
+    try (Stream<Path> paths = Files.walk(containerFolder)) {
+      return paths
+        .filter(Files::isRegularFile)
+        .map(path ->
+          containerFolder
+            .relativize(path)
+            .toString()
+            .replace(File.separatorChar, '/')
+        )
+        .filter(blobName -> blobName.startsWith(prefix))
+        .sorted()
+        .toList();
+    } catch (IOException e) {
+      throw new BlobStoreException(e);
+    }
+  }
+
   @Override
   public long uploadBlob(String objectName, InputStream inputStream) {
     LOGGER.debug(
@@ -89,9 +240,17 @@ public class LocalDiskBlobStoreRepository implements BlobStoreRepository {
       Path fullPath = Paths.get(getContainerFolder()).resolve(localPath);
       Files.deleteIfExists(fullPath);
 
-      Files.copy(inputStream, fullPath);
-      // no blob versioning for the Local disk implementation
-      return 0;
+      CheckedInputStream checkedInputStream = new CheckedInputStream(
+        inputStream,
+        new CRC32C()
+      );
+      Files.copy(checkedInputStream, fullPath);
+      writeChecksum(
+        containerName,
+        objectName,
+        crc32cBase64(checkedInputStream.getChecksum())
+      );
+      return archiveVersion(containerName, objectName, fullPath);
     } catch (IOException e) {
       throw new BlobStoreException(e);
     }
@@ -122,11 +281,10 @@ public class LocalDiskBlobStoreRepository implements BlobStoreRepository {
     String targetObjectName
   ) {
     try {
-      Path sourcePath = Path.of(
-        baseFolder,
-        sourceContainerName,
-        sourceObjectName
-      );
+      Path sourcePath = sourceVersion == null
+        ? Path.of(baseFolder, sourceContainerName, sourceObjectName)
+        : getVersionFolder(sourceContainerName, sourceObjectName)
+          .resolve(sourceVersion.toString());
       Path targetPath = Path.of(
         baseFolder,
         targetContainerName,
@@ -134,11 +292,146 @@ public class LocalDiskBlobStoreRepository implements BlobStoreRepository {
       );
       Files.createDirectories(targetPath.getParent());
       Files.copy(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+      Path sourceChecksumFile = getChecksumFile(
+        sourceContainerName,
+        sourceObjectName
+      );
+      Path targetChecksumFile = getChecksumFile(
+        targetContainerName,
+        targetObjectName
+      );
+      if (sourceVersion == null && Files.exists(sourceChecksumFile)) {
+        Files.createDirectories(targetChecksumFile.getParent());
+        Files.copy(
+          sourceChecksumFile,
+          targetChecksumFile,
+          StandardCopyOption.REPLACE_EXISTING
+        );
+      } else {
+        // the checksums of past versions are not kept
+        Files.deleteIfExists(targetChecksumFile);
+      }
+      archiveVersion(targetContainerName, targetObjectName, targetPath);
     } catch (IOException e) {
       throw new BlobStoreException(e);
     }
   }
 
+  private void writeChecksum(
+    String aContainer,
+    String objectName,
+    String checksum
+  ) throws IOException {
+    Path checksumFile = getChecksumFile(aContainer, objectName);
+    Files.createDirectories(checksumFile.getParent());
+    Files.writeString(checksumFile, checksum);
+  }
+
+  /**
+   * Compare the content of a blob with the checksum recorded when it was written. Blobs written outside of this
+   * repository have no checksum and are not verified.
+   */
+  private void verifyChecksum(String objectName, byte[] content)
+    throws IOException {
+    Path checksumFile = getChecksumFile(containerName, objectName);
+    if (!Files.exists(checksumFile)) {
+      return;
+    }
+    CRC32C crc32c = new CRC32C();
+    crc32c.update(content);
+    String actualChecksum = crc32cBase64(crc32c);
+    String expectedChecksum = Files.readString(checksumFile);
+    if (!actualChecksum.equals(expectedChecksum)) {
+      throw new BlobChecksumMismatchException(
+        objectName,
+        new ChecksumMismatchException(
+          "CRC32C",
+          actualChecksum,
+          expectedChecksum
+        )
+      );
+    }
+  }
+
+  private static String crc32cBase64(Checksum crc32c) {
+    return Base64
+      .getEncoder()
+      .encodeToString(
+        ByteBuffer.allocate(4).putInt((int) crc32c.getValue()).array()
+      );
+  }
+
+  /**
+   * Add the blob to its version history and delete the generations beyond the retention limit.
+   * The version is a hard link to the blob file, which the repository always replaces rather than rewrites, so that
+   * the content is not written twice. It is copied when the file system does not support hard links.
+   * Concurrent writers race for the next generation number and the loser retries with the following one.
+   *
+   * @return the generation of the new version.
+   */
+  private long archiveVersion(
+    String aContainer,
+    String objectName,
+    Path blobPath
+  ) throws IOException {
+    Path versionFolder = getVersionFolder(aContainer, objectName);
+    Files.createDirectories(versionFolder);
+    while (true) {
+      long generation = lastGeneration(versionFolder) + 1;
+      try {
+        linkOrCopy(blobPath, versionFolder.resolve(Long.toString(generation)));
+        pruneVersions(versionFolder, generation);
+        return generation;
+      } catch (FileAlreadyExistsException e) {
+        LOGGER.debug(
+          "Generation {} of {} created concurrently, retrying",
+          generation,
+          objectName
+        );
+      }
+    }
+  }
+
+  private static void linkOrCopy(Path blobPath, Path versionPath)
+    throws IOException {
+    try {
+      Files.createLink(versionPath, blobPath);
+    } catch (FileAlreadyExistsException e) {
+      throw e;
+    } catch (UnsupportedOperationException | FileSystemException e) {
+      Files.copy(blobPath, versionPath);
+    }
+  }
+
+  /**
+   * Delete the generations older than the last {@link #maxVersions} ones. The latest generation is always kept, so
+   * that generation numbers are never reused.
+   */
+  private void pruneVersions(Path versionFolder, long latestGeneration)
+    throws IOException {
+    long oldestKept = latestGeneration - maxVersions + 1;
+    if (oldestKept <= 1) {
+      return;
+    }
+    try (Stream<Path> versions = Files.list(versionFolder)) {
+      for (Path version : versions.toList()) {
+        if (Long.parseLong(version.getFileName().toString()) < oldestKept) {
+          Files.deleteIfExists(version);
+        }
+      }
+    }
+  }
+
+  private static long lastGeneration(Path versionFolder) throws IOException {
+    try (Stream<Path> versions = Files.list(versionFolder)) {
+      return versions
+        .map(path -> path.getFileName().toString())
+        .mapToLong(Long::parseLong)
+        .max()
+        .orElse(0);
+    }
+  }
+
   @Override
   public void copyAllBlobs(
     String sourceContainerName,
@@ -189,6 +482,7 @@ public class LocalDiskBlobStoreRepository implements BlobStoreRepository {
     }
     try {
       Files.delete(path);
+      Files.deleteIfExists(getChecksumFile(containerName, objectName));
       return true;
     } catch (IOException e) {
       throw new BlobStoreException(e);
@@ -205,6 +499,16 @@ public class LocalDiskBlobStoreRepository implements BlobStoreRepository {
           .forEach(path -> {
             try {
               Files.delete(path);
+              Files.deleteIfExists(
+                getChecksumFile(
+                  containerName,
+                  Paths
+                    .get(getContainerFolder())
+                    .relativize(path)
+                    .toString()
+                    .replace(File.separatorChar, '/')
+                )
+              );
             } catch (IOException e) {
               throw new BlobStoreException(e);
             }
@@ -0,0 +1,425 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.rutebanken.helper.storage.BlobStoreException;
+import org.rutebanken.helper.storage.buffer.UploadBuffer;
+import org.rutebanken.helper.storage.buffer.UploadBufferPool;
+import org.rutebanken.helper.storage.model.BlobDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Blob store repository composed of a fast hot tier (typically {@link LocalDiskBlobStoreRepository}) in front of a
+ * remote cold tier (typically GCS or S3) that remains the source of truth.
+ * <ul>
+ *   <li>Reads are served from the hot tier when the blob is present there, and the blob is promoted from the cold
+ *   tier on miss.</li>
+ *   <li>Writes go to the cold tier and then to the hot tier. For asynchronous uploads to the remote store, use a
+ *   {@link WriteBehindBlobStoreRepository} as the cold tier: writes are then acknowledged once journaled on local
+ *   disk, and pending writes survive a restart and are retried until they are uploaded.</li>
+ *   <li>Blobs are evicted from the hot tier, least recently used first, when the hot tier exceeds its maximum size,
+ *   and are reloaded from the cold tier when they are older than the maximum age.</li>
+ * </ul>
+ * Only blobs written or promoted by this repository are served from the hot tier. Versioned reads, metadata lookups,
+ * listings and copies are served by the cold tier.
+ * The repository is intended to be used with a single container: changing the container evicts the hot tier. The hot
+ * tier of the new container is cleared, since the blobs left there by a previous run are not tracked and may be
+ * outdated.
+ * A blob read from the cold tier is not promoted if it was written, deleted or overwritten by a copy through this
+ * repository while it was read, so that an outdated read does not replace the new content in the hot tier.
+ */
+public class TieredBlobStoreRepository extends DelegatingBlobStoreRepository {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(
+    TieredBlobStoreRepository.class
+  );
+
+  private static final int WRITE_LOCK_STRIPES = 64;
+
+  /**
+   * @param sequence the value of the write sequence when the blob was stored in the hot tier.
+   */
+  private record HotEntry(long size, Instant storedAt, long sequence) {}
+
+  private final BlobStoreRepository hotTier;
+  private final long maxHotSize;
+  private final Duration maxAge;
+  private final UploadBufferPool uploadBufferPool;
+
+  /**
+   * Blobs present in the hot tier, in access order.
+   */
+  private final LinkedHashMap<String, HotEntry> hotEntries =
+    new LinkedHashMap<>(16, 0.75f, true);
+
+  private long hotSize;
+
+  /**
+   * Incremented when a blob is stored in or evicted from the hot tier by a write, so that a promotion can detect the
+   * writes that happened during its cold read. Guarded by this.
+   */
+  private long writeSequence;
+
+  /**
+   * The value of the write sequence at the last eviction caused by a delete or a copy. Guarded by this.
+   */
+  private long invalidatedSequence;
+
+  /**
+   * Serialize the writes to the hot tier of the blobs with the same name, striped by name.
+   */
+  private final Object[] writeLocks = new Object[WRITE_LOCK_STRIPES];
+
+  /**
+   * @param hotTier    the fast local tier.
+   * @param coldTier   the remote tier, source of truth.
+   * @param maxHotSize the maximum total size in bytes of the blobs in the hot tier.
+   * @param maxAge     the maximum time a blob is served from the hot tier before being reloaded from the cold tier.
+   */
+  public TieredBlobStoreRepository(
+    BlobStoreRepository hotTier,
+    BlobStoreRepository coldTier,
+    long maxHotSize,
+    Duration maxAge
+  ) {
+    super(coldTier);
+    this.hotTier = hotTier;
+    this.maxHotSize = maxHotSize;
+    this.maxAge = maxAge;
+    this.uploadBufferPool = UploadBufferPool.shared();
+    for (int i = 0; i < writeLocks.length; i++) {
+      writeLocks[i] = new Object();
+    }
+  }
+
+  @Override
+  public boolean exist(String objectName) {
+    return isHot(objectName) || super.exist(objectName);
+  }
+
+  @Override
+  public InputStream getBlob(String objectName) {
+    if (isHot(objectName)) {
+      InputStream hotContent = hotTier.getBlob(objectName);
+      if (hotContent != null) {
+        return hotContent;
+      }
+      // removed from the hot tier behind our back
+      untrack(objectName);
+    }
+    long readStart = writeSequence();
+    InputStream coldContent = super.getBlob(objectName);
+    if (coldContent == null) {
+      return null;
+    }
+    try (
+      coldContent;
+      UploadBuffer buffer = uploadBufferPool.buffer(coldContent)
+    ) {
+      synchronized (writeLock(objectName)) {
+        if (writtenSince(objectName, readStart)) {
+          LOGGER.debug(
+            "Blob {} was written while it was read, not promoting it",
+            objectName
+          );
+          return super.getBlob(objectName);
+        }
+        LOGGER.debug("Promoting blob {} to the hot tier", objectName);
+        hotTier.uploadBlob(objectName, buffer.newInputStream());
+        track(objectName, buffer.length());
+        return hotTier.getBlob(objectName);
+      }
+    } catch (IOException e) {
+      throw new BlobStoreException(e);
+    } finally {
+      evict();
+    }
+  }
+
+  @Override
+  public long uploadBlob(BlobDescriptor blobDescriptor) {
+    try (
+      UploadBuffer buffer = uploadBufferPool.buffer(
+        blobDescriptor.inputStream()
+      )
+    ) {
+      BlobDescriptor hotDescriptor = new BlobDescriptor(
+        blobDescriptor.name(),
+        buffer.newInputStream(),
+        blobDescriptor.contentType(),
+        blobDescriptor.metadata()
+      );
+      long generation = super.uploadBlob(
+        new BlobDescriptor(
+          blobDescriptor.name(),
+          buffer.newInputStream(),
+          blobDescriptor.contentType(),
+          blobDescriptor.metadata()
+        )
+      );
+      synchronized (writeLock(blobDescriptor.name())) {
+        hotTier.uploadBlob(hotDescriptor);
+        track(blobDescriptor.name(), buffer.length());
+      }
+      return generation;
+    } finally {
+      evict();
+    }
+  }
+
+  @Override
+  public long uploadBlob(String objectName, InputStream inputStream) {
+    return uploadBlob(new BlobDescriptor(objectName, inputStream));
+  }
+
+  @Override
+  public long uploadBlob(
+    String objectName,
+    InputStream inputStream,
+    String contentType
+  ) {
+    return uploadBlob(
+      new BlobDescriptor(
+        objectName,
+        inputStream,
+        Optional.of(contentType),
+        Optional.empty()
+      )
+    );
+  }
+
+  /**
+   * The existence check must be performed by the source of truth, new blobs are therefore always written through.
+   */
+  @Override
+  public long uploadNewBlob(String objectName, InputStream inputStream) {
+    try (UploadBuffer buffer = uploadBufferPool.buffer(inputStream)) {
+      long generation = super.uploadNewBlob(
+        objectName,
+        buffer.newInputStream()
+      );
+      synchronized (writeLock(objectName)) {
+        hotTier.uploadBlob(objectName, buffer.newInputStream());
+        track(objectName, buffer.length());
+      }
+      return generation;
+    } finally {
+      evict();
+    }
+  }
+
+  @Override
+  public void copyBlob(
+    String sourceContainerName,
+    String sourceObjectName,
+    String targetContainerName,
+    String targetObjectName
+  ) {
+    super.copyBlob(
+      sourceContainerName,
+      sourceObjectName,
+      targetContainerName,
+      targetObjectName
+    );
+    evict(targetObjectName);
+  }
+
+  @Override
+  public void copyVersionedBlob(
+    String sourceContainerName,
+    String sourceObjectName,
+    Long sourceVersion,
+    String targetContainerName,
+    String targetObjectName
+  ) {
+    super.copyVersionedBlob(
+      sourceContainerName,
+      sourceObjectName,
+      sourceVersion,
+      targetContainerName,
+      targetObjectName
+    );
+    evict(targetObjectName);
+  }
+
+  @Override
+  public void copyAllBlobs(
+    String sourceContainerName,
+    String prefix,
+    String targetContainerName,
+    String targetPrefix
+  ) {
+    super.copyAllBlobs(
+      sourceContainerName,
+      prefix,
+      targetContainerName,
+      targetPrefix
+    );
+    evictAll(targetPrefix);
+  }
+
+  @Override
+  public boolean delete(String objectName) {
+    evict(objectName);
+    return super.delete(objectName);
+  }
+
+  @Override
+  public boolean deleteAllFilesInFolder(String folder) {
+    evictAll(folder);
+    return super.deleteAllFilesInFolder(folder);
+  }
+
+  @Override
+  public void setContainerName(String containerName) {
+    evictAll("");
+    hotTier.setContainerName(containerName);
+    super.setContainerName(containerName);
+    hotTier.listBlobNames("").forEach(this::evict);
+  }
+
+  /**
+   * Return the total size in bytes of the blobs in the hot tier.
+   */
+  public synchronized long hotSize() {
+    return hotSize;
+  }
+
+  private boolean isHot(String objectName) {
+    if (isExpired(objectName)) {
+      synchronized (writeLock(objectName)) {
+        if (isExpired(objectName)) {
+          untrack(objectName);
+          hotTier.delete(objectName);
+        }
+      }
+      return false;
+    }
+    return isTracked(objectName);
+  }
+
+  private synchronized boolean isTracked(String objectName) {
+    return hotEntries.containsKey(objectName);
+  }
+
+  private synchronized boolean isExpired(String objectName) {
+    HotEntry hotEntry = hotEntries.get(objectName);
+    return (
+      hotEntry != null &&
+      hotEntry.storedAt().plus(maxAge).isBefore(Instant.now())
+    );
+  }
+
+  private synchronized long writeSequence() {
+    return writeSequence;
+  }
+
+  /**
+   * Return whether the blob was stored in the hot tier, or evicted by a delete or a copy, after the given value of
+   * the write sequence.
+   */
+  private synchronized boolean writtenSince(String objectName, long sequence) {
+    HotEntry hotEntry = hotEntries.get(objectName);
+    return (
+      invalidatedSequence > sequence ||
+      (hotEntry != null && hotEntry.sequence() > sequence)
+    );
+  }
+
+  private synchronized void track(String objectName, long size) {
+    writeSequence++;
+    HotEntry previous = hotEntries.put(
+      objectName,
+      new HotEntry(size, Instant.now(), writeSequence)
+    );
+    hotSize += size - (previous == null ? 0 : previous.size());
+  }
+
+  private synchronized void untrack(String objectName) {
+    HotEntry hotEntry = hotEntries.remove(objectName);
+    if (hotEntry != null) {
+      hotSize -= hotEntry.size();
+    }
+  }
+
+  private synchronized void invalidate(String objectName) {
+    untrack(objectName);
+    writeSequence++;
+    invalidatedSequence = writeSequence;
+  }
+
+  /**
+   * Evict least recently used blobs until the hot tier fits in its maximum size. The blobs are untracked under the
+   * lock and deleted from the hot tier outside of it, unless they were stored again in the meantime.
+   */
+  private void evict() {
+    for (String victim : evictionVictims()) {
+      synchronized (writeLock(victim)) {
+        if (!isTracked(victim)) {
+          hotTier.delete(victim);
+        }
+      }
+    }
+  }
+
+  private synchronized List<String> evictionVictims() {
+    List<String> victims = new ArrayList<>();
+    Iterator<Map.Entry<String, HotEntry>> iterator = hotEntries
+      .entrySet()
+      .iterator();
+    while (hotSize > maxHotSize && iterator.hasNext()) {
+      Map.Entry<String, HotEntry> entry = iterator.next();
+      iterator.remove();
+      hotSize -= entry.getValue().size();
+      victims.add(entry.getKey());
+    }
+    return victims;
+  }
+
+  private void evict(String objectName) {
+    synchronized (writeLock(objectName)) {
+      invalidate(objectName);
+      hotTier.delete(objectName);
+    }
+  }
+
+  private void evictAll(String prefix) {
+    trackedBlobNames(prefix).forEach(this::evict);
+  }
+
+  private synchronized List<String> trackedBlobNames(String prefix) {
+    return hotEntries
+      .keySet()
+      .stream()
+      .filter(blobName -> blobName.startsWith(prefix))
+      .toList();
+  }
+
+  private Object writeLock(String objectName) {
+    return writeLocks[Math.floorMod(objectName.hashCode(), writeLocks.length)];
+  }
+}
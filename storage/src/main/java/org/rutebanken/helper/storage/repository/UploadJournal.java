@@ -0,0 +1,554 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import org.rutebanken.helper.storage.BlobStoreException;
+import org.rutebanken.helper.storage.buffer.UploadBuffer;
+import org.rutebanken.helper.storage.buffer.UploadBufferPool;
+import org.rutebanken.helper.storage.model.BlobDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the writes waiting to be uploaded by {@link WriteBehindBlobStoreRepository}.
+ * <p>
+ * The journal is a sequence of segment files. Each record holds a write (blob name, content type, metadata and
+ * content), a deletion or a prefix deletion, followed by a CRC32C of the record. Records are appended to the last
+ * segment, and a new segment is started when it exceeds the maximum segment size. A segment is deleted when it is no
+ * longer the last one and neither it nor an older segment holds a pending write, so that deletions are never lost
+ * while an older write of the same blob is still on disk.
+ * <p>
+ * On opening, the segments are replayed: the last write of each blob that is not followed by a deletion is pending
+ * again. A record truncated by a crash is detected by its checksum and discarded along with the rest of its segment.
+ */
+final class UploadJournal implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(
+    UploadJournal.class
+  );
+
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+  private static final byte DELETE_PREFIX = 3;
+
+  private static final String SEGMENT_SUFFIX = ".journal";
+
+  /**
+   * A write waiting to be uploaded, and the location of its content in the journal.
+   */
+  record Entry(
+    String name,
+    Optional<String> contentType,
+    Optional<Map<String, String>> metadata,
+    long sequence,
+    long segment,
+    long contentOffset,
+    long contentLength
+  ) {}
+
+  private final Path directory;
+  private final long maxSegmentSize;
+  private final UploadBufferPool uploadBufferPool;
+
+  /**
+   * Pending writes, in write order.
+   */
+  private final LinkedHashMap<String, Entry> pendingEntries =
+    new LinkedHashMap<>();
+
+  /**
+   * Number of pending writes in each live segment.
+   */
+  private final TreeMap<Long, Integer> segmentReferences = new TreeMap<>();
+
+  private long sequence;
+  private long activeSegment;
+  private FileChannel activeChannel;
+
+  UploadJournal(
+    Path directory,
+    long maxSegmentSize,
+    UploadBufferPool uploadBufferPool
+  ) {
+    this.directory = directory;
+    this.maxSegmentSize = maxSegmentSize;
+    this.uploadBufferPool = uploadBufferPool;
+    try {
+      Files.createDirectories(directory);
+      replay();
+      openSegment(activeSegment + 1);
+      releaseSegments();
+    } catch (IOException e) {
+      throw new BlobStoreException(e);
+    }
+  }
+
+  /**
+   * Append a write to the journal. The content is buffered before the journal is locked, so that a slow input stream
+   * does not hold back the other writers and readers.
+   */
+  void put(BlobDescriptor blobDescriptor) {
+    try (
+      UploadBuffer buffer = uploadBufferPool.buffer(
+        blobDescriptor.inputStream()
+      )
+    ) {
+      append(blobDescriptor, buffer);
+    } catch (IOException e) {
+      throw new BlobStoreException(e);
+    }
+  }
+
+  private synchronized void append(
+    BlobDescriptor blobDescriptor,
+    UploadBuffer buffer
+  ) throws IOException {
+    Entry entry = new Entry(
+      blobDescriptor.name(),
+      blobDescriptor.contentType(),
+      blobDescriptor.metadata(),
+      ++sequence,
+      activeSegment,
+      0,
+      buffer.length()
+    );
+    byte[] header = header(PUT, entry);
+    entry =
+      new Entry(
+        entry.name(),
+        entry.contentType(),
+        entry.metadata(),
+        entry.sequence(),
+        entry.segment(),
+        activeChannel.size() + header.length,
+        entry.contentLength()
+      );
+    try (InputStream content = buffer.newInputStream()) {
+      append(header, content);
+    }
+    addPending(entry);
+    rollOver();
+  }
+
+  /**
+   * Append the deletion of a blob to the journal.
+   *
+   * @return true if a write of the blob was pending.
+   */
+  synchronized boolean delete(String name) {
+    appendDeletion(DELETE, name);
+    return removePending(name);
+  }
+
+  /**
+   * Append the deletion of all blobs starting with a prefix to the journal.
+   *
+   * @return true if a write of a blob starting with the prefix was pending.
+   */
+  synchronized boolean deletePrefix(String prefix) {
+    appendDeletion(DELETE_PREFIX, prefix);
+    return removePendingPrefix(prefix);
+  }
+
+  synchronized Entry pending(String name) {
+    return pendingEntries.get(name);
+  }
+
+  /**
+   * Return the oldest pending writes.
+   */
+  synchronized List<Entry> oldestPending(int maxCount) {
+    return pendingEntries.values().stream().limit(maxCount).toList();
+  }
+
+  synchronized List<String> pendingNames() {
+    return List.copyOf(pendingEntries.keySet());
+  }
+
+  synchronized int pendingCount() {
+    return pendingEntries.size();
+  }
+
+  /**
+   * Read the content of the pending write of a blob.
+   *
+   * @return the content, or null if no write of the blob is pending.
+   */
+  synchronized PendingContent read(String name) {
+    Entry entry = pendingEntries.get(name);
+    if (entry == null) {
+      return null;
+    }
+    try (
+      FileChannel channel = FileChannel.open(
+        segmentPath(entry.segment()),
+        StandardOpenOption.READ
+      )
+    ) {
+      ByteBuffer content = ByteBuffer.allocate(
+        Math.toIntExact(entry.contentLength())
+      );
+      while (content.hasRemaining()) {
+        if (
+          channel.read(content, entry.contentOffset() + content.position()) < 0
+        ) {
+          throw new EOFException("Truncated journal record for " + name);
+        }
+      }
+      return new PendingContent(entry, content.array());
+    } catch (IOException e) {
+      throw new BlobStoreException(e);
+    }
+  }
+
+  /**
+   * Mark a write as uploaded, unless it was superseded or deleted in the meantime.
+   *
+   * @return true if the write was still pending.
+   */
+  synchronized boolean uploaded(Entry entry) {
+    if (!pendingEntries.remove(entry.name(), entry)) {
+      return false;
+    }
+    release(entry);
+    return true;
+  }
+
+  /**
+   * Force the journal to the storage device.
+   */
+  synchronized void sync() {
+    try {
+      activeChannel.force(false);
+    } catch (IOException e) {
+      throw new BlobStoreException(e);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    activeChannel.force(false);
+    activeChannel.close();
+  }
+
+  /**
+   * The content of a pending write.
+   */
+  record PendingContent(Entry entry, byte[] content) {}
+
+  private void appendDeletion(byte type, String name) {
+    try {
+      append(
+        header(
+          type,
+          new Entry(
+            name,
+            Optional.empty(),
+            Optional.empty(),
+            ++sequence,
+            0,
+            0,
+            0
+          )
+        ),
+        InputStream.nullInputStream()
+      );
+      rollOver();
+    } catch (IOException e) {
+      throw new BlobStoreException(e);
+    }
+  }
+
+  /**
+   * Append a record to the active segment. If the append fails, the partial record is truncated away, or the journal
+   * rolls over to a new segment if it cannot be, so that the records appended later are not discarded with the torn
+   * record on replay.
+   */
+  private void append(byte[] header, InputStream content) throws IOException {
+    long recordStart = activeChannel.size();
+    try {
+      CRC32C crc32c = new CRC32C();
+      OutputStream outputStream = new BufferedOutputStream(
+        Channels.newOutputStream(activeChannel)
+      );
+      CheckedOutputStream checkedOutputStream = new CheckedOutputStream(
+        outputStream,
+        crc32c
+      );
+      checkedOutputStream.write(header);
+      content.transferTo(checkedOutputStream);
+      DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+      dataOutputStream.writeInt((int) crc32c.getValue());
+      dataOutputStream.flush();
+    } catch (IOException e) {
+      try {
+        activeChannel.truncate(recordStart);
+      } catch (IOException truncateException) {
+        e.addSuppressed(truncateException);
+        activeChannel.close();
+        openSegment(activeSegment + 1);
+      }
+      throw e;
+    }
+  }
+
+  private static byte[] header(byte type, Entry entry) throws IOException {
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(header);
+    out.writeByte(type);
+    out.writeLong(entry.sequence());
+    out.writeUTF(entry.name());
+    if (type == PUT) {
+      out.writeBoolean(entry.contentType().isPresent());
+      if (entry.contentType().isPresent()) {
+        out.writeUTF(entry.contentType().get());
+      }
+      Map<String, String> metadata = entry.metadata().orElse(Map.of());
+      out.writeBoolean(entry.metadata().isPresent());
+      out.writeInt(metadata.size());
+      for (Map.Entry<String, String> metadataEntry : metadata.entrySet()) {
+        out.writeUTF(metadataEntry.getKey());
+        out.writeUTF(metadataEntry.getValue());
+      }
+      out.writeLong(entry.contentLength());
+    }
+    return header.toByteArray();
+  }
+
+  private void replay() throws IOException {
+    List<Long> segments;
+    try (Stream<Path> files = Files.list(directory)) {
+      segments =
+        files
+          .map(path -> path.getFileName().toString())
+          .filter(fileName -> fileName.endsWith(SEGMENT_SUFFIX))
+          .map(fileName ->
+            Long.parseLong(
+              fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length())
+            )
+          )
+          .sorted(Comparator.naturalOrder())
+          .toList();
+    }
+    for (long segment : segments) {
+      activeSegment = segment;
+      segmentReferences.put(segment, 0);
+      replaySegment(segment);
+    }
+    if (!pendingEntries.isEmpty()) {
+      LOGGER.info(
+        "Replayed {} pending writes from journal {}",
+        pendingEntries.size(),
+        directory
+      );
+    }
+  }
+
+  private void replaySegment(long segment) throws IOException {
+    Path path = segmentPath(segment);
+    long offset = 0;
+    try (InputStream inputStream = Files.newInputStream(path)) {
+      CRC32C crc32c = new CRC32C();
+      DataInputStream in = new DataInputStream(
+        new CheckedInputStream(new BufferedInputStream(inputStream), crc32c)
+      );
+      while (true) {
+        crc32c.reset();
+        byte type;
+        try {
+          type = in.readByte();
+        } catch (EOFException e) {
+          return;
+        }
+        long recordSequence = in.readLong();
+        String name = in.readUTF();
+        Entry entry = new Entry(
+          name,
+          Optional.empty(),
+          Optional.empty(),
+          recordSequence,
+          segment,
+          0,
+          0
+        );
+        if (type == PUT) {
+          Optional<String> contentType = in.readBoolean()
+            ? Optional.of(in.readUTF())
+            : Optional.empty();
+          boolean hasMetadata = in.readBoolean();
+          int metadataSize = in.readInt();
+          Map<String, String> metadata = new HashMap<>();
+          for (int i = 0; i < metadataSize; i++) {
+            metadata.put(in.readUTF(), in.readUTF());
+          }
+          long contentLength = in.readLong();
+          entry =
+            new Entry(
+              name,
+              contentType,
+              hasMetadata ? Optional.of(metadata) : Optional.empty(),
+              recordSequence,
+              segment,
+              0,
+              contentLength
+            );
+          in.skipNBytes(contentLength);
+        } else if (type != DELETE && type != DELETE_PREFIX) {
+          throw new IOException("Unknown journal record type " + type);
+        }
+        int expectedChecksum = (int) crc32c.getValue();
+        if (in.readInt() != expectedChecksum) {
+          throw new IOException("Journal record checksum mismatch");
+        }
+        long headerLength = header(type, entry).length;
+        if (type == PUT) {
+          addPending(
+            new Entry(
+              entry.name(),
+              entry.contentType(),
+              entry.metadata(),
+              recordSequence,
+              segment,
+              offset + headerLength,
+              entry.contentLength()
+            )
+          );
+        } else if (type == DELETE) {
+          removePending(name);
+        } else {
+          removePendingPrefix(name);
+        }
+        sequence = Math.max(sequence, recordSequence);
+        offset += headerLength + entry.contentLength() + Integer.BYTES;
+      }
+    } catch (IOException e) {
+      LOGGER.warn(
+        "Discarding incomplete journal record at offset {} of {}",
+        offset,
+        path,
+        e
+      );
+      try (
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)
+      ) {
+        channel.truncate(offset);
+      }
+    }
+  }
+
+  private void addPending(Entry entry) {
+    Entry previous = pendingEntries.remove(entry.name());
+    pendingEntries.put(entry.name(), entry);
+    segmentReferences.merge(entry.segment(), 1, Integer::sum);
+    if (previous != null) {
+      release(previous);
+    }
+  }
+
+  private boolean removePending(String name) {
+    Entry previous = pendingEntries.remove(name);
+    if (previous == null) {
+      return false;
+    }
+    release(previous);
+    return true;
+  }
+
+  private boolean removePendingPrefix(String prefix) {
+    List<String> names = pendingEntries
+      .keySet()
+      .stream()
+      .filter(name -> name.startsWith(prefix))
+      .toList();
+    names.forEach(this::removePending);
+    return !names.isEmpty();
+  }
+
+  private void release(Entry entry) {
+    segmentReferences.merge(entry.segment(), -1, Integer::sum);
+    releaseSegments();
+  }
+
+  /**
+   * Delete the oldest segments that hold no pending write, stopping at the first segment that does.
+   */
+  private void releaseSegments() {
+    while (
+      !segmentReferences.isEmpty() &&
+      segmentReferences.firstKey() != activeSegment &&
+      segmentReferences.firstEntry().getValue() == 0
+    ) {
+      long segment = segmentReferences.pollFirstEntry().getKey();
+      try {
+        Files.deleteIfExists(segmentPath(segment));
+      } catch (IOException e) {
+        throw new BlobStoreException(e);
+      }
+    }
+  }
+
+  private void rollOver() throws IOException {
+    if (activeChannel.size() >= maxSegmentSize) {
+      activeChannel.force(false);
+      activeChannel.close();
+      openSegment(activeSegment + 1);
+      releaseSegments();
+    }
+  }
+
+  private void openSegment(long segment) throws IOException {
+    activeSegment = segment;
+    segmentReferences.putIfAbsent(segment, 0);
+    activeChannel =
+      FileChannel.open(
+        segmentPath(segment),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND
+      );
+  }
+
+  private Path segmentPath(long segment) {
+    return directory.resolve(String.format("%020d", segment) + SEGMENT_SUFFIX);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+
+package org.rutebanken.helper.storage.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.rutebanken.helper.storage.BlobStoreException;
+import org.rutebanken.helper.storage.cache.VersionedBlobCache;
+
+/**
+ * Blob store repository decorator that caches versioned reads ({@link #getBlob(String, long)}) in a
+ * {@link VersionedBlobCache}.
+ * Reads of the latest version and all write operations are delegated as-is to the underlying repository.
+ * <p>
+ * Entries are keyed by a namespace identifying the storage backend, the container name and the blob name and
+ * generation. Since the cache may be shared by repositories over different backends, the namespace is chosen by the
+ * caller, and the container name must be set on this repository rather than on the underlying repository.
+ */
+public class VersionedBlobCachingRepository
+  extends DelegatingBlobStoreRepository {
+
+  private final VersionedBlobCache cache;
+  private final String namespace;
+
+  private String containerName;
+
+  /**
+   * Cache versioned reads in the process-wide cache.
+   *
+   * @param delegate  the underlying repository.
+   * @param namespace identifies the storage backend in the cache.
+   */
+  public VersionedBlobCachingRepository(
+    BlobStoreRepository delegate,
+    String namespace
+  ) {
+    this(delegate, VersionedBlobCache.shared(), namespace);
+  }
+
+  /**
+   * @param delegate  the underlying repository.
+   * @param cache     the cache storing the blob content.
+   * @param namespace identifies the storage backend in the cache, for instance the GCS project or the base folder of a
+   *                  local disk repository. Repositories over different backends must use different namespaces.
+   */
+  public VersionedBlobCachingRepository(
+    BlobStoreRepository delegate,
+    VersionedBlobCache cache,
+    String namespace
+  ) {
+    super(delegate);
+    if (namespace == null || namespace.isBlank()) {
+      throw new IllegalArgumentException("namespace must not be blank");
+    }
+    this.cache = cache;
+    this.namespace = namespace;
+  }
+
+  @Override
+  public InputStream getBlob(String objectName, long generation) {
+    byte[] content = cache.get(
+      namespace,
+      containerName,
+      objectName,
+      generation,
+      () -> readAllBytes(delegate().getBlob(objectName, generation))
+    );
+    return (content == null) ? null : new ByteArrayInputStream(content);
+  }
+
+  private static byte[] readAllBytes(InputStream inputStream) {
+    if (inputStream == null) {
+      return null;
+    }
+    try (inputStream) {
+      return inputStream.readAllBytes();
+    } catch (IOException e) {
+      throw new BlobStoreException(e);
+    }
+  }
+
+  @Override
+  public void setContainerName(String containerName) {
+    this.containerName = containerName;
+    super.setContainerName(containerName);
+  }
+}
@@ -0,0 +1,460 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ */
+package org.rutebanken.helper.storage.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.rutebanken.helper.storage.BlobStoreException;
+import org.rutebanken.helper.storage.buffer.UploadBufferPool;
+import org.rutebanken.helper.storage.execution.BlobStoreExecutor;
+import org.rutebanken.helper.storage.model.BlobDescriptor;
+import org.rutebanken.helper.storage.model.BlobMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Blob store repository acknowledging writes as soon as they are appended to a local journal, and uploading them to
+ * the remote repository in the background.
+ * <ul>
+ *   <li>Uploads are appended to an append-only journal on local disk and acknowledged. The journal is forced to the
+ *   storage device before each drain, so that acknowledged writes survive a process crash immediately and a power
+ *   loss after at most one drain interval.</li>
+ *   <li>A background task drains the journal every drain interval, uploading the oldest pending writes in batches of
+ *   concurrent uploads. Repeated writes to the same blob before the drain are coalesced into a single upload of the
+ *   last content. Failed uploads are logged and retried by the next drain.</li>
+ *   <li>Pending writes are replayed from the journal after a restart. Writes uploaded just before a crash may be
+ *   uploaded again.</li>
+ *   <li>Reads of blobs with a pending write are served from the journal. Versioned reads, copies and new blobs
+ *   (whose existence check must be performed by the remote repository) are served by the remote repository, after
+ *   flushing the pending writes where needed.</li>
+ * </ul>
+ * Upload methods return generation 0 since the remote generation is not known when the write is acknowledged.
+ * The journal of each container is kept in its own subdirectory. Changing the container flushes the pending writes of
+ * the previous container and replays the journal of the new one.
+ */
+public class WriteBehindBlobStoreRepository
+  extends DelegatingBlobStoreRepository
+  implements AutoCloseable {
+
+  public static final Duration DEFAULT_DRAIN_INTERVAL = Duration.ofSeconds(1);
+  public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+  public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+  public static final int DEFAULT_UPLOAD_THREADS = 8;
+
+  private static final long UNKNOWN_GENERATION = 0;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(
+    WriteBehindBlobStoreRepository.class
+  );
+
+  private final Path journalDirectory;
+  private final int maxBatchSize;
+  private final long maxSegmentSize;
+  private final Executor uploadExecutor;
+  private final ScheduledExecutorService drainScheduler;
+  private final UploadBufferPool uploadBufferPool;
+
+  /**
+   * Serializes the drains, and the drains with container changes.
+   */
+  private final Object drainLock = new Object();
+
+  private volatile UploadJournal journal;
+
+  /**
+   * Uploads are run on this pool when no executor is given. It is shut down on close.
+   */
+  private final BlobStoreExecutor ownedUploadExecutor;
+
+  /**
+   * Create a write-behind repository with default drain settings, uploading on a pool of
+   * {@link #DEFAULT_UPLOAD_THREADS} threads.
+   *
+   * @param remote           the remote repository.
+   * @param journalDirectory the directory of the local journal.
+   */
+  public WriteBehindBlobStoreRepository(
+    BlobStoreRepository remote,
+    Path journalDirectory
+  ) {
+    this(
+      remote,
+      journalDirectory,
+      DEFAULT_DRAIN_INTERVAL,
+      DEFAULT_MAX_BATCH_SIZE,
+      DEFAULT_MAX_SEGMENT_SIZE,
+      null
+    );
+  }
+
+  /**
+   * @param remote           the remote repository.
+   * @param journalDirectory the directory of the local journal.
+   * @param drainInterval    the delay between two drains of the journal.
+   * @param maxBatchSize     the maximum number of blobs uploaded concurrently by a drain.
+   * @param maxSegmentSize   the size in bytes above which a new journal segment is started. Segments are deleted once
+   *                         all their writes are uploaded.
+   * @param uploadExecutor   the executor running the uploads to the remote repository, for example a
+   *                         {@link BlobStoreExecutor}, or null to use a pool of {@link #DEFAULT_UPLOAD_THREADS} threads
+   *                         owned by the repository.
+   */
+  public WriteBehindBlobStoreRepository(
+    BlobStoreRepository remote,
+    Path journalDirectory,
+    Duration drainInterval,
+    int maxBatchSize,
+    long maxSegmentSize,
+    Executor uploadExecutor
+  ) {
+    super(remote);
+    this.journalDirectory = journalDirectory;
+    this.maxBatchSize = maxBatchSize;
+    this.maxSegmentSize = maxSegmentSize;
+    this.ownedUploadExecutor =
+      uploadExecutor == null
+        ? BlobStoreExecutor.platformThreads(
+          "blob-write-behind-upload",
+          DEFAULT_UPLOAD_THREADS
+        )
+        : null;
+    this.uploadExecutor =
+      uploadExecutor == null ? ownedUploadExecutor : uploadExecutor;
+    this.uploadBufferPool = UploadBufferPool.shared();
+    this.drainScheduler =
+      Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "blob-write-behind");
+        thread.setDaemon(true);
+        return thread;
+      });
+    this.drainScheduler.scheduleWithFixedDelay(
+      this::drainQuietly,
+      drainInterval.toMillis(),
+      drainInterval.toMillis(),
+      TimeUnit.MILLISECONDS
+    );
+  }
+
+  @Override
+  public boolean exist(String objectName) {
+    return journal().pending(objectName) != null || super.exist(objectName);
+  }
+
+  @Override
+  public InputStream getBlob(String objectName) {
+    UploadJournal.PendingContent pendingContent = journal().read(objectName);
+    if (pendingContent != null) {
+      return new ByteArrayInputStream(pendingContent.content());
+    }
+    return super.getBlob(objectName);
+  }
+
+  @Override
+  public BlobMetadata stat(String objectName) {
+    UploadJournal.Entry entry = journal().pending(objectName);
+    if (entry != null) {
+      return new BlobMetadata(
+        objectName,
+        entry.contentLength(),
+        BlobMetadata.UNKNOWN_GENERATION,
+        entry.contentType(),
+        entry.metadata().orElse(Map.of()),
+        Optional.empty()
+      );
+    }
+    return super.stat(objectName);
+  }
+
+  @Override
+  public long uploadBlob(BlobDescriptor blobDescriptor) {
+    journal().put(blobDescriptor);
+    return UNKNOWN_GENERATION;
+  }
+
+  @Override
+  public long uploadBlob(String objectName, InputStream inputStream) {
+    return uploadBlob(new BlobDescriptor(objectName, inputStream));
+  }
+
+  @Override
+  public long uploadBlob(
+    String objectName,
+    InputStream inputStream,
+    String contentType
+  ) {
+    return uploadBlob(
+      new BlobDescriptor(
+        objectName,
+        inputStream,
+        Optional.of(contentType),
+        Optional.empty()
+      )
+    );
+  }
+
+  /**
+   * The existence check must be performed by the remote repository, new blobs are therefore uploaded synchronously.
+   */
+  @Override
+  public long uploadNewBlob(String objectName, InputStream inputStream) {
+    flush();
+    return super.uploadNewBlob(objectName, inputStream);
+  }
+
+  @Override
+  public void copyBlob(
+    String sourceContainerName,
+    String sourceObjectName,
+    String targetContainerName,
+    String targetObjectName
+  ) {
+    flush();
+    super.copyBlob(
+      sourceContainerName,
+      sourceObjectName,
+      targetContainerName,
+      targetObjectName
+    );
+  }
+
+  @Override
+  public void copyVersionedBlob(
+    String sourceContainerName,
+    String sourceObjectName,
+    Long sourceVersion,
+    String targetContainerName,
+    String targetObjectName
+  ) {
+    flush();
+    super.copyVersionedBlob(
+      sourceContainerName,
+      sourceObjectName,
+      sourceVersion,
+      targetContainerName,
+      targetObjectName
+    );
+  }
+
+  @Override
+  public void copyAllBlobs(
+    String sourceContainerName,
+    String prefix,
+    String targetContainerName,
+    String targetPrefix
+  ) {
+    flush();
+    super.copyAllBlobs(
+      sourceContainerName,
+      prefix,
+      targetContainerName,
+      targetPrefix
+    );
+  }
+
+  @Override
+  public List<String> listBlobNames(String prefix) {
+    TreeSet<String> blobNames = new TreeSet<>(super.listBlobNames(prefix));
+    journal()
+      .pendingNames()
+      .stream()
+      .filter(blobName -> blobName.startsWith(prefix))
+      .forEach(blobNames::add);
+    return List.copyOf(blobNames);
+  }
+
+  @Override
+  public boolean delete(String objectName) {
+    boolean pending = journal().delete(objectName);
+    return super.delete(objectName) || pending;
+  }
+
+  @Override
+  public boolean deleteAllFilesInFolder(String folder) {
+    boolean pending = journal().deletePrefix(folder);
+    return super.deleteAllFilesInFolder(folder) || pending;
+  }
+
+  @Override
+  public void setContainerName(String containerName) {
+    synchronized (drainLock) {
+      if (journal != null) {
+        flush();
+        closeJournal();
+      }
+      super.setContainerName(containerName);
+      journal =
+        new UploadJournal(
+          journalDirectory.resolve(
+            URLEncoder.encode(containerName, StandardCharsets.UTF_8)
+          ),
+          maxSegmentSize,
+          uploadBufferPool
+        );
+    }
+  }
+
+  /**
+   * Synchronously upload all pending writes to the remote repository.
+   *
+   * @throws BlobStoreException if some writes could not be uploaded.
+   */
+  public void flush() {
+    synchronized (drainLock) {
+      if (journal == null) {
+        return;
+      }
+      while (journal.pendingCount() > 0) {
+        if (drain() == 0) {
+          throw new BlobStoreException(
+            "Failed to upload " +
+            journal.pendingCount() +
+            " pending writes to the remote repository"
+          );
+        }
+      }
+    }
+  }
+
+  /**
+   * Return the number of writes not yet uploaded to the remote repository.
+   */
+  public int pendingWriteCount() {
+    UploadJournal currentJournal = journal;
+    return currentJournal == null ? 0 : currentJournal.pendingCount();
+  }
+
+  /**
+   * Stop the background drain, upload the pending writes and close the journal.
+   * Writes that cannot be uploaded remain in the journal and are replayed on the next start.
+   */
+  @Override
+  public void close() {
+    drainScheduler.shutdown();
+    synchronized (drainLock) {
+      if (journal != null) {
+        try {
+          flush();
+        } catch (BlobStoreException e) {
+          LOGGER.warn("Closing with pending writes left in the journal", e);
+        }
+        closeJournal();
+      }
+    }
+    if (ownedUploadExecutor != null) {
+      ownedUploadExecutor.close();
+    }
+  }
+
+  private UploadJournal journal() {
+    UploadJournal currentJournal = journal;
+    if (currentJournal == null) {
+      throw new BlobStoreException(
+        "The container name must be set before using the repository"
+      );
+    }
+    return currentJournal;
+  }
+
+  private void drainQuietly() {
+    try {
+      synchronized (drainLock) {
+        if (journal != null) {
+          drain();
+        }
+      }
+    } catch (RuntimeException e) {
+      LOGGER.error("Failed to drain the write-behind journal", e);
+    }
+  }
+
+  /**
+   * Upload a batch of the oldest pending writes concurrently.
+   *
+   * @return the number of writes uploaded.
+   */
+  private int drain() {
+    journal.sync();
+    List<CompletableFuture<Boolean>> uploads = journal
+      .oldestPending(maxBatchSize)
+      .stream()
+      .map(entry ->
+        CompletableFuture.supplyAsync(
+          () -> upload(journal, entry.name()),
+          uploadExecutor
+        )
+      )
+      .toList();
+    return (int) uploads
+      .stream()
+      .filter(CompletableFuture::join)
+      .count();
+  }
+
+  /**
+   * Upload the last pending content of a blob.
+   * A write superseded during the upload stays pending and is uploaded by the next drain. If the blob is deleted
+   * during the upload, the uploaded blob is deleted as well.
+   *
+   * @return true if the upload succeeded.
+   */
+  private boolean upload(UploadJournal journal, String objectName) {
+    UploadJournal.PendingContent pendingContent = journal.read(objectName);
+    if (pendingContent == null) {
+      return true;
+    }
+    UploadJournal.Entry entry = pendingContent.entry();
+    try {
+      super.uploadBlob(
+        new BlobDescriptor(
+          objectName,
+          new ByteArrayInputStream(pendingContent.content()),
+          entry.contentType(),
+          entry.metadata()
+        )
+      );
+      if (!journal.uploaded(entry) && journal.pending(objectName) == null) {
+        super.delete(objectName);
+      }
+      return true;
+    } catch (RuntimeException e) {
+      LOGGER.warn("Failed to upload blob {}, will retry", objectName, e);
+      return false;
+    }
+  }
+
+  private void closeJournal() {
+    try {
+      journal.close();
+    } catch (IOException e) {
+      throw new BlobStoreException(e);
+    } finally {
+      journal = null;
+    }
+  }
+}
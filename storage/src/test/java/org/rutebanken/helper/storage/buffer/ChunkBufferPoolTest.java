@@ -0,0 +1,56 @@
+package org.rutebanken.helper.storage.buffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.helper.storage.BlobStoreException;
+
+class ChunkBufferPoolTest {
+
+  @Test
+  void testReleasedChunkIsReused() {
+    ChunkBufferPool pool = new ChunkBufferPool(16, 2, Duration.ofMillis(10));
+    ByteBuffer chunk = pool.acquire();
+    assertTrue(chunk.isDirect());
+    assertEquals(16, chunk.capacity());
+    chunk.put((byte) 1);
+    assertEquals(1, pool.chunksInUse());
+    pool.release(chunk);
+
+    ByteBuffer reused = pool.acquire();
+    assertSame(chunk, reused);
+    assertEquals(0, reused.position());
+    assertEquals(1, pool.allocatedChunks());
+  }
+
+  @Test
+  void testAcquireTimesOutWhenPoolIsExhausted() {
+    ChunkBufferPool pool = new ChunkBufferPool(16, 1, Duration.ofMillis(10));
+    pool.acquire();
+
+    assertThrows(BlobStoreException.class, pool::acquire);
+    assertEquals(1, pool.waitCount());
+    assertEquals(1, pool.timeoutCount());
+  }
+
+  @Test
+  void testAcquireWaitsForRelease() throws InterruptedException {
+    ChunkBufferPool pool = new ChunkBufferPool(16, 1, Duration.ofSeconds(10));
+    ByteBuffer chunk = pool.acquire();
+    Thread releaser = new Thread(() -> {
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      pool.release(chunk);
+    });
+    releaser.start();
+
+    assertSame(chunk, pool.acquire());
+    assertEquals(1, pool.waitCount());
+    releaser.join();
+  }
+}
@@ -0,0 +1,107 @@
+package org.rutebanken.helper.storage.buffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.zip.CRC32C;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UploadBufferPoolTest {
+
+  private static final int BUFFER_SIZE = 1024;
+
+  @TempDir
+  Path tempDirectory;
+
+  @Test
+  void testSmallPayloadIsKeptInMemory() throws Exception {
+    UploadBufferPool pool = new UploadBufferPool(BUFFER_SIZE, 1, tempDirectory);
+    byte[] payload = payload(BUFFER_SIZE);
+    try (UploadBuffer buffer = pool.buffer(new ByteArrayInputStream(payload))) {
+      assertFalse(buffer.isSpilled());
+      assertChecksums(payload, buffer);
+      assertEquals(0, pool.freeBuffers());
+    }
+    assertEquals(1, pool.freeBuffers());
+  }
+
+  @Test
+  void testInMemoryPayloadIsExposedWithoutCopy() {
+    UploadBufferPool pool = new UploadBufferPool(BUFFER_SIZE, 1, tempDirectory);
+    byte[] payload = payload(10);
+    try (UploadBuffer buffer = pool.buffer(new ByteArrayInputStream(payload))) {
+      ByteBuffer byteBuffer = buffer.byteBuffer();
+      assertTrue(byteBuffer.isReadOnly());
+      byte[] content = new byte[byteBuffer.remaining()];
+      byteBuffer.get(content);
+      assertArrayEquals(payload, content);
+    }
+    try (
+      UploadBuffer buffer = pool.buffer(
+        new ByteArrayInputStream(payload(BUFFER_SIZE + 1))
+      )
+    ) {
+      assertThrows(IllegalStateException.class, buffer::byteBuffer);
+    }
+  }
+
+  @Test
+  void testLargePayloadIsSpilledToDisk() throws Exception {
+    UploadBufferPool pool = new UploadBufferPool(BUFFER_SIZE, 1, tempDirectory);
+    byte[] payload = payload(BUFFER_SIZE + 1);
+    Path file;
+    try (UploadBuffer buffer = pool.buffer(new ByteArrayInputStream(payload))) {
+      assertTrue(buffer.isSpilled());
+      assertChecksums(payload, buffer);
+      assertEquals(1, pool.freeBuffers());
+      file = buffer.file();
+      assertTrue(Files.exists(file));
+    }
+    assertFalse(Files.exists(file));
+  }
+
+  @Test
+  void testPayloadIsSpilledWhenPoolIsExhausted() throws Exception {
+    UploadBufferPool pool = new UploadBufferPool(BUFFER_SIZE, 1, tempDirectory);
+    byte[] payload = payload(10);
+    try (
+      UploadBuffer first = pool.buffer(new ByteArrayInputStream(payload));
+      UploadBuffer second = pool.buffer(new ByteArrayInputStream(payload))
+    ) {
+      assertFalse(first.isSpilled());
+      assertTrue(second.isSpilled());
+      assertChecksums(payload, second);
+      assertEquals(1, pool.allocatedBuffers());
+    }
+  }
+
+  private static byte[] payload(int length) {
+    byte[] payload = new byte[length];
+    new Random(42).nextBytes(payload);
+    return payload;
+  }
+
+  private static void assertChecksums(byte[] payload, UploadBuffer buffer)
+    throws IOException, NoSuchAlgorithmException {
+    assertEquals(payload.length, buffer.length());
+    assertArrayEquals(
+      MessageDigest.getInstance("MD5").digest(payload),
+      buffer.md5()
+    );
+    CRC32C crc32c = new CRC32C();
+    crc32c.update(payload);
+    assertEquals((int) crc32c.getValue(), buffer.crc32c());
+    try (InputStream inputStream = buffer.newInputStream()) {
+      assertArrayEquals(payload, inputStream.readAllBytes());
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package org.rutebanken.helper.storage.checksum;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Base64;
+import org.junit.jupiter.api.Test;
+
+class ChecksumVerifyingInputStreamTest {
+
+  public static final byte[] CONTENT = "123456789".getBytes();
+
+  /**
+   * CRC32C check value of "123456789" (0xE3069283), base64-encoded in big-endian order.
+   */
+  public static final String CONTENT_CRC32C = "4waSgw==";
+
+  @Test
+  void testMatchingCrc32c() throws IOException {
+    try (
+      InputStream inputStream = ChecksumVerifyingInputStream.crc32c(
+        new ByteArrayInputStream(CONTENT),
+        CONTENT_CRC32C
+      )
+    ) {
+      assertArrayEquals(CONTENT, inputStream.readAllBytes());
+    }
+  }
+
+  @Test
+  void testMismatchingCrc32cIsDetectedAtEndOfStream() throws IOException {
+    InputStream inputStream = ChecksumVerifyingInputStream.crc32c(
+      new ByteArrayInputStream("corrupted".getBytes()),
+      CONTENT_CRC32C
+    );
+    assertEquals('c', inputStream.read());
+    ChecksumMismatchException e = assertThrows(
+      ChecksumMismatchException.class,
+      inputStream::readAllBytes
+    );
+    assertEquals("CRC32C", e.getAlgorithm());
+    assertEquals(CONTENT_CRC32C, e.getExpectedChecksum());
+  }
+
+  @Test
+  void testNonPositiveSkipIsIgnored() throws IOException {
+    InputStream inputStream = ChecksumVerifyingInputStream.crc32c(
+      new ByteArrayInputStream(CONTENT),
+      CONTENT_CRC32C
+    );
+    assertEquals(0, inputStream.skip(0));
+    assertEquals(0, inputStream.skip(-1));
+    assertArrayEquals(CONTENT, inputStream.readAllBytes());
+  }
+
+  @Test
+  void testMatchingMd5WithSkip() throws Exception {
+    String md5 = Base64
+      .getEncoder()
+      .encodeToString(MessageDigest.getInstance("MD5").digest(CONTENT));
+    InputStream inputStream = ChecksumVerifyingInputStream.md5(
+      new ByteArrayInputStream(CONTENT),
+      md5
+    );
+    assertEquals(4, inputStream.skip(4));
+    assertArrayEquals("56789".getBytes(), inputStream.readAllBytes());
+  }
+}
@@ -0,0 +1,156 @@
+package org.rutebanken.helper.storage.execution;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.helper.storage.repository.InMemoryBlobStoreRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compare the throughput and thread usage of small concurrent reads on a repository with network-like latency, with a
+ * bounded platform-thread pool and with virtual threads.
+ * The virtual-thread comparison requires Java 21 and is skipped on older JVMs.
+ */
+class BlobStoreExecutorBenchmarkTest {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(
+    BlobStoreExecutorBenchmarkTest.class
+  );
+
+  private static final int OPERATION_COUNT = 1_000;
+  private static final int LATENCY_MILLIS = 20;
+  private static final int PLATFORM_POOL_SIZE = 32;
+  private static final int VIRTUAL_MAX_CONCURRENCY = 500;
+
+  /**
+   * Lower bound of the duration of the reads on the platform-thread pool, each thread running its reads one after the
+   * other.
+   */
+  private static final Duration PLATFORM_MIN_DURATION = Duration.ofMillis(
+    (long) OPERATION_COUNT / PLATFORM_POOL_SIZE * LATENCY_MILLIS
+  );
+
+  private SlowRepository repository;
+
+  @BeforeEach
+  void setUp() {
+    repository = new SlowRepository();
+    repository.setContainerName("benchmark");
+    repository.uploadBlob("blob", new ByteArrayInputStream(new byte[1024]));
+  }
+
+  @Test
+  void testPlatformThreadsAreBoundByThePoolSize() {
+    Result result = run(
+      "platform threads",
+      BlobStoreExecutor.platformThreads("benchmark", PLATFORM_POOL_SIZE)
+    );
+
+    assertEquals(PLATFORM_POOL_SIZE, result.maxConcurrentReads());
+    assertTrue(result.duration().compareTo(PLATFORM_MIN_DURATION) >= 0);
+  }
+
+  @Test
+  void testVirtualThreadsOutperformPlatformThreads() {
+    assumeTrue(BlobStoreExecutor.isVirtualThreadsSupported());
+
+    Result result = run(
+      "virtual threads",
+      BlobStoreExecutor.virtualThreads(VIRTUAL_MAX_CONCURRENCY)
+    );
+
+    assertTrue(result.maxConcurrentReads() > PLATFORM_POOL_SIZE);
+    assertTrue(result.maxConcurrentReads() <= VIRTUAL_MAX_CONCURRENCY);
+    // the reads wait on virtual threads, the carrier threads are not added per concurrent read
+    assertTrue(result.addedPlatformThreads() < PLATFORM_POOL_SIZE);
+    assertTrue(result.duration().compareTo(PLATFORM_MIN_DURATION) < 0);
+  }
+
+  private record Result(
+    Duration duration,
+    int maxConcurrentReads,
+    int addedPlatformThreads
+  ) {}
+
+  private Result run(String mode, BlobStoreExecutor executor) {
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    int threadsBefore = threadMXBean.getThreadCount();
+    threadMXBean.resetPeakThreadCount();
+    long start = System.nanoTime();
+    try (executor) {
+      List<CompletableFuture<Integer>> reads = IntStream
+        .range(0, OPERATION_COUNT)
+        .mapToObj(i -> executor.supplyAsync(this::read))
+        .toList();
+      reads.forEach(read -> assertEquals(1024, (int) read.join()));
+    }
+    Duration duration = Duration.ofNanos(System.nanoTime() - start);
+    Result result = new Result(
+      duration,
+      repository.maxConcurrentReads.get(),
+      threadMXBean.getPeakThreadCount() - threadsBefore
+    );
+    LOGGER.info(
+      "{} (max concurrency {}): {} reads in {} ms, {} concurrent reads, {} platform threads added",
+      mode,
+      executor.maxConcurrency(),
+      OPERATION_COUNT,
+      duration.toMillis(),
+      result.maxConcurrentReads(),
+      result.addedPlatformThreads()
+    );
+    return result;
+  }
+
+  private int read() {
+    try (InputStream blob = repository.getBlob("blob")) {
+      return blob.readAllBytes().length;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * In-memory repository simulating the latency of a remote call, and recording the number of concurrent reads.
+   */
+  private static class SlowRepository extends InMemoryBlobStoreRepository {
+
+    private final AtomicInteger concurrentReads = new AtomicInteger();
+    private final AtomicInteger maxConcurrentReads = new AtomicInteger();
+
+    SlowRepository() {
+      super(new HashMap<>());
+    }
+
+    @Override
+    public InputStream getBlob(String objectName) {
+      maxConcurrentReads.accumulateAndGet(
+        concurrentReads.incrementAndGet(),
+        Math::max
+      );
+      try {
+        Thread.sleep(LATENCY_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        concurrentReads.decrementAndGet();
+      }
+      return super.getBlob(objectName);
+    }
+  }
+}
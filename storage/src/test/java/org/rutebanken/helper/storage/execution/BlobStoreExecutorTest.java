@@ -0,0 +1,102 @@
+package org.rutebanken.helper.storage.execution;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.helper.storage.BlobStoreException;
+
+class BlobStoreExecutorTest {
+
+  private static final int MAX_CONCURRENCY = 4;
+
+  @Test
+  void testPlatformThreadsLimitConcurrency() {
+    try (
+      BlobStoreExecutor executor = BlobStoreExecutor.platformThreads(
+        "test",
+        MAX_CONCURRENCY
+      )
+    ) {
+      assertFalse(executor.isVirtualThreads());
+      assertConcurrencyIsLimited(executor);
+    }
+  }
+
+  @Test
+  void testVirtualThreadsLimitConcurrency() {
+    if (!BlobStoreExecutor.isVirtualThreadsSupported()) {
+      assertThrows(
+        BlobStoreException.class,
+        () -> BlobStoreExecutor.virtualThreads(MAX_CONCURRENCY)
+      );
+      return;
+    }
+    try (
+      BlobStoreExecutor executor = BlobStoreExecutor.virtualThreads(
+        MAX_CONCURRENCY
+      )
+    ) {
+      assertTrue(executor.isVirtualThreads());
+      assertConcurrencyIsLimited(executor);
+    }
+  }
+
+  @Test
+  void testPreferVirtualThreadsFallsBackToPlatformThreads() {
+    try (
+      BlobStoreExecutor executor = BlobStoreExecutor.preferVirtualThreads(
+        "test",
+        MAX_CONCURRENCY
+      )
+    ) {
+      assertEquals(
+        BlobStoreExecutor.isVirtualThreadsSupported(),
+        executor.isVirtualThreads()
+      );
+      assertEquals(42, (int) executor.supplyAsync(() -> 42).join());
+    }
+  }
+
+  @Test
+  void testExecuteRunsCommand() throws InterruptedException {
+    try (
+      BlobStoreExecutor executor = BlobStoreExecutor.platformThreads(
+        "test",
+        MAX_CONCURRENCY
+      )
+    ) {
+      CountDownLatch executed = new CountDownLatch(1);
+      executor.execute(executed::countDown);
+      assertTrue(executed.await(10, TimeUnit.SECONDS));
+    }
+  }
+
+  private static void assertConcurrencyIsLimited(BlobStoreExecutor executor) {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    List<CompletableFuture<Integer>> calls = IntStream
+      .range(0, 50)
+      .mapToObj(i ->
+        executor.supplyAsync(() -> {
+          maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+          try {
+            Thread.sleep(5);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          running.decrementAndGet();
+          return i;
+        })
+      )
+      .toList();
+    calls.forEach(CompletableFuture::join);
+    assertTrue(maxRunning.get() <= MAX_CONCURRENCY);
+    assertEquals(0, executor.activeCount());
+  }
+}
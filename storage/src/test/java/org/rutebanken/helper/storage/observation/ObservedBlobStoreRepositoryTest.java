@@ -0,0 +1,174 @@
+package org.rutebanken.helper.storage.observation;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.helper.storage.repository.InMemoryBlobStoreRepository;
+
+class ObservedBlobStoreRepositoryTest {
+
+  public static final String CONTAINER_NAME = "container";
+  public static final String BLOB_NAME = "myblob";
+  public static final byte[] BLOB_CONTENT = "content".getBytes();
+
+  private final List<Observation.Context> stoppedObservations =
+    new ArrayList<>();
+
+  private ObservationRegistry observationRegistry;
+  private ObservedBlobStoreRepository repository;
+
+  @BeforeEach
+  void setUp() {
+    observationRegistry = ObservationRegistry.create();
+    observationRegistry
+      .observationConfig()
+      .observationHandler(
+        new ObservationHandler<>() {
+          @Override
+          public void onStop(Observation.Context context) {
+            stoppedObservations.add(context);
+          }
+
+          @Override
+          public boolean supportsContext(Observation.Context context) {
+            return true;
+          }
+        }
+      );
+    repository =
+      new ObservedBlobStoreRepository(
+        new InMemoryBlobStoreRepository(new HashMap<>()),
+        observationRegistry
+      );
+    repository.setContainerName(CONTAINER_NAME);
+  }
+
+  @Test
+  void testUploadIsObserved() {
+    repository.uploadBlob(BLOB_NAME, new ByteArrayInputStream(BLOB_CONTENT));
+
+    assertEquals(1, stoppedObservations.size());
+    Observation.Context context = stoppedObservations.get(0);
+    assertEquals(
+      BlobStoreObservations.OPERATION_OBSERVATION,
+      context.getName()
+    );
+    assertAttribute("upload", context, BlobStoreObservations.OPERATION);
+    assertAttribute(CONTAINER_NAME, context, BlobStoreObservations.CONTAINER);
+    assertAttribute(
+      "InMemoryBlobStoreRepository",
+      context,
+      BlobStoreObservations.BACKEND
+    );
+    assertAttribute(BLOB_NAME, context, BlobStoreObservations.NAME);
+    assertAttribute(
+      String.valueOf(BLOB_CONTENT.length),
+      context,
+      BlobStoreObservations.SIZE
+    );
+  }
+
+  @Test
+  void testBufferedDownloadIsObservedUntilReturned() {
+    repository.uploadBlob(BLOB_NAME, new ByteArrayInputStream(BLOB_CONTENT));
+    stoppedObservations.clear();
+
+    assertNotNull(repository.getBlob(BLOB_NAME));
+
+    assertEquals(1, stoppedObservations.size());
+    Observation.Context context = stoppedObservations.get(0);
+    assertAttribute("get", context, BlobStoreObservations.OPERATION);
+    assertAttribute(
+      String.valueOf(BLOB_CONTENT.length),
+      context,
+      BlobStoreObservations.SIZE
+    );
+  }
+
+  @Test
+  void testStreamedDownloadIsObservedUntilStreamIsClosed() throws IOException {
+    repository =
+      new ObservedBlobStoreRepository(
+        new InMemoryBlobStoreRepository(new HashMap<>()) {
+          @Override
+          public InputStream getBlob(String objectName) {
+            return new BufferedInputStream(super.getBlob(objectName));
+          }
+        },
+        observationRegistry
+      );
+    repository.setContainerName(CONTAINER_NAME);
+    repository.uploadBlob(BLOB_NAME, new ByteArrayInputStream(BLOB_CONTENT));
+    stoppedObservations.clear();
+
+    InputStream inputStream = repository.getBlob(BLOB_NAME);
+    assertTrue(stoppedObservations.isEmpty());
+    assertTrue(inputStream.markSupported());
+    inputStream.mark(BLOB_CONTENT.length);
+    inputStream.readNBytes(2);
+    inputStream.reset();
+    assertArrayEquals(BLOB_CONTENT, inputStream.readAllBytes());
+    inputStream.close();
+    inputStream.close();
+
+    assertEquals(1, stoppedObservations.size());
+    Observation.Context context = stoppedObservations.get(0);
+    assertAttribute("get", context, BlobStoreObservations.OPERATION);
+    assertAttribute(
+      String.valueOf(BLOB_CONTENT.length),
+      context,
+      BlobStoreObservations.SIZE
+    );
+  }
+
+  @Test
+  void testMissingBlobIsObserved() {
+    assertNull(repository.getBlob("missing"));
+    assertEquals(1, stoppedObservations.size());
+  }
+
+  @Test
+  void testChildObservationsInheritParentAcrossThreads() throws Exception {
+    Observation parent = Observation
+      .createNotStarted("parent", observationRegistry)
+      .start();
+    Callable<Observation> task = parent.scoped(() -> {
+      BlobStoreObservations.recordRetry(observationRegistry);
+      return BlobStoreObservations.wrapCallable(
+        observationRegistry,
+        observationRegistry::getCurrentObservation
+      );
+    });
+    parent.stop();
+
+    assertSame(parent, task.call());
+    assertAttribute(
+      "1",
+      parent.getContext(),
+      BlobStoreObservations.RETRY_COUNT
+    );
+  }
+
+  private static void assertAttribute(
+    String expected,
+    Observation.Context context,
+    String key
+  ) {
+    String value = context.getLowCardinalityKeyValue(key) != null
+      ? context.getLowCardinalityKeyValue(key).getValue()
+      : context.getHighCardinalityKeyValue(key).getValue();
+    assertEquals(expected, value);
+  }
+}
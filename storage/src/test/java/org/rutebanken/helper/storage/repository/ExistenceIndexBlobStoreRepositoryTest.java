@@ -0,0 +1,164 @@
+package org.rutebanken.helper.storage.repository;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.helper.storage.BlobStoreException;
+
+class ExistenceIndexBlobStoreRepositoryTest {
+
+  public static final String CONTAINER_NAME = "container";
+  public static final String PREFIX = "overrides/";
+  public static final byte[] BLOB_CONTENT = "content".getBytes();
+
+  private final AtomicInteger delegatedLookups = new AtomicInteger();
+  private volatile CountDownLatch listingStarted = new CountDownLatch(1);
+  private volatile CountDownLatch listingReleased = new CountDownLatch(0);
+  private volatile RuntimeException listingFailure;
+
+  private InMemoryBlobStoreRepository delegate;
+  private ExistenceIndexBlobStoreRepository repository;
+
+  @BeforeEach
+  void setUp() {
+    delegate =
+      new InMemoryBlobStoreRepository(new HashMap<>()) {
+        @Override
+        public boolean exist(String objectName) {
+          delegatedLookups.incrementAndGet();
+          return super.exist(objectName);
+        }
+
+        @Override
+        public List<String> listBlobNames(String prefix) {
+          listingStarted.countDown();
+          try {
+            listingReleased.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          if (listingFailure != null) {
+            throw listingFailure;
+          }
+          return super.listBlobNames(prefix);
+        }
+      };
+    repository =
+      new ExistenceIndexBlobStoreRepository(
+        delegate,
+        PREFIX,
+        100,
+        0.01,
+        Duration.ofHours(1)
+      );
+    repository.setContainerName(CONTAINER_NAME);
+  }
+
+  @Test
+  void testMissingBlobIsAnsweredLocally() {
+    delegate.uploadBlob(
+      PREFIX + "existing",
+      new ByteArrayInputStream(BLOB_CONTENT)
+    );
+
+    assertFalse(repository.exist(PREFIX + "missing"));
+    assertTrue(repository.exist(PREFIX + "existing"));
+    assertEquals(1, delegatedLookups.get());
+  }
+
+  @Test
+  void testBlobOutsidePrefixIsDelegated() {
+    assertFalse(repository.exist("other/missing"));
+    assertEquals(1, delegatedLookups.get());
+  }
+
+  @Test
+  void testLookupIsDelegatedWhenListingFails() {
+    delegate.uploadBlob(
+      PREFIX + "existing",
+      new ByteArrayInputStream(BLOB_CONTENT)
+    );
+    listingFailure = new BlobStoreException("Listing failed");
+
+    assertTrue(repository.exist(PREFIX + "existing"));
+    assertFalse(repository.exist(PREFIX + "missing"));
+    assertEquals(2, delegatedLookups.get());
+
+    listingFailure = null;
+    assertFalse(repository.exist(PREFIX + "missing"));
+    assertEquals(2, delegatedLookups.get());
+  }
+
+  @Test
+  void testUploadThroughRepositoryIsIndexed() {
+    assertFalse(repository.exist(PREFIX + "new"));
+    repository.uploadBlob(
+      PREFIX + "new",
+      new ByteArrayInputStream(BLOB_CONTENT)
+    );
+    assertTrue(repository.exist(PREFIX + "new"));
+  }
+
+  @Test
+  void testExternalUploadIsVisibleAfterRefresh() {
+    assertFalse(repository.exist(PREFIX + "external"));
+    delegate.uploadBlob(
+      PREFIX + "external",
+      new ByteArrayInputStream(BLOB_CONTENT)
+    );
+    assertFalse(repository.exist(PREFIX + "external"));
+    repository.refresh();
+    assertTrue(repository.exist(PREFIX + "external"));
+  }
+
+  @Test
+  void testVersionedReadOfDeletedBlobIsDelegated() throws IOException {
+    long generation = repository.uploadBlob(
+      PREFIX + "deleted",
+      new ByteArrayInputStream(BLOB_CONTENT)
+    );
+    repository.delete(PREFIX + "deleted");
+    repository.refresh();
+
+    assertFalse(repository.exist(PREFIX + "deleted"));
+    try (
+      InputStream content = repository.getBlob(PREFIX + "deleted", generation)
+    ) {
+      assertArrayEquals(BLOB_CONTENT, content.readAllBytes());
+    }
+  }
+
+  @Test
+  void testLookupsAreNotBlockedByRefresh() throws Exception {
+    assertFalse(repository.exist(PREFIX + "missing"));
+    listingStarted = new CountDownLatch(1);
+    listingReleased = new CountDownLatch(1);
+    CompletableFuture<Void> refresh = CompletableFuture.runAsync(
+      repository::refresh
+    );
+    assertTrue(listingStarted.await(10, TimeUnit.SECONDS));
+
+    // answered from the previous index while the listing is blocked
+    assertFalse(repository.exist(PREFIX + "missing"));
+    repository.uploadBlob(
+      PREFIX + "written-during-refresh",
+      new ByteArrayInputStream(BLOB_CONTENT)
+    );
+    listingReleased.countDown();
+    refresh.get(10, TimeUnit.SECONDS);
+
+    assertTrue(repository.exist(PREFIX + "written-during-refresh"));
+    assertEquals(1, delegatedLookups.get());
+  }
+}
@@ -6,7 +6,9 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
+import java.util.List;
 import org.junit.jupiter.api.Test;
+import org.rutebanken.helper.storage.model.BlobMetadata;
 
 class InMemoryBlobStoreRepositoryTest {
 
@@ -24,4 +26,92 @@ class InMemoryBlobStoreRepositoryTest {
     assertNotNull(blob);
     assertArrayEquals(BLOB_CONTENT, blob.readAllBytes());
   }
+
+  @Test
+  void testGetVersionedBlob() throws IOException {
+    InMemoryBlobStoreRepository repository = new InMemoryBlobStoreRepository(
+      new HashMap<>()
+    );
+    long firstGeneration = repository.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream(BLOB_CONTENT)
+    );
+    long secondGeneration = repository.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream("updated".getBytes())
+    );
+    assertNotEquals(firstGeneration, secondGeneration);
+    assertArrayEquals(
+      BLOB_CONTENT,
+      repository.getBlob(BLOB_NAME, firstGeneration).readAllBytes()
+    );
+    assertArrayEquals(
+      "updated".getBytes(),
+      repository.getBlob(BLOB_NAME, secondGeneration).readAllBytes()
+    );
+    assertNull(repository.getBlob(BLOB_NAME, secondGeneration + 1));
+  }
+
+  @Test
+  void testVersionHistoryKeepsTheLastGenerations() throws IOException {
+    InMemoryBlobStoreRepository repository = new InMemoryBlobStoreRepository(
+      new HashMap<>()
+    );
+    repository.setMaxVersions(2);
+    long firstGeneration = repository.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream(BLOB_CONTENT)
+    );
+    long secondGeneration = repository.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream("updated".getBytes())
+    );
+    long thirdGeneration = repository.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream("updated again".getBytes())
+    );
+    assertEquals(thirdGeneration, secondGeneration + 1);
+    assertNull(repository.getBlob(BLOB_NAME, firstGeneration));
+    assertArrayEquals(
+      "updated".getBytes(),
+      repository.getBlob(BLOB_NAME, secondGeneration).readAllBytes()
+    );
+    assertArrayEquals(
+      "updated again".getBytes(),
+      repository.getBlob(BLOB_NAME, thirdGeneration).readAllBytes()
+    );
+  }
+
+  @Test
+  void testStat() {
+    InMemoryBlobStoreRepository repository = new InMemoryBlobStoreRepository(
+      new HashMap<>()
+    );
+    assertNull(repository.stat(BLOB_NAME));
+    repository.uploadBlob(BLOB_NAME, new ByteArrayInputStream(BLOB_CONTENT));
+    long generation = repository.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream("updated".getBytes())
+    );
+    BlobMetadata blobMetadata = repository.stat(BLOB_NAME);
+    assertEquals(BLOB_NAME, blobMetadata.name());
+    assertEquals("updated".length(), blobMetadata.size());
+    assertEquals(generation, blobMetadata.generation());
+    repository.delete(BLOB_NAME);
+    assertNull(repository.stat(BLOB_NAME));
+  }
+
+  @Test
+  void testListBlobNames() {
+    InMemoryBlobStoreRepository repository = new InMemoryBlobStoreRepository(
+      new HashMap<>()
+    );
+    repository.uploadBlob("folder/b", new ByteArrayInputStream(BLOB_CONTENT));
+    repository.uploadBlob("folder/a", new ByteArrayInputStream(BLOB_CONTENT));
+    repository.uploadBlob("other/c", new ByteArrayInputStream(BLOB_CONTENT));
+    assertEquals(
+      List.of("folder/a", "folder/b"),
+      repository.listBlobNames("folder/")
+    );
+  }
 }
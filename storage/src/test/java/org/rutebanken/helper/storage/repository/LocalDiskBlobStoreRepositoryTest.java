@@ -6,8 +6,12 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import org.rutebanken.helper.storage.BlobChecksumMismatchException;
+import org.rutebanken.helper.storage.model.BlobMetadata;
 
 class LocalDiskBlobStoreRepositoryTest {
 
@@ -28,4 +32,111 @@ class LocalDiskBlobStoreRepositoryTest {
     assertNotNull(blob);
     assertArrayEquals(BLOB_CONTENT, blob.readAllBytes());
   }
+
+  @Test
+  void testCorruptedBlobIsDetected() throws IOException {
+    LocalDiskBlobStoreRepository repository = new LocalDiskBlobStoreRepository(
+      tempDirectory.getAbsolutePath()
+    );
+    repository.setContainerName("container");
+    repository.uploadBlob(BLOB_NAME, new ByteArrayInputStream(BLOB_CONTENT));
+    Files.write(
+      tempDirectory.toPath().resolve("container").resolve(BLOB_NAME),
+      "corrupted".getBytes()
+    );
+    BlobChecksumMismatchException e = assertThrows(
+      BlobChecksumMismatchException.class,
+      () -> repository.getBlob(BLOB_NAME)
+    );
+    assertEquals("CRC32C", e.getCause().getAlgorithm());
+  }
+
+  @Test
+  void testGetVersionedBlob() throws IOException {
+    LocalDiskBlobStoreRepository repository = new LocalDiskBlobStoreRepository(
+      tempDirectory.getAbsolutePath()
+    );
+    long firstGeneration = repository.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream(BLOB_CONTENT)
+    );
+    long secondGeneration = repository.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream("updated".getBytes())
+    );
+    assertNotEquals(firstGeneration, secondGeneration);
+    assertArrayEquals(
+      BLOB_CONTENT,
+      repository.getBlob(BLOB_NAME, firstGeneration).readAllBytes()
+    );
+    assertArrayEquals(
+      "updated".getBytes(),
+      repository.getBlob(BLOB_NAME, secondGeneration).readAllBytes()
+    );
+    assertNull(repository.getBlob(BLOB_NAME, secondGeneration + 1));
+  }
+
+  @Test
+  void testVersionHistoryKeepsTheLastGenerations() throws IOException {
+    LocalDiskBlobStoreRepository repository = new LocalDiskBlobStoreRepository(
+      tempDirectory.getAbsolutePath()
+    );
+    repository.setMaxVersions(2);
+    long firstGeneration = repository.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream(BLOB_CONTENT)
+    );
+    long secondGeneration = repository.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream("updated".getBytes())
+    );
+    long thirdGeneration = repository.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream("updated again".getBytes())
+    );
+    assertEquals(thirdGeneration, secondGeneration + 1);
+    assertNull(repository.getBlob(BLOB_NAME, firstGeneration));
+    assertArrayEquals(
+      "updated".getBytes(),
+      repository.getBlob(BLOB_NAME, secondGeneration).readAllBytes()
+    );
+    assertArrayEquals(
+      "updated again".getBytes(),
+      repository.getBlob(BLOB_NAME, thirdGeneration).readAllBytes()
+    );
+  }
+
+  @Test
+  void testStat() {
+    LocalDiskBlobStoreRepository repository = new LocalDiskBlobStoreRepository(
+      tempDirectory.getAbsolutePath()
+    );
+    repository.setContainerName("container");
+    assertNull(repository.stat(BLOB_NAME));
+    repository.uploadBlob(BLOB_NAME, new ByteArrayInputStream(BLOB_CONTENT));
+    long generation = repository.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream("updated".getBytes())
+    );
+    BlobMetadata blobMetadata = repository.stat(BLOB_NAME);
+    assertEquals(BLOB_NAME, blobMetadata.name());
+    assertEquals("updated".length(), blobMetadata.size());
+    assertEquals(generation, blobMetadata.generation());
+    assertTrue(blobMetadata.updated().isPresent());
+    assertTrue(blobMetadata.contentType().isEmpty());
+  }
+
+  @Test
+  void testListBlobNames() {
+    LocalDiskBlobStoreRepository repository = new LocalDiskBlobStoreRepository(
+      tempDirectory.getAbsolutePath()
+    );
+    repository.uploadBlob("folder/b", new ByteArrayInputStream(BLOB_CONTENT));
+    repository.uploadBlob("folder/a", new ByteArrayInputStream(BLOB_CONTENT));
+    repository.uploadBlob("other/c", new ByteArrayInputStream(BLOB_CONTENT));
+    assertEquals(
+      List.of("folder/a", "folder/b"),
+      repository.listBlobNames("folder/")
+    );
+  }
 }
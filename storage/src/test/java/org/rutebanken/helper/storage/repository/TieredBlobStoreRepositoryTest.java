@@ -0,0 +1,206 @@
+package org.rutebanken.helper.storage.repository;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TieredBlobStoreRepositoryTest {
+
+  public static final String CONTAINER_NAME = "container";
+  public static final String BLOB_NAME = "myblob";
+  public static final byte[] BLOB_CONTENT = "content".getBytes();
+
+  @TempDir
+  File journalDirectory;
+
+  private InMemoryBlobStoreRepository hotTier;
+  private InMemoryBlobStoreRepository coldTier;
+
+  @BeforeEach
+  void setUp() {
+    hotTier = new InMemoryBlobStoreRepository(new HashMap<>());
+    coldTier = new InMemoryBlobStoreRepository(new HashMap<>());
+  }
+
+  @Test
+  void testPromoteOnMiss() throws IOException {
+    TieredBlobStoreRepository repository = writeThroughRepository(
+      1000,
+      Duration.ofHours(1)
+    );
+    coldTier.uploadBlob(BLOB_NAME, new ByteArrayInputStream(BLOB_CONTENT));
+
+    assertFalse(hotTier.exist(BLOB_NAME));
+    assertContent(repository.getBlob(BLOB_NAME));
+    assertTrue(hotTier.exist(BLOB_NAME));
+    assertEquals(BLOB_CONTENT.length, repository.hotSize());
+    assertNull(repository.getBlob("missing"));
+  }
+
+  @Test
+  void testWriteThrough() throws IOException {
+    TieredBlobStoreRepository repository = writeThroughRepository(
+      1000,
+      Duration.ofHours(1)
+    );
+    repository.uploadBlob(BLOB_NAME, new ByteArrayInputStream(BLOB_CONTENT));
+
+    assertContent(hotTier.getBlob(BLOB_NAME));
+    assertContent(coldTier.getBlob(BLOB_NAME));
+  }
+
+  @Test
+  void testWriteBehindColdTier() throws IOException {
+    coldTier.setContainerName(CONTAINER_NAME);
+    try (
+      WriteBehindBlobStoreRepository writeBehind =
+        new WriteBehindBlobStoreRepository(
+          coldTier,
+          journalDirectory.toPath(),
+          Duration.ofHours(1),
+          WriteBehindBlobStoreRepository.DEFAULT_MAX_BATCH_SIZE,
+          WriteBehindBlobStoreRepository.DEFAULT_MAX_SEGMENT_SIZE,
+          Runnable::run
+        )
+    ) {
+      TieredBlobStoreRepository repository = new TieredBlobStoreRepository(
+        hotTier,
+        writeBehind,
+        1000,
+        Duration.ZERO
+      );
+      repository.setContainerName(CONTAINER_NAME);
+      repository.uploadBlob(BLOB_NAME, new ByteArrayInputStream(BLOB_CONTENT));
+
+      assertFalse(coldTier.exist(BLOB_NAME));
+      assertEquals(1, writeBehind.pendingWriteCount());
+      assertEquals(List.of(BLOB_NAME), repository.listBlobNames(""));
+      // the hot copy has expired, the pending write is served from the journal
+      assertContent(repository.getBlob(BLOB_NAME));
+
+      writeBehind.flush();
+      assertContent(coldTier.getBlob(BLOB_NAME));
+      assertEquals(0, writeBehind.pendingWriteCount());
+    }
+  }
+
+  @Test
+  void testEvictionBySize() {
+    TieredBlobStoreRepository repository = writeThroughRepository(
+      2L * BLOB_CONTENT.length,
+      Duration.ofHours(1)
+    );
+    repository.uploadBlob("blob1", new ByteArrayInputStream(BLOB_CONTENT));
+    repository.uploadBlob("blob2", new ByteArrayInputStream(BLOB_CONTENT));
+    repository.getBlob("blob1");
+    repository.uploadBlob("blob3", new ByteArrayInputStream(BLOB_CONTENT));
+
+    assertTrue(hotTier.exist("blob1"));
+    assertFalse(hotTier.exist("blob2"));
+    assertTrue(hotTier.exist("blob3"));
+    assertTrue(repository.exist("blob2"));
+    assertEquals(2L * BLOB_CONTENT.length, repository.hotSize());
+  }
+
+  @Test
+  void testEvictionByAge() throws IOException {
+    TieredBlobStoreRepository repository = writeThroughRepository(
+      1000,
+      Duration.ZERO
+    );
+    repository.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream("old".getBytes())
+    );
+    coldTier.uploadBlob(BLOB_NAME, new ByteArrayInputStream(BLOB_CONTENT));
+
+    assertContent(repository.getBlob(BLOB_NAME));
+  }
+
+  @Test
+  void testReadOverwrittenDuringPromotionIsNotPromoted() throws IOException {
+    TieredBlobStoreRepository[] repository = new TieredBlobStoreRepository[1];
+    coldTier =
+      new InMemoryBlobStoreRepository(new HashMap<>()) {
+        private boolean overwritten;
+
+        @Override
+        public InputStream getBlob(String objectName) {
+          InputStream content = super.getBlob(objectName);
+          if (!overwritten) {
+            // written through the repository after the cold read started
+            overwritten = true;
+            repository[0].uploadBlob(
+              objectName,
+              new ByteArrayInputStream(BLOB_CONTENT)
+            );
+          }
+          return content;
+        }
+      };
+    repository[0] = writeThroughRepository(1000, Duration.ofHours(1));
+    coldTier.uploadBlob(BLOB_NAME, new ByteArrayInputStream("old".getBytes()));
+
+    assertContent(repository[0].getBlob(BLOB_NAME));
+    assertContent(hotTier.getBlob(BLOB_NAME));
+  }
+
+  @Test
+  void testUntrackedHotBlobsAreClearedWhenContainerIsSet() {
+    hotTier.setContainerName(CONTAINER_NAME);
+    hotTier.uploadBlob(BLOB_NAME, new ByteArrayInputStream("old".getBytes()));
+
+    TieredBlobStoreRepository repository = writeThroughRepository(
+      1000,
+      Duration.ofHours(1)
+    );
+
+    assertFalse(hotTier.exist(BLOB_NAME));
+    assertEquals(0, repository.hotSize());
+  }
+
+  @Test
+  void testDelete() {
+    TieredBlobStoreRepository repository = writeThroughRepository(
+      1000,
+      Duration.ofHours(1)
+    );
+    repository.uploadBlob(BLOB_NAME, new ByteArrayInputStream(BLOB_CONTENT));
+
+    assertTrue(repository.delete(BLOB_NAME));
+    assertFalse(hotTier.exist(BLOB_NAME));
+    assertFalse(coldTier.exist(BLOB_NAME));
+    assertEquals(0, repository.hotSize());
+  }
+
+  private TieredBlobStoreRepository writeThroughRepository(
+    long maxHotSize,
+    Duration maxAge
+  ) {
+    TieredBlobStoreRepository repository = new TieredBlobStoreRepository(
+      hotTier,
+      coldTier,
+      maxHotSize,
+      maxAge
+    );
+    repository.setContainerName(CONTAINER_NAME);
+    return repository;
+  }
+
+  private static void assertContent(InputStream inputStream)
+    throws IOException {
+    assertNotNull(inputStream);
+    try (inputStream) {
+      assertArrayEquals(BLOB_CONTENT, inputStream.readAllBytes());
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package org.rutebanken.helper.storage.repository;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.helper.storage.cache.VersionedBlobCache;
+
+class VersionedBlobCachingRepositoryTest {
+
+  public static final String BLOB_NAME = "blobName";
+  public static final byte[] BLOB_CONTENT = "content".getBytes();
+  public static final String NAMESPACE = "in-memory";
+
+  @Test
+  void testVersionedReadIsServedFromCache() throws IOException {
+    VersionedBlobCache cache = new VersionedBlobCache(1024);
+    VersionedBlobCachingRepository repository =
+      new VersionedBlobCachingRepository(
+        new InMemoryBlobStoreRepository(new HashMap<>()),
+        cache,
+        NAMESPACE
+      );
+    long generation = repository.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream(BLOB_CONTENT)
+    );
+
+    assertArrayEquals(
+      BLOB_CONTENT,
+      repository.getBlob(BLOB_NAME, generation).readAllBytes()
+    );
+    assertArrayEquals(
+      BLOB_CONTENT,
+      repository.getBlob(BLOB_NAME, generation).readAllBytes()
+    );
+    assertEquals(1, cache.missCount());
+    assertEquals(1, cache.hitCount());
+    assertEquals(BLOB_CONTENT.length, cache.size());
+  }
+
+  @Test
+  void testMissingVersionIsNotCached() {
+    VersionedBlobCache cache = new VersionedBlobCache(1024);
+    VersionedBlobCachingRepository repository =
+      new VersionedBlobCachingRepository(
+        new InMemoryBlobStoreRepository(new HashMap<>()),
+        cache,
+        NAMESPACE
+      );
+
+    assertNull(repository.getBlob(BLOB_NAME, 1));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  void testRepositoriesOverDifferentContainersDoNotShareEntries()
+    throws IOException {
+    VersionedBlobCache cache = new VersionedBlobCache(1024);
+    InMemoryBlobStoreRepository backend = new InMemoryBlobStoreRepository(
+      new HashMap<>()
+    );
+    VersionedBlobCachingRepository first = new VersionedBlobCachingRepository(
+      backend,
+      cache,
+      NAMESPACE
+    );
+    first.setContainerName("first");
+    long firstGeneration = first.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream("first".getBytes())
+    );
+    assertArrayEquals(
+      "first".getBytes(),
+      first.getBlob(BLOB_NAME, firstGeneration).readAllBytes()
+    );
+
+    VersionedBlobCachingRepository second = new VersionedBlobCachingRepository(
+      backend,
+      cache,
+      NAMESPACE
+    );
+    second.setContainerName("second");
+    long secondGeneration = second.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream("second".getBytes())
+    );
+    assertArrayEquals(
+      "second".getBytes(),
+      second.getBlob(BLOB_NAME, secondGeneration).readAllBytes()
+    );
+    assertEquals(2, cache.missCount());
+  }
+
+  @Test
+  void testRepositoriesOverDifferentBackendsDoNotShareEntries()
+    throws IOException {
+    VersionedBlobCache cache = new VersionedBlobCache(1024);
+    VersionedBlobCachingRepository first = new VersionedBlobCachingRepository(
+      new InMemoryBlobStoreRepository(new HashMap<>()),
+      cache,
+      "first-backend"
+    );
+    VersionedBlobCachingRepository second = new VersionedBlobCachingRepository(
+      new InMemoryBlobStoreRepository(new HashMap<>()),
+      cache,
+      "second-backend"
+    );
+    first.setContainerName("container");
+    second.setContainerName("container");
+    long firstGeneration = first.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream("first".getBytes())
+    );
+    long secondGeneration = second.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream("second".getBytes())
+    );
+
+    assertArrayEquals(
+      "first".getBytes(),
+      first.getBlob(BLOB_NAME, firstGeneration).readAllBytes()
+    );
+    assertArrayEquals(
+      "second".getBytes(),
+      second.getBlob(BLOB_NAME, secondGeneration).readAllBytes()
+    );
+  }
+
+  @Test
+  void testBlankNamespaceIsRejected() {
+    InMemoryBlobStoreRepository backend = new InMemoryBlobStoreRepository(
+      new HashMap<>()
+    );
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> new VersionedBlobCachingRepository(backend, " ")
+    );
+  }
+
+  @Test
+  void testLeastRecentlyUsedEntryIsEvicted() {
+    VersionedBlobCache cache = new VersionedBlobCache(10);
+    cache.get("ns", "container", "a", 1, () -> new byte[4]);
+    cache.get("ns", "container", "b", 1, () -> new byte[4]);
+    cache.get("ns", "container", "a", 1, () -> new byte[4]);
+    cache.get("ns", "container", "c", 1, () -> new byte[4]);
+
+    assertEquals(8, cache.size());
+    assertEquals(1, cache.hitCount());
+    cache.get("ns", "container", "a", 1, () -> fail("a should be cached"));
+    assertEquals(2, cache.hitCount());
+  }
+}
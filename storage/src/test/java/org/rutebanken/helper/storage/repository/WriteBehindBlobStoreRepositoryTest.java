@@ -0,0 +1,242 @@
+package org.rutebanken.helper.storage.repository;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rutebanken.helper.storage.BlobStoreException;
+import org.rutebanken.helper.storage.model.BlobDescriptor;
+import org.rutebanken.helper.storage.model.BlobMetadata;
+
+class WriteBehindBlobStoreRepositoryTest {
+
+  public static final String CONTAINER_NAME = "container";
+  public static final String BLOB_NAME = "myblob";
+  public static final byte[] BLOB_CONTENT = "content".getBytes();
+  public static final byte[] OTHER_BLOB_CONTENT = "other content".getBytes();
+
+  @TempDir
+  File journalDirectory;
+
+  private InMemoryBlobStoreRepository remote;
+  private WriteBehindBlobStoreRepository repository;
+
+  @BeforeEach
+  void setUp() {
+    remote = new InMemoryBlobStoreRepository(new HashMap<>());
+    remote.setContainerName(CONTAINER_NAME);
+    repository = newRepository(remote, Long.MAX_VALUE);
+  }
+
+  @AfterEach
+  void tearDown() {
+    repository.close();
+  }
+
+  @Test
+  void testPendingWriteIsServedFromJournal() throws IOException {
+    repository.uploadBlob(BLOB_NAME, new ByteArrayInputStream(BLOB_CONTENT));
+
+    assertFalse(remote.exist(BLOB_NAME));
+    assertTrue(repository.exist(BLOB_NAME));
+    assertContent(BLOB_CONTENT, repository.getBlob(BLOB_NAME));
+    assertEquals(List.of(BLOB_NAME), repository.listBlobNames(""));
+    assertEquals(1, repository.pendingWriteCount());
+
+    repository.flush();
+    assertEquals(0, repository.pendingWriteCount());
+    assertContent(BLOB_CONTENT, remote.getBlob(BLOB_NAME));
+  }
+
+  @Test
+  void testPendingWriteIsStatFromJournal() {
+    repository.uploadBlob(
+      new BlobDescriptor(
+        BLOB_NAME,
+        new ByteArrayInputStream(BLOB_CONTENT),
+        Optional.of("text/plain"),
+        Optional.of(Map.of("key", "value"))
+      )
+    );
+
+    assertNull(remote.stat(BLOB_NAME));
+    BlobMetadata blobMetadata = repository.stat(BLOB_NAME);
+    assertEquals(BLOB_CONTENT.length, blobMetadata.size());
+    assertEquals(Optional.of("text/plain"), blobMetadata.contentType());
+    assertEquals(Map.of("key", "value"), blobMetadata.metadata());
+
+    repository.flush();
+    assertEquals(BLOB_CONTENT.length, repository.stat(BLOB_NAME).size());
+  }
+
+  @Test
+  void testRepeatedWritesAreCoalesced() throws IOException {
+    repository.uploadBlob(BLOB_NAME, new ByteArrayInputStream(BLOB_CONTENT));
+    repository.uploadBlob(
+      BLOB_NAME,
+      new ByteArrayInputStream(OTHER_BLOB_CONTENT)
+    );
+    assertEquals(1, repository.pendingWriteCount());
+    assertContent(OTHER_BLOB_CONTENT, repository.getBlob(BLOB_NAME));
+
+    repository.flush();
+    assertContent(OTHER_BLOB_CONTENT, remote.getBlob(BLOB_NAME));
+  }
+
+  @Test
+  void testDeleteCancelsPendingWrite() {
+    repository.uploadBlob(BLOB_NAME, new ByteArrayInputStream(BLOB_CONTENT));
+    assertTrue(repository.delete(BLOB_NAME));
+    repository.flush();
+    assertFalse(remote.exist(BLOB_NAME));
+
+    repository.close();
+    repository = newRepository(remote, Long.MAX_VALUE);
+    assertEquals(0, repository.pendingWriteCount());
+  }
+
+  @Test
+  void testPendingWritesAreReplayedAfterRestart() throws IOException {
+    InMemoryBlobStoreRepository unavailableRemote =
+      new InMemoryBlobStoreRepository(new HashMap<>()) {
+        @Override
+        public long uploadBlob(BlobDescriptor blobDescriptor) {
+          throw new BlobStoreException("unavailable");
+        }
+      };
+    repository.close();
+    repository = newRepository(unavailableRemote, Long.MAX_VALUE);
+    repository.uploadBlob(
+      new BlobDescriptor(BLOB_NAME, new ByteArrayInputStream(BLOB_CONTENT))
+    );
+    repository.uploadBlob(
+      "otherblob",
+      new ByteArrayInputStream(OTHER_BLOB_CONTENT),
+      "text/plain"
+    );
+    assertThrows(BlobStoreException.class, repository::flush);
+    repository.close();
+    appendGarbageToLastSegment();
+
+    repository = newRepository(remote, Long.MAX_VALUE);
+    assertEquals(2, repository.pendingWriteCount());
+    assertContent(OTHER_BLOB_CONTENT, repository.getBlob("otherblob"));
+    repository.flush();
+    assertContent(BLOB_CONTENT, remote.getBlob(BLOB_NAME));
+    assertContent(OTHER_BLOB_CONTENT, remote.getBlob("otherblob"));
+  }
+
+  @Test
+  void testSlowUploadDoesNotBlockTheJournal() throws Exception {
+    CountDownLatch reading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    InputStream slowContent = new ByteArrayInputStream(BLOB_CONTENT) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        reading.countDown();
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return super.read(b, off, len);
+      }
+    };
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Long> slowUpload = executor.submit(() ->
+        repository.uploadBlob(BLOB_NAME, slowContent)
+      );
+      assertTrue(reading.await(10, TimeUnit.SECONDS));
+
+      // the journal is not locked while the slow content is read
+      repository.uploadBlob(
+        "otherblob",
+        new ByteArrayInputStream(OTHER_BLOB_CONTENT)
+      );
+      assertEquals(1, repository.pendingWriteCount());
+      assertContent(OTHER_BLOB_CONTENT, repository.getBlob("otherblob"));
+
+      release.countDown();
+      slowUpload.get(10, TimeUnit.SECONDS);
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+    assertEquals(2, repository.pendingWriteCount());
+    assertContent(BLOB_CONTENT, repository.getBlob(BLOB_NAME));
+  }
+
+  @Test
+  void testUploadedSegmentsAreDeleted() throws IOException {
+    repository.close();
+    repository = newRepository(remote, 1);
+    repository.uploadBlob(BLOB_NAME, new ByteArrayInputStream(BLOB_CONTENT));
+    repository.uploadBlob("otherblob", new ByteArrayInputStream(BLOB_CONTENT));
+    assertEquals(3, segments().size());
+
+    repository.flush();
+    assertEquals(1, segments().size());
+  }
+
+  private WriteBehindBlobStoreRepository newRepository(
+    BlobStoreRepository remote,
+    long maxSegmentSize
+  ) {
+    WriteBehindBlobStoreRepository writeBehindRepository =
+      new WriteBehindBlobStoreRepository(
+        remote,
+        journalDirectory.toPath(),
+        Duration.ofHours(1),
+        10,
+        maxSegmentSize,
+        Runnable::run
+      );
+    writeBehindRepository.setContainerName(CONTAINER_NAME);
+    return writeBehindRepository;
+  }
+
+  private List<Path> segments() throws IOException {
+    try (
+      Stream<Path> files = Files.list(
+        journalDirectory.toPath().resolve(CONTAINER_NAME)
+      )
+    ) {
+      return files.sorted().toList();
+    }
+  }
+
+  private void appendGarbageToLastSegment() throws IOException {
+    List<Path> segments = segments();
+    Files.write(
+      segments.get(segments.size() - 1),
+      new byte[] { 1, 0, 0 },
+      StandardOpenOption.APPEND
+    );
+  }
+
+  private static void assertContent(byte[] expected, InputStream content)
+    throws IOException {
+    assertArrayEquals(expected, content.readAllBytes());
+  }
+}